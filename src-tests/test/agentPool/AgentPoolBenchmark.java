@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * Copyright (C) 2021 Andrei Olaru.
+ *
+ * This file is part of Flash-MAS. The CONTRIBUTORS.md file lists people who have been previously involved with this project.
+ *
+ * Flash-MAS is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * Flash-MAS is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Flash-MAS.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package test.agentPool;
+
+import java.util.Arrays;
+import java.util.List;
+
+import net.xqhs.flash.core.CategoryName;
+import net.xqhs.flash.core.DeploymentConfiguration;
+import net.xqhs.flash.core.Entity;
+import net.xqhs.flash.core.Entity.EntityProxy;
+import net.xqhs.flash.core.composite.AgentPool;
+import net.xqhs.flash.core.composite.CompositeAgent;
+import net.xqhs.flash.core.composite.CompositeAgentLoader;
+import net.xqhs.flash.core.util.MultiTreeMap;
+import net.xqhs.flash.core.util.PlatformUtils;
+import net.xqhs.flash.local.LocalPylon;
+import net.xqhs.util.logging.MasterLog;
+import net.xqhs.util.logging.UnitComponent;
+
+/**
+ * Measures the number of create / start / stop cycles of short-lived agents per second, with a
+ * {@link CompositeAgentLoader} without and with an {@link AgentPool}. Each agent has a messaging shard (registering
+ * with a {@link LocalPylon}) and an echo shard; each cycle pre-loads and loads the agent, starts it, waits for it to
+ * run, stops it and waits for it to stop. The best of {@link #ROUNDS} rounds is reported.
+ */
+public class AgentPoolBenchmark {
+	/**
+	 * Number of cycles in a round.
+	 */
+	static final int	CYCLES		= 2000;
+	/**
+	 * Number of rounds.
+	 */
+	static final int	ROUNDS		= 5;
+	/**
+	 * The capacity of the pool, for each agent type.
+	 */
+	static final int	CAPACITY	= 4;
+
+	/**
+	 * @param name
+	 *            - the name of the agent.
+	 * @return the configuration of the agent, as loaded from a deployment.
+	 */
+	static MultiTreeMap agentConfiguration(String name) {
+		MultiTreeMap shards = new MultiTreeMap().addOneTree("messaging", new MultiTreeMap()).addOneTree("EchoTesting",
+				new MultiTreeMap());
+		return new MultiTreeMap().addOneValue(DeploymentConfiguration.NAME_ATTRIBUTE_NAME, name).addSingleTree("shard",
+				shards);
+	}
+
+	/**
+	 * Runs a round of cycles.
+	 *
+	 * @param loader
+	 *            - the loader.
+	 * @param context
+	 *            - the context of the agents.
+	 * @param round
+	 *            - the index of the round, used for agent names.
+	 * @return the duration of the round, in ns, or -1 if an agent failed to start or stop.
+	 */
+	static long cycles(CompositeAgentLoader loader, List<EntityProxy<? extends Entity<?>>> context, int round) {
+		long start = System.nanoTime();
+		for(int i = 0; i < CYCLES; i++) {
+			MultiTreeMap config = agentConfiguration("short" + round + "_" + i);
+			if(!loader.preload(config, context))
+				return -1;
+			CompositeAgent agent = (CompositeAgent) loader.load(config, context, null);
+			if(!agent.start())
+				return -1;
+			while(!agent.isRunning())
+				Thread.yield();
+			if(!agent.stop())
+				return -1;
+			while(!agent.isStopped())
+				Thread.yield();
+			// wait for the agent to be back in the pool, so that the next cycle can reuse it
+			AgentPool pool = loader.getPool();
+			while(pool != null && !pool.hasIdle(AgentPool.typeOf(config)))
+				Thread.yield();
+		}
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * @param pooled
+	 *            - whether the loader uses a pool.
+	 * @return a configured loader.
+	 */
+	static CompositeAgentLoader loader(boolean pooled) {
+		MultiTreeMap config = new MultiTreeMap().addAll(CategoryName.PACKAGE.s(), Arrays.asList("testing"));
+		if(pooled)
+			config.addSingleValue(AgentPool.POOL_PARAMETER, String.valueOf(CAPACITY));
+		CompositeAgentLoader loader = new CompositeAgentLoader();
+		loader.configure(config, new UnitComponent("loader"), PlatformUtils.getClassFactory());
+		return loader;
+	}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args
+	 *            - not used.
+	 */
+	public static void main(String[] args) {
+		MasterLog.enablePerformanceModeTools(1000);
+		MasterLog.activateGlobalPerformanceMode();
+		LocalPylon pylon = new LocalPylon();
+		pylon.configure(new MultiTreeMap().addOneValue(DeploymentConfiguration.NAME_ATTRIBUTE_NAME, "poolPylon"));
+		pylon.start();
+		List<EntityProxy<? extends Entity<?>>> context = Arrays.asList(pylon.asContext());
+
+		CompositeAgentLoader plain = loader(false), pooling = loader(true);
+		long best = Long.MAX_VALUE, bestPooled = Long.MAX_VALUE;
+		boolean ok = true;
+		for(int round = 0; round < ROUNDS && ok; round++) {
+			long time = cycles(plain, context, 2 * round), pooledTime = cycles(pooling, context, 2 * round + 1);
+			ok &= time >= 0 && pooledTime >= 0;
+			best = Math.min(best, time);
+			bestPooled = Math.min(bestPooled, pooledTime);
+		}
+		AgentPool pool = pooling.getPool();
+		if(ok) {
+			System.out.println("without pool: " + CYCLES * 1000000000L / best + " cycles/s");
+			System.out.println("with pool: " + CYCLES * 1000000000L / bestPooled + " cycles/s ("
+					+ pool.getCreatedCount() + " agents created, " + pool.getReusedCount() + " reused)");
+		}
+		ok &= pool.getCreatedCount() <= CAPACITY && pool.getReusedCount() > 0;
+		System.out.println(ok ? "PASSED" : "FAILED");
+		PlatformUtils.systemExit(ok ? 0 : 1);
+	}
+}
@@ -0,0 +1,117 @@
+package test.compositeMobility;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import net.xqhs.flash.core.agent.AgentEvent;
+import net.xqhs.flash.core.agent.AgentWave;
+import net.xqhs.flash.core.shard.AgentShardDesignation;
+import net.xqhs.flash.core.shard.AgentShardGeneral;
+import net.xqhs.flash.core.util.MultiTreeMap;
+
+/**
+ * Periodically, while the agent is running, posts an event to the agent; when the event is processed (on the thread of
+ * the agent), uses a fixed amount of CPU time, so as to produce a known CPU load.
+ *
+ * @author Andrei Olaru
+ */
+public class BusyTestShard extends AgentShardGeneral {
+
+	/**
+	 * The serial UID.
+	 */
+	private static final long serialVersionUID = 6043617255980315472L;
+
+	/**
+	 * Name of the parameter specifying the CPU time to use for each event, in ms.
+	 */
+	public static final String	WORK_PARAMETER_NAME	= "work";
+	/**
+	 * Name of the parameter specifying the period of the events, in ms.
+	 */
+	public static final String	TIME_PARAMETER_NAME	= "time";
+	/**
+	 * The content of the events.
+	 */
+	public static final String	WORK_CONTENT		= "busy";
+
+	/**
+	 * Timer for posting events.
+	 */
+	transient Timer	timer	= null;
+	/**
+	 * The CPU time to use for each event.
+	 */
+	int				work;
+	/**
+	 * The period of the events.
+	 */
+	int				period;
+
+	/**
+	 * The constructor.
+	 */
+	public BusyTestShard() {
+		super(AgentShardDesignation.customShard("BUSY"));
+	}
+
+	@Override
+	public boolean configure(MultiTreeMap configuration) {
+		if(!super.configure(configuration))
+			return false;
+		work = Integer.parseInt(configuration.getAValue(WORK_PARAMETER_NAME));
+		period = Integer.parseInt(configuration.getAValue(TIME_PARAMETER_NAME));
+		return true;
+	}
+
+	@Override
+	public void signalAgentEvent(AgentEvent event) {
+		super.signalAgentEvent(event);
+		switch(event.getType()) {
+		case AGENT_START:
+		case AFTER_MOVE:
+			if(timer != null)
+				break;
+			timer = new Timer(true);
+			timer.scheduleAtFixedRate(new TimerTask() {
+				@Override
+				public void run() {
+					try {
+						getAgent().postAgentEvent(new AgentWave(WORK_CONTENT));
+					} catch(RuntimeException e) {
+						// the agent is moving
+					}
+				}
+			}, period, period);
+			break;
+		case AGENT_WAVE:
+			if(WORK_CONTENT.equals(((AgentWave) event).getContent()))
+				busy();
+			break;
+		case BEFORE_MOVE:
+		case AGENT_STOP:
+			if(timer != null)
+				timer.cancel();
+			timer = null;
+			break;
+		default:
+			// nothing to do
+		}
+	}
+
+	/**
+	 * Uses {@link #work} ms of CPU time, on the current thread.
+	 */
+	void busy() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		long end = threads.getCurrentThreadCpuTime() + work * 1000000L;
+		double x = 0;
+		while(threads.getCurrentThreadCpuTime() < end)
+			for(int i = 0; i < 1000; i++)
+				x += Math.sqrt(i + x);
+		if(x < 0)
+			throw new IllegalStateException();
+	}
+}
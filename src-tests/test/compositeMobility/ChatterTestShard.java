@@ -0,0 +1,94 @@
+package test.compositeMobility;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+import net.xqhs.flash.core.agent.AgentEvent;
+import net.xqhs.flash.core.shard.AgentShardDesignation;
+import net.xqhs.flash.core.shard.AgentShardGeneral;
+import net.xqhs.flash.core.util.MultiTreeMap;
+
+/**
+ * Sends a message to each of a list of peer agents, periodically, while the agent is running, so as to produce a
+ * communication graph between agents.
+ *
+ * @author Andrei Olaru
+ */
+public class ChatterTestShard extends AgentShardGeneral {
+
+	/**
+	 * The serial UID.
+	 */
+	private static final long serialVersionUID = -3357624180531904178L;
+
+	/**
+	 * Name of the parameter specifying the peers, separated by {@link #PEER_SEPARATOR}.
+	 */
+	public static final String	PEERS_PARAMETER_NAME	= "peers";
+	/**
+	 * Name of the parameter specifying the period of the messages, in ms.
+	 */
+	public static final String	TIME_PARAMETER_NAME		= "time";
+	/**
+	 * Separator of the names of the peers.
+	 */
+	public static final String	PEER_SEPARATOR			= ",";
+
+	/**
+	 * Timer for sending messages.
+	 */
+	transient Timer	timer	= null;
+	/**
+	 * The peers.
+	 */
+	String[]		peers;
+	/**
+	 * The period of the messages.
+	 */
+	int				period;
+
+	/**
+	 * The constructor.
+	 */
+	public ChatterTestShard() {
+		super(AgentShardDesignation.customShard("CHATTER"));
+	}
+
+	@Override
+	public boolean configure(MultiTreeMap configuration) {
+		if(!super.configure(configuration))
+			return false;
+		peers = configuration.getAValue(PEERS_PARAMETER_NAME).split(PEER_SEPARATOR);
+		period = Integer.parseInt(configuration.getAValue(TIME_PARAMETER_NAME));
+		return true;
+	}
+
+	@Override
+	public void signalAgentEvent(AgentEvent event) {
+		super.signalAgentEvent(event);
+		switch(event.getType()) {
+		case AGENT_START:
+			timer = new Timer(true);
+			timer.scheduleAtFixedRate(new TimerTask() {
+				@Override
+				public void run() {
+					for(String peer : peers)
+						try {
+							sendMessage("chat", "chatter", peer, "chatter");
+						} catch(RuntimeException e) {
+							// the agent is moving
+						}
+				}
+			}, period, period);
+			break;
+		case BEFORE_MOVE:
+		case AGENT_STOP:
+			if(timer != null)
+				timer.cancel();
+			timer = null;
+			break;
+		default:
+			// nothing to do
+		}
+	}
+}
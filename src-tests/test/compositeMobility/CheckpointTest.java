@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (C) 2021 Andrei Olaru.
+ *
+ * This file is part of Flash-MAS. The CONTRIBUTORS.md file lists people who have been previously involved with this project.
+ *
+ * Flash-MAS is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * Flash-MAS is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Flash-MAS.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package test.compositeMobility;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import net.xqhs.flash.core.node.CheckpointService;
+import net.xqhs.flash.core.node.Node;
+import net.xqhs.flash.core.node.NodeLoader;
+import net.xqhs.flash.core.util.PlatformUtils;
+import net.xqhs.util.logging.MasterLog;
+
+/**
+ * Checkpoints a node with {@link #AGENTS} mobile agents, stops it, and starts it again, in the same JVM, restoring the
+ * agents from the checkpoint (see {@link Node#RESTORE_PARAMETER}). The test reports the time to create and start the
+ * agents from the deployment, to write the checkpoint, and to restore and start the agents from the checkpoint. The
+ * restored agents must have their state (see {@link CounterTestShard}).
+ */
+public class CheckpointTest {
+	/**
+	 * The name of the node.
+	 */
+	static final String	NODE	= "nodeCheckpoint";
+	/**
+	 * Number of agents.
+	 */
+	static final int	AGENTS	= 1000;
+	/**
+	 * Size of the state of each agent, in KB.
+	 */
+	static final int	STATE	= 4;
+	/**
+	 * Maximum time to wait for the agents to start (ms).
+	 */
+	static final long	TIMEOUT	= 60000;
+
+	/**
+	 * Loads and starts the node.
+	 *
+	 * @param directory
+	 *            - the checkpoint directory.
+	 * @param restore
+	 *            - whether the agents should be restored from the checkpoint.
+	 * @return the node, after all agents have started, or <code>null</code> if they did not.
+	 * @throws InterruptedException
+	 *             if interrupted.
+	 */
+	static Node boot(File directory, boolean restore) throws InterruptedException {
+		String a = Boot.prelude;
+		a += " -node " + NODE + " checkpoint:" + directory.getAbsolutePath() + " restore:" + restore;
+		a += " -pylon local:pylonCheckpoint";
+		for(int i = 0; i < AGENTS; i++)
+			a += " -agent mobileComposite:agentCheckpoint" + i + " -shard StateTest size:" + STATE
+					+ " -shard CounterTest";
+		int expected = restore ? 2 : 1;
+		CounterTestShard.starts.clear();
+		List<Node> nodes = new NodeLoader().loadDeployment(Arrays.asList(a.trim().split(" ")));
+		nodes.forEach(node -> node.start());
+		long start = System.currentTimeMillis();
+		while(!started(expected) && System.currentTimeMillis() - start < TIMEOUT)
+			Thread.sleep(1);
+		if(!started(expected))
+			return null;
+		return nodes.stream().filter(node -> NODE.equals(node.getName())).findFirst().orElse(null);
+	}
+
+	/**
+	 * @param expected
+	 *            - the expected number of starts.
+	 * @return <code>true</code> if all agents have started, with the expected count of starts.
+	 */
+	static boolean started(int expected) {
+		if(CounterTestShard.starts.size() < AGENTS)
+			return false;
+		for(Integer count : CounterTestShard.starts.values())
+			if(count.intValue() != expected)
+				return false;
+		return true;
+	}
+
+	/**
+	 * Runs the test.
+	 *
+	 * @param args
+	 *            - not used.
+	 * @throws Exception
+	 *             if anything fails.
+	 */
+	public static void main(String[] args) throws Exception {
+		MasterLog.enablePerformanceModeTools(1000);
+		MasterLog.activateGlobalPerformanceMode();
+		File directory = Files.createTempDirectory("flash-checkpoint").toFile();
+
+		long time = System.nanoTime();
+		Node node = boot(directory, false);
+		long created = (System.nanoTime() - time) / 1000000;
+		if(node == null) {
+			System.out.println("agents did not start\nFAILED");
+			PlatformUtils.systemExit(1);
+			return;
+		}
+
+		time = System.nanoTime();
+		int count = node.checkpoint();
+		long checkpointed = (System.nanoTime() - time) / 1000000;
+		File file = new File(directory, NODE + CheckpointService.EXTENSION);
+		node.stop();
+		time = System.nanoTime();
+		int read = new CheckpointService(directory, NODE).read().size();
+		long readTime = (System.nanoTime() - time) / 1000000;
+
+		time = System.nanoTime();
+		Node restored = boot(directory, true);
+		long restoredTime = (System.nanoTime() - time) / 1000000;
+
+		System.out.println(AGENTS + " agents with " + STATE + " KB of state: created and started in " + created
+				+ " ms; checkpoint of " + count + " agents (" + file.length() / 1024 + " KB) in " + checkpointed
+				+ " ms; checkpoint read in " + readTime + " ms; restored and started in " + restoredTime + " ms");
+		boolean ok = count == AGENTS && read == AGENTS && restored != null;
+		System.out.println(ok ? "PASSED" : "FAILED");
+		PlatformUtils.systemExit(ok ? 0 : 1);
+	}
+}
@@ -0,0 +1,54 @@
+package test.compositeMobility;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.xqhs.flash.core.agent.AgentEvent;
+import net.xqhs.flash.core.shard.AgentShardDesignation;
+import net.xqhs.flash.core.shard.AgentShardGeneral;
+import net.xqhs.flash.core.shard.ShardContainer;
+
+/**
+ * Counts the starts of the agent, in its state, so that it can be checked that the state of the agent is preserved
+ * across moves and restores.
+ *
+ * @author Andrei Olaru
+ */
+public class CounterTestShard extends AgentShardGeneral {
+
+	/**
+	 * The serial UID.
+	 */
+	private static final long serialVersionUID = 5738812902645108817L;
+
+	/**
+	 * The number of starts of each agent (in this JVM), as recorded at its latest start, indexed by agent name.
+	 */
+	public static final Map<String, Integer>		starts	= new ConcurrentHashMap<>();
+	/**
+	 * The agents (in this JVM), as of their latest start, indexed by agent name.
+	 */
+	public static final Map<String, ShardContainer>	agents	= new ConcurrentHashMap<>();
+
+	/**
+	 * The number of starts of the agent.
+	 */
+	int count = 0;
+
+	/**
+	 * The constructor.
+	 */
+	public CounterTestShard() {
+		super(AgentShardDesignation.customShard("COUNTER"));
+	}
+
+	@Override
+	public void signalAgentEvent(AgentEvent event) {
+		super.signalAgentEvent(event);
+		if(event.getType() == AgentEvent.AgentEventType.AGENT_START) {
+			count++;
+			agents.put(getAgent().getEntityName(), getAgent());
+			starts.put(getAgent().getEntityName(), Integer.valueOf(count));
+		}
+	}
+}
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (C) 2021 Andrei Olaru.
+ *
+ * This file is part of Flash-MAS. The CONTRIBUTORS.md file lists people who have been previously involved with this project.
+ *
+ * Flash-MAS is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * Flash-MAS is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Flash-MAS.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package test.compositeMobility;
+
+import java.util.Arrays;
+import java.util.List;
+
+import net.xqhs.flash.core.node.Node;
+import net.xqhs.flash.core.node.NodeLoader;
+import net.xqhs.flash.core.util.PlatformUtils;
+import net.xqhs.util.logging.MasterLog;
+
+/**
+ * Agents with {@link #STATE} KB of static state move back and forth between two local nodes (see
+ * {@link PingPongTestShard}). The benchmark reports the traffic per move for the first move and for the following
+ * moves, without and with incremental migration ({@link Node#DELTA_MIGRATION_PARAMETER}).
+ */
+public class DeltaMigrationBenchmark {
+	/**
+	 * Number of agents.
+	 */
+	static final int	AGENTS	= 10;
+	/**
+	 * Number of moves of each agent.
+	 */
+	static final int	MOVES	= 6;
+	/**
+	 * Size of the state of each agent, in KB.
+	 */
+	static final int	STATE	= 100;
+	/**
+	 * Time between the arrival of an agent and its next move (ms).
+	 */
+	static final int	DELAY	= 1000;
+	/**
+	 * Maximum duration of a run (ms).
+	 */
+	static final long	TIMEOUT	= 60000;
+
+	/**
+	 * Runs the scenario.
+	 *
+	 * @param delta
+	 *            - whether incremental migration is used.
+	 * @param port
+	 *            - the port of the WebSocket server.
+	 * @return <code>true</code> if all moves were completed.
+	 * @throws InterruptedException
+	 *             if interrupted.
+	 */
+	static boolean run(boolean delta, int port) throws InterruptedException {
+		String suffix = delta ? "delta" : "full";
+		String a = Boot.prelude;
+		a += " -node nodeA" + suffix + " deltaMigration:" + delta;
+		a += " -pylon webSocket:pylonA serverPort:" + port;
+		for(int i = 0; i < AGENTS; i++) {
+			a += " -agent mobileComposite:agent" + i + suffix + " -shard messaging";
+			a += " -shard StateTest size:" + STATE;
+			a += " -shard PingPongTest to:nodeB" + suffix + " moves:" + MOVES + " time:" + DELAY;
+		}
+		a += " -node nodeB" + suffix + " deltaMigration:" + delta;
+		a += " -pylon webSocket:pylonB connectTo:ws://localhost:" + port;
+
+		PingPongTestShard.arrivals.set(0);
+		List<Node> nodes = new NodeLoader().loadDeployment(Arrays.asList(a.trim().split(" ")));
+		nodes.forEach(node -> node.start());
+
+		long start = System.currentTimeMillis(), first = -1;
+		while(PingPongTestShard.arrivals.get() < AGENTS * MOVES && System.currentTimeMillis() - start < TIMEOUT) {
+			if(first < 0 && PingPongTestShard.arrivals.get() >= AGENTS)
+				first = traffic(nodes);
+			Thread.sleep(10);
+		}
+		boolean done = PingPongTestShard.arrivals.get() == AGENTS * MOVES;
+		long total = traffic(nodes);
+		System.out.println((delta ? "incremental" : "full") + " migration: " + PingPongTestShard.arrivals
+				+ " moves, first move " + first / AGENTS + " bytes, following moves "
+				+ (total - first) / (AGENTS * (MOVES - 1)) + " bytes per move (state " + STATE * 1024 + " bytes)");
+		return done; // nodes are not stopped, the second run uses another port
+	}
+
+	/**
+	 * @param nodes
+	 *            - the nodes.
+	 * @return the total traffic for the migration of agents.
+	 */
+	static long traffic(List<Node> nodes) {
+		long traffic = 0;
+		for(Node node : nodes)
+			traffic += node.getMigrationTraffic();
+		return traffic;
+	}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args
+	 *            - not used.
+	 * @throws Exception
+	 *             if anything fails.
+	 */
+	public static void main(String[] args) throws Exception {
+		MasterLog.enablePerformanceModeTools(1000);
+		MasterLog.activateGlobalPerformanceMode();
+		boolean ok = run(false, 8991) & run(true, 8992);
+		System.out.println(ok ? "PASSED" : "FAILED");
+		PlatformUtils.systemExit(ok ? 0 : 1);
+	}
+}
@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright (C) 2021 Andrei Olaru.
+ *
+ * This file is part of Flash-MAS. The CONTRIBUTORS.md file lists people who have been previously involved with this project.
+ *
+ * Flash-MAS is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * Flash-MAS is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Flash-MAS.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package test.compositeMobility;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.xqhs.flash.core.mobileComposite.MobileCompositeAgent.MobileCompositeAgentShardContainer;
+import net.xqhs.flash.core.node.Node;
+import net.xqhs.flash.core.node.NodeLoader;
+import net.xqhs.flash.core.util.PlatformUtils;
+import net.xqhs.util.logging.MasterLog;
+
+/**
+ * Moves all {@link #AGENTS} agents of a local node to another local node, first by moving each agent individually, and
+ * then by evacuating the node in a single batch ({@link Node#evacuate(String)}). The test reports the wall time from
+ * the start of the evacuation until all agents have started on the destination node.
+ */
+public class EvacuationTest {
+	/**
+	 * Number of agents.
+	 */
+	static final int	AGENTS	= 500;
+	/**
+	 * Maximum time to wait for the agents to start (ms).
+	 */
+	static final long	TIMEOUT	= 120000;
+
+	/**
+	 * Runs the scenario.
+	 *
+	 * @param batch
+	 *            - whether the node is evacuated in a batch.
+	 * @param port
+	 *            - the port of the WebSocket server.
+	 * @return the wall time of the evacuation, in ms, or -1 if not all agents have arrived.
+	 * @throws InterruptedException
+	 *             if interrupted.
+	 */
+	static long run(boolean batch, int port) throws InterruptedException {
+		String suffix = batch ? "batch" : "single";
+		String a = Boot.prelude;
+		a += " -node nodeA" + suffix;
+		a += " -pylon webSocket:pylonA serverPort:" + port;
+		List<String> names = new ArrayList<>();
+		for(int i = 0; i < AGENTS; i++) {
+			names.add("evacuee" + i + suffix);
+			a += " -agent mobileComposite:evacuee" + i + suffix + " -shard messaging -shard StateTest size:1"
+					+ " -shard CounterTest";
+		}
+		a += " -node nodeB" + suffix;
+		a += " -pylon webSocket:pylonB connectTo:ws://localhost:" + port;
+
+		List<Node> nodes = new NodeLoader().loadDeployment(Arrays.asList(a.trim().split(" ")));
+		nodes.forEach(node -> node.start());
+		if(!started(names, 1))
+			return -1;
+		Node source = nodes.stream().filter(node -> ("nodeA" + suffix).equals(node.getName())).findFirst().get();
+
+		long start = System.nanoTime();
+		if(batch) {
+			int sent = source.evacuate("nodeB" + suffix);
+			if(sent != AGENTS) {
+				System.out.println("only " + sent + " agents were sent in the batch");
+				return -1;
+			}
+		}
+		else
+			for(String name : names)
+				((MobileCompositeAgentShardContainer) CounterTestShard.agents.get(name)).moveTo("nodeB" + suffix);
+		if(!started(names, 2))
+			return -1;
+		return (System.nanoTime() - start) / 1000000; // nodes are not stopped, the second run uses another port
+	}
+
+	/**
+	 * Waits for the agents to start.
+	 *
+	 * @param names
+	 *            - the names of the agents.
+	 * @param expected
+	 *            - the expected number of starts of each agent.
+	 * @return <code>true</code> if all agents have started, within {@link #TIMEOUT}.
+	 * @throws InterruptedException
+	 *             if interrupted.
+	 */
+	static boolean started(List<String> names, int expected) throws InterruptedException {
+		long start = System.currentTimeMillis();
+		while(System.currentTimeMillis() - start < TIMEOUT) {
+			boolean all = true;
+			for(String name : names) {
+				Integer count = CounterTestShard.starts.get(name);
+				if(count == null || count.intValue() < expected) {
+					all = false;
+					break;
+				}
+			}
+			if(all)
+				return true;
+			Thread.sleep(1);
+		}
+		return false;
+	}
+
+	/**
+	 * Runs the test.
+	 *
+	 * @param args
+	 *            - not used.
+	 * @throws Exception
+	 *             if anything fails.
+	 */
+	public static void main(String[] args) throws Exception {
+		MasterLog.enablePerformanceModeTools(1000);
+		MasterLog.activateGlobalPerformanceMode();
+		long single = run(false, 8995);
+		long batch = run(true, 8996);
+		System.out.println(AGENTS + " agents evacuated in " + single + " ms with individual moves, in " + batch
+				+ " ms with a batch");
+		boolean ok = single > 0 && batch > 0;
+		System.out.println(ok ? "PASSED" : "FAILED");
+		PlatformUtils.systemExit(ok ? 0 : 1);
+	}
+}
@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (C) 2021 Andrei Olaru.
+ *
+ * This file is part of Flash-MAS. The CONTRIBUTORS.md file lists people who have been previously involved with this project.
+ *
+ * Flash-MAS is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * Flash-MAS is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Flash-MAS.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package test.compositeMobility;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import net.xqhs.flash.core.mobileComposite.MobileCompositeAgent;
+import net.xqhs.flash.core.node.Node;
+import net.xqhs.flash.core.node.NodeLoader;
+import net.xqhs.flash.core.util.PlatformUtils;
+import net.xqhs.util.logging.MasterLog;
+
+/**
+ * Measures the downtime of agents with a large, static shard ({@link StateTestShard}, which tracks its changes) and a
+ * small shard which is always considered changed ({@link PingPongTestShard}), when moving between two local nodes,
+ * without and with pre-copy ({@link MobileCompositeAgent#PRE_COPY_PARAMETER}). Both nodes use incremental migration.
+ */
+public class LiveMigrationTest {
+	/**
+	 * Number of agents.
+	 */
+	static final int	AGENTS	= 4;
+	/**
+	 * Size of the static state of each agent, in KB.
+	 */
+	static final int	STATE	= 8 * 1024;
+	/**
+	 * Time between the start of the agents and their move (ms).
+	 */
+	static final int	DELAY	= 3000;
+	/**
+	 * Maximum duration of a run (ms).
+	 */
+	static final long	TIMEOUT	= 120000;
+
+	/**
+	 * Runs the scenario.
+	 *
+	 * @param preCopy
+	 *            - whether pre-copy is used.
+	 * @param port
+	 *            - the port of the WebSocket server.
+	 * @return the downtimes of the agents, in ms, or <code>null</code> if not all agents have moved.
+	 * @throws InterruptedException
+	 *             if interrupted.
+	 */
+	static List<Long> run(boolean preCopy, int port) throws InterruptedException {
+		String suffix = preCopy ? "live" : "stop";
+		String a = Boot.prelude;
+		a += " -node nodeA" + suffix + " deltaMigration:true";
+		a += " -pylon webSocket:pylonA serverPort:" + port;
+		for(int i = 0; i < AGENTS; i++) {
+			a += " -agent mobileComposite:agent" + i + suffix + " preCopy:" + preCopy + " -shard messaging";
+			a += " -shard StateTest size:" + STATE;
+			// agents move one after the other
+			a += " -shard PingPongTest to:nodeB" + suffix + " moves:1 time:" + (DELAY + i * DELAY);
+		}
+		a += " -node nodeB" + suffix + " deltaMigration:true";
+		a += " -pylon webSocket:pylonB connectTo:ws://localhost:" + port;
+
+		PingPongTestShard.arrivals.set(0);
+		PingPongTestShard.downtimes.clear();
+		List<Node> nodes = new NodeLoader().loadDeployment(Arrays.asList(a.trim().split(" ")));
+		nodes.forEach(node -> node.start());
+		long start = System.currentTimeMillis();
+		while(PingPongTestShard.arrivals.get() < AGENTS && System.currentTimeMillis() - start < TIMEOUT)
+			Thread.sleep(10);
+		if(PingPongTestShard.arrivals.get() < AGENTS)
+			return null;
+		List<Long> result = new ArrayList<>();
+		synchronized(PingPongTestShard.downtimes) {
+			for(Long downtime : PingPongTestShard.downtimes)
+				result.add(Long.valueOf(downtime.longValue() / 1000000));
+		}
+		Collections.sort(result);
+		return result; // nodes are not stopped, the second run uses another port
+	}
+
+	/**
+	 * Runs the test.
+	 *
+	 * @param args
+	 *            - not used.
+	 * @throws Exception
+	 *             if anything fails.
+	 */
+	public static void main(String[] args) throws Exception {
+		MasterLog.enablePerformanceModeTools(1000);
+		MasterLog.activateGlobalPerformanceMode();
+		List<Long> stopAndCopy = run(false, 8993);
+		List<Long> live = run(true, 8994);
+		System.out.println("state " + STATE + " KB; downtime (ms) with stop-and-copy: " + stopAndCopy
+				+ "; with pre-copy: " + live);
+		boolean ok = stopAndCopy != null && live != null
+				&& live.get(live.size() / 2).longValue() < stopAndCopy.get(stopAndCopy.size() / 2).longValue();
+		System.out.println(ok ? "PASSED" : "FAILED");
+		PlatformUtils.systemExit(ok ? 0 : 1);
+	}
+}
@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright (C) 2021 Andrei Olaru.
+ *
+ * This file is part of Flash-MAS. The CONTRIBUTORS.md file lists people who have been previously involved with this project.
+ *
+ * Flash-MAS is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * Flash-MAS is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Flash-MAS.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package test.compositeMobility;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import net.xqhs.flash.core.DeploymentConfiguration;
+import net.xqhs.flash.core.node.LoadBalancer;
+import net.xqhs.flash.core.node.Node;
+import net.xqhs.flash.core.node.NodeLoad;
+import net.xqhs.flash.core.node.NodeLoader;
+import net.xqhs.flash.core.util.MultiTreeMap;
+import net.xqhs.flash.core.util.PlatformUtils;
+import net.xqhs.util.logging.MasterLog;
+
+/**
+ * Starts {@link #NODES} local nodes, the first of which has all the {@link #AGENTS} agents, each using a different
+ * amount of CPU time (with a {@link BusyTestShard}), and checks that the {@link LoadBalancer} moves agents so that the
+ * CPU time used by the agents in each node converges to the same value.
+ * <p>
+ * The balancer does rounds until a round moves no agents (at most {@link #ROUNDS}). Then the CPU usage of the nodes is
+ * measured again, and the difference between the most and the least loaded nodes must be within
+ * {@link #TOLERANCE} of the mean.
+ */
+public class LoadBalanceTest {
+	/**
+	 * Number of nodes.
+	 */
+	static final int	NODES		= 3;
+	/**
+	 * Number of agents.
+	 */
+	static final int	AGENTS		= 9;
+	/**
+	 * Period of the work done by each agent (ms).
+	 */
+	static final int	PERIOD		= 100;
+	/**
+	 * The time during which the load is measured, before each round (ms).
+	 */
+	static final long	WINDOW		= 2000;
+	/**
+	 * Maximum number of rounds.
+	 */
+	static final int	ROUNDS		= 8;
+	/**
+	 * The accepted difference between the loads of the nodes, relative to the mean load, at the end of the test.
+	 */
+	static final double	TOLERANCE	= 0.5;
+	/**
+	 * Maximum time to wait for the agents to start (ms).
+	 */
+	static final long	TIMEOUT		= 30000;
+
+	/**
+	 * @param index
+	 *            - the index of the agent.
+	 * @return the CPU time used by the agent in each period, in ms.
+	 */
+	static int work(int index) {
+		return 2 + 2 * (index % 3);
+	}
+
+	/**
+	 * Runs the test.
+	 *
+	 * @param args
+	 *            - not used.
+	 * @throws Exception
+	 *             if anything fails.
+	 */
+	public static void main(String[] args) throws Exception {
+		MasterLog.enablePerformanceModeTools(1000);
+		MasterLog.activateGlobalPerformanceMode();
+		String a = Boot.prelude;
+		for(int n = 0; n < NODES; n++) {
+			a += " -node nodeBalance" + n;
+			a += " -pylon webSocket:pylonBalance" + n + (n == 0 ? " serverPort:8999" : " connectTo:ws://localhost:8999");
+			if(n == 0)
+				for(int i = 0; i < AGENTS; i++)
+					a += " -agent mobileComposite:busy" + i + " -shard messaging -shard CounterTest -shard BusyTest work:"
+							+ work(i) + " time:" + PERIOD;
+		}
+		List<Node> nodes = new NodeLoader().loadDeployment(Arrays.asList(a.trim().split(" ")));
+		nodes.forEach(node -> node.start());
+		long start = System.currentTimeMillis();
+		while(CounterTestShard.starts.size() < AGENTS && System.currentTimeMillis() - start < TIMEOUT)
+			Thread.sleep(10);
+
+		LoadBalancer balancer = new LoadBalancer(
+				new MultiTreeMap().addOneValue(DeploymentConfiguration.NAME_ATTRIBUTE_NAME, "test"));
+		for(Node node : nodes)
+			if(node.getName() != null)
+				balancer.addNode(node);
+
+		balancer.collect();
+		Thread.sleep(WINDOW);
+		double before = 0;
+		int rounds = 0;
+		for(int moved = -1; moved != 0 && rounds < ROUNDS; rounds++) {
+			moved = balancer.rebalance();
+			if(rounds == 0)
+				before = balancer.getImbalance();
+			System.out.println("round " + rounds + ": imbalance " + balancer.getImbalance() + ", " + moved
+					+ " agents moved");
+			Thread.sleep(WINDOW);
+		}
+		// discard the load during the latest moves
+		balancer.collect();
+		Thread.sleep(WINDOW);
+		Map<String, NodeLoad> loads = balancer.collect();
+		loads.values().forEach(System.out::println);
+		double after = balancer.getImbalance();
+		System.out.println("imbalance: " + before + " before, " + after + " after " + rounds + " rounds");
+
+		int agents = loads.values().stream().mapToInt(NodeLoad::getAgentCount).sum();
+		boolean ok = agents == AGENTS && after <= TOLERANCE && after < before;
+		System.out.println(ok ? "PASSED" : "FAILED");
+		// nodes are not stopped, as in the other tests using WebSocket pylons
+		PlatformUtils.systemExit(ok ? 0 : 1);
+	}
+}
@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Copyright (C) 2021 Andrei Olaru.
+ *
+ * This file is part of Flash-MAS. The CONTRIBUTORS.md file lists people who have been previously involved with this project.
+ *
+ * Flash-MAS is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * Flash-MAS is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Flash-MAS.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package test.compositeMobility;
+
+import java.util.Arrays;
+import java.util.List;
+
+import net.xqhs.flash.core.mobileComposite.MobileCompositeAgent.MobileCompositeAgentShardContainer;
+import net.xqhs.flash.core.node.MigrationMetrics.Outcome;
+import net.xqhs.flash.core.node.Node;
+import net.xqhs.flash.core.node.NodeLoader;
+import net.xqhs.flash.core.util.PlatformUtils;
+import net.xqhs.util.logging.MasterLog;
+
+/**
+ * Checks the acknowledgement of migrations between two local nodes:
+ * <ul>
+ * <li>an agent with an {@link UnloadableTestShard} which cannot be loaded at the destination is rejected by the
+ * destination and restored at the source, well before the timeout for acknowledgements;
+ * <li>an agent sent to a node which does not exist is sent again and then restored at the source, after the timeout;
+ * <li>an agent which can be loaded at the destination is acknowledged.
+ * </ul>
+ * The migration metrics of both nodes are reported.
+ */
+public class MigrationFailureTest {
+	/**
+	 * The time to wait for acknowledgements, as configured for the source node (ms).
+	 */
+	static final long	ACK_TIMEOUT	= 3000;
+	/**
+	 * The number of times an agent is sent again, as configured for the source node.
+	 */
+	static final int	RETRIES		= 1;
+	/**
+	 * Maximum time to wait for an agent to start (ms).
+	 */
+	static final long	TIMEOUT		= 30000;
+	/**
+	 * The source node.
+	 */
+	static final String	SOURCE		= "nodeFailureA";
+	/**
+	 * The destination node.
+	 */
+	static final String	DESTINATION	= "nodeFailureB";
+
+	/**
+	 * Moves an agent and waits for it to start again.
+	 *
+	 * @param agent
+	 *            - the name of the agent.
+	 * @param destination
+	 *            - the destination node.
+	 * @param expectedNode
+	 *            - the node where the agent is expected to start.
+	 * @return the time until the agent started again at the expected node, in ms, or -1 if it did not.
+	 * @throws InterruptedException
+	 *             if interrupted.
+	 */
+	static long move(String agent, String destination, String expectedNode) throws InterruptedException {
+		long start = System.nanoTime();
+		((MobileCompositeAgentShardContainer) CounterTestShard.agents.get(agent)).moveTo(destination);
+		while((System.nanoTime() - start) / 1000000 < TIMEOUT) {
+			Integer count = CounterTestShard.starts.get(agent);
+			if(count != null && count.intValue() == 2) {
+				String node = ((MobileCompositeAgentShardContainer) CounterTestShard.agents.get(agent))
+						.getCurrentNode();
+				System.out.println(agent + " started at " + node);
+				return expectedNode.equals(node) ? (System.nanoTime() - start) / 1000000 : -1;
+			}
+			Thread.sleep(1);
+		}
+		System.out.println(agent + " did not start again");
+		return -1;
+	}
+
+	/**
+	 * Waits until a migration outcome has been counted at a node, as the acknowledgement of an arrival reaches the
+	 * source after the agent has started at the destination.
+	 *
+	 * @param node
+	 *            - the node.
+	 * @param outcome
+	 *            - the outcome.
+	 * @param expected
+	 *            - the expected count.
+	 * @return the count, when it reaches the expected value or after {@link #TIMEOUT}.
+	 * @throws InterruptedException
+	 *             if interrupted.
+	 */
+	static long awaitCount(Node node, Outcome outcome, long expected) throws InterruptedException {
+		long start = System.currentTimeMillis();
+		while(node.getMigrationMetrics().getCount(outcome) < expected && System.currentTimeMillis() - start < TIMEOUT)
+			Thread.sleep(10);
+		return node.getMigrationMetrics().getCount(outcome);
+	}
+
+	/**
+	 * Runs the test.
+	 *
+	 * @param args
+	 *            - not used.
+	 * @throws Exception
+	 *             if anything fails.
+	 */
+	public static void main(String[] args) throws Exception {
+		MasterLog.enablePerformanceModeTools(1000);
+		MasterLog.activateGlobalPerformanceMode();
+		List<String> names = Arrays.asList("rejected", "lost", "moved");
+		String a = Boot.prelude;
+		a += " -node " + SOURCE + " migrationTimeout:" + ACK_TIMEOUT + " migrationRetries:" + RETRIES;
+		a += " -pylon webSocket:pylonFailureA serverPort:8997";
+		for(String name : names)
+			a += " -agent mobileComposite:" + name + " -shard messaging -shard CounterTest -shard UnloadableTest";
+		a += " -node " + DESTINATION;
+		a += " -pylon webSocket:pylonFailureB connectTo:ws://localhost:8997";
+
+		List<Node> nodes = new NodeLoader().loadDeployment(Arrays.asList(a.trim().split(" ")));
+		nodes.forEach(node -> node.start());
+		long start = System.currentTimeMillis();
+		while(!CounterTestShard.starts.keySet().containsAll(names) && System.currentTimeMillis() - start < TIMEOUT)
+			Thread.sleep(10);
+		Node source = nodes.stream().filter(node -> SOURCE.equals(node.getName())).findFirst().get();
+		Node destination = nodes.stream().filter(node -> DESTINATION.equals(node.getName())).findFirst().get();
+
+		UnloadableTestShard.failures.set(1);
+		long rejected = move("rejected", DESTINATION, SOURCE);
+		long lost = move("lost", "nodeFailureMissing", SOURCE);
+		long moved = move("moved", DESTINATION, DESTINATION);
+		long acknowledged = awaitCount(source, Outcome.ACKNOWLEDGED, 1);
+		System.out.println("rejected agent restored at the source in " + rejected + " ms");
+		System.out.println("lost agent restored at the source in " + lost + " ms");
+		System.out.println("agent moved in " + moved + " ms");
+		System.out.println("source: " + source.getMigrationMetrics());
+		System.out.println("destination: " + destination.getMigrationMetrics());
+
+		boolean ok = rejected >= 0 && rejected < ACK_TIMEOUT;
+		ok &= lost >= ACK_TIMEOUT * (RETRIES + 1);
+		ok &= moved >= 0;
+		ok &= acknowledged == 1;
+		ok &= source.getMigrationMetrics().getCount(Outcome.REJECTED) == 1;
+		ok &= source.getMigrationMetrics().getCount(Outcome.RETRIED) == RETRIES;
+		ok &= source.getMigrationMetrics().getCount(Outcome.RETURNED) == 2;
+		System.out.println(ok ? "PASSED" : "FAILED");
+		// nodes are not stopped, as in the other tests using WebSocket pylons
+		PlatformUtils.systemExit(ok ? 0 : 1);
+	}
+}
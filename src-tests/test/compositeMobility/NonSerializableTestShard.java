@@ -0,0 +1,54 @@
+package test.compositeMobility;
+
+import net.xqhs.flash.core.shard.AgentShardDesignation;
+import net.xqhs.flash.core.shard.AgentShardGeneral;
+import net.xqhs.flash.core.util.MultiTreeMap;
+
+/**
+ * Shard which cannot be serialized, so that it is reconstructed from its configuration when the agent moves.
+ * 
+ * @author Andrei Olaru
+ */
+public class NonSerializableTestShard extends AgentShardGeneral {
+	
+	/**
+	 * The serial UID.
+	 */
+	private static final long serialVersionUID = -6207046362281618523L;
+	
+	/**
+	 * Name of the parameter specifying a value which is kept by the shard.
+	 */
+	public static final String VALUE_PARAMETER_NAME = "value";
+	
+	/**
+	 * A resource which cannot be serialized.
+	 */
+	Object	resource	= new Object();
+	/**
+	 * The value from the configuration.
+	 */
+	String	value		= null;
+	
+	/**
+	 * The constructor.
+	 */
+	public NonSerializableTestShard() {
+		super(AgentShardDesignation.customShard("NONSERIALIZABLE"));
+	}
+	
+	@Override
+	public boolean configure(MultiTreeMap configuration) {
+		if(!super.configure(configuration))
+			return false;
+		value = configuration.getAValue(VALUE_PARAMETER_NAME);
+		return true;
+	}
+	
+	/**
+	 * @return the value from the configuration.
+	 */
+	public String getValue() {
+		return value;
+	}
+}
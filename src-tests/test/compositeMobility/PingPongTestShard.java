@@ -0,0 +1,127 @@
+package test.compositeMobility;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.xqhs.flash.core.agent.AgentEvent;
+import net.xqhs.flash.core.mobileComposite.MobileCompositeAgent.MobileCompositeAgentShardContainer;
+import net.xqhs.flash.core.shard.AgentShardDesignation;
+import net.xqhs.flash.core.shard.AgentShardGeneral;
+import net.xqhs.flash.core.util.MultiTreeMap;
+
+/**
+ * Moves the agent back and forth between its original node and another node, a given number of times, with a delay
+ * after each arrival. The downtime of each move (from the stopping of the agent to its start on the other node) is
+ * recorded.
+ * 
+ * @author Andrei Olaru
+ */
+public class PingPongTestShard extends AgentShardGeneral {
+	
+	/**
+	 * The serial UID.
+	 */
+	private static final long serialVersionUID = -2206463925012512400L;
+	
+	/**
+	 * Name of the parameter specifying the other node.
+	 */
+	public static final String	TARGET_PARAMETER_NAME	= "to";
+	/**
+	 * Name of the parameter specifying the number of moves.
+	 */
+	public static final String	MOVES_PARAMETER_NAME	= "moves";
+	/**
+	 * Name of the parameter specifying the delay before each move.
+	 */
+	public static final String	TIME_PARAMETER_NAME		= "time";
+	
+	/**
+	 * Counts the arrivals of all agents on other nodes (in this JVM).
+	 */
+	public static final AtomicInteger	arrivals	= new AtomicInteger();
+	/**
+	 * The downtimes of all moves of all agents (in this JVM), in ns.
+	 */
+	public static final List<Long>		downtimes	= Collections.synchronizedList(new ArrayList<>());
+	
+	/**
+	 * Timer for moving.
+	 */
+	transient Timer	timer	= null;
+	/**
+	 * The other node.
+	 */
+	String			other;
+	/**
+	 * The original node.
+	 */
+	String			home	= null;
+	/**
+	 * The number of moves left.
+	 */
+	int				moves;
+	/**
+	 * The delay before each move.
+	 */
+	int				delay;
+	/**
+	 * The time when the agent was stopped to move (as given by {@link System#nanoTime()}).
+	 */
+	long			stoppedAt;
+	
+	/**
+	 * The constructor.
+	 */
+	public PingPongTestShard() {
+		super(AgentShardDesignation.customShard("PINGPONG"));
+	}
+	
+	@Override
+	public boolean configure(MultiTreeMap configuration) {
+		if(!super.configure(configuration))
+			return false;
+		other = configuration.getAValue(TARGET_PARAMETER_NAME);
+		moves = Integer.parseInt(configuration.getAValue(MOVES_PARAMETER_NAME));
+		delay = Integer.parseInt(configuration.getAValue(TIME_PARAMETER_NAME));
+		return true;
+	}
+	
+	@Override
+	public void signalAgentEvent(AgentEvent event) {
+		super.signalAgentEvent(event);
+		
+		switch(event.getType()) {
+		case AGENT_START:
+			MobileCompositeAgentShardContainer agent = (MobileCompositeAgentShardContainer) getAgent();
+			if(home == null)
+				home = agent.getCurrentNode();
+			else {
+				downtimes.add(Long.valueOf(System.nanoTime() - stoppedAt));
+				arrivals.incrementAndGet();
+			}
+			if(moves <= 0)
+				break;
+			moves--;
+			String destination = home.equals(agent.getCurrentNode()) ? other : home;
+			timer = new Timer();
+			timer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					timer.cancel();
+					agent.moveTo(destination);
+				}
+			}, delay);
+			break;
+		case AGENT_STOP:
+			stoppedAt = System.nanoTime();
+			break;
+		default:
+			// nothing to do
+		}
+	}
+}
@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright (C) 2021 Andrei Olaru.
+ *
+ * This file is part of Flash-MAS. The CONTRIBUTORS.md file lists people who have been previously involved with this project.
+ *
+ * Flash-MAS is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * Flash-MAS is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Flash-MAS.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package test.compositeMobility;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import net.xqhs.flash.core.DeploymentConfiguration;
+import net.xqhs.flash.core.node.Node;
+import net.xqhs.flash.core.node.NodeLoader;
+import net.xqhs.flash.core.node.PlacementController;
+import net.xqhs.flash.core.support.DefaultPylonImplementation;
+import net.xqhs.flash.core.util.MultiTreeMap;
+import net.xqhs.flash.core.util.PlatformUtils;
+import net.xqhs.util.logging.MasterLog;
+
+/**
+ * Simulates a synthetic communication graph over {@link #NODES} local nodes and checks that the
+ * {@link PlacementController} reduces the ratio of messages sent between agents in different nodes.
+ * <p>
+ * There are {@link #NODES} groups of {@link #GROUP} agents; each agent sends messages (with a
+ * {@link ChatterTestShard}) to the next 3 agents in its group, and the first agent of each group also to the first
+ * agent of the next group. Initially, the agents of each group are spread over all nodes. The controller does
+ * {@link #ROUNDS} rounds; then the ratio of cross-node messages is measured again, and a further round must not move
+ * any agent (no thrashing).
+ */
+public class PlacementSimulation {
+	/**
+	 * Number of nodes, and of groups of agents.
+	 */
+	static final int	NODES		= 4;
+	/**
+	 * Number of agents in a group.
+	 */
+	static final int	GROUP		= 8;
+	/**
+	 * Maximum number of agents in a node.
+	 */
+	static final int	CAPACITY	= GROUP + 2;
+	/**
+	 * Period of the messages sent by each agent (ms).
+	 */
+	static final int	PERIOD		= 100;
+	/**
+	 * The time during which traffic is observed, before each round (ms).
+	 */
+	static final long	WINDOW		= 2000;
+	/**
+	 * Number of rounds.
+	 */
+	static final int	ROUNDS		= 5;
+
+	/**
+	 * @param group
+	 *            - the group.
+	 * @param index
+	 *            - the index in the group.
+	 * @return the name of the agent.
+	 */
+	static String agent(int group, int index) {
+		return "chatter" + group + "_" + index;
+	}
+
+	/**
+	 * Runs the simulation.
+	 *
+	 * @param args
+	 *            - not used.
+	 * @throws Exception
+	 *             if anything fails.
+	 */
+	public static void main(String[] args) throws Exception {
+		MasterLog.enablePerformanceModeTools(1000);
+		MasterLog.activateGlobalPerformanceMode();
+		String a = Boot.prelude;
+		String stats = " " + DefaultPylonImplementation.TRAFFIC_STATS_PARAMETER + ":true";
+		for(int n = 0; n < NODES; n++) {
+			a += " -node nodePlacement" + n;
+			a += " -pylon webSocket:pylonPlacement" + n
+					+ (n == 0 ? " serverPort:8998" : " connectTo:ws://localhost:8998") + stats;
+			// node n initially has agent n, n + NODES, ... of each group
+			for(int g = 0; g < NODES; g++)
+				for(int i = n; i < GROUP; i += NODES) {
+					List<String> peers = new ArrayList<>();
+					for(int k = 1; k <= 3; k++)
+						peers.add(agent(g, (i + k) % GROUP));
+					if(i == 0)
+						peers.add(agent((g + 1) % NODES, 0));
+					a += " -agent mobileComposite:" + agent(g, i) + " -shard messaging -shard ChatterTest peers:"
+							+ String.join(ChatterTestShard.PEER_SEPARATOR, peers) + " time:" + PERIOD;
+				}
+		}
+		List<Node> nodes = new NodeLoader().loadDeployment(Arrays.asList(a.trim().split(" ")));
+		nodes.forEach(node -> node.start());
+
+		PlacementController controller = new PlacementController(
+				new MultiTreeMap().addOneValue(DeploymentConfiguration.NAME_ATTRIBUTE_NAME, "simulation")
+						.addSingleValue(PlacementController.CAPACITY_PARAMETER, String.valueOf(CAPACITY)));
+		for(Node node : nodes)
+			if(node.getName() != null)
+				controller.addNode(node);
+
+		Thread.sleep(WINDOW);
+		double before = 0;
+		for(int round = 0; round < ROUNDS; round++) {
+			int moved = controller.rebalance();
+			if(round == 0)
+				before = controller.getCrossNodeRatio();
+			System.out.println("round " + round + ": cross-node traffic " + controller.getCrossNodeRatio() + ", "
+					+ moved + " agents moved");
+			Thread.sleep(WINDOW);
+		}
+		// discard the traffic during the latest moves
+		controller.collect();
+		Thread.sleep(WINDOW);
+		double after = controller.collect();
+		int thrash = controller.rebalance();
+		Map<String, String> placement = controller.getPlacement();
+		System.out.println("placement: " + placement);
+		System.out.println("cross-node traffic: " + before + " before, " + after + " after; agents moved in a further round: "
+				+ thrash);
+
+		boolean ok = placement.size() == NODES * GROUP && after < before / 2 && thrash == 0;
+		System.out.println(ok ? "PASSED" : "FAILED");
+		// nodes are not stopped, as in the other tests using WebSocket pylons
+		PlatformUtils.systemExit(ok ? 0 : 1);
+	}
+}
@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (C) 2021 Andrei Olaru.
+ *
+ * This file is part of Flash-MAS. The CONTRIBUTORS.md file lists people who have been previously involved with this project.
+ *
+ * Flash-MAS is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * Flash-MAS is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Flash-MAS.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package test.compositeMobility;
+
+import java.util.Arrays;
+import java.util.List;
+
+import net.xqhs.flash.core.mobileComposite.MobileCompositeAgent;
+import net.xqhs.flash.core.node.Node;
+import net.xqhs.flash.core.node.NodeLoader;
+import net.xqhs.flash.core.util.PlatformUtils;
+import net.xqhs.util.logging.MasterLog;
+
+/**
+ * Checks that an agent which uses pre-copy ({@link MobileCompositeAgent#PRE_COPY_PARAMETER}) and which is moved from
+ * its own thread ({@link SelfMoveTestShard}) keeps processing events while its state is copied to the destination,
+ * i.e. that the call to move returns immediately and that the agent does not pause, between the call and its stopping,
+ * for more than half of that time.
+ */
+public class SelfMoveTest {
+	/**
+	 * Size of the static state of the agent, in KB.
+	 */
+	static final int	STATE	= 8 * 1024;
+	/**
+	 * Time between the start of the agent and its move (ms).
+	 */
+	static final int	DELAY	= 2000;
+	/**
+	 * Period of the events posted to the agent (ms).
+	 */
+	static final int	PERIOD	= 10;
+	/**
+	 * Maximum duration of the move (ms).
+	 */
+	static final long	TIMEOUT	= 60000;
+
+	/**
+	 * Runs the test.
+	 *
+	 * @param args
+	 *            - not used.
+	 * @throws Exception
+	 *             if anything fails.
+	 */
+	public static void main(String[] args) throws Exception {
+		MasterLog.enablePerformanceModeTools(1000);
+		MasterLog.activateGlobalPerformanceMode();
+		String a = Boot.prelude;
+		a += " -node nodeA deltaMigration:true";
+		a += " -pylon webSocket:pylonA serverPort:8990";
+		a += " -agent mobileComposite:agentA preCopy:true -shard messaging";
+		a += " -shard StateTest size:" + STATE;
+		a += " -shard SelfMoveTest to:nodeB time:" + DELAY + " period:" + PERIOD;
+		a += " -node nodeB deltaMigration:true";
+		a += " -pylon webSocket:pylonB connectTo:ws://localhost:8990";
+
+		List<Node> nodes = new NodeLoader().loadDeployment(Arrays.asList(a.trim().split(" ")));
+		nodes.forEach(node -> node.start());
+		long start = System.currentTimeMillis();
+		while(SelfMoveTestShard.arrivals.get() < 1 && System.currentTimeMillis() - start < DELAY + TIMEOUT)
+			Thread.sleep(10);
+		boolean arrived = SelfMoveTestShard.arrivals.get() == 1;
+		long moveTime = SelfMoveTestShard.moveTime, longestPause = SelfMoveTestShard.longestPause;
+		System.out.println("arrived: " + arrived + "; moveTo call (ms): " + SelfMoveTestShard.moveCall
+				+ "; until stop (ms): " + moveTime + "; events processed in the meantime: " + SelfMoveTestShard.ticks
+				+ "; longest pause (ms): " + longestPause);
+		boolean ok = arrived && SelfMoveTestShard.ticks > 0 && longestPause < moveTime / 2;
+		System.out.println(ok ? "PASSED" : "FAILED");
+		PlatformUtils.systemExit(ok ? 0 : 1);
+	}
+}
@@ -0,0 +1,182 @@
+package test.compositeMobility;
+
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.xqhs.flash.core.agent.AgentEvent;
+import net.xqhs.flash.core.agent.AgentWave;
+import net.xqhs.flash.core.mobileComposite.MobileCompositeAgent.MobileCompositeAgentShardContainer;
+import net.xqhs.flash.core.shard.AgentShardDesignation;
+import net.xqhs.flash.core.shard.AgentShardGeneral;
+import net.xqhs.flash.core.util.MultiTreeMap;
+
+/**
+ * Periodically, while the agent is running, posts an event to the agent. After a given delay, moves the agent to
+ * another node, from the thread of the agent (when processing an event). Records the time taken by the call to
+ * {@link MobileCompositeAgentShardContainer#moveTo}, the time from the move request to the stopping of the agent, and
+ * the longest interval, in the meantime, in which the agent has not processed any event.
+ *
+ * @author Andrei Olaru
+ */
+public class SelfMoveTestShard extends AgentShardGeneral {
+
+	/**
+	 * The serial UID.
+	 */
+	private static final long serialVersionUID = -4512203318730944176L;
+
+	/**
+	 * Name of the parameter specifying the other node.
+	 */
+	public static final String	TARGET_PARAMETER_NAME	= "to";
+	/**
+	 * Name of the parameter specifying the delay before the move, in ms.
+	 */
+	public static final String	TIME_PARAMETER_NAME		= "time";
+	/**
+	 * Name of the parameter specifying the period of the events, in ms.
+	 */
+	public static final String	PERIOD_PARAMETER_NAME	= "period";
+	/**
+	 * The content of the periodic events.
+	 */
+	public static final String	TICK_CONTENT			= "tick";
+	/**
+	 * The content of the event requesting the move.
+	 */
+	public static final String	MOVE_CONTENT			= "move";
+
+	/**
+	 * Counts the arrivals of all agents on other nodes (in this JVM).
+	 */
+	public static final AtomicInteger	arrivals		= new AtomicInteger();
+	/**
+	 * The number of events processed between the move request and the stopping of the agent, for the last move.
+	 */
+	public static volatile int			ticks			= 0;
+	/**
+	 * The duration of the last call to {@link MobileCompositeAgentShardContainer#moveTo}, in ms.
+	 */
+	public static volatile long			moveCall		= -1;
+	/**
+	 * The time from the last move request to the stopping of the agent, in ms.
+	 */
+	public static volatile long			moveTime		= -1;
+	/**
+	 * The longest interval between the last move request and the stopping of the agent in which the agent has not
+	 * processed any event, in ms.
+	 */
+	public static volatile long			longestPause	= -1;
+
+	/**
+	 * Timer for posting events.
+	 */
+	transient Timer	timer		= null;
+	/**
+	 * The other node.
+	 */
+	String			other;
+	/**
+	 * The delay before the move.
+	 */
+	int				delay;
+	/**
+	 * The period of the events.
+	 */
+	int				period;
+	/**
+	 * Whether the agent has moved.
+	 */
+	boolean			moved		= false;
+	/**
+	 * The time of the move request (as given by {@link System#nanoTime()}), or 0 if no move was requested.
+	 */
+	transient long	requestedAt	= 0;
+	/**
+	 * The time the last event was processed at, after the move request (as given by {@link System#nanoTime()}).
+	 */
+	transient long	lastEvent;
+
+	/**
+	 * The constructor.
+	 */
+	public SelfMoveTestShard() {
+		super(AgentShardDesignation.customShard("SELFMOVE"));
+	}
+
+	@Override
+	public boolean configure(MultiTreeMap configuration) {
+		if(!super.configure(configuration))
+			return false;
+		other = configuration.getAValue(TARGET_PARAMETER_NAME);
+		delay = Integer.parseInt(configuration.getAValue(TIME_PARAMETER_NAME));
+		period = Integer.parseInt(configuration.getAValue(PERIOD_PARAMETER_NAME));
+		return true;
+	}
+
+	@Override
+	public void signalAgentEvent(AgentEvent event) {
+		super.signalAgentEvent(event);
+		switch(event.getType()) {
+		case AGENT_START:
+			if(moved) {
+				arrivals.incrementAndGet();
+				break;
+			}
+			timer = new Timer(true);
+			timer.scheduleAtFixedRate(new TimerTask() {
+				@Override
+				public void run() {
+					try {
+						getAgent().postAgentEvent(new AgentWave(TICK_CONTENT));
+					} catch(RuntimeException e) {
+						// the agent is moving
+					}
+				}
+			}, period, period);
+			timer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					getAgent().postAgentEvent(new AgentWave(MOVE_CONTENT));
+				}
+			}, delay);
+			break;
+		case AGENT_WAVE:
+			if(requestedAt != 0 && TICK_CONTENT.equals(((AgentWave) event).getContent())) {
+				processed();
+				ticks++;
+			}
+			else if(requestedAt == 0 && MOVE_CONTENT.equals(((AgentWave) event).getContent())) {
+				moved = true;
+				ticks = 0;
+				requestedAt = System.nanoTime();
+				((MobileCompositeAgentShardContainer) getAgent()).moveTo(other);
+				lastEvent = System.nanoTime();
+				moveCall = (lastEvent - requestedAt) / 1000000;
+				longestPause = moveCall;
+			}
+			break;
+		case BEFORE_MOVE:
+			if(requestedAt != 0) {
+				processed();
+				moveTime = (System.nanoTime() - requestedAt) / 1000000;
+			}
+			if(timer != null)
+				timer.cancel();
+			timer = null;
+			break;
+		default:
+			// nothing to do
+		}
+	}
+
+	/**
+	 * Records the processing of an event after the move request, updating the longest interval between events.
+	 */
+	void processed() {
+		long now = System.nanoTime();
+		longestPause = Math.max(longestPause, (now - lastEvent) / 1000000);
+		lastEvent = now;
+	}
+}
@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright (C) 2021 Andrei Olaru.
+ *
+ * This file is part of Flash-MAS. The CONTRIBUTORS.md file lists people who have been previously involved with this project.
+ *
+ * Flash-MAS is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * Flash-MAS is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Flash-MAS.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package test.compositeMobility;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.xqhs.flash.core.CategoryName;
+import net.xqhs.flash.core.DeploymentConfiguration;
+import net.xqhs.flash.core.composite.CompositeAgentLoader;
+import net.xqhs.flash.core.mobileComposite.AgentSnapshot;
+import net.xqhs.flash.core.mobileComposite.MobileCompositeAgent;
+import net.xqhs.flash.core.mobileComposite.ShardFactoryCache;
+import net.xqhs.flash.core.node.Node;
+import net.xqhs.flash.core.shard.AgentShardDesignation;
+import net.xqhs.flash.core.shard.ShardContainer;
+import net.xqhs.flash.core.util.MultiTreeMap;
+import net.xqhs.flash.core.util.PlatformUtils;
+import net.xqhs.util.logging.MasterLog;
+import net.xqhs.util.logging.UnitComponent;
+import test.compositeMobility.SnapshotTest.QuietAgent;
+
+/**
+ * Measures the throughput of the arrival of {@link #AGENTS} agents of the same type on a node, without and with the
+ * {@link ShardFactoryCache} of the node (see {@link Node#SHARD_FACTORIES_PARAMETER}). Each agent has a
+ * {@link NonSerializableTestShard}, which must be reconstructed from its configuration. The arrival comprises the
+ * restoration of the agent from its snapshot and the loading of its shards ({@link MobileCompositeAgent#loadShards()});
+ * the transfer between nodes is not measured. The best of {@link #ROUNDS} rounds is reported.
+ */
+public class ShardFactoryBenchmark {
+	/**
+	 * Number of agents.
+	 */
+	static final int	AGENTS	= 1000;
+	/**
+	 * Number of rounds.
+	 */
+	static final int	ROUNDS	= 10;
+
+	/**
+	 * Creates the snapshots of the agents, as they would be sent to the node.
+	 *
+	 * @return the serialized snapshots.
+	 */
+	static List<byte[]> createAgents() {
+		CompositeAgentLoader loader = new CompositeAgentLoader();
+		loader.configure(new MultiTreeMap().addAll(CategoryName.PACKAGE.s(), Arrays.asList("test.compositeMobility")),
+				new UnitComponent("loader"), PlatformUtils.getClassFactory());
+		List<byte[]> agents = new ArrayList<>();
+		for(int i = 0; i < AGENTS; i++) {
+			MobileCompositeAgent agent = new QuietAgent(
+					new MultiTreeMap().addOneValue(DeploymentConfiguration.NAME_ATTRIBUTE_NAME, "arrival" + i));
+			// as loaded from a deployment
+			MultiTreeMap config = new MultiTreeMap()
+					.addOneValue(DeploymentConfiguration.NAME_ATTRIBUTE_NAME, "NonSerializableTest")
+					.addSingleValue(DeploymentConfiguration.LOCAL_ID_ATTRIBUTE, "#shard" + i)
+					.addSingleValue(NonSerializableTestShard.VALUE_PARAMETER_NAME, "type");
+			loader.preloadShard("NonSerializableTest", config, null, "");
+			agent.addShard(loader.loadShard("NonSerializableTest", config, "", agent.getName()));
+			agents.add(agent.takeSnapshot().toBytes(false));
+		}
+		return agents;
+	}
+
+	/**
+	 * Restores the agents and loads their shards, on a node.
+	 *
+	 * @param agents
+	 *            - the serialized snapshots.
+	 * @param factories
+	 *            - whether the node uses a {@link ShardFactoryCache}.
+	 * @return the total time of the arrivals and the time spent loading shards, in ns, or <code>null</code> if the
+	 *         shards were not correctly reconstructed.
+	 * @throws Exception
+	 *             if the agents cannot be restored.
+	 */
+	static long[] arrive(List<byte[]> agents, boolean factories) throws Exception {
+		Node node = new Node(new MultiTreeMap().addOneValue(DeploymentConfiguration.NAME_ATTRIBUTE_NAME, "arrivals")
+				.addSingleValue(Node.SHARD_FACTORIES_PARAMETER, Boolean.toString(factories)));
+		boolean ok = true;
+		long loading = 0;
+		long start = System.nanoTime();
+		for(byte[] data : agents) {
+			MobileCompositeAgent agent = MobileCompositeAgent.restoreAgent(AgentSnapshot.fromBytes(data));
+			agent.addGeneralContext(node.asContext());
+			long loadStart = System.nanoTime();
+			agent.loadShards();
+			loading += System.nanoTime() - loadStart;
+			NonSerializableTestShard shard = (NonSerializableTestShard) ((ShardContainer) agent.asContext())
+					.getAgentShard(AgentShardDesignation.customShard("NONSERIALIZABLE"));
+			ok &= shard != null && "type".equals(shard.getValue());
+		}
+		return ok ? new long[] { System.nanoTime() - start, loading } : null;
+	}
+	
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args
+	 *            - not used.
+	 * @throws Exception
+	 *             if anything fails.
+	 */
+	public static void main(String[] args) throws Exception {
+		MasterLog.enablePerformanceModeTools(1000);
+		MasterLog.activateGlobalPerformanceMode();
+		List<byte[]> agents = createAgents();
+		long[] loader = { Long.MAX_VALUE, Long.MAX_VALUE }, cached = { Long.MAX_VALUE, Long.MAX_VALUE };
+		boolean ok = true;
+		for(int round = 0; round < ROUNDS && ok; round++)
+			for(boolean factories : new boolean[] { false, true }) {
+				long[] result = arrive(agents, factories), best = factories ? cached : loader;
+				ok &= result != null;
+				for(int i = 0; ok && i < best.length; i++)
+					best[i] = Math.min(best[i], result[i]);
+			}
+		if(ok) {
+			System.out.println(AGENTS + " arriving agents, with the loader: " + AGENTS * 1000000000L / loader[0]
+					+ " agents/s, shards loaded in " + loader[1] / AGENTS / 1000 + " us per agent");
+			System.out.println(AGENTS + " arriving agents, with the shard factory cache: "
+					+ AGENTS * 1000000000L / cached[0] + " agents/s, shards loaded in " + cached[1] / AGENTS / 1000
+					+ " us per agent");
+		}
+		ok &= cached[1] < loader[1];
+		System.out.println(ok ? "PASSED" : "FAILED");
+		PlatformUtils.systemExit(ok ? 0 : 1);
+	}
+}
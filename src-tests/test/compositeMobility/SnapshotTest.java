@@ -0,0 +1,243 @@
+/*******************************************************************************
+ * Copyright (C) 2021 Andrei Olaru.
+ *
+ * This file is part of Flash-MAS. The CONTRIBUTORS.md file lists people who have been previously involved with this project.
+ *
+ * Flash-MAS is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * Flash-MAS is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Flash-MAS.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package test.compositeMobility;
+
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+import net.xqhs.flash.core.DeploymentConfiguration;
+import net.xqhs.flash.core.mobileComposite.AgentSnapshot;
+import net.xqhs.flash.core.mobileComposite.MobileCompositeAgent;
+import net.xqhs.flash.core.node.Node;
+import net.xqhs.flash.core.shard.AgentShardDesignation;
+import net.xqhs.flash.core.shard.AgentShardGeneral;
+import net.xqhs.flash.core.util.MultiTreeMap;
+import net.xqhs.flash.core.util.OperationUtils;
+import net.xqhs.flash.core.util.PlatformUtils;
+import net.xqhs.util.logging.MasterLog;
+
+/**
+ * Compares the size of the message carrying a moving agent, and the time to serialize and de-serialize it, for the
+ * previous encoding (each shard Java-serialized and Base64-encoded inside the serialization of the agent, which is
+ * Base64-encoded again) and for the {@link AgentSnapshot}, with and without compression, for agents with 1, 10 and 100
+ * KB of shard state. In all cases the result is wrapped in the JSON message sent by the {@link Node}.
+ */
+public class SnapshotTest {
+	/**
+	 * Shard with a given amount of state.
+	 */
+	public static class StateShard extends AgentShardGeneral {
+		/**
+		 * The serial UID.
+		 */
+		private static final long	serialVersionUID	= 1L;
+		/**
+		 * The state, as semi-structured text (similar to the content of maps or logs of an agent).
+		 */
+		byte[]						state;
+
+		/**
+		 * @param size
+		 *            - the size of the state, in bytes.
+		 */
+		public StateShard(int size) {
+			super(AgentShardDesignation.customShard("SnapshotState"));
+			Random random = new Random(size);
+			StringBuilder builder = new StringBuilder(size + 32);
+			for(int i = 0; builder.length() < size; i++)
+				builder.append("key").append(i).append('=').append(random.nextInt(100000)).append(';');
+			state = Arrays.copyOf(builder.toString().getBytes(), size);
+		}
+	}
+
+	/**
+	 * Agent which does not log, so that logging is not measured.
+	 */
+	public static class QuietAgent extends MobileCompositeAgent {
+		/**
+		 * The serial UID.
+		 */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * @param configuration
+		 *            - the configuration.
+		 */
+		public QuietAgent(MultiTreeMap configuration) {
+			super(configuration);
+			USE_LOCAL_LOG = false;
+		}
+	}
+
+	/**
+	 * State sizes.
+	 */
+	static final int[]	SIZES	= { 1024, 10 * 1024, 100 * 1024 };
+	/**
+	 * Number of serialize + de-serialize iterations for each size and encoding.
+	 */
+	static final int	N		= 500;
+
+	/**
+	 * The encodings that are compared.
+	 */
+	enum Encoding {
+		/**
+		 * The previous encoding, Base64 nested in Base64.
+		 */
+		LEGACY,
+		/**
+		 * The uncompressed snapshot.
+		 */
+		SNAPSHOT,
+		/**
+		 * The compressed snapshot.
+		 */
+		COMPRESSED,
+	}
+
+	/**
+	 * @param size
+	 *            - the size of the shard state.
+	 * @param compress
+	 *            - whether the snapshot should be compressed.
+	 * @return a new agent, with a {@link StateShard}.
+	 */
+	static MobileCompositeAgent createAgent(int size, boolean compress) {
+		MobileCompositeAgent agent = new QuietAgent(
+				new MultiTreeMap().addOneValue(DeploymentConfiguration.NAME_ATTRIBUTE_NAME, "snapshotAgent")
+						.addSingleValue(MobileCompositeAgent.COMPRESS_SNAPSHOT_PARAMETER, Boolean.toString(compress)));
+		agent.addShard(new StateShard(size));
+		return agent;
+	}
+
+	/**
+	 * @param agentData
+	 *            - the serialized agent.
+	 * @return the message sent by the node.
+	 */
+	static String wrap(String agentData) {
+		JsonObject root = new JsonObject();
+		root.addProperty(OperationUtils.NAME, Node.RECEIVE_AGENT_OPERATION);
+		root.addProperty(OperationUtils.PARAMETERS, agentData);
+		return root.toString();
+	}
+
+	/**
+	 * @param message
+	 *            - the message sent by the node.
+	 * @return the serialized agent.
+	 */
+	static String unwrap(String message) {
+		return new Gson().fromJson(message, JsonObject.class).get(OperationUtils.PARAMETERS).getAsString();
+	}
+
+	/**
+	 * Serializes the agent.
+	 *
+	 * @param agent
+	 *            - the agent.
+	 * @param encoding
+	 *            - the encoding.
+	 * @return the message sent by the node.
+	 * @throws Exception
+	 *             if serialization fails.
+	 */
+	static String encode(MobileCompositeAgent agent, Encoding encoding) throws Exception {
+		if(encoding != Encoding.LEGACY)
+			return wrap(agent.serialize());
+		// the agent holds a map of Base64 serialized shards and is then itself serialized to Base64
+		AgentSnapshot snapshot = agent.takeSnapshot();
+		HashMap<String, String> serializedShards = new HashMap<>();
+		for(Map.Entry<AgentShardDesignation, byte[]> shard : snapshot.getShards().entrySet())
+			serializedShards.put(shard.getKey().toString(), Base64.getEncoder().encodeToString(shard.getValue()));
+		return wrap(Base64.getEncoder()
+				.encodeToString(AgentSnapshot.serializeObject(new Object[] { agent, serializedShards })));
+	}
+
+	/**
+	 * De-serializes the agent and its shards.
+	 *
+	 * @param message
+	 *            - the message sent by the node.
+	 * @param encoding
+	 *            - the encoding.
+	 * @return the de-serialized {@link StateShard}.
+	 * @throws Exception
+	 *             if de-serialization fails.
+	 */
+	@SuppressWarnings("unchecked")
+	static StateShard decode(String message, Encoding encoding) throws Exception {
+		StateShard result = null;
+		if(encoding == Encoding.LEGACY) {
+			Object[] agent = (Object[]) AgentSnapshot
+					.deserializeObject(Base64.getDecoder().decode(unwrap(message)));
+			for(String shard : ((Map<String, String>) agent[1]).values())
+				result = (StateShard) AgentSnapshot.deserializeObject(Base64.getDecoder().decode(shard));
+		}
+		else {
+			AgentSnapshot snapshot = AgentSnapshot.fromBytes(Base64.getDecoder().decode(unwrap(message)));
+			MobileCompositeAgent.restoreAgent(snapshot);
+			for(byte[] shard : snapshot.getShards().values())
+				result = (StateShard) AgentSnapshot.deserializeObject(shard);
+		}
+		return result;
+	}
+
+	/**
+	 * Runs the test.
+	 *
+	 * @param args
+	 *            - not used.
+	 * @throws Exception
+	 *             if anything fails.
+	 */
+	public static void main(String[] args) throws Exception {
+		MasterLog.enablePerformanceModeTools(500);
+		MasterLog.activateGlobalPerformanceMode();
+		boolean ok = true;
+		for(int size : SIZES) {
+			byte[] expected = new StateShard(size).state;
+			// the path of moving agents
+			MobileCompositeAgent moved = MobileCompositeAgent
+					.deserializeAgent(unwrap(wrap(createAgent(size, true).serialize())));
+			moved.loadShards();
+			for(int round = 0; round < 2; round++) // the first round serves as warm-up
+				for(Encoding encoding : Encoding.values()) {
+					int length = 0;
+					long time = 0;
+					for(int i = 0; i < N; i++) {
+						MobileCompositeAgent agent = createAgent(size, encoding == Encoding.COMPRESSED);
+						long start = System.nanoTime();
+						String message = encode(agent, encoding);
+						StateShard shard = decode(message, encoding);
+						time += System.nanoTime() - start;
+						length = message.length();
+						if(!Arrays.equals(expected, shard.state))
+							ok = false;
+					}
+					if(round > 0)
+						System.out.println("state " + size / 1024 + " KB, " + encoding + ": message " + length
+								+ " bytes (" + length * 100 / size + "% of state), serialize+deserialize "
+								+ time / N / 1000 + " us");
+				}
+		}
+		System.out.println(ok ? "PASSED" : "FAILED");
+		PlatformUtils.systemExit(ok ? 0 : 1);
+	}
+}
@@ -0,0 +1,57 @@
+package test.compositeMobility;
+
+import java.util.Random;
+
+import net.xqhs.flash.core.shard.AgentShardDesignation;
+import net.xqhs.flash.core.shard.AgentShardGeneral;
+import net.xqhs.flash.core.util.MultiTreeMap;
+
+/**
+ * Shard holding a given amount of static state, which travels with the agent when it moves. Since the state does not
+ * change, the shard tracks its changes (see {@link #enableChangeTracking()}) and is never dirty.
+ * 
+ * @author Andrei Olaru
+ */
+public class StateTestShard extends AgentShardGeneral {
+	
+	/**
+	 * The serial UID.
+	 */
+	private static final long serialVersionUID = 4416284905383375227L;
+	
+	/**
+	 * Name of the parameter specifying the size of the state, in KB.
+	 */
+	public static final String SIZE_PARAMETER_NAME = "size";
+	
+	/**
+	 * The state.
+	 */
+	byte[] state = new byte[0];
+	
+	/**
+	 * The constructor.
+	 */
+	public StateTestShard() {
+		super(AgentShardDesignation.customShard("STATE"));
+		enableChangeTracking();
+	}
+	
+	@Override
+	public boolean configure(MultiTreeMap configuration) {
+		if(!super.configure(configuration))
+			return false;
+		if(configuration.isSimple(SIZE_PARAMETER_NAME)) {
+			state = new byte[Integer.parseInt(configuration.getAValue(SIZE_PARAMETER_NAME)) * 1024];
+			new Random(state.length).nextBytes(state);
+		}
+		return true;
+	}
+	
+	/**
+	 * @return the state.
+	 */
+	public byte[] getState() {
+		return state;
+	}
+}
@@ -0,0 +1,51 @@
+package test.compositeMobility;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.xqhs.flash.core.shard.AgentShardDesignation;
+import net.xqhs.flash.core.shard.AgentShardGeneral;
+
+/**
+ * Shard which fails to be de-serialized a given number of times (see {@link #failures}), as if its class were not
+ * available on the destination node.
+ *
+ * @author Andrei Olaru
+ */
+public class UnloadableTestShard extends AgentShardGeneral {
+
+	/**
+	 * The serial UID.
+	 */
+	private static final long serialVersionUID = 2914086354372315860L;
+
+	/**
+	 * The number of de-serializations (in this JVM) which will fail next.
+	 */
+	public static final AtomicInteger failures = new AtomicInteger();
+
+	/**
+	 * The constructor.
+	 */
+	public UnloadableTestShard() {
+		super(AgentShardDesignation.customShard("UNLOADABLE"));
+	}
+
+	/**
+	 * De-serializes the shard, or fails, if failures are expected.
+	 *
+	 * @param in
+	 *            - the stream.
+	 * @throws IOException
+	 *             if the shard should not be loaded.
+	 * @throws ClassNotFoundException
+	 *             if a class is not available.
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		if(failures.getAndUpdate(n -> n > 0 ? n - 1 : 0) > 0)
+			throw new InvalidObjectException("shard cannot be loaded on this node");
+	}
+}
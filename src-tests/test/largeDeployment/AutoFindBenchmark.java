@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright (C) 2021 Andrei Olaru.
+ *
+ * This file is part of Flash-MAS. The CONTRIBUTORS.md file lists people who have been previously involved with this project.
+ *
+ * Flash-MAS is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * Flash-MAS is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Flash-MAS.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package test.largeDeployment;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import net.xqhs.flash.core.AutoFindCache;
+import net.xqhs.flash.core.Loader;
+import net.xqhs.flash.core.node.Node;
+import net.xqhs.flash.core.node.NodeLoader;
+import net.xqhs.flash.core.util.PlatformUtils;
+import net.xqhs.util.logging.MasterLog;
+
+/**
+ * Measures the time to load (without starting) a deployment of {@link #AGENTS} agents of {@link #TYPES} types, with
+ * the classes found by {@link Loader#autoFind} resolved:
+ * <ul>
+ * <li>without the {@link AutoFindCache};
+ * <li>with a cold cache -- empty, and with the index of the classpath not yet built;
+ * <li>with a warm cache -- only in the cache file written after the previous deployment (as after a restart).
+ * </ul>
+ * A small deployment is loaded first, so that the classes of the platform are already loaded in all cases.
+ */
+public class AutoFindBenchmark {
+	/**
+	 * Number of agents.
+	 */
+	static final int		AGENTS	= 1000;
+	/**
+	 * The shards of each type of agent.
+	 */
+	static final String[]	TYPES	= { "-shard messaging -shard EchoTesting", "-shard messaging -shard CounterTest",
+			"-shard messaging -shard EchoTesting -shard CounterTest", "-shard messaging -shard PingBackTest",
+			"-shard messaging -shard StateTest -shard PingBackTest" };
+
+	/**
+	 * Builds the deployment.
+	 *
+	 * @param node
+	 *            - the name of the node.
+	 * @param agents
+	 *            - the number of agents.
+	 * @return the arguments for the deployment.
+	 */
+	static List<String> deployment(String node, int agents) {
+		StringBuilder a = new StringBuilder(
+				"-package testing test.compositeMobility -loader agent:composite -node " + node);
+		for(int i = 0; i < agents; i++)
+			a.append(" -agent composite:" + node + "_" + i + " " + TYPES[i % TYPES.length]);
+		return Arrays.asList(a.toString().split(" "));
+	}
+
+	/**
+	 * Loads a deployment.
+	 *
+	 * @param node
+	 *            - the name of the node.
+	 * @param agents
+	 *            - the number of agents.
+	 * @return the time to load the deployment, in ms, or -1 if the deployment was not loaded.
+	 */
+	static long boot(String node, int agents) {
+		long start = System.nanoTime();
+		List<Node> nodes = new NodeLoader().loadDeployment(deployment(node, agents));
+		long time = (System.nanoTime() - start) / 1000000;
+		return nodes != null && !nodes.isEmpty() ? time : -1;
+	}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args
+	 *            - not used.
+	 * @throws Exception
+	 *             if the cache file cannot be created.
+	 */
+	public static void main(String[] args) throws Exception {
+		MasterLog.enablePerformanceModeTools(1000);
+		MasterLog.activateGlobalPerformanceMode();
+		File file = File.createTempFile("autofind", ".cache");
+		file.deleteOnExit();
+
+		AutoFindCache.setEnabled(false);
+		boot("warmup", 50);
+		long none = boot("noCache", AGENTS);
+
+		AutoFindCache.setEnabled(true);
+		file.delete();
+		AutoFindCache.setCacheFile(file);
+		long cold = boot("coldCache", AGENTS);
+		boolean saved = file.isFile();
+
+		// as after a restart: only the cache file is available
+		AutoFindCache.clear();
+		long warm = boot("warmCache", AGENTS);
+
+		System.out.println(AGENTS + " agents of " + TYPES.length + " types loaded: " + none + " ms without cache, "
+				+ cold + " ms with a cold cache, " + warm + " ms with a warm cache (cache file of " + file.length()
+				+ " bytes)");
+		boolean ok = none >= 0 && cold >= 0 && warm >= 0 && saved && warm < none;
+		System.out.println(ok ? "PASSED" : "FAILED");
+		PlatformUtils.systemExit(ok ? 0 : 1);
+	}
+}
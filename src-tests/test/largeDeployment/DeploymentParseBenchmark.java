@@ -0,0 +1,213 @@
+/*******************************************************************************
+ * Copyright (C) 2021 Andrei Olaru.
+ *
+ * This file is part of Flash-MAS. The CONTRIBUTORS.md file lists people who have been previously involved with this project.
+ *
+ * Flash-MAS is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * Flash-MAS is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Flash-MAS.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package test.largeDeployment;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedList;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import net.xqhs.flash.core.CategoryName;
+import net.xqhs.flash.core.DeploymentConfiguration;
+import net.xqhs.flash.core.DeploymentStreamReader;
+import net.xqhs.flash.core.DeploymentStreamReader.Validation;
+import net.xqhs.flash.core.util.PlatformUtils;
+import net.xqhs.util.XML.XMLParser;
+import net.xqhs.util.XML.XMLTree;
+import net.xqhs.util.logging.DumbLogger;
+import net.xqhs.util.logging.MasterLog;
+
+/**
+ * Compares the parsing of a deployment file with {@link #AGENTS} agents (in a node, with a local pylon) into the
+ * configuration tree, by validating it and building its {@link XMLTree} (as {@link XMLParser} does), and by the
+ * {@link DeploymentStreamReader}, with the validation of the file performed and with the validation cached. For each
+ * case, the time and two measures of the peak heap usage are reported, starting from a heap which has just been
+ * collected: the peak usage reported by the heap memory pools (which also depends on the sizing of the heap) and the
+ * peak usage after the garbage collections performed during the parsing (the largest amount of memory which was
+ * actually retained). Checks that all entities are read in all cases and that the streaming reader retains less
+ * memory.
+ */
+public class DeploymentParseBenchmark {
+	/**
+	 * Gives access to the (non-streaming) reading of an {@link XMLTree}.
+	 */
+	static class TreeReader extends DeploymentConfiguration {
+		/**
+		 * The class UID.
+		 */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Validates the deployment file and reads its {@link XMLTree} into this configuration.
+		 *
+		 * @param file
+		 *            - the file.
+		 * @return <code>true</code> if the file was read.
+		 */
+		@SuppressWarnings({ "rawtypes", "unchecked" })
+		boolean readTree(String file) {
+			XMLTree tree = XMLParser.validateParse(SCHEMA, file);
+			if(tree == null)
+				return false;
+			readXML(tree.getRoot(), getSingleTree(CategoryName.DEPLOYMENT.s()), new LinkedList(), this, autoCreated,
+					name_ids, new DumbLogger());
+			return true;
+		}
+
+		/**
+		 * Reads the deployment file into this configuration, with the {@link DeploymentStreamReader}.
+		 *
+		 * @param file
+		 *            - the file.
+		 * @return <code>true</code> if the file was read.
+		 */
+		boolean readStream(String file) {
+			DumbLogger log = new DumbLogger();
+			return DeploymentStreamReader.validate(SCHEMA, file, log) && DeploymentStreamReader.read(file,
+					getSingleTree(CategoryName.DEPLOYMENT.s()), this, autoCreated, name_ids, log);
+		}
+	}
+
+	/**
+	 * Number of agents.
+	 */
+	static final int	AGENTS	= 50000;
+	/**
+	 * The schema.
+	 */
+	static final String	SCHEMA	= "src-schema/deployment-schema.xsd";
+
+	/**
+	 * The peak heap usage of the last measurement, in MB.
+	 */
+	static long			peak;
+	/**
+	 * The peak heap usage after garbage collections, during the last measurement, in bytes.
+	 */
+	static volatile long	peakLive;
+
+	/**
+	 * Writes the deployment file.
+	 *
+	 * @param file
+	 *            - the file.
+	 * @throws Exception
+	 *             if the file cannot be written.
+	 */
+	static void writeDeployment(File file) throws Exception {
+		StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		xml.append("<deployment xmlns=\"http://flash.xqhs.net/deployment-schema\">\n");
+		xml.append("\t<package>testing</package>\n\t<loader for=\"agent:composite\" />\n");
+		xml.append("\t<node name=\"node\">\n\t\t<pylon kind=\"local\" name=\"pylon\" />\n");
+		for(int i = 0; i < AGENTS; i++)
+			xml.append("\t\t<agent kind=\"composite\" name=\"agent" + i + "\">\n"
+					+ "\t\t\t<parameter name=\"index\" value=\"" + i + "\" />\n\t\t\t<shard name=\"messaging\" />\n"
+					+ "\t\t\t<shard name=\"EchoTesting\" />\n\t\t</agent>\n");
+		xml.append("\t</node>\n</deployment>\n");
+		Files.write(file.toPath(), xml.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Parses the deployment file, recording the peak heap usage in {@link #peak}.
+	 *
+	 * @param file
+	 *            - the file.
+	 * @param stream
+	 *            - <code>true</code> to use the {@link DeploymentStreamReader}.
+	 * @return the time to parse the file, in ms, or -1 if not all entities were read.
+	 */
+	static long parse(File file, boolean stream) {
+		TreeReader reader = new TreeReader();
+		int defaultEntities = reader.getEntityList().size();
+		System.gc();
+		for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			if(pool.getType() == MemoryType.HEAP)
+				pool.resetPeakUsage();
+		peakLive = 0;
+		long start = System.nanoTime();
+		boolean read = stream ? reader.readStream(file.getPath()) : reader.readTree(file.getPath());
+		long time = (System.nanoTime() - start) / 1000000;
+		peakLive /= 1024 * 1024;
+		peak = 0;
+		for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			if(pool.getType() == MemoryType.HEAP)
+				peak += pool.getPeakUsage().getUsed();
+		peak /= 1024 * 1024;
+		// the node, the pylon, the loader and the agents, with their shards
+		int entities = reader.getEntityList().size() - defaultEntities;
+		return read && entities == 3 + 3 * AGENTS ? time : -1;
+	}
+
+	/**
+	 * Records the heap usage after each garbage collection in {@link #peakLive}.
+	 */
+	static void monitorCollections() {
+		for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+			((NotificationEmitter) collector).addNotificationListener((notification, handback) -> {
+				if(!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType()))
+					return;
+				long used = 0;
+				for(MemoryUsage usage : GarbageCollectionNotificationInfo
+						.from((CompositeData) notification.getUserData()).getGcInfo().getMemoryUsageAfterGc().values())
+					used += usage.getUsed();
+				if(used > peakLive)
+					peakLive = used;
+			}, null, null);
+	}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args
+	 *            - not used.
+	 * @throws Exception
+	 *             if the deployment file cannot be created.
+	 */
+	public static void main(String[] args) throws Exception {
+		MasterLog.enablePerformanceModeTools(1000);
+		MasterLog.activateGlobalPerformanceMode();
+		File deployment = File.createTempFile("deployment", ".xml");
+		deployment.deleteOnExit();
+		writeDeployment(deployment);
+		monitorCollections();
+
+		long treeTime = parse(deployment, false);
+		String treeMemory = peak + " MB, " + peakLive + " MB retained";
+		long treeLive = peakLive;
+		DeploymentStreamReader.setValidation(Validation.ALWAYS);
+		long streamTime = parse(deployment, true);
+		String streamMemory = peak + " MB, " + peakLive + " MB retained";
+		long streamLive = peakLive;
+		DeploymentStreamReader.setValidation(Validation.CACHED);
+		parse(deployment, true);
+		long cachedTime = parse(deployment, true);
+		String cachedMemory = peak + " MB, " + peakLive + " MB retained";
+
+		System.out.println(AGENTS + " agents (deployment file of " + deployment.length() / 1024 + " KB) parsed:");
+		System.out.println("with the XML tree: " + treeTime + " ms, peak heap " + treeMemory);
+		System.out.println("streaming: " + streamTime + " ms, peak heap " + streamMemory);
+		System.out.println("streaming, validation cached: " + cachedTime + " ms, peak heap " + cachedMemory);
+		boolean ok = treeTime >= 0 && streamTime >= 0 && cachedTime >= 0 && streamLive < treeLive;
+		System.out.println(ok ? "PASSED" : "FAILED");
+		PlatformUtils.systemExit(ok ? 0 : 1);
+	}
+}
@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (C) 2021 Andrei Olaru.
+ *
+ * This file is part of Flash-MAS. The CONTRIBUTORS.md file lists people who have been previously involved with this project.
+ *
+ * Flash-MAS is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * Flash-MAS is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Flash-MAS.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package test.largeDeployment;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import net.xqhs.flash.core.DeploymentConfiguration;
+import net.xqhs.flash.core.DeploymentStreamReader;
+import net.xqhs.flash.core.util.PlatformUtils;
+import net.xqhs.util.logging.MasterLog;
+import test.largeDeployment.DeploymentParseBenchmark.TreeReader;
+
+/**
+ * Checks that the {@link DeploymentStreamReader} reads the deployment files of the examples into the same configuration
+ * tree as the reading of the {@link net.xqhs.util.XML.XMLTree}, including the order of the keys (files which are not
+ * valid must be rejected by both). The local ids of the entities (see
+ * {@link DeploymentConfiguration#LOCAL_ID_ATTRIBUTE}) depend on the hash codes of the trees, so they are replaced by
+ * their order of appearance.
+ */
+public class DeploymentStreamReaderTest {
+	/**
+	 * The directory of the deployment files.
+	 */
+	static final String		DIRECTORY	= "src-examples/example/deployment";
+	/**
+	 * A local id.
+	 */
+	static final Pattern	LOCAL_ID	= Pattern.compile("#-?\\d+(_\\d+)?");
+
+	/**
+	 * Replaces the local ids in the printed configuration by their order of appearance.
+	 *
+	 * @param configuration
+	 *            - the configuration.
+	 * @return the printed configuration, with replaced local ids.
+	 */
+	static String print(DeploymentConfiguration configuration) {
+		Map<String, String> ids = new HashMap<>();
+		Matcher id = LOCAL_ID.matcher(configuration.toString());
+		StringBuffer printed = new StringBuffer();
+		while(id.find())
+			id.appendReplacement(printed, ids.computeIfAbsent(id.group(), k -> "#" + ids.size()));
+		id.appendTail(printed);
+		return printed.toString();
+	}
+
+	/**
+	 * Runs the test.
+	 *
+	 * @param args
+	 *            - not used.
+	 */
+	public static void main(String[] args) {
+		MasterLog.enablePerformanceModeTools(1000);
+		MasterLog.activateGlobalPerformanceMode();
+		boolean ok = true;
+		File[] files = new File(DIRECTORY).listFiles((dir, name) -> name.endsWith(".xml"));
+		Arrays.sort(files);
+		for(File file : files) {
+			TreeReader tree = new TreeReader(), stream = new TreeReader();
+			boolean treeRead = tree.readTree(file.getPath()), streamRead = stream.readStream(file.getPath());
+			String expected = print(tree), actual = print(stream);
+			// files which are not valid must be rejected by both
+			boolean same = treeRead == streamRead && (!treeRead || expected.equals(actual));
+			System.out.println(file.getName() + ": " + (!treeRead && same ? "rejected by both readers"
+					: same ? "same configuration" : "different configuration"));
+			if(!same && treeRead && streamRead) {
+				String[] expectedLines = expected.split("\n"), actualLines = actual.split("\n");
+				int line = 0;
+				while(line < Math.min(expectedLines.length, actualLines.length)
+						&& expectedLines[line].equals(actualLines[line]))
+					line++;
+				System.out.println("first difference at line " + (line + 1) + ":\n"
+						+ (line < expectedLines.length ? expectedLines[line] : "<end>") + "\n"
+						+ (line < actualLines.length ? actualLines[line] : "<end>"));
+			}
+			ok &= same;
+		}
+		System.out.println(ok ? "PASSED" : "FAILED");
+		PlatformUtils.systemExit(ok ? 0 : 1);
+	}
+}
@@ -0,0 +1,293 @@
+/*******************************************************************************
+ * Copyright (C) 2021 Andrei Olaru.
+ *
+ * This file is part of Flash-MAS. The CONTRIBUTORS.md file lists people who have been previously involved with this project.
+ *
+ * Flash-MAS is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * Flash-MAS is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Flash-MAS.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package test.largeDeployment;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.xqhs.flash.core.CategoryName;
+import net.xqhs.flash.core.DeploymentConfiguration;
+import net.xqhs.flash.core.Entity;
+import net.xqhs.flash.core.Entity.EntityIndex;
+import net.xqhs.flash.core.node.Node;
+import net.xqhs.flash.core.util.MultiTreeMap;
+import net.xqhs.flash.core.util.PlatformUtils;
+import net.xqhs.util.logging.MasterLog;
+
+/**
+ * Tests the {@link EntityIndex}:
+ * <ul>
+ * <li>{@link #THREADS} threads concurrently register, look up and remove entities in the same index, with names shared
+ * between threads; checks that each entity is found by its name and type while it is registered, that entities with
+ * the same type and name have different printable names and that the index is empty in the end.
+ * <li>{@link #ENTITIES} entities are registered with a node (and in the index shared by the JVM), started, stopped and
+ * removed; checks that the entities are not retained and that most of the memory they used is released.
+ * </ul>
+ */
+public class EntityIndexTest {
+	/**
+	 * A minimal entity.
+	 */
+	static class TestEntity implements Entity<Node> {
+		/**
+		 * The name.
+		 */
+		String			name;
+		/**
+		 * Some state, so that the entities use some memory.
+		 */
+		byte[]			state	= new byte[256];
+		/**
+		 * Whether the entity is running.
+		 */
+		volatile boolean	running;
+
+		/**
+		 * @param entityName
+		 *            - the name.
+		 */
+		TestEntity(String entityName) {
+			name = entityName;
+		}
+
+		@Override
+		public boolean start() {
+			running = true;
+			return true;
+		}
+
+		@Override
+		public boolean stop() {
+			running = false;
+			return true;
+		}
+
+		@Override
+		public boolean isRunning() {
+			return running;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public boolean addContext(EntityProxy<Node> context) {
+			return true;
+		}
+
+		@Override
+		public boolean removeContext(EntityProxy<Node> context) {
+			return true;
+		}
+
+		@Override
+		public boolean addGeneralContext(EntityProxy<? extends Entity<?>> context) {
+			return true;
+		}
+
+		@Override
+		public boolean removeGeneralContext(EntityProxy<? extends Entity<?>> context) {
+			return true;
+		}
+
+		@Override
+		public <C extends Entity<Node>> EntityProxy<C> asContext() {
+			return null;
+		}
+	}
+
+	/**
+	 * A node which allows registering and removing entities.
+	 */
+	static class IndexedNode extends Node {
+		/**
+		 * @param nodeConfiguration
+		 *            - the configuration.
+		 */
+		IndexedNode(MultiTreeMap nodeConfiguration) {
+			super(nodeConfiguration);
+		}
+
+		/**
+		 * @param entity
+		 *            - the entity to register.
+		 */
+		void add(Entity<?> entity) {
+			registerEntity(CategoryName.AGENT.s(), entity, entity.getName());
+		}
+
+		/**
+		 * @param entity
+		 *            - the entity to remove.
+		 * @return <code>true</code> if the entity was registered.
+		 */
+		boolean remove(Entity<?> entity) {
+			return unregisterEntity(entity);
+		}
+
+		/**
+		 * @return the index of the node.
+		 */
+		EntityIndex getIndex() {
+			return entityIndex;
+		}
+	}
+
+	/**
+	 * Number of threads in the stress test.
+	 */
+	static final int	THREADS		= 8;
+	/**
+	 * Number of operations of each thread in the stress test.
+	 */
+	static final int	OPERATIONS	= 50000;
+	/**
+	 * Number of distinct names in the stress test.
+	 */
+	static final int	NAMES		= 100;
+	/**
+	 * Number of entities in the memory test.
+	 */
+	static final int	ENTITIES	= 100000;
+
+	/**
+	 * @return the heap currently used, after a garbage collection, in KB.
+	 */
+	static long usedHeap() {
+		System.gc();
+		return (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) / 1024;
+	}
+
+	/**
+	 * Concurrently registers, looks up and removes entities in the same index.
+	 *
+	 * @return <code>true</code> if the checks passed.
+	 * @throws Exception
+	 *             if a thread fails.
+	 */
+	static boolean stress() throws Exception {
+		EntityIndex index = new EntityIndex();
+		// the printable names of the entities which are registered
+		Set<String> printed = ConcurrentHashMap.newKeySet();
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		List<Future<Boolean>> results = new ArrayList<>();
+		long start = System.nanoTime();
+		for(int t = 0; t < THREADS; t++) {
+			int thread = t;
+			results.add(executor.submit(() -> {
+				boolean ok = true;
+				for(int i = 0; i < OPERATIONS; i++) {
+					TestEntity shared = new TestEntity("shared" + i % NAMES);
+					TestEntity own = new TestEntity("thread" + thread + "-" + i % NAMES);
+					String print = index.add(CategoryName.AGENT.s(), shared);
+					index.add(CategoryName.SHARD.s(), own);
+					ok &= printed.add(print);
+					ok &= index.lookup(CategoryName.SHARD.s(), own.getName()) == own && index.lookup(own.getName()) == own
+							&& index.lookup(CategoryName.AGENT.s(), own.getName()) == null
+							&& print.equals(index.printName(shared)) && index.lookup(shared.getName()) != null;
+					ok &= printed.remove(print) && index.remove(shared) && index.remove(own) && !index.remove(own);
+					ok &= index.printName(own) == null && index.lookup(CategoryName.SHARD.s(), own.getName()) == null;
+				}
+				return Boolean.valueOf(ok);
+			}));
+		}
+		boolean ok = true;
+		for(Future<Boolean> result : results)
+			ok &= result.get().booleanValue();
+		executor.shutdown();
+		long time = (System.nanoTime() - start) / 1000000;
+		// once all entities are removed, indexes are reused
+		ok &= index.size() == 0 && index.lookup("shared0") == null && index.mockPrintName(CategoryName.AGENT.s(), "shared0")
+				.endsWith(EntityIndex.NAME_INDEX_SEPARATOR + "0");
+		System.out.println(THREADS + " threads registered, looked up and removed " + 2 * THREADS * OPERATIONS
+				+ " entities in " + time + " ms");
+		return ok;
+	}
+
+	/**
+	 * Registers, starts, stops and removes entities.
+	 *
+	 * @return <code>true</code> if the checks passed.
+	 */
+	static boolean memory() {
+		IndexedNode node = new IndexedNode(
+				new MultiTreeMap().addOneValue(DeploymentConfiguration.NAME_ATTRIBUTE_NAME, "indexed-node"));
+		List<WeakReference<Entity<?>>> references = new ArrayList<>();
+		long before = usedHeap();
+		long start = System.nanoTime();
+		for(int i = 0; i < ENTITIES; i++) {
+			TestEntity entity = new TestEntity("entity" + i);
+			references.add(new WeakReference<>(entity));
+			node.add(entity);
+			EntityIndex.register(CategoryName.AGENT.s(), entity);
+			entity.start();
+		}
+		long registered = usedHeap() - before;
+		boolean ok = node.getIndex().size() == ENTITIES;
+		for(int i = 0; i < ENTITIES; i += ENTITIES / 10)
+			ok &= node.getIndex().lookup("entity" + i) != null;
+		ok &= stopAll(node);
+		long time = (System.nanoTime() - start) / 1000000;
+		long retained = usedHeap() - before;
+		// the tables of the index are not shrunk, but no entity should be retained
+		ok &= node.getIndex().size() == 0 && retained < registered / 2;
+		for(WeakReference<Entity<?>> reference : references)
+			ok &= reference.get() == null;
+		System.out.println(ENTITIES + " entities registered, started, stopped and removed in " + time + " ms; "
+				+ registered + " KB used while registered, " + Math.max(0, retained) + " KB retained after removal");
+		return ok;
+	}
+
+	/**
+	 * Stops the entities registered with the node and removes them from the node and from the shared index.
+	 *
+	 * @param node
+	 *            - the node.
+	 * @return <code>true</code> if all entities were found and removed.
+	 */
+	static boolean stopAll(IndexedNode node) {
+		boolean ok = true;
+		for(int i = 0; i < ENTITIES; i++) {
+			Entity<?> entity = node.getIndex().lookup(CategoryName.AGENT.s(), "entity" + i);
+			if(entity == null)
+				return false;
+			entity.stop();
+			ok &= node.remove(entity) && EntityIndex.unregister(entity) && EntityIndex.print(entity) == null;
+		}
+		return ok;
+	}
+
+	/**
+	 * Runs the test.
+	 *
+	 * @param args
+	 *            - not used.
+	 * @throws Exception
+	 *             if a thread of the stress test fails.
+	 */
+	public static void main(String[] args) throws Exception {
+		MasterLog.enablePerformanceModeTools(1000);
+		MasterLog.activateGlobalPerformanceMode();
+		boolean ok = stress();
+		ok &= memory();
+		System.out.println(ok ? "PASSED" : "FAILED");
+		PlatformUtils.systemExit(ok ? 0 : 1);
+	}
+}
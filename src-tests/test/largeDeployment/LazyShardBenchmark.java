@@ -0,0 +1,358 @@
+/*******************************************************************************
+ * Copyright (C) 2021 Andrei Olaru.
+ *
+ * This file is part of Flash-MAS. The CONTRIBUTORS.md file lists people who have been previously involved with this project.
+ *
+ * Flash-MAS is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * Flash-MAS is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Flash-MAS.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package test.largeDeployment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import net.xqhs.flash.core.CategoryName;
+import net.xqhs.flash.core.DeploymentConfiguration;
+import net.xqhs.flash.core.SimpleLoader;
+import net.xqhs.flash.core.agent.Agent;
+import net.xqhs.flash.core.agent.AgentEvent;
+import net.xqhs.flash.core.agent.AgentEvent.AgentEventType;
+import net.xqhs.flash.core.composite.CompositeAgent;
+import net.xqhs.flash.core.composite.CompositeAgentLoader;
+import net.xqhs.flash.core.composite.LazyShard;
+import net.xqhs.flash.core.shard.AgentShardDesignation;
+import net.xqhs.flash.core.shard.AgentShardGeneral;
+import net.xqhs.flash.core.shard.ShardContainer;
+import net.xqhs.flash.core.util.MultiTreeMap;
+import net.xqhs.flash.core.util.PlatformUtils;
+import net.xqhs.util.logging.Logger.Level;
+import net.xqhs.util.logging.MasterLog;
+import net.xqhs.util.logging.UnitComponent;
+
+/**
+ * Loads {@link #AGENTS} agents with {@link #SHARDS} declared shards each, of which only the first {@link #ACTIVE} are
+ * needed, first creating all the shards and then loading the others lazily (see {@link LazyShard}), and reports the
+ * time to load the agents and the heap they retain. Checks that lazy loading is faster and retains less memory.
+ * <p>
+ * Also checks, for one agent, that the lazy shards are not created when the agent is loaded or started, that a shard
+ * subscribed to {@link AgentEventType#AGENT_WAVE} events is created when a wave arrives, that a shard requested by
+ * another shard is created when requested, that both receive the {@link AgentEventType#AGENT_START} event first and
+ * the {@link AgentEventType#AGENT_STOP} event when the agent stops, and that the other shards are never created.
+ */
+public class LazyShardBenchmark {
+	/**
+	 * A shard with some state, which records the events it receives.
+	 */
+	public static abstract class TestShard extends AgentShardGeneral {
+		/**
+		 * The class UID.
+		 */
+		private static final long	serialVersionUID	= 1L;
+		/**
+		 * Some state, so that the shards use some memory.
+		 */
+		byte[]						state				= new byte[STATE];
+		/**
+		 * The types of the events received by the shard.
+		 */
+		List<AgentEventType>		events				= Collections.synchronizedList(new ArrayList<>());
+		/**
+		 * The index of the shard.
+		 */
+		int							index;
+
+		/**
+		 * @param shardIndex
+		 *            - the index of the shard, which gives its designation.
+		 */
+		TestShard(int shardIndex) {
+			super(designation(shardIndex));
+			index = shardIndex;
+		}
+
+		@Override
+		public boolean configure(MultiTreeMap configuration) {
+			configured[index].incrementAndGet();
+			return super.configure(configuration);
+		}
+
+		@Override
+		public void signalAgentEvent(AgentEvent event) {
+			super.signalAgentEvent(event);
+			events.add(event.getType());
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	public static class Shard0 extends TestShard {
+		private static final long serialVersionUID = 1L;
+
+		public Shard0() {
+			super(0);
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	public static class Shard1 extends TestShard {
+		private static final long serialVersionUID = 1L;
+
+		public Shard1() {
+			super(1);
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	public static class Shard2 extends TestShard {
+		private static final long serialVersionUID = 1L;
+
+		public Shard2() {
+			super(2);
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	public static class Shard3 extends TestShard {
+		private static final long serialVersionUID = 1L;
+
+		public Shard3() {
+			super(3);
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	public static class Shard4 extends TestShard {
+		private static final long serialVersionUID = 1L;
+
+		public Shard4() {
+			super(4);
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	public static class Shard5 extends TestShard {
+		private static final long serialVersionUID = 1L;
+
+		public Shard5() {
+			super(5);
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	public static class Shard6 extends TestShard {
+		private static final long serialVersionUID = 1L;
+
+		public Shard6() {
+			super(6);
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	public static class Shard7 extends TestShard {
+		private static final long serialVersionUID = 1L;
+
+		public Shard7() {
+			super(7);
+		}
+	}
+
+	/**
+	 * Number of agents.
+	 */
+	static final int						AGENTS		= 10000;
+	/**
+	 * The classes of the shards declared for each agent.
+	 */
+	static final List<Class<? extends TestShard>>	SHARDS		= Arrays.asList(Shard0.class, Shard1.class,
+			Shard2.class, Shard3.class, Shard4.class, Shard5.class, Shard6.class, Shard7.class);
+	/**
+	 * Number of shards which are always needed (and are not loaded lazily).
+	 */
+	static final int						ACTIVE		= 2;
+	/**
+	 * The size of the state of each shard, in bytes.
+	 */
+	static final int						STATE		= 1024;
+	/**
+	 * The time to wait for the agent to process events, in ms.
+	 */
+	static final long						TIMEOUT		= 5000;
+	/**
+	 * The number of configured instances of each shard class.
+	 */
+	static final AtomicInteger[]			configured	= new AtomicInteger[SHARDS.size()];
+
+	/**
+	 * @param index
+	 *            - the index of a shard.
+	 * @return the designation of the shard.
+	 */
+	static AgentShardDesignation designation(int index) {
+		return AgentShardDesignation.customShard("test/lazy" + index);
+	}
+
+	/**
+	 * @return the heap currently used, after a garbage collection, in bytes.
+	 */
+	static long usedHeap() {
+		System.gc();
+		return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+	}
+
+	/**
+	 * Creates the configuration of an agent. The shard subscribed to waves is the first one after the active shards.
+	 *
+	 * @param name
+	 *            - the name of the agent.
+	 * @param lazy
+	 *            - if <code>true</code>, the shards which are not active are loaded lazily.
+	 * @return the configuration.
+	 */
+	static MultiTreeMap agentConfiguration(String name, boolean lazy) {
+		MultiTreeMap configuration = new MultiTreeMap().addOneValue(DeploymentConfiguration.NAME_ATTRIBUTE_NAME, name);
+		MultiTreeMap shards = configuration.getSingleTree(CategoryName.SHARD.s(), true);
+		for(int i = 0; i < SHARDS.size(); i++) {
+			MultiTreeMap shard = shards.getFirstTree("lazy" + i, true).addSingleValue(SimpleLoader.CLASSPATH_KEY,
+					SHARDS.get(i).getName());
+			if(lazy && i >= ACTIVE)
+				shard.addOneValue(LazyShard.LAZY_SHARD_PARAMETER,
+						i == ACTIVE ? AgentEventType.AGENT_WAVE.name() : Boolean.TRUE.toString());
+		}
+		return configuration;
+	}
+
+	/**
+	 * @return a loader which only logs errors.
+	 */
+	static CompositeAgentLoader loader() {
+		CompositeAgentLoader loader = new CompositeAgentLoader();
+		loader.configure(new MultiTreeMap().addAll(CategoryName.PACKAGE.s(), Arrays.asList("testing")),
+				new UnitComponent("loader").setLogLevel(Level.ERROR), PlatformUtils.getClassFactory());
+		return loader;
+	}
+
+	/**
+	 * Loads agents and measures the time and the heap retained by the agents.
+	 *
+	 * @param agents
+	 *            - the number of agents.
+	 * @param lazy
+	 *            - if <code>true</code>, the shards which are not active are loaded lazily.
+	 * @param result
+	 *            - array in which to return the time to load the agents, in ms, and the memory they retain, in KB.
+	 * @return <code>true</code> if all agents were loaded, with the expected shards created.
+	 */
+	static boolean load(int agents, boolean lazy, long[] result) {
+		CompositeAgentLoader loader = loader();
+		List<MultiTreeMap> configurations = new ArrayList<>();
+		for(int i = 0; i < agents; i++)
+			configurations.add(agentConfiguration("agent" + i, lazy));
+		List<Agent> loaded = new ArrayList<>();
+		for(AtomicInteger count : configured)
+			count.set(0);
+		long before = usedHeap();
+		long start = System.nanoTime();
+		for(MultiTreeMap configuration : configurations)
+			if(loader.preload(configuration))
+				loaded.add(loader.load(configuration));
+		result[0] = (System.nanoTime() - start) / 1000000;
+		result[1] = (usedHeap() - before) / 1024;
+		boolean ok = loaded.size() == agents;
+		for(Agent agent : loaded)
+			ok &= agent instanceof CompositeAgent;
+		for(int i = 0; i < SHARDS.size(); i++)
+			ok &= configured[i].get() == (lazy && i >= ACTIVE ? 0 : agents);
+		return ok;
+	}
+
+	/**
+	 * Waits for a condition to become true.
+	 *
+	 * @param condition
+	 *            - the condition.
+	 * @return <code>true</code> if the condition became true before {@link #TIMEOUT}.
+	 */
+	static boolean waitFor(BooleanSupplier condition) {
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		while(!condition.getAsBoolean())
+			try {
+				if(System.currentTimeMillis() > deadline)
+					return false;
+				Thread.sleep(10);
+			} catch(InterruptedException e) {
+				return false;
+			}
+		return true;
+	}
+
+	/**
+	 * Checks the creation of lazy shards, for one agent.
+	 *
+	 * @return <code>true</code> if the checks passed.
+	 */
+	static boolean checkLazy() {
+		for(AtomicInteger count : configured)
+			count.set(0);
+		MultiTreeMap configuration = agentConfiguration("lazy-agent", true);
+		CompositeAgentLoader loader = loader();
+		if(!loader.preload(configuration))
+			return false;
+		CompositeAgent agent = (CompositeAgent) loader.load(configuration);
+		ShardContainer container = (ShardContainer) agent.asContext();
+		boolean ok = agent.start() && waitFor(() -> agent.isRunning());
+		TestShard active = (TestShard) container.getAgentShard(designation(0));
+		ok &= waitFor(() -> active.events.contains(AgentEventType.AGENT_START));
+		ok &= configured[ACTIVE].get() == 0 && configured[ACTIVE + 1].get() == 0;
+
+		// the shard subscribed to waves
+		container.postAgentEvent(new AgentEvent(AgentEventType.AGENT_WAVE));
+		ok &= waitFor(() -> configured[ACTIVE].get() == 1);
+		TestShard subscribed = (TestShard) container.getAgentShard(designation(ACTIVE));
+		ok &= waitFor(() -> subscribed.events.size() == 2) && subscribed.events
+				.equals(Arrays.asList(AgentEventType.AGENT_START, AgentEventType.AGENT_WAVE));
+		// a shard requested by another shard
+		ok &= configured[ACTIVE + 1].get() == 0;
+		TestShard requested = (TestShard) container.getAgentShard(designation(ACTIVE + 1));
+		ok &= requested != null && requested.events.equals(Arrays.asList(AgentEventType.AGENT_START))
+				&& container.getAgentShard(designation(ACTIVE + 1)) == requested;
+
+		ok &= agent.stop() && waitFor(() -> agent.isStopped());
+		for(TestShard shard : Arrays.asList(active, subscribed, requested))
+			ok &= shard.events.get(shard.events.size() - 1) == AgentEventType.AGENT_STOP;
+		for(int i = 0; i < SHARDS.size(); i++)
+			ok &= configured[i].get() == (i < ACTIVE + 2 ? 1 : 0);
+		System.out.println("lazy shards " + (ok ? "are" : "are NOT") + " created when needed");
+		return ok;
+	}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args
+	 *            - not used.
+	 */
+	public static void main(String[] args) {
+		MasterLog.enablePerformanceModeTools(1000);
+		MasterLog.activateGlobalPerformanceMode();
+		for(int i = 0; i < configured.length; i++)
+			configured[i] = new AtomicInteger();
+		boolean ok = checkLazy();
+
+		long[] eager = new long[2], lazy = new long[2];
+		// warm up
+		ok &= load(AGENTS / 10, false, eager) && load(AGENTS / 10, true, lazy);
+		ok &= load(AGENTS, false, eager) && load(AGENTS, true, lazy);
+		System.out.println(AGENTS + " agents with " + SHARDS.size() + " shards, of which " + ACTIVE
+				+ " active: all shards created in " + eager[0] + " ms, retaining " + eager[1] + " KB; lazy shards in "
+				+ lazy[0] + " ms, retaining " + lazy[1] + " KB");
+		ok &= lazy[0] < eager[0] && lazy[1] < eager[1];
+		System.out.println(ok ? "PASSED" : "FAILED");
+		PlatformUtils.systemExit(ok ? 0 : 1);
+	}
+}
@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright (C) 2021 Andrei Olaru.
+ *
+ * This file is part of Flash-MAS. The CONTRIBUTORS.md file lists people who have been previously involved with this project.
+ *
+ * Flash-MAS is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * Flash-MAS is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Flash-MAS.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package test.largeDeployment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.xqhs.flash.core.Entity;
+import net.xqhs.flash.core.node.Node;
+import net.xqhs.flash.core.node.NodeLoader;
+import net.xqhs.flash.core.util.MultiTreeMap;
+import net.xqhs.flash.core.util.PlatformUtils;
+import net.xqhs.util.logging.MasterLog;
+
+/**
+ * Loads (without starting) a node with a local pylon and {@link #AGENTS} agents of the types in
+ * {@link AutoFindBenchmark#TYPES}, sequentially and in parallel (see {@link NodeLoader#PARALLEL_LOAD_PARAMETER}),
+ * measures the load times and checks that in both cases the pylons and then all agents are registered with the node, in
+ * the order of the deployment. The speedup of the parallel load depends on the number of available processors.
+ */
+public class ParallelLoadTest {
+	/**
+	 * A node which exposes the names of its entities.
+	 */
+	public static class ListedNode extends Node {
+		/**
+		 * @param nodeConfiguration
+		 *            - the configuration.
+		 */
+		public ListedNode(MultiTreeMap nodeConfiguration) {
+			super(nodeConfiguration);
+		}
+
+		/**
+		 * @return the names of the entities, in the order in which they were registered.
+		 */
+		public List<String> getEntityNames() {
+			List<String> names = new ArrayList<>();
+			for(Entity<?> entity : getEntities())
+				names.add(entity.getName());
+			return names;
+		}
+	}
+
+	/**
+	 * Number of agents.
+	 */
+	static final int	AGENTS	= 5000;
+	/**
+	 * Number of threads for the parallel load.
+	 */
+	static final int	THREADS	= 4;
+
+	/**
+	 * Loads the deployment.
+	 *
+	 * @param threads
+	 *            - the number of threads to load on.
+	 * @param names
+	 *            - the list to which to add the names of the entities in the node, in the order of their registration.
+	 * @return the time to load the deployment, in ms, or -1 if the deployment was not loaded.
+	 */
+	static long boot(int threads, List<String> names) {
+		StringBuilder a = new StringBuilder("-package testing test.compositeMobility -loader agent:composite -node node"
+				+ threads + " classpath:" + ListedNode.class.getName() + " " + NodeLoader.PARALLEL_LOAD_PARAMETER + ":"
+				+ threads + " -pylon local:pylon" + threads);
+		for(int i = 0; i < AGENTS; i++)
+			a.append(" -agent composite:agent" + i + " "
+					+ AutoFindBenchmark.TYPES[i % AutoFindBenchmark.TYPES.length]);
+		long start = System.nanoTime();
+		List<Node> nodes = new NodeLoader().loadDeployment(Arrays.asList(a.toString().split(" ")));
+		long time = (System.nanoTime() - start) / 1000000;
+		if(nodes == null)
+			return -1;
+		// there is also the (empty) node created by default
+		for(Node node : nodes)
+			if(node instanceof ListedNode) {
+				names.addAll(((ListedNode) node).getEntityNames());
+				return time;
+			}
+		return -1;
+	}
+
+	/**
+	 * @param names
+	 *            - the names of the entities in a node, in the order of their registration.
+	 * @return <code>true</code> if the node contains the pylons, followed by all the agents, in the order of the
+	 *         deployment.
+	 */
+	static boolean isOrdered(List<String> names) {
+		int agent = 0;
+		for(String name : names)
+			if(name.startsWith("agent")) {
+				if(!name.equals("agent" + agent))
+					return false;
+				agent++;
+			}
+			else if(agent > 0 || !name.contains("pylon"))
+				return false;
+		return agent == AGENTS;
+	}
+
+	/**
+	 * Runs the test.
+	 *
+	 * @param args
+	 *            - not used.
+	 */
+	public static void main(String[] args) {
+		MasterLog.enablePerformanceModeTools(1000);
+		MasterLog.activateGlobalPerformanceMode();
+		List<String> warmup = new ArrayList<>(), sequential = new ArrayList<>(), parallel = new ArrayList<>();
+		boot(THREADS, warmup);
+		long sequentialTime = boot(1, sequential);
+		long parallelTime = boot(THREADS, parallel);
+
+		System.out.println(AGENTS + " agents loaded sequentially in " + sequentialTime + " ms, on " + THREADS
+				+ " threads in " + parallelTime + " ms (" + Runtime.getRuntime().availableProcessors()
+				+ " processors available)");
+		boolean ok = sequentialTime >= 0 && parallelTime >= 0 && isOrdered(sequential) && isOrdered(parallel);
+		System.out.println(ok ? "PASSED" : "FAILED");
+		PlatformUtils.systemExit(ok ? 0 : 1);
+	}
+}
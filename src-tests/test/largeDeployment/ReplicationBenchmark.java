@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright (C) 2021 Andrei Olaru.
+ *
+ * This file is part of Flash-MAS. The CONTRIBUTORS.md file lists people who have been previously involved with this project.
+ *
+ * Flash-MAS is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * Flash-MAS is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Flash-MAS.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package test.largeDeployment;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import net.xqhs.flash.core.DeploymentConfiguration;
+import net.xqhs.flash.core.node.Node;
+import net.xqhs.flash.core.node.NodeLoader;
+import net.xqhs.flash.core.util.PlatformUtils;
+import net.xqhs.util.logging.MasterLog;
+
+/**
+ * Deploys {@link #AGENTS} agents (in a node, with a local pylon) described by a single agent template with a
+ * {@link DeploymentConfiguration#COUNT_ATTRIBUTE_NAME} attribute, and reports the memory retained by the deployment
+ * configuration (compared to a deployment file listing all the agents) and the time to load the deployment. Checks
+ * that the configuration contains a single agent and retains less memory, and that the node contains the pylon,
+ * followed by all the replicas, named after the pattern, in order.
+ */
+public class ReplicationBenchmark {
+	/**
+	 * Number of agents.
+	 */
+	static final int AGENTS = 100000;
+
+	/**
+	 * Writes a deployment file.
+	 *
+	 * @param file
+	 *            - the file.
+	 * @param replicated
+	 *            - if <code>true</code>, the agents are described by a template; otherwise, they are all listed.
+	 * @throws Exception
+	 *             if the file cannot be written.
+	 */
+	static void writeDeployment(File file, boolean replicated) throws Exception {
+		StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		xml.append("<deployment xmlns=\"http://flash.xqhs.net/deployment-schema\">\n");
+		xml.append("\t<package>testing</package>\n\t<loader for=\"agent:composite\" />\n");
+		xml.append("\t<node name=\"node\" classpath=\"" + ParallelLoadTest.ListedNode.class.getName() + "\">\n");
+		xml.append("\t\t<pylon kind=\"local\" name=\"pylon\" />\n");
+		String shards = "\t\t\t<shard name=\"messaging\" />\n\t\t\t<shard name=\"EchoTesting\" />\n\t\t</agent>\n";
+		if(replicated)
+			xml.append("\t\t<agent kind=\"composite\" name=\"agent" + DeploymentConfiguration.REPLICA_INDEX_PLACEHOLDER
+					+ "\" count=\"" + AGENTS + "\">\n" + shards);
+		else
+			for(int i = 0; i < AGENTS; i++)
+				xml.append("\t\t<agent kind=\"composite\" name=\"agent" + i + "\">\n" + shards);
+		xml.append("\t</node>\n</deployment>\n");
+		Files.write(file.toPath(), xml.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @return the heap currently used, after a garbage collection, in bytes.
+	 */
+	static long usedHeap() {
+		System.gc();
+		return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+	}
+
+	/**
+	 * Reads the deployment configuration (as in {@link DeploymentParseBenchmark}) and measures the memory it retains.
+	 *
+	 * @param file
+	 *            - the deployment file.
+	 * @param entities
+	 *            - array in which to return the number of entities in the configuration, or -1 if the file was not
+	 *            read.
+	 * @return the memory retained by the configuration, in KB.
+	 */
+	static long configurationMemory(File file, int[] entities) {
+		long before = usedHeap();
+		DeploymentParseBenchmark.TreeReader config = new DeploymentParseBenchmark.TreeReader();
+		boolean read = config.readStream(file.getPath());
+		// for small configurations, the measurement noise may be larger than the configuration
+		long memory = Math.max(0, usedHeap() - before) / 1024;
+		entities[0] = read ? config.getEntityList().size() : -1;
+		return memory;
+	}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args
+	 *            - not used.
+	 * @throws Exception
+	 *             if the deployment files cannot be created.
+	 */
+	public static void main(String[] args) throws Exception {
+		MasterLog.enablePerformanceModeTools(1000);
+		MasterLog.activateGlobalPerformanceMode();
+		File replicated = File.createTempFile("deployment", ".xml");
+		File listed = File.createTempFile("deployment", ".xml");
+		replicated.deleteOnExit();
+		listed.deleteOnExit();
+		writeDeployment(replicated, true);
+		writeDeployment(listed, false);
+
+		int[] replicatedEntities = new int[1], listedEntities = new int[1];
+		long replicatedMemory = configurationMemory(replicated, replicatedEntities);
+		long listedMemory = configurationMemory(listed, listedEntities);
+		listed.delete();
+		// the template and its shards stand for all the agents and their shards
+		boolean ok = replicatedEntities[0] > 0 && listedEntities[0] - replicatedEntities[0] == 3 * (AGENTS - 1)
+				&& replicatedMemory < listedMemory;
+
+		long start = System.nanoTime();
+		List<Node> nodes = new NodeLoader().loadDeployment(Arrays.asList(replicated.getPath()));
+		long loadTime = (System.nanoTime() - start) / 1000000;
+		int agent = 0;
+		if(nodes != null)
+			for(Node node : nodes)
+				if(node instanceof ParallelLoadTest.ListedNode)
+					for(String name : ((ParallelLoadTest.ListedNode) node).getEntityNames())
+						if(name.equals("agent" + agent))
+							agent++;
+						else if(agent > 0 || !name.contains("pylon"))
+							ok = false;
+		ok &= agent == AGENTS;
+
+		System.out.println(AGENTS + " agents: configuration of " + replicatedMemory + " KB with a template ("
+				+ replicated.length() + " bytes deployment file), of " + listedMemory
+				+ " KB with all agents listed; deployment loaded in " + loadTime + " ms");
+		System.out.println(ok ? "PASSED" : "FAILED");
+		PlatformUtils.systemExit(ok ? 0 : 1);
+	}
+}
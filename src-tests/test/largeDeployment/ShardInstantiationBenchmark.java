@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (C) 2021 Andrei Olaru.
+ *
+ * This file is part of Flash-MAS. The CONTRIBUTORS.md file lists people who have been previously involved with this project.
+ *
+ * Flash-MAS is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * Flash-MAS is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Flash-MAS.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package test.largeDeployment;
+
+import java.util.Arrays;
+
+import net.xqhs.flash.core.CategoryName;
+import net.xqhs.flash.core.SimpleLoader;
+import net.xqhs.flash.core.composite.CompositeAgentLoader;
+import net.xqhs.flash.core.shard.AgentShard;
+import net.xqhs.flash.core.util.ClassFactory;
+import net.xqhs.flash.core.util.MultiTreeMap;
+import net.xqhs.flash.core.util.PlatformUtils;
+import net.xqhs.flash.pc.PCClassFactory;
+import net.xqhs.util.logging.Logger.Level;
+import net.xqhs.util.logging.MasterLog;
+import net.xqhs.util.logging.UnitComponent;
+import testing.EchoTestingShard;
+
+/**
+ * Measures the time to instantiate {@link #SHARDS} shards through a {@link CompositeAgentLoader}, with a
+ * {@link PCClassFactory} which looks up the class and the constructor for each instance and with the caching factory
+ * of the platform ({@link PlatformUtils#getClassFactory()}). The shard class is resolved once; each instantiation
+ * comprises the creation and configuration of the shard ({@link CompositeAgentLoader#loadShard}). The loader only logs
+ * errors, so that logging does not dominate the measurement. The best of {@link #ROUNDS} rounds is reported.
+ */
+public class ShardInstantiationBenchmark {
+	/**
+	 * Number of shards in a round.
+	 */
+	static final int	SHARDS	= 100000;
+	/**
+	 * Number of rounds.
+	 */
+	static final int	ROUNDS	= 5;
+
+	/**
+	 * @param factory
+	 *            - the class factory.
+	 * @return a configured loader.
+	 */
+	static CompositeAgentLoader loader(ClassFactory factory) {
+		CompositeAgentLoader loader = new CompositeAgentLoader();
+		loader.configure(new MultiTreeMap().addAll(CategoryName.PACKAGE.s(), Arrays.asList("testing")),
+				new UnitComponent("loader").setLogLevel(Level.ERROR), factory);
+		return loader;
+	}
+
+	/**
+	 * Instantiates the shards.
+	 *
+	 * @param loader
+	 *            - the loader.
+	 * @return the duration of the round, in ns, or -1 if a shard was not instantiated.
+	 */
+	static long instantiate(CompositeAgentLoader loader) {
+		MultiTreeMap resolved = new MultiTreeMap();
+		loader.preloadShard("EchoTesting", resolved, null, "");
+		String shardClass = resolved.getSingleValue(SimpleLoader.CLASSPATH_KEY);
+		long start = System.nanoTime();
+		for(int i = 0; i < SHARDS; i++) {
+			MultiTreeMap config = new MultiTreeMap().addSingleValue(SimpleLoader.CLASSPATH_KEY, shardClass);
+			AgentShard shard = loader.loadShard("EchoTesting", config, "", "agent" + i);
+			if(!(shard instanceof EchoTestingShard))
+				return -1;
+		}
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args
+	 *            - not used.
+	 */
+	public static void main(String[] args) {
+		MasterLog.enablePerformanceModeTools(1000);
+		MasterLog.activateGlobalPerformanceMode();
+		CompositeAgentLoader lookup = loader(new PCClassFactory(false)),
+				cached = loader(PlatformUtils.getClassFactory());
+		long best = Long.MAX_VALUE, bestCached = Long.MAX_VALUE;
+		boolean ok = PlatformUtils.getClassFactory() == PlatformUtils.getClassFactory();
+		for(int round = 0; round < ROUNDS && ok; round++) {
+			long time = instantiate(lookup), cachedTime = instantiate(cached);
+			ok &= time >= 0 && cachedTime >= 0;
+			best = Math.min(best, time);
+			bestCached = Math.min(bestCached, cachedTime);
+		}
+		if(ok) {
+			System.out.println(SHARDS + " shards with lookups: " + best / SHARDS + " ns per shard");
+			System.out.println(SHARDS + " shards with the cached factory: " + bestCached / SHARDS + " ns per shard");
+		}
+		ok &= bestCached < best;
+		System.out.println(ok ? "PASSED" : "FAILED");
+		PlatformUtils.systemExit(ok ? 0 : 1);
+	}
+}
@@ -0,0 +1,267 @@
+/*******************************************************************************
+ * Copyright (C) 2021 Andrei Olaru.
+ *
+ * This file is part of Flash-MAS. The CONTRIBUTORS.md file lists people who have been previously involved with this project.
+ *
+ * Flash-MAS is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * Flash-MAS is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Flash-MAS.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package test.largeDeployment;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.xqhs.flash.core.CategoryName;
+import net.xqhs.flash.core.DeploymentConfiguration;
+import net.xqhs.flash.core.SimpleLoader;
+import net.xqhs.flash.core.agent.Agent;
+import net.xqhs.flash.core.composite.CompositeAgent;
+import net.xqhs.flash.core.composite.CompositeAgentLoader;
+import net.xqhs.flash.core.node.NodeLoader;
+import net.xqhs.flash.core.util.MultiTreeMap;
+import net.xqhs.flash.core.util.PlatformUtils;
+import net.xqhs.util.logging.DumbLogger;
+import net.xqhs.util.logging.MasterLog;
+
+/**
+ * Checks that the {@link MultiTreeMap#copyOnWrite()} copies of a configuration share it until they are modified, and
+ * that modifying a copy (at any level) does not affect the original or the other copies, while the original cannot be
+ * modified anymore, and that copies are serialized without the original and are read back as independent trees,
+ * even when written to the same stream.
+ * <p>
+ * Then, reads a deployment with an agent template for {@link #AGENTS} agents (with {@link #PARAMETERS} parameters for
+ * the agent and for each of its shards) and loads the agents with the {@link CompositeAgentLoader}, first giving each
+ * agent a separate copy of the configuration (as for a deployment listing all the agents), then giving them the
+ * replicas of the template, which share its configuration. Reports the heap retained by the agents in each case. Checks
+ * that all agents are loaded, with all their shards, that the template is not modified and that the agents sharing the
+ * configuration retain less memory.
+ */
+public class SharedConfigurationBenchmark {
+	/**
+	 * Number of agents.
+	 */
+	static final int		AGENTS		= 10000;
+	/**
+	 * Number of parameters of the agent and of each shard.
+	 */
+	static final int		PARAMETERS	= 10;
+	/**
+	 * The shards of each agent.
+	 */
+	static final String[]	SHARDS		= { "EchoTesting", "PingBackTest" };
+
+	/**
+	 * Checks copy-on-write copies of a configuration.
+	 *
+	 * @return <code>true</code> if the checks passed.
+	 */
+	static boolean checkSharing() {
+		MultiTreeMap original = new MultiTreeMap().addOneValue(DeploymentConfiguration.NAME_ATTRIBUTE_NAME, "agent");
+		original.addSingleValue("parameter", "value");
+		original.getSingleTree("shard", true).getFirstTree("messaging", true).addOneValue("parameter", "value");
+		String printed = original.toString();
+		MultiTreeMap copy = original.copyOnWrite(), other = original.copyOnWrite();
+		boolean ok = original.isFrozen() && !copy.isFrozen() && copy.toString().equals(printed)
+				&& copy.getValuesView(DeploymentConfiguration.NAME_ATTRIBUTE_NAME).equals(Arrays.asList("agent"))
+				&& copy.getValuesView("other").isEmpty();
+		copy.setValue("parameter", "changed");
+		copy.getSingleTree("shard").getFirstTree("messaging").addOneValue("parameter", "added");
+		copy.getSingleTree("shard").addOneTree("echo", new MultiTreeMap());
+		other.getSingleTree("shard").getFirstTree("messaging").removeKey("parameter");
+		ok &= original.toString().equals(printed) && "changed".equals(copy.getSingleValue("parameter"))
+				&& "value".equals(other.getSingleValue("parameter"))
+				&& copy.getSingleTree("shard").getFirstTree("messaging").getValues("parameter").size() == 2
+				&& !other.getSingleTree("shard").getFirstTree("messaging").containsKey("parameter")
+				&& !other.getSingleTree("shard").containsKey("echo");
+		// copies of copies
+		MultiTreeMap second = copy.copyOnWrite();
+		second.getSingleTree("shard").getFirstTree("messaging").clear("parameter");
+		ok &= copy.isFrozen()
+				&& copy.getSingleTree("shard").getFirstTree("messaging").getValues("parameter").size() == 2;
+		for(Runnable change : Arrays.<Runnable> asList(() -> original.setValue("parameter", "changed"),
+				() -> original.getSingleTree("shard").getFirstTree("messaging").removeKey("parameter"),
+				() -> copy.addOneValue("other", "value")))
+			try {
+				change.run();
+				ok = false;
+			} catch(IllegalStateException e) {
+				// expected
+			}
+		ok &= original.toString().equals(printed);
+		// copies written to the same stream are read as unshared trees
+		MultiTreeMap template = new MultiTreeMap().addOneValue("parameter", "value");
+		template.getSingleTree("shard", true).addOneValue("parameter", "value");
+		MultiTreeMap first = template.copyOnWrite(), last = template.copyOnWrite();
+		first.getSingleTree("shard").addOneValue("parameter", "added");
+		try {
+			// the template is not written with the copies
+			ok &= serialize(last).length == serialize(last.copyDeep()).length;
+			MultiTreeMap firstRead, lastRead;
+			try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialize(first, last)))) {
+				firstRead = (MultiTreeMap) in.readObject();
+				lastRead = (MultiTreeMap) in.readObject();
+			}
+			ok &= firstRead.toString().equals(first.toString()) && lastRead.toString().equals(last.toString());
+			firstRead.addOneValue("parameter", "added");
+			lastRead.getSingleTree("shard").clear("parameter");
+			ok &= !firstRead.isFrozen() && !lastRead.isFrozen() && lastRead.getValues("parameter").size() == 1
+					&& firstRead.getSingleTree("shard").getValues("parameter").size() == 2
+					&& template.getValues("parameter").size() == 1;
+		} catch(IOException | ClassNotFoundException e) {
+			e.printStackTrace();
+			ok = false;
+		}
+		System.out.println("copy-on-write copies " + (ok ? "are" : "are NOT") + " independent");
+		return ok;
+	}
+
+	/**
+	 * Serializes objects to the same stream.
+	 *
+	 * @param objects
+	 *            - the objects.
+	 * @return the serialized form.
+	 * @throws IOException
+	 *             if an object cannot be serialized.
+	 */
+	static byte[] serialize(Object... objects) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			for(Object object : objects)
+				out.writeObject(object);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Writes a deployment file with an agent template.
+	 *
+	 * @param file
+	 *            - the file.
+	 * @throws Exception
+	 *             if the file cannot be written.
+	 */
+	static void writeDeployment(File file) throws Exception {
+		StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		xml.append("<deployment xmlns=\"http://flash.xqhs.net/deployment-schema\">\n");
+		xml.append("\t<package>testing</package>\n\t<loader for=\"agent:composite\" />\n\t<node name=\"node\">\n");
+		xml.append("\t\t<agent kind=\"composite\" name=\"agent" + DeploymentConfiguration.REPLICA_INDEX_PLACEHOLDER
+				+ "\" count=\"" + AGENTS + "\">\n" + parameters("\t\t\t", "agent"));
+		for(String shard : SHARDS)
+			xml.append("\t\t\t<shard name=\"" + shard + "\">\n" + parameters("\t\t\t\t", shard) + "\t\t\t</shard>\n");
+		xml.append("\t\t</agent>\n\t</node>\n</deployment>\n");
+		Files.write(file.toPath(), xml.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @param indent
+	 *            - the indentation.
+	 * @param prefix
+	 *            - prefix of the names and values of the parameters.
+	 * @return {@link #PARAMETERS} parameter elements.
+	 */
+	static String parameters(String indent, String prefix) {
+		StringBuilder parameters = new StringBuilder();
+		for(int i = 0; i < PARAMETERS; i++)
+			parameters.append(indent + "<parameter name=\"" + prefix + "-parameter" + i + "\" value=\"" + prefix
+					+ "-value" + i + "\" />\n");
+		return parameters.toString();
+	}
+
+	/**
+	 * @return the heap currently used, after a garbage collection, in bytes.
+	 */
+	static long usedHeap() {
+		System.gc();
+		return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+	}
+
+	/**
+	 * Loads {@link #AGENTS} agents from the template, as the {@link NodeLoader} does, and measures the heap retained by
+	 * the agents.
+	 *
+	 * @param template
+	 *            - the configuration of the template.
+	 * @param shared
+	 *            - if <code>true</code>, the agents are given the replicas of the template, sharing its configuration;
+	 *            otherwise, they are given separate configurations, as if all agents were listed in the deployment.
+	 * @param agents
+	 *            - the list in which to keep the agents.
+	 * @return the memory retained by the agents, in KB, or -1 if not all agents were loaded with all their shards.
+	 */
+	static long load(MultiTreeMap template, boolean shared, List<Agent> agents) {
+		CompositeAgentLoader loader = new CompositeAgentLoader();
+		loader.configure(new MultiTreeMap().addAll(CategoryName.PACKAGE.s(), Arrays.asList("testing")),
+				new DumbLogger(), PlatformUtils.getClassFactory());
+		boolean complete = true;
+		long before = usedHeap();
+		for(int i = 0; i < AGENTS; i++) {
+			MultiTreeMap configuration = DeploymentConfiguration.replicate(template, i);
+			if(!shared)
+				configuration = configuration.copyDeep();
+			if(loader.preload(configuration))
+				agents.add(loader.load(configuration));
+			// the class of each shard has been found and added to its configuration
+			for(String shard : SHARDS)
+				complete &= configuration.getSingleTree("shard").getFirstTree(shard)
+						.isSimple(SimpleLoader.CLASSPATH_KEY);
+		}
+		long memory = (usedHeap() - before) / 1024;
+		for(Agent agent : agents)
+			complete &= agent instanceof CompositeAgent;
+		return complete && agents.size() == AGENTS ? memory : -1;
+	}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args
+	 *            - not used.
+	 * @throws Exception
+	 *             if the deployment file cannot be created.
+	 */
+	public static void main(String[] args) throws Exception {
+		MasterLog.enablePerformanceModeTools(1000);
+		MasterLog.activateGlobalPerformanceMode();
+		boolean ok = checkSharing();
+
+		File deployment = File.createTempFile("deployment", ".xml");
+		deployment.deleteOnExit();
+		writeDeployment(deployment);
+		DeploymentParseBenchmark.TreeReader reader = new DeploymentParseBenchmark.TreeReader();
+		ok &= reader.readStream(deployment.getPath());
+		List<MultiTreeMap> templates = DeploymentConfiguration.filterCategoryInContext(reader.getEntityList(),
+				CategoryName.AGENT.s(), null);
+		ok &= templates.size() == 1 && DeploymentConfiguration.getReplicaCount(templates.get(0)) == AGENTS;
+		if(!ok) {
+			System.out.println("FAILED");
+			PlatformUtils.systemExit(1);
+		}
+		MultiTreeMap template = templates.get(0);
+		String printed = template.toString();
+		List<Agent> agents = new ArrayList<>();
+		long separateMemory = load(template, false, agents);
+		agents.clear();
+		long sharedMemory = load(template, true, agents);
+		ok &= sharedMemory >= 0 && separateMemory >= 0 && sharedMemory < separateMemory
+				&& template.toString().equals(printed);
+
+		System.out.println(AGENTS + " agents with " + PARAMETERS + " parameters for the agent and each of its "
+				+ SHARDS.length + " shards: " + sharedMemory + " KB retained with the configuration shared with the "
+				+ "template, " + separateMemory + " KB with separate configurations");
+		System.out.println(ok ? "PASSED" : "FAILED");
+		PlatformUtils.systemExit(ok ? 0 : 1);
+	}
+}
@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright (C) 2021 Andrei Olaru.
+ *
+ * This file is part of Flash-MAS. The CONTRIBUTORS.md file lists people who have been previously involved with this project.
+ *
+ * Flash-MAS is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * Flash-MAS is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Flash-MAS.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package test.largeDeployment;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.xqhs.flash.core.CategoryName;
+import net.xqhs.flash.core.DeploymentConfiguration;
+import net.xqhs.flash.core.DeploymentSnapshot;
+import net.xqhs.flash.core.node.Node;
+import net.xqhs.flash.core.node.NodeLoader;
+import net.xqhs.flash.core.util.MultiTreeMap;
+import net.xqhs.flash.core.util.PlatformUtils;
+import net.xqhs.util.logging.MasterLog;
+
+/**
+ * Measures the time to boot (without starting) a deployment file with a node containing a local pylon and
+ * {@link ParallelLoadTest#AGENTS} agents of the types in {@link AutoFindBenchmark#TYPES}, from the XML file and from a
+ * {@link DeploymentSnapshot}. Checks that:
+ * <ul>
+ * <li>the configuration read from the snapshot is the same as the one it was compiled from, and the node contains the
+ * same entities, in the same order;
+ * <li>the snapshot is not used after the deployment file is modified.
+ * </ul>
+ */
+public class SnapshotBootBenchmark {
+	/**
+	 * Writes the deployment file.
+	 *
+	 * @param file
+	 *            - the file.
+	 * @throws Exception
+	 *             if the file cannot be written.
+	 */
+	static void writeDeployment(File file) throws Exception {
+		StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		xml.append("<deployment xmlns=\"http://flash.xqhs.net/deployment-schema\">\n");
+		xml.append("\t<package>testing</package>\n\t<package>test.compositeMobility</package>\n");
+		xml.append("\t<loader for=\"agent:composite\" />\n");
+		xml.append("\t<node name=\"node\" classpath=\"" + ParallelLoadTest.ListedNode.class.getName() + "\">\n");
+		xml.append("\t\t<pylon kind=\"local\" name=\"pylon\" />\n");
+		for(int i = 0; i < ParallelLoadTest.AGENTS; i++) {
+			xml.append("\t\t<agent kind=\"composite\" name=\"agent" + i + "\">\n");
+			String[] type = AutoFindBenchmark.TYPES[i % AutoFindBenchmark.TYPES.length].split(" ");
+			for(int s = 1; s < type.length; s += 2)
+				xml.append("\t\t\t<shard name=\"" + type[s] + "\" />\n");
+			xml.append("\t\t</agent>\n");
+		}
+		xml.append("\t</node>\n</deployment>\n");
+		Files.write(file.toPath(), xml.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Boots the deployment.
+	 *
+	 * @param file
+	 *            - the deployment file.
+	 * @param names
+	 *            - the list to which to add the names of the entities in the node, in the order of their registration.
+	 * @return the time to boot the deployment, in ms, or -1 if the deployment was not loaded.
+	 */
+	static long boot(File file, List<String> names) {
+		long start = System.nanoTime();
+		List<Node> nodes = new NodeLoader().loadDeployment(Arrays.asList(file.getPath()));
+		long time = (System.nanoTime() - start) / 1000000;
+		if(nodes == null)
+			return -1;
+		for(Node node : nodes)
+			if(node instanceof ParallelLoadTest.ListedNode) {
+				names.addAll(((ParallelLoadTest.ListedNode) node).getEntityNames());
+				return time;
+			}
+		return -1;
+	}
+
+	/**
+	 * @param file
+	 *            - the deployment file.
+	 * @return <code>true</code> if the snapshot matches the deployment file.
+	 */
+	static boolean matches(File file) {
+		byte[] fingerprint = DeploymentSnapshot.fingerprint(Arrays.asList(file.getPath()), file.getPath(),
+				new DeploymentConfiguration().getSingleTree(CategoryName.DEPLOYMENT.s()).getSingleTree(null)
+						.getSingleValue(CategoryName.SCHEMA.s()));
+		return DeploymentSnapshot.read(fingerprint, new MultiTreeMap());
+	}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args
+	 *            - not used.
+	 * @throws Exception
+	 *             if the files cannot be created.
+	 */
+	public static void main(String[] args) throws Exception {
+		MasterLog.enablePerformanceModeTools(1000);
+		MasterLog.activateGlobalPerformanceMode();
+		File deployment = File.createTempFile("deployment", ".xml");
+		File snapshot = File.createTempFile("deployment", ".snapshot");
+		deployment.deleteOnExit();
+		snapshot.deleteOnExit();
+		writeDeployment(deployment);
+
+		List<String> warmup = new ArrayList<>(), fromXML = new ArrayList<>(), fromSnapshot = new ArrayList<>();
+		boot(deployment, warmup);
+		long xmlTime = boot(deployment, fromXML);
+
+		// compile the snapshot
+		snapshot.delete();
+		DeploymentSnapshot.setSnapshotFile(snapshot);
+		String compiled = new DeploymentConfiguration().loadConfiguration(Arrays.asList(deployment.getPath()), true, null)
+				.toString();
+		boolean ok = snapshot.isFile() && matches(deployment);
+		String read = new DeploymentConfiguration().loadConfiguration(Arrays.asList(deployment.getPath()), true, null)
+				.toString();
+		ok &= compiled.equals(read);
+
+		long snapshotTime = boot(deployment, fromSnapshot);
+		ok &= fromXML.equals(fromSnapshot) && ParallelLoadTest.isOrdered(fromSnapshot);
+
+		// a modified deployment file invalidates the snapshot
+		Files.write(deployment.toPath(), "<!-- modified -->\n".getBytes(StandardCharsets.UTF_8),
+				StandardOpenOption.APPEND);
+		ok &= !matches(deployment);
+
+		System.out.println(ParallelLoadTest.AGENTS + " agents booted from XML in " + xmlTime
+				+ " ms, from the snapshot in " + snapshotTime + " ms (deployment file of " + deployment.length()
+				+ " bytes, snapshot of " + snapshot.length() + " bytes)");
+		ok &= xmlTime >= 0 && snapshotTime >= 0;
+		System.out.println(ok ? "PASSED" : "FAILED");
+		PlatformUtils.systemExit(ok ? 0 : 1);
+	}
+}
@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (C) 2021 Andrei Olaru.
+ *
+ * This file is part of Flash-MAS. The CONTRIBUTORS.md file lists people who have been previously involved with this project.
+ *
+ * Flash-MAS is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * Flash-MAS is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Flash-MAS.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package test.largeDeployment;
+
+import java.util.Arrays;
+import java.util.List;
+
+import net.xqhs.flash.core.node.Node;
+import net.xqhs.flash.core.node.NodeLoader;
+import net.xqhs.flash.core.util.PlatformUtils;
+import net.xqhs.util.logging.MasterLog;
+
+/**
+ * Measures the time to start a node with a local pylon and 1, 100 and 10000 agents (each with a messaging shard),
+ * with all entities started sequentially and with a staged start (see {@link Node#START_BATCH_PARAMETER}), in batches
+ * of {@link #BATCH} agents. Only the start of the node is measured; the node is stopped after each measurement. The
+ * speedup of the staged start depends on the number of available processors.
+ */
+public class StartupBenchmark {
+	/**
+	 * The numbers of agents.
+	 */
+	static final int[]	AGENTS	= { 1, 100, 10000 };
+	/**
+	 * The size of the batches of agents started concurrently.
+	 */
+	static final int	BATCH	= 100;
+
+	/**
+	 * Loads and starts a node.
+	 *
+	 * @param agents
+	 *            - the number of agents.
+	 * @param batch
+	 *            - the size of the batches of agents started concurrently; 0 for a sequential start.
+	 * @return the time to start the node, in ms, or -1 if not all entities were started.
+	 */
+	static long start(int agents, int batch) {
+		String nodeName = "node" + agents + "_" + batch;
+		StringBuilder a = new StringBuilder("-package testing -loader agent:composite -node " + nodeName
+				+ (batch > 0 ? " " + Node.START_BATCH_PARAMETER + ":" + batch : "") + " -pylon local:" + nodeName);
+		for(int i = 0; i < agents; i++)
+			a.append(" -agent composite:" + nodeName + "_" + i + " -shard messaging");
+		List<Node> nodes = new NodeLoader().loadDeployment(Arrays.asList(a.toString().split(" ")));
+		if(nodes == null)
+			return -1;
+		Node node = null;
+		for(Node n : nodes)
+			if(nodeName.equals(n.getName()))
+				node = n;
+		if(node == null)
+			return -1;
+		long start = System.nanoTime();
+		node.start();
+		long time = (System.nanoTime() - start) / 1000000;
+		// the agents and the pylons (including the one created by default)
+		boolean all = node.getStartTimes().size() == agents + 2;
+		for(Node n : nodes)
+			n.stop();
+		return all ? time : -1;
+	}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args
+	 *            - not used.
+	 */
+	public static void main(String[] args) {
+		MasterLog.enablePerformanceModeTools(1000);
+		MasterLog.activateGlobalPerformanceMode();
+		start(BATCH, BATCH);
+		boolean ok = true;
+		StringBuilder results = new StringBuilder();
+		for(int agents : AGENTS) {
+			long sequential = start(agents, 0), staged = start(agents, BATCH);
+			ok &= sequential >= 0 && staged >= 0;
+			results.append(agents + " agents: " + sequential + " ms sequential, " + staged
+					+ " ms staged in batches of " + BATCH + "\n");
+		}
+		System.out.print(results);
+		System.out.println(Runtime.getRuntime().availableProcessors() + " processors available");
+		System.out.println(ok ? "PASSED" : "FAILED");
+		PlatformUtils.systemExit(ok ? 0 : 1);
+	}
+}
@@ -31,7 +31,9 @@ public class NodeAccess extends Node
 	
 	public List<Entity<?>> getAgents()
 	{
-		return registeredEntities.get(CategoryName.AGENT.getName());
+		if(!registeredEntities.containsKey(CategoryName.AGENT.getName()))
+			return null;
+		return new LinkedList<>(registeredEntities.get(CategoryName.AGENT.getName()));
 	}
 	
 	public List<Entity<?>> getOtherEntities()
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (C) 2021 Andrei Olaru.
+ *
+ * This file is part of Flash-MAS. The CONTRIBUTORS.md file lists people who have been previously involved with this project.
+ *
+ * Flash-MAS is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * Flash-MAS is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Flash-MAS.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package test.wsRegionsDeployment;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import wsRegions.MessageFactory;
+import wsRegions.MessageFactory.Message;
+import wsRegions.MessageFactory.MessageType;
+
+/**
+ * Measures the cost of encoding and decoding a {@link MessageType#CONTENT} message, comparing the map-based encoding
+ * that built a new {@link Gson} instance for each message with the shared codec in {@link MessageFactory}.
+ */
+public class CodecBenchmark {
+	/**
+	 * Number of messages per measurement.
+	 */
+	static final int	N		= 200000;
+	/**
+	 * Number of measurement rounds (the first ones serve as warm-up).
+	 */
+	static final int	ROUNDS	= 5;
+
+	/**
+	 * The encoding previously used for messages.
+	 *
+	 * @param node
+	 *            - the pylon name
+	 * @param agent
+	 *            - the sender name
+	 * @param type
+	 *            - message type
+	 * @param content
+	 *            - extra fields
+	 * @return the encoded message.
+	 */
+	static String legacyEncode(String node, String agent, MessageType type, Map<String, String> content) {
+		GsonBuilder builder = new GsonBuilder();
+		Gson gson = builder.create();
+		Map<String, String> data = new HashMap<>();
+		if(content != null)
+			data.putAll(content);
+		data.put("type", type.toString());
+		data.put("node", node);
+		data.put("source", agent);
+		return gson.toJson(data);
+	}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args
+	 *            - not used.
+	 */
+	public static void main(String[] args) {
+		String content = "ping-" + String.join("", Collections.nCopies(100, "x"));
+		long sink = 0;
+		for(int round = 0; round < ROUNDS; round++) {
+			long t0 = System.nanoTime();
+			for(int i = 0; i < N; i++) {
+				Map<String, String> data = new HashMap<>();
+				data.put("destination", "two-localhost:8885");
+				data.put("content", content);
+				String enc = legacyEncode("Pylon1", "one-localhost:8885", MessageType.CONTENT, data);
+				JSONObject dec = (JSONObject) JSONValue.parse(enc);
+				sink += ((String) dec.get("content")).length();
+			}
+			long t1 = System.nanoTime();
+			for(int i = 0; i < N; i++) {
+				String enc = MessageFactory.createMessage("Pylon1", "one-localhost:8885", MessageType.CONTENT)
+						.setDestination("two-localhost:8885").setContent(content).encode();
+				Message dec = MessageFactory.decodeMessage(enc);
+				sink += dec.getContent().length();
+			}
+			long t2 = System.nanoTime();
+			System.out.println("round " + round + ": before " + (t1 - t0) / N + " ns/msg, after " + (t2 - t1) / N
+					+ " ns/msg");
+		}
+		System.out.println("(" + sink + ")");
+	}
+}
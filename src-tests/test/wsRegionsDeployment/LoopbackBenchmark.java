@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright (C) 2021 Andrei Olaru.
+ *
+ * This file is part of Flash-MAS. The CONTRIBUTORS.md file lists people who have been previously involved with this project.
+ *
+ * Flash-MAS is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * Flash-MAS is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Flash-MAS.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package test.wsRegionsDeployment;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+
+import net.xqhs.flash.core.util.PlatformUtils;
+import net.xqhs.util.logging.MasterLog;
+import wsRegions.MessageFactory;
+import wsRegions.MessageFactory.ActionType;
+import wsRegions.MessageFactory.Message;
+import wsRegions.MessageFactory.MessageType;
+import wsRegions.RegionServer;
+
+/**
+ * Sends messages of various sizes between two agents registered with a {@link RegionServer} on the loopback interface
+ * and reports the size of the frame on the wire, the bytes encoded per message (on the wire and, in the previous
+ * design, for the monitoring wrapper at the receiver) and the end-to-end latency.
+ */
+public class LoopbackBenchmark {
+	/**
+	 * The port of the server.
+	 */
+	static final int	PORT		= 8895;
+	/**
+	 * Number of messages per size.
+	 */
+	static final int	N			= 300;
+	/**
+	 * Payload sizes.
+	 */
+	static final int[]	SIZES		= { 16, 256, 1024, 16384, 65536 };
+	/**
+	 * Agent names.
+	 */
+	static final String	A			= "a-localhost:" + PORT, B = "b-localhost:" + PORT;
+
+	/**
+	 * Creates a connected client which puts all received frames in the given queue.
+	 *
+	 * @param received
+	 *            - the queue.
+	 * @return the client.
+	 * @throws Exception
+	 *             if connecting fails.
+	 */
+	static WebSocketClient connect(LinkedBlockingQueue<String> received) throws Exception {
+		WebSocketClient client = new WebSocketClient(new URI("ws://localhost:" + PORT)) {
+			@Override
+			public void onOpen(ServerHandshake handshake) {
+				// nothing to do
+			}
+
+			@Override
+			public void onMessage(String message) {
+				received.add(message);
+			}
+
+			@Override
+			public void onClose(int code, String reason, boolean remote) {
+				// nothing to do
+			}
+
+			@Override
+			public void onError(Exception ex) {
+				ex.printStackTrace();
+			}
+		};
+		client.connectBlocking();
+		return client;
+	}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args
+	 *            - not used.
+	 * @throws Exception
+	 *             if anything fails.
+	 */
+	public static void main(String[] args) throws Exception {
+		MasterLog.enablePerformanceModeTools(500);
+		MasterLog.activateGlobalPerformanceMode();
+		RegionServer server = new RegionServer(PORT, new ArrayList<>(), "localhost:" + PORT);
+		server.start();
+		Thread.sleep(500);
+		LinkedBlockingQueue<String> inA = new LinkedBlockingQueue<>(), inB = new LinkedBlockingQueue<>();
+		WebSocketClient a = connect(inA), b = connect(inB);
+		a.send(MessageFactory.createMessage("pylon", A, MessageType.REGISTER).encode());
+		b.send(MessageFactory.createMessage("pylon", B, MessageType.REGISTER).encode());
+		Thread.sleep(500);
+
+		System.out.println("payload | wire bytes | bytes encoded before | latency avg / p50 / p99 (us)");
+		for(int size : SIZES) {
+			char[] chars = new char[size];
+			Arrays.fill(chars, 'x');
+			for(int i = 0; i < size; i += 64)
+				chars[i] = '"'; // payloads are often JSON themselves, which need escaping
+			String payload = new String(chars);
+			long[] lat = new long[N];
+			long wire = 0, before = 0;
+			for(int i = 0; i < N; i++) {
+				long start = System.nanoTime();
+				String frame = MessageFactory.createMessage("pylon", A, MessageType.CONTENT).setDestination(B)
+						.setContent(payload).encode();
+				a.send(frame);
+				String got = inB.poll(10, TimeUnit.SECONDS);
+				Message m = MessageFactory.decodeMessage(got);
+				lat[i] = System.nanoTime() - start;
+				if(m == null || !payload.equals(m.getContent()))
+					throw new IllegalStateException("payload corrupted");
+				wire = frame.getBytes(StandardCharsets.UTF_8).length;
+				// the previous design re-wrapped the content in a notification at the receiver
+				before = wire + MessageFactory.createMonitorNotification(ActionType.RECEIVE_MESSAGE, m.getContent(),
+						String.valueOf(new Timestamp(System.currentTimeMillis()))).encode()
+						.getBytes(StandardCharsets.UTF_8).length;
+			}
+			Arrays.sort(lat);
+			long sum = 0;
+			for(long l : lat)
+				sum += l;
+			System.out.println(size + " | " + wire + " | " + before + " | " + sum / N / 1000 + " / "
+					+ lat[N / 2] / 1000 + " / " + lat[N * 99 / 100] / 1000);
+		}
+		a.closeBlocking();
+		b.closeBlocking();
+		server.stop();
+		PlatformUtils.systemExit(0);
+	}
+}
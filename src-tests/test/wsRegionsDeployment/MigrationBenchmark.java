@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright (C) 2021 Andrei Olaru.
+ *
+ * This file is part of Flash-MAS. The CONTRIBUTORS.md file lists people who have been previously involved with this project.
+ *
+ * Flash-MAS is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * Flash-MAS is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Flash-MAS.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package test.wsRegionsDeployment;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.xqhs.flash.core.util.PlatformUtils;
+import wsRegions.BinaryMonitoringLog;
+import wsRegions.MessageFactory.ActionType;
+import wsRegions.MonitoringEntity;
+
+/**
+ * Runs the {@link BootMoving} scenario with binary monitoring and reports the distribution of the downtime of each
+ * move: the time between the moment when the agent stops communicating, before leaving, and the moment when it is
+ * connected again, on the destination node.
+ */
+public class MigrationBenchmark {
+	/**
+	 * The benchmark ends when no agent arrives for this long (ms).
+	 */
+	static final long	QUIET_TIME	= 8000;
+	/**
+	 * Maximum duration of the scenario (ms).
+	 */
+	static final long	TIMEOUT		= 300000;
+
+	/**
+	 * Reads the binary logs of all pylons and computes the downtime of each completed move.
+	 *
+	 * @return the downtimes, in ms.
+	 * @throws IOException
+	 *             if the logs cannot be read.
+	 */
+	static List<Long> readDowntimes() throws IOException {
+		List<long[]> events = new ArrayList<>();
+		List<String> agents = new ArrayList<>();
+		File[] logs = new File(".").listFiles(
+				(dir, name) -> name.startsWith("log-") && name.endsWith("-monitor" + MonitoringEntity.BINARY_EXTENSION));
+		for(File log : logs)
+			BinaryMonitoringLog.read(log, (time, action, source, destination, content) -> {
+				if(action == ActionType.MOVE_TO_ANOTHER_NODE || action == ActionType.ARRIVED_ON_NODE) {
+					events.add(new long[] { time, action == ActionType.ARRIVED_ON_NODE ? 1 : 0, agents.size() });
+					agents.add(source);
+				}
+			});
+		events.sort((e1, e2) -> Long.compare(e1[0], e2[0]));
+		Map<String, Long> leaving = new HashMap<>();
+		List<Long> downtimes = new ArrayList<>();
+		for(long[] event : events) {
+			String agent = agents.get((int) event[2]);
+			if(event[1] == 0)
+				leaving.put(agent, Long.valueOf(event[0]));
+			else if(leaving.containsKey(agent))
+				downtimes.add(Long.valueOf(event[0] - leaving.remove(agent).longValue()));
+		}
+		return downtimes;
+	}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args
+	 *            - not used.
+	 * @throws Exception
+	 *             if anything fails.
+	 */
+	public static void main(String[] args) throws Exception {
+		for(File old : new File(".").listFiles((dir, name) -> name.startsWith("log-")
+				&& name.endsWith("-monitor" + MonitoringEntity.BINARY_EXTENSION)))
+			old.delete();
+		BootMoving.main(new String[] { "-1", "binary" });
+
+		long start = System.currentTimeMillis(), lastChange = start;
+		int moves = 0;
+		while(System.currentTimeMillis() - start < TIMEOUT
+				&& (moves == 0 || System.currentTimeMillis() - lastChange < QUIET_TIME)) {
+			Thread.sleep(1000);
+			int n = readDowntimes().size();
+			if(n != moves) {
+				moves = n;
+				lastChange = System.currentTimeMillis();
+			}
+		}
+
+		List<Long> downtimes = readDowntimes();
+		System.out.println("downtime per move (ms): " + downtimes);
+		Collections.sort(downtimes);
+		int n = downtimes.size();
+		if(n == 0)
+			System.out.println("no completed moves");
+		else {
+			long sum = 0;
+			for(Long d : downtimes)
+				sum += d.longValue();
+			System.out.println("moves: " + n + ", min " + downtimes.get(0) + ", avg " + sum / n + ", p50 "
+					+ downtimes.get(n / 2) + ", p90 " + downtimes.get(n * 9 / 10) + ", max " + downtimes.get(n - 1));
+		}
+		PlatformUtils.systemExit(0);
+	}
+}
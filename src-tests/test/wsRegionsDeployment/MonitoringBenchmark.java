@@ -0,0 +1,225 @@
+/*******************************************************************************
+ * Copyright (C) 2021 Andrei Olaru.
+ *
+ * This file is part of Flash-MAS. The CONTRIBUTORS.md file lists people who have been previously involved with this project.
+ *
+ * Flash-MAS is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * Flash-MAS is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Flash-MAS.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package test.wsRegionsDeployment;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import net.xqhs.flash.FlashBoot;
+import net.xqhs.flash.core.util.PlatformUtils;
+import net.xqhs.util.logging.MasterLog;
+import testing.TimeMonitor;
+import wsRegions.BinaryMonitoringLog;
+import wsRegions.MonitoringEntity;
+import wsRegions.MonitoringEntity.LogFormat;
+import wsRegions.WSRegionsPylon;
+
+/**
+ * Measures the throughput of the {@link BootIntense} scenario (4 pylons, each with its monitor, and 8 agents exchanging
+ * messages with 8 other agents), with each {@link LogFormat} of the monitors, given to the pylons with
+ * {@link WSRegionsPylon#MONITORING_PARAMETER_NAME}. Each run is a separate JVM (the scenario uses fixed ports and static
+ * state, see {@link Scenario}), started in the current directory and stopped once all scripted agents have marked the
+ * end of their exchanges.
+ * <p>
+ * The throughput is computed from the marks written by the {@link TimeMonitor}: from the first mark of the beginning of
+ * an exchange to the last mark of the end of an exchange. For the binary format, the logs of the monitors are also
+ * converted to YAML.
+ */
+public class MonitoringBenchmark {
+	/**
+	 * Number of agents running scripts in the scenario.
+	 */
+	static final int		SCRIPTED	= 8;
+	/**
+	 * Number of messages sent by each scripted agent (each message is answered).
+	 */
+	static final int		MESSAGES	= 51;
+	/**
+	 * Number of runs for each format; the best is reported.
+	 */
+	static final int		ROUNDS		= 2;
+	/**
+	 * Time to wait for a run to complete, in ms.
+	 */
+	static final long		TIMEOUT		= 120000;
+	/**
+	 * A mark written by the {@link TimeMonitor}: the time, then the printed timestamp, then the marked items. The
+	 * beginning of an exchange is marked with the name of the agent and no event; the end is marked with the event.
+	 */
+	static final Pattern	MARK		= Pattern.compile("^(\\d+) : \\[\"[^\"]*\", \"([^\"]*)\", \"([^\"]*)\"\\]$",
+			Pattern.MULTILINE);
+
+	/**
+	 * The {@link BootIntense} scenario, on a single machine, with the format of the monitoring logs given explicitly.
+	 */
+	public static class Scenario {
+		/**
+		 * Runs the scenario.
+		 *
+		 * @param args
+		 *            - the format of the monitoring logs (the name of a {@link LogFormat}).
+		 */
+		public static void main(String[] args) {
+			String[] names = { "one", "two", "three", "four", "five", "six", "seven", "eight" };
+			String[] server = { "localhost:8885", "localhost:8886" };
+			String a = " -load_order monitor;pylon;agent";
+			a += " -package wsRegions testing src-tests.test.wsRegionsDeployment.Script test.simplePingPong";
+			a += " -loader agent:mobileComposite ";
+			for(int i = 0; i < 4; i++) {
+				String srv = server[i / 2];
+				a += " -node node" + i + "-" + srv + " -monitor time: -pylon WSRegions:Pylon" + i;
+				a += " " + WSRegionsPylon.MONITORING_PARAMETER_NAME + ":" + args[0];
+				a += (i % 2 == 0 ? " isServer:" : " connectTo:") + srv;
+				if(i % 2 == 0)
+					a += " servers:" + server[1 - i / 2];
+				int first = i % 2 == 0 ? 0 : 4;
+				for(int j = first; j < first + 4; j++) {
+					a += " -agent :" + names[j] + "-" + srv;
+					if(j % 2 == 0)
+						a += " -shard messaging -shard ScriptTesting from:Intense";
+					else
+						a += " classpath:AgentPingPong";
+				}
+			}
+			MasterLog.enablePerformanceModeTools(500);
+			MasterLog.activateGlobalPerformanceMode();
+			System.out.println("."); // to activate console output.
+			FlashBoot.main(a.split(" "));
+		}
+	}
+
+	/**
+	 * Deletes the log files in the current directory.
+	 */
+	static void deleteLogs() {
+		File[] logs = new File(".").listFiles((dir, name) -> name.startsWith("log-"));
+		if(logs != null)
+			for(File log : logs)
+				log.delete();
+	}
+
+	/**
+	 * Reads the marks of the {@link TimeMonitor} from the YAML logs in the current directory.
+	 *
+	 * @param window
+	 *            - array in which to return the time of the first beginning and of the last end of an exchange.
+	 * @return the number of exchanges which have ended.
+	 * @throws Exception
+	 *             if the logs cannot be read.
+	 */
+	static int readMarks(long[] window) throws Exception {
+		int ended = 0;
+		window[0] = Long.MAX_VALUE;
+		window[1] = 0;
+		File[] logs = new File(".")
+				.listFiles((dir, name) -> name.startsWith("log-") && name.endsWith(MonitoringEntity.YAML_EXTENSION));
+		if(logs != null)
+			for(File log : logs) {
+				Matcher mark = MARK.matcher(new String(Files.readAllBytes(log.toPath()), StandardCharsets.UTF_8));
+				while(mark.find()) {
+					long time = Long.parseLong(mark.group(1));
+					if("-".equals(mark.group(2))) {
+						ended++;
+						window[1] = Math.max(window[1], time);
+					}
+					else
+						window[0] = Math.min(window[0], time);
+				}
+			}
+		return ended;
+	}
+
+	/**
+	 * Runs the scenario in a separate JVM.
+	 *
+	 * @param format
+	 *            - the format of the monitoring logs.
+	 * @return the duration of the exchanges, in ms, or -1 if the scenario did not complete.
+	 * @throws Exception
+	 *             if the JVM cannot be started or the logs cannot be read.
+	 */
+	static long run(LogFormat format) throws Exception {
+		deleteLogs();
+		File output = File.createTempFile("boot-intense", ".out");
+		output.deleteOnExit();
+		Process boot = new ProcessBuilder(System.getProperty("java.home") + File.separator + "bin" + File.separator
+				+ "java", "-cp", System.getProperty("java.class.path"), Scenario.class.getName(),
+				format.name().toLowerCase()).redirectErrorStream(true).redirectOutput(output).start();
+		long[] window = new long[2];
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		try {
+			while(readMarks(window) < SCRIPTED)
+				if(System.currentTimeMillis() > deadline || !boot.isAlive())
+					return -1;
+				else
+					Thread.sleep(200);
+		} finally {
+			boot.destroy();
+			boot.waitFor();
+			output.delete();
+		}
+		return window[1] - window[0];
+	}
+
+	/**
+	 * Converts the binary logs of the monitors to YAML.
+	 *
+	 * @return the number of records converted.
+	 * @throws Exception
+	 *             if a log cannot be read.
+	 */
+	static int convertBinaryLogs() throws Exception {
+		int records = 0;
+		File[] logs = new File(".")
+				.listFiles((dir, name) -> name.startsWith("log-") && name.endsWith(MonitoringEntity.BINARY_EXTENSION));
+		if(logs != null)
+			for(File log : logs)
+				records += BinaryMonitoringLog.convertToYaml(log, new StringWriter());
+		return records;
+	}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args
+	 *            - not used.
+	 * @throws Exception
+	 *             if anything fails.
+	 */
+	public static void main(String[] args) throws Exception {
+		int messages = 2 * SCRIPTED * MESSAGES;
+		boolean ok = true;
+		for(LogFormat format : LogFormat.values()) {
+			long best = -1;
+			int records = 0;
+			for(int round = 0; round < ROUNDS; round++) {
+				long time = run(format);
+				ok &= time >= 0;
+				if(time >= 0 && (best < 0 || time < best))
+					best = time;
+				if(format == LogFormat.BINARY)
+					records = Math.max(records, convertBinaryLogs());
+			}
+			System.out.println(format + ": " + messages + " messages in " + best + " ms, "
+					+ (best > 0 ? messages * 1000L / best : 0) + " messages/s"
+					+ (format == LogFormat.BINARY ? "; " + records + " records converted to YAML" : ""));
+			ok &= format != LogFormat.BINARY || records > 0;
+		}
+		deleteLogs();
+		System.out.println(ok ? "PASSED" : "FAILED");
+		PlatformUtils.systemExit(ok ? 0 : 1);
+	}
+}
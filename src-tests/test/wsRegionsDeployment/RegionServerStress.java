@@ -0,0 +1,274 @@
+/*******************************************************************************
+ * Copyright (C) 2021 Andrei Olaru.
+ *
+ * This file is part of Flash-MAS. The CONTRIBUTORS.md file lists people who have been previously involved with this project.
+ *
+ * Flash-MAS is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * Flash-MAS is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Flash-MAS.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package test.wsRegionsDeployment;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+
+import net.xqhs.flash.core.util.PlatformUtils;
+import net.xqhs.util.logging.MasterLog;
+import wsRegions.MessageFactory;
+import wsRegions.MessageFactory.Message;
+import wsRegions.MessageFactory.MessageType;
+import wsRegions.RegionServer;
+
+/**
+ * Stress test for the registries of {@link RegionServer}: hundreds of simulated agents, born in two regions on the
+ * loopback interface, register concurrently, exchange messages with random peers and move, inside their region or to
+ * the other region, while messages are sent to them. Half of the moves announce their destination; some of these
+ * announce a region whose server is not connected, so messages must be saved at home instead. The test checks that
+ * every message is delivered exactly once.
+ */
+public class RegionServerStress {
+	/**
+	 * The ports of the two servers.
+	 */
+	static final int[]	PORTS		= { 8897, 8898 };
+	/**
+	 * A region whose server is not connected.
+	 */
+	static final String	UNREACHABLE	= "localhost:8899";
+	/**
+	 * Number of agents.
+	 */
+	static final int	AGENTS		= 300;
+	/**
+	 * Number of rounds; in each round, each agent sends {@link #MSGS} messages and then may move.
+	 */
+	static final int	ROUNDS		= 5;
+	/**
+	 * Number of messages sent by each agent in each round.
+	 */
+	static final int	MSGS		= 10;
+
+	/**
+	 * Counts all messages received by all agents.
+	 */
+	static final AtomicInteger	received	= new AtomicInteger();
+	/**
+	 * Counts messages received more than once.
+	 */
+	static final AtomicInteger	duplicates	= new AtomicInteger();
+	/**
+	 * Counts messages received by the wrong agent.
+	 */
+	static final AtomicInteger	misrouted	= new AtomicInteger();
+
+	/**
+	 * A simulated agent, using WebSocket connections directly.
+	 */
+	static class SimAgent {
+		/**
+		 * The name, of the form <code>agN-localhost:port</code>.
+		 */
+		final String							name;
+		/**
+		 * The index of the region where the agent is.
+		 */
+		int										region;
+		/**
+		 * All connections used by the agent. They are closed at the end, so that messages already sent on an old
+		 * connection still arrive.
+		 */
+		final List<WebSocketClient>				connections	= Collections.synchronizedList(new ArrayList<>());
+		/**
+		 * The current connection.
+		 */
+		WebSocketClient							current;
+		/**
+		 * The identifiers of the messages received.
+		 */
+		final Set<String>						got			= ConcurrentHashMap.newKeySet();
+		/**
+		 * Receives {@link MessageType#REQ_ACCEPT} messages.
+		 */
+		final LinkedBlockingQueue<Message>		accepts		= new LinkedBlockingQueue<>();
+
+		/**
+		 * @param index
+		 *            - the index of the agent.
+		 * @param home
+		 *            - the index of the birth region.
+		 */
+		SimAgent(int index, int home) {
+			name = "ag" + index + "-localhost:" + PORTS[home];
+			region = home;
+		}
+
+		/**
+		 * Connects to the server in the current region.
+		 *
+		 * @throws Exception
+		 *             if connecting fails.
+		 */
+		void connect() throws Exception {
+			current = new WebSocketClient(new URI("ws://localhost:" + PORTS[region])) {
+				@Override
+				public void onOpen(ServerHandshake handshake) {
+					// nothing to do
+				}
+
+				@Override
+				public void onMessage(String message) {
+					Message m = MessageFactory.decodeMessage(message);
+					if(m == null)
+						return;
+					if(m.getType() == MessageType.REQ_ACCEPT)
+						accepts.add(m);
+					else if(m.getType() == MessageType.CONTENT) {
+						if(!name.equals(m.getDestination()))
+							misrouted.incrementAndGet();
+						else if(!got.add(m.getContent()))
+							duplicates.incrementAndGet();
+						else
+							received.incrementAndGet();
+					}
+				}
+
+				@Override
+				public void onClose(int code, String reason, boolean remote) {
+					// nothing to do
+				}
+
+				@Override
+				public void onError(Exception ex) {
+					ex.printStackTrace();
+				}
+			};
+			if(!current.connectBlocking(10, TimeUnit.SECONDS))
+				throw new IllegalStateException("could not connect " + name);
+			connections.add(current);
+		}
+
+		/**
+		 * Moves the agent to another node, following the protocol of the messaging shard.
+		 *
+		 * @param target
+		 *            - the index of the region of the destination node (which may be the current one).
+		 * @param announced
+		 *            - the destination region given in the request to leave, so that messages are saved at the
+		 *            destination; if <code>null</code> (or if the region is not reachable), they are saved by the home
+		 *            Region-Server.
+		 * @throws Exception
+		 *             if the move fails.
+		 */
+		void move(int target, String announced) throws Exception {
+			current.send(MessageFactory.createMessage("pylon", name, MessageType.REQ_LEAVE).setDestination(announced)
+					.encode());
+			if(accepts.poll(10, TimeUnit.SECONDS) == null)
+				throw new IllegalStateException("leave request not accepted for " + name);
+			region = target;
+			connect();
+			current.send(MessageFactory.createMessage("pylon", name, MessageType.CONNECT).encode());
+		}
+	}
+
+	/**
+	 * Runs the test.
+	 *
+	 * @param args
+	 *            - not used.
+	 * @throws Exception
+	 *             if the test fails.
+	 */
+	public static void main(String[] args) throws Exception {
+		MasterLog.enablePerformanceModeTools(500);
+		MasterLog.activateGlobalPerformanceMode();
+		RegionServer[] servers = new RegionServer[PORTS.length];
+		for(int s = 0; s < PORTS.length; s++) {
+			ArrayList<String> others = new ArrayList<>();
+			others.add("localhost:" + PORTS[1 - s]);
+			servers[s] = new RegionServer(PORTS[s], others, "localhost:" + PORTS[s]);
+			servers[s].start();
+		}
+		Thread.sleep(3000); // servers connect to each other
+
+		SimAgent[] agents = new SimAgent[AGENTS];
+		for(int i = 0; i < AGENTS; i++)
+			agents[i] = new SimAgent(i, i % PORTS.length);
+		AtomicInteger sent = new AtomicInteger(), moves = new AtomicInteger(), failures = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(64);
+		long start = System.nanoTime();
+		for(SimAgent agent : agents)
+			pool.execute(() -> {
+				try {
+					agent.connect();
+					agent.current.send(MessageFactory.createMessage("pylon", agent.name, MessageType.REGISTER).encode());
+				} catch(Exception e) {
+					e.printStackTrace();
+					failures.incrementAndGet();
+				}
+			});
+		pool.shutdown();
+		pool.awaitTermination(1, TimeUnit.MINUTES);
+		Thread.sleep(500); // registrations are processed
+
+		pool = Executors.newFixedThreadPool(64);
+		for(SimAgent agent : agents)
+			pool.execute(() -> {
+				Random random = new Random(agent.name.hashCode());
+				try {
+					for(int round = 0; round < ROUNDS; round++) {
+						for(int i = 0; i < MSGS; i++) {
+							SimAgent peer = agents[random.nextInt(AGENTS)];
+							agent.current.send(MessageFactory.createMessage("pylon", agent.name, MessageType.CONTENT)
+									.setDestination(peer.name).setContent(agent.name + "#" + round + "#" + i)
+									.encode());
+							sent.incrementAndGet();
+						}
+						if(random.nextBoolean()) {
+							int target = random.nextInt(PORTS.length);
+							String[] announced = { null, null, "localhost:" + PORTS[target], UNREACHABLE };
+							agent.move(target, announced[random.nextInt(announced.length)]);
+							moves.incrementAndGet();
+						}
+					}
+				} catch(Exception e) {
+					e.printStackTrace();
+					failures.incrementAndGet();
+				}
+			});
+		pool.shutdown();
+		pool.awaitTermination(5, TimeUnit.MINUTES);
+		long deadline = System.currentTimeMillis() + 30000;
+		while(received.get() + misrouted.get() < sent.get() && System.currentTimeMillis() < deadline)
+			Thread.sleep(100);
+		long time = System.nanoTime() - start;
+		Thread.sleep(1000); // late duplicates, if any
+
+		System.out.println("agents: " + AGENTS + ", moves: " + moves + ", messages sent: " + sent + ", received: "
+				+ received + ", duplicates: " + duplicates + ", misrouted: " + misrouted + ", failures: " + failures);
+		System.out.println("time: " + time / 1000000 + " ms, " + sent.get() * 1000000000L / time + " messages/s");
+		for(SimAgent agent : agents)
+			for(WebSocketClient c : agent.connections)
+				c.close();
+		for(RegionServer server : servers)
+			server.stop();
+		boolean ok = received.get() == sent.get() && duplicates.get() == 0 && misrouted.get() == 0
+				&& failures.get() == 0;
+		System.out.println(ok ? "PASSED" : "FAILED");
+		PlatformUtils.systemExit(ok ? 0 : 1);
+	}
+}
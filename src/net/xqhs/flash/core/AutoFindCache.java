@@ -0,0 +1,378 @@
+/*******************************************************************************
+ * Copyright (C) 2021 Andrei Olaru.
+ *
+ * This file is part of Flash-MAS. The CONTRIBUTORS.md file lists people who have been previously involved with this project.
+ *
+ * Flash-MAS is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * Flash-MAS is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Flash-MAS.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.xqhs.flash.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import net.xqhs.flash.core.Loader.SearchItemType;
+
+/**
+ * Caches the classes resolved by {@link Loader#autoFind(net.xqhs.flash.core.util.ClassFactory, List, String, String,
+ * String, String, List)}, so that the candidate class names are not probed again:
+ * <ul>
+ * <li>the result of each search (including the absence of a class) is kept in memory, for the whole JVM, indexed by
+ * the arguments of the search;
+ * <li>optionally, the results are also saved to a file (see {@link #CACHE_FILE_PROPERTY} and {@link #save()}), together
+ * with a fingerprint of the classpath (the names, sizes and modification times of the classpath entries and of the
+ * class files in classpath directories); the file is only used if the classpath has the same fingerprint;
+ * <li>searches which are not in the cache check the candidate classes against an index of the classes in the
+ * classpath, built once by scanning the classpath directories and jars; classes which are not in the index (e.g. JDK
+ * classes, or classes in jars given in a manifest or loaded by other class loaders) are looked up as resources of the
+ * class loader, and only classes which are not found either way are not attempted to be loaded. Where class files are
+ * not visible as resources (e.g. on Android), classes which are not in the index are attempted to be loaded.
+ * </ul>
+ * Only searches for classes are cached, as files may appear during the execution.
+ * <p>
+ * All methods are thread-safe.
+ *
+ * @author Andrei Olaru
+ */
+public class AutoFindCache {
+	/**
+	 * The name of the system property giving the file in which to save the cache. If not set, the cache is only kept
+	 * in memory.
+	 */
+	public static final String						CACHE_FILE_PROPERTY	= "flash.autoFindCache";
+	/**
+	 * The value cached for searches which found no class.
+	 */
+	protected static final String					NOT_FOUND			= "";
+	/**
+	 * The separator of the elements of cache keys.
+	 */
+	protected static final String					KEY_SEPARATOR		= "|";
+	/**
+	 * The separator of keys and values in the cache file.
+	 */
+	protected static final String					FILE_SEPARATOR		= "\t";
+
+	/**
+	 * The results of searches, indexed by key (see {@link #key}).
+	 */
+	protected static final Map<String, String>	resolved			= new ConcurrentHashMap<>();
+	/**
+	 * Indicates whether the cache is used.
+	 */
+	protected static volatile boolean				enabled				= true;
+	/**
+	 * The file in which the cache is saved, if any.
+	 */
+	protected static File							cacheFile			= null;
+	/**
+	 * Indicates whether the cache file has been read (or there is none).
+	 */
+	protected static boolean						fileRead			= false;
+	/**
+	 * Indicates whether there are results which are not in the cache file.
+	 */
+	protected static volatile boolean				modified			= false;
+	/**
+	 * The fingerprint of the classpath, computed when first needed.
+	 */
+	protected static String							fingerprint			= null;
+	/**
+	 * The names of the classes in the classpath, built when first needed.
+	 */
+	protected static volatile Set<String>			classes				= null;
+	/**
+	 * Indicates whether class files are visible as resources of the class loader, checked when first needed.
+	 */
+	protected static volatile Boolean				classResources		= null;
+
+	static {
+		String file = System.getProperty(CACHE_FILE_PROPERTY);
+		if(file != null)
+			cacheFile = new File(file);
+	}
+
+	/**
+	 * Activates or deactivates the cache and the index. While deactivated, all candidates are probed with the
+	 * {@link net.xqhs.flash.core.util.ClassFactory}.
+	 *
+	 * @param enable
+	 *            - <code>true</code> to use the cache.
+	 */
+	public static void setEnabled(boolean enable) {
+		enabled = enable;
+	}
+
+	/**
+	 * @return <code>true</code> if the cache is used.
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Sets the file in which the cache is saved, replacing the one given by {@link #CACHE_FILE_PROPERTY}. The results
+	 * in the file are added to the cache when it is next used.
+	 *
+	 * @param file
+	 *            - the file; <code>null</code> to keep the cache only in memory.
+	 */
+	public static synchronized void setCacheFile(File file) {
+		cacheFile = file;
+		fileRead = false;
+		modified = true;
+	}
+
+	/**
+	 * Discards the results in memory (the cache file and the index of the classpath are kept).
+	 */
+	public static synchronized void clear() {
+		resolved.clear();
+		fileRead = false;
+	}
+
+	/**
+	 * Builds the key of a search.
+	 *
+	 * @param packages
+	 *            - the packages.
+	 * @param given_cp
+	 *            - the given classpath.
+	 * @param upper_name
+	 *            - the upper name.
+	 * @param lower_name
+	 *            - the lower name.
+	 * @param entity
+	 *            - the entity.
+	 * @return the key.
+	 */
+	protected static String key(List<String> packages, String given_cp, String upper_name, String lower_name,
+			String entity) {
+		return (packages != null ? String.join(",", packages) : "") + KEY_SEPARATOR + given_cp + KEY_SEPARATOR
+				+ upper_name + KEY_SEPARATOR + lower_name + KEY_SEPARATOR + entity;
+	}
+
+	/**
+	 * Retrieves the result of a search.
+	 *
+	 * @param key
+	 *            - the key of the search.
+	 * @return the class found, {@link #NOT_FOUND} if no class was found, or <code>null</code> if the search is not in
+	 *         the cache.
+	 */
+	static String get(String key) {
+		if(!enabled)
+			return null;
+		readFile();
+		return resolved.get(key);
+	}
+
+	/**
+	 * Adds the result of a search to the cache.
+	 *
+	 * @param key
+	 *            - the key of the search.
+	 * @param found
+	 *            - the class found, or <code>null</code>.
+	 */
+	static void put(String key, String found) {
+		if(!enabled)
+			return;
+		if(resolved.put(key, found != null ? found : NOT_FOUND) == null)
+			modified = true;
+	}
+
+	/**
+	 * Checks a class against the index of the classpath.
+	 *
+	 * @param className
+	 *            - the fully qualified name of the class.
+	 * @return {@link Boolean#FALSE} if the class surely cannot be loaded; <code>null</code> if the class should be
+	 *         checked by attempting to load it (it is in the index or it is visible to the class loader).
+	 */
+	static Boolean check(String className) {
+		if(!enabled || className == null)
+			return null;
+		if(index().contains(className))
+			return null;
+		ClassLoader loader = AutoFindCache.class.getClassLoader();
+		if(loader == null || !classResources(loader))
+			return null;
+		return loader.getResource(className.replace('.', '/') + ".class") != null ? null : Boolean.FALSE;
+	}
+
+	/**
+	 * Checks (once) whether the class loader gives class files as resources, using the class file of this class.
+	 *
+	 * @param loader
+	 *            - the class loader.
+	 * @return <code>true</code> if class files are visible as resources.
+	 */
+	protected static boolean classResources(ClassLoader loader) {
+		if(classResources == null)
+			classResources = Boolean.valueOf(
+					loader.getResource(AutoFindCache.class.getName().replace('.', '/') + ".class") != null);
+		return classResources.booleanValue();
+	}
+
+	/**
+	 * Reads the cache file, if any and if it matches the current classpath.
+	 */
+	protected static synchronized void readFile() {
+		if(fileRead)
+			return;
+		fileRead = true;
+		if(cacheFile == null || !cacheFile.isFile())
+			return;
+		try {
+			List<String> lines = Files.readAllLines(cacheFile.toPath(), StandardCharsets.UTF_8);
+			if(lines.isEmpty() || !lines.get(0).equals(fingerprint()))
+				return;
+			for(String line : lines.subList(1, lines.size())) {
+				int separator = line.indexOf(FILE_SEPARATOR);
+				if(separator > 0)
+					resolved.putIfAbsent(line.substring(0, separator), line.substring(separator + 1));
+			}
+			modified = false;
+		} catch(IOException e) {
+			// the cache will be rebuilt
+		}
+	}
+
+	/**
+	 * Saves the cache to the cache file, if any and if there are new results. The file is replaced atomically.
+	 *
+	 * @return <code>true</code> if the file was written.
+	 */
+	public static synchronized boolean save() {
+		if(!enabled || cacheFile == null || !modified)
+			return false;
+		readFile();
+		List<String> lines = new ArrayList<>();
+		lines.add(fingerprint());
+		for(Map.Entry<String, String> entry : resolved.entrySet())
+			lines.add(entry.getKey() + FILE_SEPARATOR + entry.getValue());
+		try {
+			File dir = cacheFile.getAbsoluteFile().getParentFile();
+			Path temp = Files.createTempFile(dir.toPath(), cacheFile.getName(), ".tmp");
+			Files.write(temp, lines, StandardCharsets.UTF_8);
+			Files.move(temp, cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			modified = false;
+			return true;
+		} catch(IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return the entries of the classpath.
+	 */
+	protected static List<File> classpath() {
+		List<File> entries = new ArrayList<>();
+		for(String entry : System.getProperty("java.class.path", "").split(File.pathSeparator))
+			if(entry.length() > 0)
+				entries.add(new File(entry));
+		return entries;
+	}
+
+	/**
+	 * Computes the fingerprint of the classpath, from the names, sizes and modification times of the classpath entries
+	 * and of the class files in classpath directories.
+	 *
+	 * @return the fingerprint.
+	 */
+	protected static synchronized String fingerprint() {
+		if(fingerprint != null)
+			return fingerprint;
+		CRC32 crc = new CRC32();
+		for(File entry : classpath()) {
+			crc.update(entry.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+			if(entry.isDirectory())
+				try (Stream<Path> files = Files.walk(entry.toPath())) {
+					files.filter(file -> file.toString().endsWith(".class")).sorted().forEach(file -> {
+						File f = file.toFile();
+						crc.update((file.toString() + f.length() + f.lastModified()).getBytes(StandardCharsets.UTF_8));
+					});
+				} catch(IOException e) {
+					crc.update(0);
+				}
+			else
+				crc.update((entry.length() + ":" + entry.lastModified()).getBytes(StandardCharsets.UTF_8));
+		}
+		fingerprint = Long.toHexString(crc.getValue());
+		return fingerprint;
+	}
+
+	/**
+	 * @return the index of the classes in the classpath, built if needed.
+	 */
+	protected static Set<String> index() {
+		Set<String> index = classes;
+		if(index != null)
+			return index;
+		synchronized(AutoFindCache.class) {
+			if(classes != null)
+				return classes;
+			Set<String> names = new HashSet<>();
+			for(File entry : classpath())
+				if(entry.isDirectory()) {
+					Path root = entry.toPath();
+					try (Stream<Path> files = Files.walk(root)) {
+						files.map(file -> root.relativize(file).toString().replace(File.separatorChar, '/'))
+								.forEach(name -> addClass(names, name));
+					} catch(IOException e) {
+						// the classes in the directory will be probed
+					}
+				}
+				else if(entry.isFile())
+					try (ZipFile jar = new ZipFile(entry)) {
+						for(Enumeration<? extends ZipEntry> entries = jar.entries(); entries.hasMoreElements();)
+							addClass(names, entries.nextElement().getName());
+					} catch(IOException e) {
+						// not a jar
+					}
+			classes = names;
+			return names;
+		}
+	}
+
+	/**
+	 * Adds the name of a class to the index, if the given path is a class file.
+	 *
+	 * @param index
+	 *            - the index.
+	 * @param path
+	 *            - the path, relative to the classpath entry, with slashes.
+	 */
+	protected static void addClass(Set<String> index, String path) {
+		if(path.endsWith(".class") && !path.startsWith("META-INF/"))
+			index.add(path.substring(0, path.length() - ".class".length()).replace('/', '.'));
+	}
+
+	/**
+	 * @param searchType
+	 *            - the type of a search.
+	 * @return <code>true</code> if the results of the search can be cached.
+	 */
+	static boolean isCached(SearchItemType searchType) {
+		return enabled && searchType == SearchItemType.CLASS;
+	}
+}
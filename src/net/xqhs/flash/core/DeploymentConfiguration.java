@@ -12,6 +12,7 @@
 package net.xqhs.flash.core;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -97,6 +98,16 @@ public class DeploymentConfiguration extends MultiTreeMap {
 	 * The name of the XML attribute specifying the type of the entity.
 	 */
 	public static final String	GENERAL_ENTITY_TYPE_ATTRIBUTE	= "type";
+	/**
+	 * The name of the attribute / parameter which makes an entity a template for the given number of replicas, which
+	 * are only created at load time (see {@link #replicate(MultiTreeMap, int)}).
+	 */
+	public static final String	COUNT_ATTRIBUTE_NAME			= "count";
+	/**
+	 * The placeholder which is replaced by the index of the replica in the name of an entity template. If the name does
+	 * not contain the placeholder, the index is appended to the name.
+	 */
+	public static final String	REPLICA_INDEX_PLACEHOLDER		= "{}";
 	
 	/**
 	 * The name of the (singleton) entry in the configuration tree, under which all entities are listed by their name or
@@ -290,6 +301,21 @@ public class DeploymentConfiguration extends MultiTreeMap {
 				}
 			}
 		
+		// ====================================== compiled snapshot
+		// the XML tree is not part of the snapshot
+		byte[] fingerprint = null;
+		if(DeploymentSnapshot.getSnapshotFile() != null && loadedXML == null) {
+			fingerprint = DeploymentSnapshot.fingerprint(programArguments,
+					deployment.getSingleValue(CategoryName.DEPLOYMENT_FILE.s()),
+					deployment.getSingleValue(CategoryName.SCHEMA.s()));
+			if(DeploymentSnapshot.read(fingerprint, this)) {
+				log.li("configuration loaded from snapshot []", DeploymentSnapshot.getSnapshotFile());
+				log.doExit();
+				lock();
+				return this;
+			}
+		}
+		
 		// ====================================== parse deployment file
 		if(deployment.isSet(CategoryName.DEPLOYMENT_FILE.s())) {
 			log.lf("loading deployment file [] with schema [].",
@@ -301,18 +327,29 @@ public class DeploymentConfiguration extends MultiTreeMap {
 			// do not create a base context here, the deployment will be generated only in XMLtree
 			
 			// ====================================== load deployment file
-			XMLTree XMLtree = XMLParser.validateParse(deployment.getSingleValue(CategoryName.SCHEMA.s()),
-					deployment.getSingleValue(CategoryName.DEPLOYMENT_FILE.s()));
-			if(loadedXML != null)
-				loadedXML.set(XMLtree);
-			if(XMLtree != null) {
-				context = new LinkedList<>();
-				readXML(XMLtree.getRoot(), deploymentCat, context, this, autoCreated, name_ids, log);
-				log.lf("after XML tree parse:", this);
-				log.lf(">>>>>>>>");
+			String schemaFile = deployment.getSingleValue(CategoryName.SCHEMA.s());
+			String deploymentFile = deployment.getSingleValue(CategoryName.DEPLOYMENT_FILE.s());
+			if(loadedXML == null && DeploymentStreamReader.isEnabled()) {
+				// the XML tree is not needed, build the configuration directly
+				if(DeploymentStreamReader.validate(schemaFile, deploymentFile, log)
+						&& DeploymentStreamReader.read(deploymentFile, deploymentCat, this, autoCreated, name_ids, log))
+					log.lf("after XML stream parse:", this);
+				else
+					log.le("Deployment file load failed.");
+			}
+			else {
+				XMLTree XMLtree = XMLParser.validateParse(schemaFile, deploymentFile);
+				if(loadedXML != null)
+					loadedXML.set(XMLtree);
+				if(XMLtree != null) {
+					context = new LinkedList<>();
+					readXML(XMLtree.getRoot(), deploymentCat, context, this, autoCreated, name_ids, log);
+					log.lf("after XML tree parse:", this);
+					log.lf(">>>>>>>>");
+				}
+				else
+					log.le("Deployment file load failed.");
 			}
-			else
-				log.le("Deployment file load failed.");
 		}
 		else
 			log.lf("No deployment file.");
@@ -350,6 +387,9 @@ public class DeploymentConfiguration extends MultiTreeMap {
 		log.lf("==============================================================");
 		log.li("final config:", this);
 		
+		if(fingerprint != null && DeploymentSnapshot.write(fingerprint, this))
+			log.li("snapshot compiled to []", DeploymentSnapshot.getSnapshotFile());
+		
 		log.doExit();
 		lock();
 		return this;
@@ -666,11 +706,15 @@ public class DeploymentConfiguration extends MultiTreeMap {
 				? catTree.getSingleTree(null)
 				: new MultiTreeMap();
 		
-		if(!context.isEmpty()) // not at root
-			// read attributes, transform them to parameters
-			for(XMLAttribute a : XMLnode.getAttributes())
+		if(!context.isEmpty()) { // not at root
+			// read attributes, transform them to parameters; the XML tree keeps them in no particular order, so they are
+			// added in the order of their names
+			List<XMLAttribute> attributes = new ArrayList<>(XMLnode.getAttributes());
+			attributes.sort(Comparator.comparing(XMLAttribute::getName));
+			for(XMLAttribute a : attributes)
 				addParameter(nodeTree, a.getName(), a.getValue(), false, log);
-			
+		}
+		
 		// add self to context
 		context.push(new CtxtTriple(catName, catTree, nodeTree));
 		
@@ -1006,7 +1050,7 @@ public class DeploymentConfiguration extends MultiTreeMap {
 			if(category != null && category.isUnique())
 				catTree.addSingleTree(name, node);
 			else {
-				if(autoCreated != null && catTree.getHierarchicalNames().size() == 1) {
+				if(autoCreated != null && catTree.getHierarchicalNamesCount() == 1) {
 					String firstName = catTree.getHierarchicalNames().get(0);
 					if(catTree.getTrees(firstName).size() == 1
 							&& autoCreated.contains(catTree.getATree(firstName).getSingleValue(LOCAL_ID_ATTRIBUTE))) {
@@ -1021,8 +1065,12 @@ public class DeploymentConfiguration extends MultiTreeMap {
 		}
 		
 		// create a local id and add it to the list
+		// hash codes are not unique in large deployments
+		MultiTreeMap idList = rootTree.getSingleTree(LOCAL_ID_ATTRIBUTE, true);
 		String id = "#" + node.hashCode();
-		rootTree.getSingleTree(LOCAL_ID_ATTRIBUTE, true).addSingleTree(id, node);
+		for(int i = 1; idList.containsKey(id) && idList.getSingleTree(id) != node; i++)
+			id = "#" + node.hashCode() + "_" + i;
+		idList.addSingleTree(id, node);
 		node.addSingleValue(LOCAL_ID_ATTRIBUTE, id);
 		node.addSingleValue(CATEGORY_ATTRIBUTE_NAME, categoryName);
 		name_ids.put(name, id);
@@ -1131,8 +1179,60 @@ public class DeploymentConfiguration extends MultiTreeMap {
 		LinkedList<MultiTreeMap> ret = new LinkedList<>();
 		for(MultiTreeMap element : entities)
 			if(categoryName == null || element.getSingleValue(CATEGORY_ATTRIBUTE_NAME).equals(categoryName))
-				if(contextLocalID == null || element.getValues(CONTEXT_ELEMENT_NAME).contains(contextLocalID))
+				if(contextLocalID == null || element.getValuesView(CONTEXT_ELEMENT_NAME).contains(contextLocalID))
 					ret.add(element);
 		return ret;
 	}
+	
+	/**
+	 * Gets the number of replicas of an entity template, as given by its {@link #COUNT_ATTRIBUTE_NAME} parameter.
+	 * 
+	 * @param entity
+	 *            - the configuration of the entity.
+	 * @return the number of replicas, or 0 if the entity is not a template (or the count is not a positive number).
+	 */
+	public static int getReplicaCount(MultiTreeMap entity) {
+		if(!entity.isSimple(COUNT_ATTRIBUTE_NAME))
+			return 0;
+		try {
+			return Math.max(0, Integer.parseInt(entity.getAValue(COUNT_ATTRIBUTE_NAME).trim()));
+		} catch(NumberFormatException e) {
+			return 0;
+		}
+	}
+	
+	/**
+	 * Creates the configuration of a replica of an entity template, to be used for loading the replica. All the
+	 * replicas of a template are described by the single (template) configuration in the deployment; loaders, however,
+	 * annotate the configurations they load (with class paths, packages, etc), so each replica is given its own
+	 * {@link MultiTreeMap#copyOnWrite()} copy, which shares with the (frozen) template the parts of the configuration
+	 * that are not modified, e.g. the configurations of shards which are not annotated.
+	 * <p>
+	 * In the copy, the count is removed, the {@link #REPLICA_INDEX_PLACEHOLDER} in the name is replaced by the index of
+	 * the replica (or the index is appended to the name) and the local id of the template is suffixed with the index.
+	 * 
+	 * @param template
+	 *            - the configuration of the template.
+	 * @param index
+	 *            - the index of the replica, from 0 to the number of replicas - 1.
+	 * @return the configuration of the replica.
+	 */
+	public static MultiTreeMap replicate(MultiTreeMap template, int index) {
+		MultiTreeMap replica = template.copyOnWrite();
+		replica.removeKey(COUNT_ATTRIBUTE_NAME);
+		String suffix = Integer.toString(index);
+		if(template.isSimple(NAME_ATTRIBUTE_NAME)) {
+			List<String> names = new ArrayList<>();
+			for(String name : template.getValues(NAME_ATTRIBUTE_NAME))
+				names.add(name.contains(REPLICA_INDEX_PLACEHOLDER) ? name.replace(REPLICA_INDEX_PLACEHOLDER, suffix)
+						: name + suffix);
+			if(replica.isSingleton(NAME_ATTRIBUTE_NAME))
+				replica.setValue(NAME_ATTRIBUTE_NAME, names.get(0));
+			else
+				replica.clear(NAME_ATTRIBUTE_NAME).addAll(NAME_ATTRIBUTE_NAME, names);
+		}
+		if(template.isSingleton(LOCAL_ID_ATTRIBUTE))
+			replica.setValue(LOCAL_ID_ATTRIBUTE, template.getSingleValue(LOCAL_ID_ATTRIBUTE) + "/" + suffix);
+		return replica;
+	}
 }
@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * Copyright (C) 2021 Andrei Olaru.
+ *
+ * This file is part of Flash-MAS. The CONTRIBUTORS.md file lists people who have been previously involved with this project.
+ *
+ * Flash-MAS is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * Flash-MAS is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Flash-MAS.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.xqhs.flash.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+
+import net.xqhs.flash.core.util.MultiTreeMap;
+import net.xqhs.util.config.Config.ConfigLockedException;
+
+/**
+ * Manages compiled snapshots of deployments: files containing the configuration which results from
+ * {@link DeploymentConfiguration#loadConfiguration} -- after the validation and parsing of the deployment file, the
+ * parsing of the program arguments, the porting of entities and the propagation of the context -- written in the
+ * compact form of {@link MultiTreeMap#writeCompact}.
+ * <p>
+ * When a snapshot file is set (see {@link #SNAPSHOT_FILE_PROPERTY} and {@link #setSnapshotFile(File)}), the
+ * configuration is read from the snapshot, without parsing anything, if the snapshot was compiled from the same program
+ * arguments and from the same contents of the deployment file and of the schema. Otherwise, the configuration is
+ * loaded normally and the snapshot is (re)compiled. A snapshot can also be compiled without booting the deployment,
+ * with {@link #main(String[])}.
+ * <p>
+ * The classes resolved when loading the entities are not part of the snapshot; they are kept by the
+ * {@link AutoFindCache}.
+ *
+ * @author Andrei Olaru
+ */
+public class DeploymentSnapshot {
+	/**
+	 * The name of the system property giving the snapshot file. If not set, no snapshot is used.
+	 */
+	public static final String	SNAPSHOT_FILE_PROPERTY	= "flash.deploymentSnapshot";
+	/**
+	 * The first bytes of a snapshot file, containing the version of the format.
+	 */
+	protected static final int	MAGIC					= 0x464c5331;
+
+	/**
+	 * The snapshot file, if any.
+	 */
+	protected static File		snapshotFile			= null;
+
+	static {
+		String file = System.getProperty(SNAPSHOT_FILE_PROPERTY);
+		if(file != null)
+			snapshotFile = new File(file);
+	}
+
+	/**
+	 * Sets the snapshot file, replacing the one given by {@link #SNAPSHOT_FILE_PROPERTY}.
+	 *
+	 * @param file
+	 *            - the file; <code>null</code> to not use snapshots.
+	 */
+	public static synchronized void setSnapshotFile(File file) {
+		snapshotFile = file;
+	}
+
+	/**
+	 * @return the snapshot file, or <code>null</code> if none is used.
+	 */
+	public static synchronized File getSnapshotFile() {
+		return snapshotFile;
+	}
+
+	/**
+	 * Computes the fingerprint of the sources of a configuration.
+	 *
+	 * @param programArguments
+	 *            - the program arguments.
+	 * @param sourceFiles
+	 *            - the files the configuration is loaded from (the deployment file and the schema); <code>null</code>
+	 *            elements are ignored. The contents of the files are part of the fingerprint.
+	 * @return the fingerprint.
+	 */
+	public static byte[] fingerprint(List<String> programArguments, String... sourceFiles) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch(NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		digest.update(Integer.toString(MAGIC).getBytes(StandardCharsets.UTF_8));
+		for(String arg : programArguments) {
+			digest.update((byte) 0);
+			digest.update(arg.getBytes(StandardCharsets.UTF_8));
+		}
+		for(String file : sourceFiles)
+			if(file != null) {
+				digest.update((byte) 1);
+				digest.update(file.getBytes(StandardCharsets.UTF_8));
+				try {
+					digest.update(Files.readAllBytes(new File(file).toPath()));
+				} catch(IOException e) {
+					// the file cannot be read; only its name is part of the fingerprint
+					digest.update((byte) 2);
+				}
+			}
+		return digest.digest();
+	}
+
+	/**
+	 * Reads the configuration in the snapshot file into the given tree, if the snapshot has the given fingerprint.
+	 *
+	 * @param fingerprint
+	 *            - the fingerprint of the sources of the configuration (see {@link #fingerprint}).
+	 * @param configuration
+	 *            - the tree in which to read the configuration; it is only modified if the snapshot is read
+	 *            successfully.
+	 * @return <code>true</code> if the snapshot was read.
+	 */
+	public static boolean read(byte[] fingerprint, MultiTreeMap configuration) {
+		File file = getSnapshotFile();
+		if(file == null || !file.isFile())
+			return false;
+		try (InputStream input = new BufferedInputStream(Files.newInputStream(file.toPath()))) {
+			DataInputStream in = new DataInputStream(input);
+			if(in.readInt() != MAGIC)
+				return false;
+			byte[] snapshotFingerprint = new byte[in.readUnsignedByte()];
+			in.readFully(snapshotFingerprint);
+			if(!Arrays.equals(fingerprint, snapshotFingerprint))
+				return false;
+			configuration.readCompact(in);
+			return true;
+		} catch(IOException e) {
+			// the snapshot will be compiled again
+			return false;
+		}
+	}
+
+	/**
+	 * Writes a configuration to the snapshot file, if any. The file is replaced atomically.
+	 *
+	 * @param fingerprint
+	 *            - the fingerprint of the sources of the configuration (see {@link #fingerprint}).
+	 * @param configuration
+	 *            - the configuration.
+	 * @return <code>true</code> if the snapshot was written.
+	 */
+	public static boolean write(byte[] fingerprint, MultiTreeMap configuration) {
+		File file = getSnapshotFile();
+		if(file == null)
+			return false;
+		Path temp = null;
+		try {
+			File dir = file.getAbsoluteFile().getParentFile();
+			temp = Files.createTempFile(dir.toPath(), file.getName(), ".tmp");
+			try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(temp))) {
+				DataOutputStream out = new DataOutputStream(output);
+				out.writeInt(MAGIC);
+				out.writeByte(fingerprint.length);
+				out.write(fingerprint);
+				configuration.writeCompact(out);
+				out.flush();
+			}
+			Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			return true;
+		} catch(IOException e) {
+			if(temp != null)
+				temp.toFile().delete();
+			return false;
+		}
+	}
+
+	/**
+	 * Compiles the snapshot of a deployment, without booting it.
+	 *
+	 * @param args
+	 *            - the snapshot file, followed by the arguments of the deployment, as they would be given to
+	 *            {@link net.xqhs.flash.FlashBoot}.
+	 */
+	public static void main(String[] args) {
+		if(args.length == 0) {
+			System.err.println("The snapshot file should be given as the first argument.");
+			return;
+		}
+		setSnapshotFile(new File(args[0]));
+		new File(args[0]).delete();
+		try {
+			new DeploymentConfiguration().loadConfiguration(Arrays.asList(args).subList(1, args.length), true, null);
+		} catch(ConfigLockedException e) {
+			// cannot happen for a new configuration
+			throw new IllegalStateException(e);
+		}
+		System.out.println(getSnapshotFile().isFile() ? "Snapshot compiled to " + args[0] : "Snapshot not compiled.");
+	}
+}
@@ -0,0 +1,622 @@
+/*******************************************************************************
+ * Copyright (C) 2021 Andrei Olaru.
+ *
+ * This file is part of Flash-MAS. The CONTRIBUTORS.md file lists people who have been previously involved with this project.
+ *
+ * Flash-MAS is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * Flash-MAS is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Flash-MAS.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.xqhs.flash.core;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.util.StreamReaderDelegate;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.SchemaFactory;
+
+import org.xml.sax.SAXException;
+
+import net.xqhs.flash.core.DeploymentConfiguration.CtxtTriple;
+import net.xqhs.flash.core.util.MultiTreeMap;
+import net.xqhs.util.logging.Logger;
+
+/**
+ * Reads deployment files with a streaming (StAX) parser, building the configuration tree directly, without building
+ * the DOM and the {@link net.xqhs.util.XML.XMLTree} of the file. The resulting tree contains the same entities, with
+ * the same parameters and in the same order in the entity list, as the one built by
+ * {@link DeploymentConfiguration#readXML}, and with the names inside each entity in the same order: attributes are
+ * added in the order of their names (as the DOM gives them), and all the parameters of an element are added before its
+ * subordinate entities. For the latter, the file is read twice: a first pass collects the parameters which appear
+ * after the first subordinate entity of their element (see {@link #collectLateParameters}), so that they can be added
+ * before it in the second pass, which builds the tree.
+ * <p>
+ * The validation of the file against the schema is also done in a streaming manner, and can be:
+ * <ul>
+ * <li>{@link Validation#ALWAYS} -- performed every time;
+ * <li>{@link Validation#CACHED} (the default) -- performed only once for the same contents of the schema and of the
+ * deployment file, during the execution;
+ * <li>{@link Validation#NEVER} -- skipped.
+ * </ul>
+ * The reader is used by {@link DeploymentConfiguration#loadConfiguration} when the {@link net.xqhs.util.XML.XMLTree}
+ * of the deployment file is not required by the caller, unless deactivated (see {@link #STREAMING_PROPERTY} and
+ * {@link #setEnabled(boolean)}).
+ *
+ * @author Andrei Olaru
+ */
+public class DeploymentStreamReader {
+	/**
+	 * Policies for the validation of deployment files.
+	 */
+	public enum Validation {
+		/**
+		 * The file is validated every time it is read.
+		 */
+		ALWAYS,
+		/**
+		 * The file is validated only once for the same contents of the file and of the schema.
+		 */
+		CACHED,
+		/**
+		 * The file is not validated.
+		 */
+		NEVER,
+	}
+
+	/**
+	 * A parameter given by an element of the deployment file.
+	 */
+	protected static class Parameter {
+		/**
+		 * The name of the parameter.
+		 */
+		final String	name;
+		/**
+		 * The value of the parameter.
+		 */
+		final String	value;
+		/**
+		 * <code>true</code> if the parameter is a singleton.
+		 */
+		final boolean	unique;
+
+		/**
+		 * @param name
+		 *            - the name of the parameter.
+		 * @param value
+		 *            - the value of the parameter.
+		 * @param unique
+		 *            - <code>true</code> if the parameter is a singleton.
+		 */
+		Parameter(String name, String value, boolean unique) {
+			this.name = name;
+			this.value = value;
+			this.unique = unique;
+		}
+	}
+
+	/**
+	 * A reader which counts the elements which have started, so that elements can be identified across the two passes
+	 * over the file.
+	 */
+	protected static class CountingReader extends StreamReaderDelegate {
+		/**
+		 * The number of elements which have started, which is also the index of the current element, at its start.
+		 */
+		int elements = 0;
+
+		/**
+		 * @param reader
+		 *            - the reader to delegate to.
+		 */
+		CountingReader(XMLStreamReader reader) {
+			super(reader);
+		}
+
+		@Override
+		public int next() throws XMLStreamException {
+			int event = super.next();
+			if(event == XMLStreamConstants.START_ELEMENT)
+				elements++;
+			return event;
+		}
+	}
+
+	/**
+	 * The name of the system property which, if set to <code>false</code>, deactivates the streaming reader.
+	 */
+	public static final String			STREAMING_PROPERTY	= "flash.deploymentStreaming";
+	/**
+	 * The name of the system property giving the validation policy, as the name of a {@link Validation} value.
+	 */
+	public static final String			VALIDATION_PROPERTY	= "flash.deploymentValidation";
+
+	/**
+	 * Indicates whether the streaming reader is used.
+	 */
+	protected static volatile boolean		enabled				= !"false"
+			.equalsIgnoreCase(System.getProperty(STREAMING_PROPERTY));
+	/**
+	 * The validation policy; if <code>null</code>, it is given by {@link #VALIDATION_PROPERTY}.
+	 */
+	protected static volatile Validation	validation			= null;
+	/**
+	 * The hashes of the (schema, deployment file) pairs which have been successfully validated.
+	 */
+	protected static final Set<String>		validated			= Collections.synchronizedSet(new HashSet<>());
+
+	/**
+	 * Activates or deactivates the streaming reader.
+	 *
+	 * @param enable
+	 *            - <code>true</code> to read deployment files with the streaming reader.
+	 */
+	public static void setEnabled(boolean enable) {
+		enabled = enable;
+	}
+
+	/**
+	 * @return <code>true</code> if the streaming reader is used.
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Sets the validation policy.
+	 *
+	 * @param policy
+	 *            - the policy; <code>null</code> to use the one given by {@link #VALIDATION_PROPERTY}.
+	 */
+	public static void setValidation(Validation policy) {
+		validation = policy;
+	}
+
+	/**
+	 * Reads the validation policy from {@link #VALIDATION_PROPERTY}. If the property is not a valid policy,
+	 * {@link Validation#CACHED} is used.
+	 *
+	 * @param log
+	 *            - the {@link Logger} to use.
+	 * @return the policy.
+	 */
+	protected static Validation validationProperty(Logger log) {
+		String property = System.getProperty(VALIDATION_PROPERTY);
+		if(property == null)
+			return Validation.CACHED;
+		try {
+			return Validation.valueOf(property.trim().toUpperCase());
+		} catch(IllegalArgumentException e) {
+			log.lw("Unknown validation policy [] in property []; using []", property, VALIDATION_PROPERTY,
+					Validation.CACHED);
+			return Validation.CACHED;
+		}
+	}
+
+	/**
+	 * Validates a deployment file against a schema, according to the validation policy.
+	 *
+	 * @param schemaFile
+	 *            - the schema.
+	 * @param deploymentFile
+	 *            - the deployment file.
+	 * @param log
+	 *            - the {@link Logger} to use.
+	 * @return <code>true</code> if the file is valid or if it did not need to be validated.
+	 */
+	public static boolean validate(String schemaFile, String deploymentFile, Logger log) {
+		Validation policy = validation != null ? validation : validationProperty(log);
+		if(policy == Validation.NEVER)
+			return true;
+		String hash = null;
+		if(policy == Validation.CACHED) {
+			try {
+				hash = hash(schemaFile) + hash(deploymentFile);
+			} catch(IOException e) {
+				return log.ler(false, "Deployment file or schema cannot be read: []", e.getMessage());
+			}
+			if(validated.contains(hash))
+				return true;
+		}
+		try {
+			SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(new File(schemaFile))
+					.newValidator().validate(new StreamSource(new File(deploymentFile)));
+		} catch(SAXException | IOException e) {
+			return log.ler(false, "Deployment file [] is not valid: []", deploymentFile, e.getMessage());
+		}
+		if(hash != null)
+			validated.add(hash);
+		return true;
+	}
+
+	/**
+	 * @param file
+	 *            - a file.
+	 * @return the SHA-256 hash of the contents of the file, in Base64.
+	 * @throws IOException
+	 *             if the file cannot be read.
+	 */
+	protected static String hash(String file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch(NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		try (InputStream in = new DigestInputStream(Files.newInputStream(new File(file).toPath()), digest)) {
+			byte[] buffer = new byte[8192];
+			while(in.read(buffer) >= 0)
+				; // only the digest is needed
+		}
+		return Base64.getEncoder().encodeToString(digest.digest());
+	}
+
+	/**
+	 * Reads a deployment file into the given configuration tree.
+	 *
+	 * @param deploymentFile
+	 *            - the deployment file.
+	 * @param deploymentCat
+	 *            - the tree of the {@link CategoryName#DEPLOYMENT} category.
+	 * @param rootTree
+	 *            - the root deployment tree, where identifiable entities should be added.
+	 * @param autoCreated
+	 *            - the list of entity IDs that have been created automatically.
+	 * @param name_ids
+	 *            - correspondence between names and local IDs.
+	 * @param log
+	 *            - the {@link Logger} to use.
+	 * @return <code>true</code> if the file was read.
+	 */
+	public static boolean read(String deploymentFile, MultiTreeMap deploymentCat, MultiTreeMap rootTree,
+			List<String> autoCreated, Map<String, String> name_ids, Logger log) {
+		Map<Integer, List<Parameter>> late = new HashMap<>();
+		try {
+			if(!read(deploymentFile, reader -> collectLateParameters(reader, false, reader.elements, late)))
+				return log.ler(false, "Deployment file [] contains no elements.", deploymentFile);
+			read(deploymentFile, reader -> {
+				// the attributes of the root element are not read
+				String catName = getCategory(reader);
+				MultiTreeMap nodeTree = CategoryName.DEPLOYMENT.equals(CategoryName.byName(catName))
+						? deploymentCat.getSingleTree(null)
+						: new MultiTreeMap();
+				readElement(reader, false, reader.elements, late, catName, nodeTree, deploymentCat, new LinkedList<>(),
+						rootTree, autoCreated, name_ids, log);
+			});
+			return true;
+		} catch(IOException | XMLStreamException e) {
+			return log.ler(false, "Deployment file [] cannot be read: []", deploymentFile, e.getMessage());
+		}
+	}
+
+	/**
+	 * Processes the root element of a deployment file.
+	 */
+	protected interface RootProcessor {
+		/**
+		 * @param reader
+		 *            - the reader, positioned at the start of the root element.
+		 * @throws XMLStreamException
+		 *             if the file is not well-formed.
+		 */
+		void process(CountingReader reader) throws XMLStreamException;
+	}
+
+	/**
+	 * Reads a deployment file, until the start of its root element, which is then processed.
+	 *
+	 * @param deploymentFile
+	 *            - the deployment file.
+	 * @param processor
+	 *            - the processing of the root element.
+	 * @return <code>true</code> if the file contains a root element.
+	 * @throws IOException
+	 *             if the file cannot be read.
+	 * @throws XMLStreamException
+	 *             if the file is not well-formed.
+	 */
+	protected static boolean read(String deploymentFile, RootProcessor processor)
+			throws IOException, XMLStreamException {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		CountingReader reader = null;
+		try (InputStream in = new BufferedInputStream(Files.newInputStream(new File(deploymentFile).toPath()))) {
+			reader = new CountingReader(factory.createXMLStreamReader(in));
+			while(reader.hasNext())
+				if(reader.next() == XMLStreamConstants.START_ELEMENT) {
+					processor.process(reader);
+					return true;
+				}
+			return false;
+		} finally {
+			if(reader != null)
+				try {
+					reader.close();
+				} catch(XMLStreamException e) {
+					// nothing to do
+				}
+		}
+	}
+
+	/**
+	 * Recursive method which collects the parameters of an element (given by parameter elements or by text elements)
+	 * which appear after its first subordinate entity. The elements are classified in the same manner as in
+	 * {@link #readElement}.
+	 *
+	 * @param reader
+	 *            - the reader, positioned at the start of the element, or at the start of its first subordinate
+	 *            element; when the method returns, it is positioned at the end of the element.
+	 * @param atContent
+	 *            - <code>true</code> if the reader is positioned at the start of the first subordinate element.
+	 * @param element
+	 *            - the index of the element (see {@link CountingReader#elements}).
+	 * @param late
+	 *            - the map in which to add the parameters, indexed by the index of their element.
+	 * @throws XMLStreamException
+	 *             if the file is not well-formed.
+	 */
+	protected static void collectLateParameters(CountingReader reader, boolean atContent, int element,
+			Map<Integer, List<Parameter>> late) throws XMLStreamException {
+		boolean entityFound = false;
+		for(int event = atContent ? reader.getEventType() : reader.next(); event != XMLStreamConstants.END_ELEMENT;
+				event = reader.next()) {
+			if(event != XMLStreamConstants.START_ELEMENT)
+				continue;
+			String childName = getName(reader.getPrefix(), reader.getLocalName());
+			if(childName.equals(DeploymentConfiguration.PARAMETER_ELEMENT_NAME)) {
+				if(entityFound)
+					late.computeIfAbsent(Integer.valueOf(element), k -> new ArrayList<>())
+							.add(new Parameter(reader.getAttributeValue(null, DeploymentConfiguration.PARAMETER_NAME),
+									reader.getAttributeValue(null, DeploymentConfiguration.PARAMETER_VALUE), false));
+				skip(reader, 1);
+				continue;
+			}
+			int child = reader.elements;
+			CategoryName childCat = CategoryName.byName(getCategory(reader));
+			boolean childAtContent = false;
+			if(reader.getAttributeCount() == 0 && (childCat == null || childCat.isValue())) {
+				String text = readText(reader);
+				if(reader.getEventType() == XMLStreamConstants.END_ELEMENT) {
+					if(entityFound)
+						late.computeIfAbsent(Integer.valueOf(element), k -> new ArrayList<>())
+								.add(new Parameter(childName, text, childCat != null && childCat.isUnique()));
+					continue;
+				}
+				childAtContent = true;
+			}
+			entityFound = true;
+			collectLateParameters(reader, childAtContent, child, late);
+		}
+	}
+
+	/**
+	 * Recursive method which reads the content of an XML element into the configuration tree, in the same manner as
+	 * {@link DeploymentConfiguration#readXML}. The parameters which appear after the first subordinate entity (collected
+	 * by {@link #collectLateParameters}) are added before it, and then the name of the entity is integrated, so that
+	 * entities are added to the entity list in the same order, and the names in the tree of the entity are in the same
+	 * order.
+	 *
+	 * @param reader
+	 *            - the reader, positioned at the start of the element, or at the start of its first subordinate
+	 *            element; when the method returns, it is positioned at the end of the element.
+	 * @param atContent
+	 *            - <code>true</code> if the reader is positioned at the start of the first subordinate element.
+	 * @param element
+	 *            - the index of the element (see {@link CountingReader#elements}).
+	 * @param late
+	 *            - the parameters which appear after the first subordinate entity of their element, indexed by the
+	 *            index of the element.
+	 * @param catName
+	 *            - the category of the element.
+	 * @param nodeTree
+	 *            - the tree of the entity, already containing the attributes of the element.
+	 * @param catTree
+	 *            - the configuration tree corresponding to category containing this element.
+	 * @param context
+	 *            - the context of the current element, down to the parent entity.
+	 * @param rootTree
+	 *            - the root deployment tree, where identifiable entities should be added.
+	 * @param autoCreated
+	 *            - the list of entity IDs that have been created automatically.
+	 * @param name_ids
+	 *            - correspondence between names and local IDs.
+	 * @param log
+	 *            - the {@link Logger} to use.
+	 * @throws XMLStreamException
+	 *             if the file is not well-formed.
+	 */
+	protected static void readElement(CountingReader reader, boolean atContent, int element,
+			Map<Integer, List<Parameter>> late, String catName, MultiTreeMap nodeTree, MultiTreeMap catTree,
+			Deque<CtxtTriple> context, MultiTreeMap rootTree, List<String> autoCreated, Map<String, String> name_ids,
+			Logger log) throws XMLStreamException {
+		context.push(new CtxtTriple(catName, catTree, nodeTree));
+
+		boolean integrated = false;
+		for(int event = atContent ? reader.getEventType() : reader.next(); event != XMLStreamConstants.END_ELEMENT;
+				event = reader.next()) {
+			if(event != XMLStreamConstants.START_ELEMENT)
+				continue;
+			String childName = getName(reader.getPrefix(), reader.getLocalName());
+			if(childName.equals(DeploymentConfiguration.PARAMETER_ELEMENT_NAME)) {
+				// parameter elements, add their values to the current tree (unless already added)
+				if(!integrated)
+					DeploymentConfiguration.addParameter(nodeTree,
+							reader.getAttributeValue(null, DeploymentConfiguration.PARAMETER_NAME),
+							reader.getAttributeValue(null, DeploymentConfiguration.PARAMETER_VALUE), false, log);
+				skip(reader, 1);
+				continue;
+			}
+			int child = reader.elements;
+			String childCatName = getCategory(reader);
+			CategoryName childCat = CategoryName.byName(childCatName);
+			MultiTreeMap childTree = new MultiTreeMap();
+			for(Integer i : sortedAttributes(reader))
+				DeploymentConfiguration.addParameter(childTree,
+						getName(reader.getAttributePrefix(i.intValue()), reader.getAttributeLocalName(i.intValue())),
+						reader.getAttributeValue(i.intValue()), false, log);
+			boolean childAtContent = false;
+			if(reader.getAttributeCount() == 0 && (childCat == null || childCat.isValue())) {
+				// may be a text element, that will be treated as parameter - value (unless already added)
+				String text = readText(reader);
+				if(reader.getEventType() == XMLStreamConstants.END_ELEMENT) {
+					if(!integrated)
+						DeploymentConfiguration.addParameter(nodeTree, childName, text,
+								childCat != null && childCat.isUnique(), log);
+					continue;
+				}
+				childAtContent = true;
+			}
+			// element must be integrated as a different entity
+			if(!integrated) {
+				integrateName(element, late, catName, nodeTree, catTree, rootTree, autoCreated, name_ids, log);
+				integrated = true;
+			}
+			MultiTreeMap childCatTree = DeploymentConfiguration.integrateChildCat(nodeTree, childCatName, log);
+			if(childCatTree == null)
+				skip(reader, childAtContent ? 2 : 1);
+			else
+				readElement(reader, childAtContent, child, late, childCatName, childTree, childCatTree,
+						new LinkedList<>(context), rootTree, autoCreated, name_ids, log);
+		}
+		if(!integrated)
+			integrateName(element, late, catName, nodeTree, catTree, rootTree, autoCreated, name_ids, log);
+	}
+
+	/**
+	 * Adds the parameters of an element which appear after its first subordinate entity, then integrates the name of
+	 * the entity (see {@link DeploymentConfiguration#integrateName}).
+	 *
+	 * @param element
+	 *            - the index of the element.
+	 * @param late
+	 *            - the parameters which appear after the first subordinate entity of their element.
+	 * @param catName
+	 *            - the category of the element.
+	 * @param nodeTree
+	 *            - the tree of the entity.
+	 * @param catTree
+	 *            - the configuration tree corresponding to category containing this element.
+	 * @param rootTree
+	 *            - the root deployment tree.
+	 * @param autoCreated
+	 *            - the list of entity IDs that have been created automatically.
+	 * @param name_ids
+	 *            - correspondence between names and local IDs.
+	 * @param log
+	 *            - the {@link Logger} to use.
+	 */
+	protected static void integrateName(int element, Map<Integer, List<Parameter>> late, String catName,
+			MultiTreeMap nodeTree, MultiTreeMap catTree, MultiTreeMap rootTree, List<String> autoCreated,
+			Map<String, String> name_ids, Logger log) {
+		List<Parameter> parameters = late.get(Integer.valueOf(element));
+		if(parameters != null)
+			for(Parameter parameter : parameters)
+				DeploymentConfiguration.addParameter(nodeTree, parameter.name, parameter.value, parameter.unique, log);
+		DeploymentConfiguration.integrateName(nodeTree, catName, catTree, rootTree, autoCreated, name_ids, log);
+	}
+
+	/**
+	 * @param reader
+	 *            - the reader, positioned at the start of an element.
+	 * @return the indexes of the attributes of the element, in the order of their names, as the DOM gives them.
+	 */
+	protected static List<Integer> sortedAttributes(XMLStreamReader reader) {
+		List<Integer> attributes = new ArrayList<>(reader.getAttributeCount());
+		for(int i = 0; i < reader.getAttributeCount(); i++)
+			attributes.add(Integer.valueOf(i));
+		if(attributes.size() > 1)
+			attributes.sort(Comparator.comparing(i -> getName(reader.getAttributePrefix(i.intValue()),
+					reader.getAttributeLocalName(i.intValue()))));
+		return attributes;
+	}
+
+	/**
+	 * Reads the text in the current element, until the start or the end of an element.
+	 *
+	 * @param reader
+	 *            - the reader, positioned at the start of the element.
+	 * @return the text, trimmed, or <code>null</code> if there is no text.
+	 * @throws XMLStreamException
+	 *             if the file is not well-formed.
+	 */
+	protected static String readText(XMLStreamReader reader) throws XMLStreamException {
+		StringBuilder text = new StringBuilder();
+		for(int event = reader.next(); event != XMLStreamConstants.START_ELEMENT
+				&& event != XMLStreamConstants.END_ELEMENT; event = reader.next())
+			if(event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA)
+				text.append(reader.getText());
+		String value = text.toString().trim();
+		return value.length() > 0 ? value : null;
+	}
+
+	/**
+	 * Skips the rest of the current element(s).
+	 *
+	 * @param reader
+	 *            - the reader.
+	 * @param depth
+	 *            - the number of elements to end (1 if the reader is at the start of the element to skip).
+	 * @throws XMLStreamException
+	 *             if the file is not well-formed.
+	 */
+	protected static void skip(XMLStreamReader reader, int depth) throws XMLStreamException {
+		for(int level = depth; level > 0;) {
+			int event = reader.next();
+			if(event == XMLStreamConstants.START_ELEMENT)
+				level++;
+			else if(event == XMLStreamConstants.END_ELEMENT)
+				level--;
+		}
+	}
+
+	/**
+	 * @param prefix
+	 *            - the prefix of a qualified name (may be <code>null</code>).
+	 * @param localName
+	 *            - the local part of the name.
+	 * @return the name, as it appears in the file (with the prefix, if any).
+	 */
+	protected static String getName(String prefix, String localName) {
+		return prefix != null && prefix.length() > 0 ? prefix + ":" + localName : localName;
+	}
+
+	/**
+	 * Same as {@link DeploymentConfiguration#getXMLNodeCategory}.
+	 *
+	 * @param reader
+	 *            - the reader, positioned at the start of an element.
+	 * @return the name of the category of the element.
+	 */
+	protected static String getCategory(XMLStreamReader reader) {
+		String catName = getName(reader.getPrefix(), reader.getLocalName());
+		if(catName.equals(DeploymentConfiguration.GENERAL_ENTITY_NAME))
+			catName = reader.getAttributeValue(null, DeploymentConfiguration.GENERAL_ENTITY_TYPE_ATTRIBUTE);
+		return catName;
+	}
+}
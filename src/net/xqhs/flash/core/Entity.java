@@ -11,8 +11,10 @@
  ******************************************************************************/
 package net.xqhs.flash.core;
 
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import net.xqhs.flash.core.util.MultiTreeMap;
 
@@ -178,41 +180,106 @@ public interface Entity<P extends Entity<?>>
 	}
 	
 	/**
-	 * An index of all local entities, allowing the retrieval of a string in the form of
+	 * An index of local entities, allowing the retrieval of a string in the form of
 	 * type{@value #TYPE_NAME_SEPARATOR}name{@value #NAME_INDEX_SEPARATOR}index for any entity, just by providing a
-	 * reference to the entity.
+	 * reference to the entity, as well as the retrieval of entities by their name (and type).
 	 * <p>
 	 * The index is different for different entities with the same type and name.
 	 * <p>
 	 * In order for the entity to have such a <i>printable</i> name, it must have been previously <i>registered</i>, so
 	 * as to retain its type and compute its index. Normally, registration should be done by a loader (most likely the
-	 * loader that loads that entity).
+	 * loader that loads that entity) or by the node containing the entity. Each node keeps its own index of the entities
+	 * in its context; the static methods use an index shared by the entire JVM, e.g. for nodes.
 	 * <p>
-	 * The name of the entity is kept as provided by {@link Entity#getName()}.
+	 * The name of the entity is kept as provided by {@link Entity#getName()}, at the time of registration.
+	 * <p>
+	 * The index is thread-safe. Entities should be {@link #remove}d when they are stopped or leave their context, so
+	 * that they are not retained by the index; the index of an entity may be reused after all entities with the same
+	 * type and name have been removed.
 	 * 
 	 * @author Andrei Olaru
 	 */
 	public final static class EntityIndex
 	{
+		/**
+		 * The registration of an entity.
+		 */
+		static class Entry
+		{
+			/**
+			 * The type and name of the entity, as in the printable string.
+			 */
+			final String	id;
+			/**
+			 * The name of the entity.
+			 */
+			final String	name;
+			/**
+			 * The printable string for the entity.
+			 */
+			final String	printed;
+			
+			/**
+			 * @param id
+			 *            - the type and name of the entity.
+			 * @param name
+			 *            - the name of the entity.
+			 * @param index
+			 *            - the index of the entity.
+			 */
+			Entry(String id, String name, int index)
+			{
+				this.id = id;
+				this.name = name;
+				printed = id + NAME_INDEX_SEPARATOR + index;
+			}
+		}
+		
+		/**
+		 * The entities registered for a type - name combination.
+		 */
+		static class Registered
+		{
+			/**
+			 * The largest index given to an entity.
+			 */
+			volatile int			largest		= -1;
+			/**
+			 * The registered entities, in the order of their registration.
+			 */
+			final List<Entity<?>>	entities	= new CopyOnWriteArrayList<>();
+		}
+		
 		/**
 		 * In the printed string, the separator between the entity type and its name.
 		 */
-		public final static String		TYPE_NAME_SEPARATOR		= ":";
+		public final static String			TYPE_NAME_SEPARATOR		= ":";
 		/**
 		 * In the printed string, the separator between the entity name and its index.
 		 */
-		public final static String		NAME_INDEX_SEPARATOR	= ".";
+		public final static String			NAME_INDEX_SEPARATOR	= ".";
+		/**
+		 * The index shared by the entire JVM, used by the static methods.
+		 */
+		static final EntityIndex			shared					= new EntityIndex();
+		
 		/**
 		 * The register of all entities.
 		 */
-		static Map<Entity<?>, String>	register				= new HashMap<>();
+		final Map<Entity<?>, Entry>			register				= new ConcurrentHashMap<>();
 		/**
-		 * The register holding the largest index for a type - name combination existing in {@link #register}.
+		 * The register holding the entities and the largest index for each type - name combination existing in
+		 * {@link #register}.
 		 */
-		static Map<String, Integer>		largestIndex			= new HashMap<>();
+		final Map<String, Registered>		byTypeAndName			= new ConcurrentHashMap<>();
+		/**
+		 * The registered entities for each name.
+		 */
+		final Map<String, List<Entity<?>>>	byName					= new ConcurrentHashMap<>();
 		
 		/**
-		 * Registers an entry for an entity.
+		 * Registers an entry for an entity. If the entity is already registered with a different type or name, the
+		 * previous registration is replaced.
 		 * 
 		 * @param entityType
 		 *                       - the type of the entity (e.g. "node").
@@ -220,18 +287,67 @@ public interface Entity<P extends Entity<?>>
 		 *                       - the entity to register.
 		 * @return the printable string for this entity.
 		 */
-		public static String register(String entityType, Entity<? extends Entity<?>> entity)
+		public String add(String entityType, Entity<? extends Entity<?>> entity)
 		{
 			if(entity == null)
 				return null;
-			if(!register.containsKey(entity))
-			{
-				String id = entityType + TYPE_NAME_SEPARATOR + entity.getName();
-				int index = largestIndex.containsKey(id) ? largestIndex.get(id).intValue() + 1 : 0;
-				largestIndex.put(id, Integer.valueOf(index));
-				register.put(entity, id + NAME_INDEX_SEPARATOR + index);
-			}
-			return print(entity);
+			String name = entity.getName();
+			String id = entityType + TYPE_NAME_SEPARATOR + name;
+			Entry entry = register.get(entity);
+			if(entry != null && entry.id.equals(id))
+				return entry.printed;
+			if(entry != null)
+				remove(entity);
+			// removals of the same entity wait for the registration to complete
+			entry = register.computeIfAbsent(entity, e -> {
+				int[] index = new int[1];
+				byTypeAndName.compute(id, (k, registered) -> {
+					Registered r = registered == null ? new Registered() : registered;
+					index[0] = ++r.largest;
+					r.entities.add(entity);
+					return r;
+				});
+				if(name != null)
+					byName.compute(name, (k, entities) -> {
+						List<Entity<?>> list = entities == null ? new CopyOnWriteArrayList<>() : entities;
+						list.add(entity);
+						return list;
+					});
+				return new Entry(id, name, index[0]);
+			});
+			return entry.printed;
+		}
+		
+		/**
+		 * Removes the entry of an entity.
+		 * 
+		 * @param entity
+		 *                   - the entity to remove.
+		 * @return <code>true</code> if the entity was registered.
+		 */
+		public boolean remove(Entity<? extends Entity<?>> entity)
+		{
+			Entry entry = entity == null ? null : register.remove(entity);
+			if(entry == null)
+				return false;
+			byTypeAndName.computeIfPresent(entry.id,
+					(k, r) -> r.entities.remove(entity) && r.entities.isEmpty() ? null : r);
+			if(entry.name != null)
+				byName.computeIfPresent(entry.name, (k, list) -> list.remove(entity) && list.isEmpty() ? null : list);
+			return true;
+		}
+		
+		/**
+		 * Retrieves the printable string from the register.
+		 * 
+		 * @param entity
+		 *                   - the entity to get the string for.
+		 * @return the string, or <code>null</code> if the entity is not registered.
+		 */
+		public String printName(Entity<? extends Entity<?>> entity)
+		{
+			Entry entry = register.get(entity);
+			return entry == null ? null : entry.printed;
 		}
 		
 		/**
@@ -244,15 +360,106 @@ public interface Entity<P extends Entity<?>>
 		 *                       - the name of the entity.
 		 * @return the printable string for this entity, as if it were registered.
 		 */
-		public static String mockPrint(String entityType, String entityName)
+		public String mockPrintName(String entityType, String entityName)
 		{
 			String id = entityType + TYPE_NAME_SEPARATOR + entityName;
-			int index = largestIndex.containsKey(id) ? largestIndex.get(id).intValue() + 1 : 0;
-			return id + NAME_INDEX_SEPARATOR + index;
+			Registered registered = byTypeAndName.get(id);
+			return id + NAME_INDEX_SEPARATOR + (registered == null ? 0 : registered.largest + 1);
 		}
 		
 		/**
-		 * Retrieves the printable string from the register.
+		 * Retrieves a registered entity by its type and name. If there are several such entities, the one registered
+		 * last is returned.
+		 * 
+		 * @param entityType
+		 *                       - the type of the entity.
+		 * @param entityName
+		 *                       - the name of the entity.
+		 * @return the entity, or <code>null</code> if there is no such entity.
+		 */
+		public Entity<?> lookup(String entityType, String entityName)
+		{
+			Registered registered = byTypeAndName.get(entityType + TYPE_NAME_SEPARATOR + entityName);
+			return registered == null ? null : last(registered.entities);
+		}
+		
+		/**
+		 * Retrieves a registered entity by its name, regardless of its type. If there are several such entities, the
+		 * one registered last is returned.
+		 * 
+		 * @param entityName
+		 *                       - the name of the entity.
+		 * @return the entity, or <code>null</code> if there is no such entity.
+		 */
+		public Entity<?> lookup(String entityName)
+		{
+			return entityName == null ? null : last(byName.get(entityName));
+		}
+		
+		/**
+		 * @param entities
+		 *                     - a list of entities, which may be concurrently modified.
+		 * @return the last entity in the list, or <code>null</code> if there is none.
+		 */
+		static Entity<?> last(List<Entity<?>> entities)
+		{
+			if(entities == null)
+				return null;
+			Object[] snapshot = entities.toArray();
+			return snapshot.length == 0 ? null : (Entity<?>) snapshot[snapshot.length - 1];
+		}
+		
+		/**
+		 * @return the number of registered entities.
+		 */
+		public int size()
+		{
+			return register.size();
+		}
+		
+		/**
+		 * Registers an entry for an entity, in the index shared by the JVM.
+		 * 
+		 * @param entityType
+		 *                       - the type of the entity (e.g. "node").
+		 * @param entity
+		 *                       - the entity to register.
+		 * @return the printable string for this entity.
+		 */
+		public static String register(String entityType, Entity<? extends Entity<?>> entity)
+		{
+			return shared.add(entityType, entity);
+		}
+		
+		/**
+		 * Removes the entry of an entity from the index shared by the JVM.
+		 * 
+		 * @param entity
+		 *                   - the entity to remove.
+		 * @return <code>true</code> if the entity was registered.
+		 */
+		public static boolean unregister(Entity<? extends Entity<?>> entity)
+		{
+			return shared.remove(entity);
+		}
+		
+		/**
+		 * Returns a printable string, as if an entity is registered in the index shared by the JVM, but without the
+		 * entity being registered (or, indeed, instantiated). The presumed name of the entity needs to be provided.
+		 * 
+		 * @param entityType
+		 *                       - the type of the entity (e.g. "node").
+		 * @param entityName
+		 *                       - the name of the entity.
+		 * @return the printable string for this entity, as if it were registered.
+		 */
+		public static String mockPrint(String entityType, String entityName)
+		{
+			return shared.mockPrintName(entityType, entityName);
+		}
+		
+		/**
+		 * Retrieves the printable string from the register shared by the JVM.
 		 * 
 		 * @param entity
 		 *                   - the entity to get the string for.
@@ -260,7 +467,7 @@ public interface Entity<P extends Entity<?>>
 		 */
 		public static String print(Entity<? extends Entity<?>> entity)
 		{
-			return register.get(entity);
+			return shared.printName(entity);
 		}
 		
 		/**
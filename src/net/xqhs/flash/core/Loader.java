@@ -251,6 +251,9 @@ public interface Loader<T extends Entity<?>>
 		switch(searchType) {
 		case CLASS:
 			factory = objects[0] != null ? (ClassFactory) objects[0] : PlatformUtils.getClassFactory();
+			// classes which are surely absent are not probed; other factories may use other class loaders
+			if(factory == PlatformUtils.getClassFactory() && AutoFindCache.check(path) == Boolean.FALSE)
+				return false;
 			return factory.canLoadClass(path);
 		case FILE:
 			try {
@@ -267,6 +270,9 @@ public interface Loader<T extends Entity<?>>
 	/**
 	 * Reunites the functionality of {@link #autoFind(ClassFactory, List, String, String, String, String, List)} and
 	 * {@link #autoFind(ClassFactory, List, String, String, String, String, List)}.
+	 * <p>
+	 * The results of searches for classes are cached (see {@link AutoFindCache}). The checked paths are the candidate
+	 * paths, whether or not they have actually been checked.
 	 * 
 	 * @param given_packages
 	 * @param given_cp
@@ -280,12 +286,43 @@ public interface Loader<T extends Entity<?>>
 	 */
 	static String autoFind(List<String> given_packages, String given_cp, String upper_name, String lower_name,
 			String entity, List<String> checkedPaths, SearchItemType searchType, Object... others) {
-		String D = searchType == SearchItemType.CLASS ? "." : "/";
 		List<String> paths = checkedPaths != null ? checkedPaths : new LinkedList<>();
+		candidatePaths(paths, given_packages, given_cp, upper_name, lower_name, entity, searchType);
+		String key = AutoFindCache.isCached(searchType)
+				? AutoFindCache.key(given_packages, given_cp, upper_name, lower_name, entity)
+				: null;
+		String cached = key != null ? AutoFindCache.get(key) : null;
+		if(cached != null)
+			return cached.isEmpty() ? null : cached;
+		String found = null;
+		for(String p : paths)
+			if(loadCheck(p, searchType, others)) {
+				found = p;
+				break;
+			}
+		if(key != null)
+			AutoFindCache.put(key, found);
+		return found;
+	}
+	
+	/**
+	 * Builds the list of paths to check, in order, for
+	 * {@link #autoFind(List, String, String, String, String, List, SearchItemType, Object...)}.
+	 * 
+	 * @param paths
+	 *            - the list in which to add the paths (it is cleared first).
+	 * @param given_packages
+	 * @param given_cp
+	 * @param upper_name
+	 * @param lower_name
+	 * @param entity
+	 * @param searchType
+	 */
+	static void candidatePaths(List<String> paths, List<String> given_packages, String given_cp, String upper_name,
+			String lower_name, String entity, SearchItemType searchType) {
+		String D = searchType == SearchItemType.CLASS ? "." : "/";
 		paths.clear();
 		paths.add(given_cp);
-		if(given_cp != null && loadCheck(given_cp, searchType, others))
-			return given_cp;
 		List<String> packages = null;
 		if(given_packages != null)
 			if(searchType == SearchItemType.CLASS)
@@ -299,21 +336,15 @@ public interface Loader<T extends Entity<?>>
 			for(String p : packages)
 			{
 				paths.add(p + D + given_cp);
-				if(loadCheck(p + D + given_cp, searchType, others))
-					return p + D + given_cp;
 				if(searchType == SearchItemType.FILE)
 					for(String dir : DeploymentConfiguration.SOURCE_FILE_DIRECTORIES)
-					{
 						paths.add(dir + D + p + D + given_cp);
-						if(loadCheck(dir + D + p + D + given_cp, searchType, others))
-							return dir + D + p + D + given_cp;
-					}
 			}
+		if(upper_name == null)
+			return;
 		List<String> clsNames = new LinkedList<>();
 		if(given_cp != null)
 			clsNames.add(given_cp);
-		if(upper_name == null)
-			return null;
 		clsNames.add(capitalize(upper_name) + capitalize(entity));
 		if(lower_name != null)
 		{
@@ -337,10 +368,6 @@ public interface Loader<T extends Entity<?>>
 				}
 				paths.add(r + D + cls);
 			}
-		for(String p : paths)
-			if(loadCheck(p, searchType, others))
-				return p;
-		return null;
 	}
 	
 	/**
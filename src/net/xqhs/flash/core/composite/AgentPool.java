@@ -0,0 +1,245 @@
+/*******************************************************************************
+ * Copyright (C) 2021 Andrei Olaru.
+ *
+ * This file is part of Flash-MAS. The CONTRIBUTORS.md file lists people who have been previously involved with this project.
+ *
+ * Flash-MAS is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * Flash-MAS is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Flash-MAS.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.xqhs.flash.core.composite;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.xqhs.flash.core.agent.AgentEvent.AgentEventType;
+import net.xqhs.flash.core.shard.AgentShard;
+import net.xqhs.flash.core.util.MultiTreeMap;
+
+/**
+ * Keeps stopped {@link CompositeAgent} instances ready to be reused as new agents of the same type, so that short-lived
+ * agents do not pay for class resolution, shard construction and thread creation every time.
+ * <p>
+ * The type of an agent is given by the names and the classes of its shards, in order (see
+ * {@link #typeOf(MultiTreeMap)}). Agents are
+ * added to the pool by the {@link CompositeAgentLoader} which creates them (if configured with
+ * {@link #POOL_PARAMETER}) and are returned to the pool when they stop (after {@link AgentEventType#AGENT_STOP}), if
+ * they can be reset (see {@link CompositeAgent#reset()}); at most {@link #capacity} agents of each type are kept. The
+ * threads of pooled agents are also reused.
+ * <p>
+ * All methods are thread-safe.
+ *
+ * @author Andrei Olaru
+ */
+public class AgentPool {
+	/**
+	 * The name of the loader parameter giving the maximum number of stopped agents of each type kept in the pool.
+	 */
+	public static final String POOL_PARAMETER = "pool";
+
+	/**
+	 * An agent managed by the pool, together with its shards, in the order in which they appear in the configuration
+	 * of the agent.
+	 */
+	public static class PooledAgent {
+		/**
+		 * The type of the agent.
+		 */
+		protected final String				type;
+		/**
+		 * The agent.
+		 */
+		protected final CompositeAgent		agent;
+		/**
+		 * The shards of the agent.
+		 */
+		protected final List<AgentShard>	shards;
+
+		/**
+		 * @param type
+		 *            - the type of the agent.
+		 * @param agent
+		 *            - the agent.
+		 * @param shards
+		 *            - the shards of the agent.
+		 */
+		protected PooledAgent(String type, CompositeAgent agent, List<AgentShard> shards) {
+			this.type = type;
+			this.agent = agent;
+			this.shards = new ArrayList<>(shards);
+		}
+
+		/**
+		 * @return the agent.
+		 */
+		public CompositeAgent getAgent() {
+			return agent;
+		}
+
+		/**
+		 * @return the shards of the agent, in the order in which they appear in the configuration of the agent.
+		 */
+		public List<AgentShard> getShards() {
+			return shards;
+		}
+	}
+
+	/**
+	 * The maximum number of stopped agents of each type.
+	 */
+	protected final int								capacity;
+	/**
+	 * The agents managed by the pool (in use or not).
+	 */
+	protected final Map<CompositeAgent, PooledAgent>	members		= new ConcurrentHashMap<>();
+	/**
+	 * The stopped agents, ready to be reused, indexed by type.
+	 */
+	protected final Map<String, Deque<PooledAgent>>	idle		= new ConcurrentHashMap<>();
+	/**
+	 * The threads of the pooled agents.
+	 */
+	protected final ExecutorService					threads;
+	/**
+	 * The number of agents added to the pool.
+	 */
+	protected final AtomicLong						created		= new AtomicLong();
+	/**
+	 * The number of agents handed out for reuse.
+	 */
+	protected final AtomicLong						reused		= new AtomicLong();
+
+	/**
+	 * Creates a pool.
+	 *
+	 * @param capacity
+	 *            - the maximum number of stopped agents kept for each type.
+	 */
+	public AgentPool(int capacity) {
+		this.capacity = capacity;
+		threads = Executors.newCachedThreadPool(task -> {
+			Thread thread = new Thread(task);
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Computes the type of an agent, from its configuration.
+	 *
+	 * @param agentConfiguration
+	 *            - the configuration of the agent.
+	 * @return the type: the names of the shards of the agent, in order, each with the classes given for each of its
+	 *         configurations (so that agents with different shard classes, or with a different number of shards with
+	 *         the same name, have different types).
+	 */
+	public static String typeOf(MultiTreeMap agentConfiguration) {
+		if(!agentConfiguration.isSet(CompositeAgentLoader.SHARD_NODE_NAME))
+			return "";
+		MultiTreeMap shards = agentConfiguration.getSingleTree(CompositeAgentLoader.SHARD_NODE_NAME);
+		StringBuilder type = new StringBuilder();
+		for(String shardName : shards.getTreeKeys()) {
+			type.append(shardName);
+			for(MultiTreeMap shardConfig : shards.getTrees(shardName))
+				type.append(':').append(shardConfig == null ? ""
+						: shardConfig.getSingleValue(CompositeAgentLoader.SHARD_CLASS_PARAMETER));
+			type.append(',');
+		}
+		return type.toString();
+	}
+
+	/**
+	 * Adds a newly created agent to the pool, so that it is returned to the pool when it stops.
+	 *
+	 * @param type
+	 *            - the type of the agent.
+	 * @param agent
+	 *            - the agent.
+	 * @param shards
+	 *            - the shards of the agent, in the order in which they appear in the configuration of the agent.
+	 */
+	public void add(String type, CompositeAgent agent, List<AgentShard> shards) {
+		members.put(agent, new PooledAgent(type, agent, shards));
+		agent.pool = this;
+		created.incrementAndGet();
+	}
+
+	/**
+	 * Hands out a stopped agent of the given type, if any. The agent has been reset, and its shards should be
+	 * configured again.
+	 *
+	 * @param type
+	 *            - the type.
+	 * @return the agent and its shards, or <code>null</code> if there is no agent of the type in the pool.
+	 */
+	public PooledAgent acquire(String type) {
+		Deque<PooledAgent> agents = idle.get(type);
+		PooledAgent agent = agents != null ? agents.pollFirst() : null;
+		if(agent != null)
+			reused.incrementAndGet();
+		return agent;
+	}
+
+	/**
+	 * @param type
+	 *            - the type.
+	 * @return <code>true</code> if there is a stopped agent of the type in the pool.
+	 */
+	public boolean hasIdle(String type) {
+		Deque<PooledAgent> agents = idle.get(type);
+		return agents != null && !agents.isEmpty();
+	}
+
+	/**
+	 * Returns an agent whose thread has exited to the pool. The agent is reset; if it cannot be reset (e.g. it is not
+	 * stopped), or if the pool already has {@link #capacity} agents of its type, it is discarded.
+	 *
+	 * @param agent
+	 *            - the agent.
+	 */
+	protected void release(CompositeAgent agent) {
+		PooledAgent pooled = members.get(agent);
+		if(pooled == null)
+			return;
+		Deque<PooledAgent> agents = idle.computeIfAbsent(pooled.type, k -> new ConcurrentLinkedDeque<>());
+		if(agents.size() >= capacity || !agent.reset()) {
+			members.remove(agent);
+			agent.pool = null;
+			return;
+		}
+		agents.addFirst(pooled);
+	}
+
+	/**
+	 * Runs the event processing of a pooled agent on a pooled thread.
+	 *
+	 * @param task
+	 *            - the event processing.
+	 */
+	protected void execute(Runnable task) {
+		threads.execute(task);
+	}
+
+	/**
+	 * @return the number of agents created and added to the pool.
+	 */
+	public long getCreatedCount() {
+		return created.get();
+	}
+
+	/**
+	 * @return the number of times a stopped agent was handed out for reuse.
+	 */
+	public long getReusedCount() {
+		return reused.get();
+	}
+}
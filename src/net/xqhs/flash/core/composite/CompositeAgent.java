@@ -12,12 +12,17 @@
 package net.xqhs.flash.core.composite;
 
 import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.LinkedBlockingQueue;
 
 import net.xqhs.flash.core.DeploymentConfiguration;
@@ -86,7 +91,7 @@ public class CompositeAgent implements CompositeAgentModel, Serializable {
 		
 		@Override
 		public AgentShard getAgentShard(AgentShardDesignation designation) {
-			return shards.get(designation);
+			return getShard(designation);
 		}
 	}
 	
@@ -149,7 +154,15 @@ public class CompositeAgent implements CompositeAgentModel, Serializable {
 	class AgentThread implements Runnable {
 		@Override
 		public void run() {
+			if(pool == null) {
+				eventProcessingCycle();
+				return;
+			}
+			agentThread = Thread.currentThread();
 			eventProcessingCycle();
+			agentThread = null;
+			// agents which are not stopped (e.g. which moved away) leave the pool
+			pool.release(CompositeAgent.this);
 		}
 	}
 	
@@ -164,6 +177,11 @@ public class CompositeAgent implements CompositeAgentModel, Serializable {
 	 * separate {@link AgentThread} instance should not be created.
 	 */
 	protected static final String	NO_CREATE_THREAD			= "DONT_CREATE_THREAD";
+	/**
+	 * The name of the parameter of {@link AgentEventType#AGENT_WAVE} events which carry a task to run on the thread of
+	 * the agent (see {@link #postAgentTask(Callable)}). Such events are not signaled to the shards.
+	 */
+	protected static final String	TASK_EVENT_PARAMETER		= "AGENT_TASK";
 	
 	/**
 	 * The {@link Map} that links shard designations (functionalities) to shard instances.
@@ -193,6 +211,10 @@ public class CompositeAgent implements CompositeAgentModel, Serializable {
 	 * <code>eventQueue</code>.
 	 */
 	protected AgentState									agentState		= AgentState.STOPPED;
+	/**
+	 * The pool to which the agent returns when it stops, if any.
+	 */
+	protected transient AgentPool							pool			= null;
 	/**
 	 * The proxy to this agent.
 	 */
@@ -310,6 +332,10 @@ public class CompositeAgent implements CompositeAgentModel, Serializable {
 				if(!eventQueue.isEmpty())
 					event = eventQueue.poll();
 			}
+			if(event != null && event.isSet(TASK_EVENT_PARAMETER)) {
+				((Runnable) event.getObject(TASK_EVENT_PARAMETER)).run();
+				continue;
+			}
 			if(event != null) {
 				switch(event.getType().getSequenceType()) {
 				case CONSTRUCTIVE:
@@ -383,6 +409,25 @@ public class CompositeAgent implements CompositeAgentModel, Serializable {
 		return true;
 	}
 	
+	/**
+	 * Posts a task to be run on the thread of the agent, between the processing of events, so that it does not run
+	 * concurrently with the shards.
+	 * 
+	 * @param <T>
+	 *            - the type of the result of the task.
+	 * @param task
+	 *            - the task.
+	 * @return the result of the task, which is cancelled if the task could not be posted (the agent is not running) or
+	 *         if the agent stopped before running it.
+	 */
+	protected <T> Future<T> postAgentTask(Callable<T> task) {
+		FutureTask<T> future = new FutureTask<>(task);
+		if(!postAgentEvent((AgentEvent) new AgentEvent(AgentEventType.AGENT_WAVE).addObject(TASK_EVENT_PARAMETER,
+				future)))
+			future.cancel(false);
+		return future;
+	}
+	
 	/**
 	 * Checks whether the specified event can be posted in the current agent state.
 	 * <p>
@@ -392,7 +437,9 @@ public class CompositeAgent implements CompositeAgentModel, Serializable {
 	 * state.
 	 * <li>If the {@link AgentEventType#AGENT_START} is posted while the agent is in the {@link AgentState#TRANSIENT}
 	 * state, it needs to shard a parameter called {@value #TRANSIENT_EVENT_PARAMETER} (with any value).
-	 * <li>During the {@link AgentState#STARTING} phase, a {@link AgentEventType#AFTER_MOVE} event may also be posted.
+	 * <li>A {@link AgentEventType#AFTER_MOVE} event may be posted during the {@link AgentState#STARTING} phase, or in
+	 * the {@link AgentState#RUNNING} state, as the agent thread may have already processed the
+	 * {@link AgentEventType#AGENT_START} event.
 	 * <li>The {@link AgentEventType#AGENT_START} event can be posted while the agent is {@link AgentState#STOPPED}.
 	 *
 	 * @param event
@@ -406,7 +453,7 @@ public class CompositeAgent implements CompositeAgentModel, Serializable {
 				return event.isSet(TRANSIENT_EVENT_PARAMETER);
 			return agentState == AgentState.STOPPED;
 		case AFTER_MOVE:
-			return agentState == AgentState.STARTING;
+			return agentState == AgentState.STARTING || agentState == AgentState.RUNNING;
 		default:
 			return agentState == AgentState.RUNNING || agentState == AgentState.STARTING;
 		}
@@ -442,7 +489,12 @@ public class CompositeAgent implements CompositeAgentModel, Serializable {
 			if(eventQueue != null)
 				log("event queue already present");
 			eventQueue = new LinkedBlockingQueue<>();
-			if(createThread) {
+			if(createThread && pool != null) {
+				// the thread is known when it starts processing events
+				agentThread = null;
+				pool.execute(new AgentThread());
+			}
+			else if(createThread) {
 				agentThread = new Thread(new AgentThread());
 				agentThread.start();
 			}
@@ -488,8 +540,13 @@ public class CompositeAgent implements CompositeAgentModel, Serializable {
 		case AGENT_STOP:
 			synchronized(eventQueue) {
 				if(!eventQueue.isEmpty()) {
-					while(!eventQueue.isEmpty())
-						log("ignoring event ", eventQueue.poll());
+					while(!eventQueue.isEmpty()) {
+						AgentEvent ignored = eventQueue.poll();
+						if(ignored.isSet(TASK_EVENT_PARAMETER))
+							((Future<?>) ignored.getObject(TASK_EVENT_PARAMETER)).cancel(false);
+						else
+							log("ignoring event ", ignored);
+					}
 				}
 				if(toFromTransient)
 					agentState = AgentState.TRANSIENT;
@@ -616,7 +673,7 @@ public class CompositeAgent implements CompositeAgentModel, Serializable {
 	protected AgentShard removeShard(AgentShardDesignation designation) {
 		if(!hasShard(designation))
 			throw new InvalidParameterException("Shard [" + designation + "] does not exist");
-		AgentShard shard = getShard(designation);
+		AgentShard shard = shards.get(designation);
 		shardOrder.remove(designation);
 		shards.remove(designation);
 		return shard;
@@ -634,7 +691,8 @@ public class CompositeAgent implements CompositeAgentModel, Serializable {
 	}
 	
 	/**
-	 * Retrieves a shard of the agent, by designation.
+	 * Retrieves a shard of the agent, by designation. If the shard is loaded lazily (see {@link LazyShard}), it is
+	 * created now, if it has not been created already.
 	 * <p>
 	 * It is <i>strongly recommended</i> that the reference is not kept, as the shard may be removed without notice.
 	 *
@@ -643,7 +701,8 @@ public class CompositeAgent implements CompositeAgentModel, Serializable {
 	 * @return the {@link AgentShard} instance, if any. <code>null</code> otherwise.
 	 */
 	protected AgentShard getShard(AgentShardDesignation designation) {
-		return shards.get(designation);
+		AgentShard shard = shards.get(designation);
+		return shard instanceof LazyShard ? ((LazyShard) shard).getShard() : shard;
 	}
 	
 	/**
@@ -704,6 +763,66 @@ public class CompositeAgent implements CompositeAgentModel, Serializable {
 		return agentState == AgentState.STOPPING;
 	}
 	
+	/**
+	 * Measures the CPU time used by the thread of the agent. The measurement starts again when the agent starts a new
+	 * thread (e.g. after moving to a different node).
+	 *
+	 * @return the CPU time used by the thread of the agent, in ns, or -1 if the agent has no thread or if the JVM does
+	 *         not support measuring the CPU time of threads.
+	 */
+	public long getCpuTime() {
+		Thread thread = agentThread;
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if(thread == null || !threads.isThreadCpuTimeSupported())
+			return -1;
+		return threads.getThreadCpuTime(thread.getId());
+	}
+	
+	/**
+	 * @return the number of events waiting to be processed by the agent.
+	 */
+	public int getQueueLength() {
+		LinkedBlockingQueue<AgentEvent> queue = eventQueue;
+		return queue != null ? queue.size() : 0;
+	}
+	
+	/**
+	 * Prepares the stopped agent for being reused as a different agent (see {@link AgentPool}): removes the agent from
+	 * all its contexts and resets all its shards (see {@link AgentShard#reset()}). The shards are kept.
+	 *
+	 * @return <code>true</code> if the agent and all its shards have been reset; <code>false</code> if the agent is
+	 *         not stopped or if any shard cannot be reused.
+	 */
+	public boolean reset() {
+		if(!isStopped())
+			return false;
+		for(EntityProxy<? extends Entity<?>> context : new ArrayList<>(agentContext))
+			removeGeneralContext(context);
+		for(AgentShardDesignation designation : shardOrder)
+			if(shards.containsKey(designation) && !shards.get(designation).reset())
+				return false;
+		return true;
+	}
+	
+	/**
+	 * Gives a new identity to an agent which has been reset (see {@link #reset()}), taking the name of the agent from
+	 * the configuration, as the constructor does. The shards are notified of the new name of their parent.
+	 *
+	 * @param configuration
+	 *            - the configuration, from which the name of the agent will be taken.
+	 */
+	@SuppressWarnings("deprecation")
+	protected void reuse(MultiTreeMap configuration) {
+		agentName = configuration != null && configuration.containsKey(DeploymentConfiguration.NAME_ATTRIBUTE_NAME)
+				? configuration.get(DeploymentConfiguration.NAME_ATTRIBUTE_NAME)
+				: null;
+		localLog = new UnitComponent().setLoggerType(PlatformUtils.platformLogType()).setLogLevel(Level.INFO);
+		for(AgentShard shard : shards.values()) {
+			shard.removeContext(asContext());
+			shard.addContext(asContext());
+		}
+	}
+	
 	/**
 	 * Checks if the state of the agent allows adding shards. Shards should not be added in intermediary states in which
 	 * the agent is starting or stopping.
@@ -11,8 +11,12 @@
  ******************************************************************************/
 package net.xqhs.flash.core.composite;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import net.xqhs.flash.core.CategoryName;
 import net.xqhs.flash.core.DeploymentConfiguration;
@@ -70,6 +74,14 @@ public class CompositeAgentLoader implements Loader<Agent> {
 	 * The simple loader to use in order to load custom CompositeAgent instances, if it is the case.
 	 */
 	protected Loader<Entity<?>>		privateSimpleLoaderInstance	= new SimpleLoader();
+	/**
+	 * The pool of stopped agents, if the loader is configured with {@link AgentPool#POOL_PARAMETER}.
+	 */
+	protected AgentPool				pool						= null;
+	/**
+	 * The designations of the shards loaded lazily (see {@link LazyShard}), indexed by the class of the shard.
+	 */
+	protected Map<String, AgentShardDesignation>	shardDesignations	= new ConcurrentHashMap<>();
 	
 	@Override
 	public boolean configure(MultiTreeMap config, Logger loaderLog, ClassFactory classFactory) {
@@ -77,6 +89,8 @@ public class CompositeAgentLoader implements Loader<Agent> {
 		classLoader = classFactory;
 		packages = config.getValues(CategoryName.PACKAGE.s());
 		privateSimpleLoaderInstance.configure(config, loaderLog, classFactory);
+		if(config.isSimple(AgentPool.POOL_PARAMETER))
+			pool = new AgentPool(Integer.parseInt(config.getAValue(AgentPool.POOL_PARAMETER)));
 		return true;
 	}
 	
@@ -102,17 +116,34 @@ public class CompositeAgentLoader implements Loader<Agent> {
 	public boolean preload(MultiTreeMap agentConfiguration, List<EntityProxy<? extends Entity<?>>> context) {
 		String logPre = (agentConfiguration.isSimple(NAME_ATTRIBUTE_NAME) ? agentConfiguration.get(NAME_ATTRIBUTE_NAME)
 				: "<agent>") + ": ";
+		if(isPooled(agentConfiguration) && pool.hasIdle(AgentPool.typeOf(agentConfiguration)))
+			// the shards of the pooled agent have already been loaded
+			return true;
 		if(agentConfiguration.isSet(SimpleLoader.CLASSPATH_KEY))
 			if(!privateSimpleLoaderInstance.preload(agentConfiguration, context))
 				return false;
+		preloadShards(agentConfiguration, context, logPre);
+		return true;
+	}
+	
+	/**
+	 * Pre-loads all the shards of an agent (see {@link #preloadShard}).
+	 * 
+	 * @param agentConfiguration
+	 *            - the configuration of the agent.
+	 * @param context
+	 *            - the context of the agent.
+	 * @param logPre
+	 *            - prefix to add to log entries.
+	 */
+	protected void preloadShards(MultiTreeMap agentConfiguration, List<EntityProxy<? extends Entity<?>>> context,
+			String logPre) {
 		if(agentConfiguration.isSet(SHARD_NODE_NAME))
 			for(String shardName : agentConfiguration.getSingleTree(SHARD_NODE_NAME).getTreeKeys()) {
 				for(MultiTreeMap shardConfig : agentConfiguration.getSingleTree(SHARD_NODE_NAME).getTrees(shardName)) {
 					preloadShard(shardName, shardConfig, context, logPre);
 				}
 			}
-		
-		return true;
 	}
 	
 	/**
@@ -206,6 +237,13 @@ public class CompositeAgentLoader implements Loader<Agent> {
 			List<MultiTreeMap> subordinateEntities) {
 		String logPre = (agentConfiguration.isSimple(NAME_ATTRIBUTE_NAME) ? agentConfiguration.get(NAME_ATTRIBUTE_NAME)
 				: "<agent>") + ": ";
+		AgentPool.PooledAgent pooled = isPooled(agentConfiguration) ? pool.acquire(AgentPool.typeOf(agentConfiguration))
+				: null;
+		if(pooled != null)
+			return reuseAgent(pooled, agentConfiguration, context, logPre);
+		if(isPooled(agentConfiguration))
+			// pre-loading may have been skipped, as there was a pooled agent which has since been taken
+			preloadShards(agentConfiguration, context, logPre);
 		CompositeAgentModel agent = null;
 		if(agentConfiguration.isSet(SimpleLoader.CLASSPATH_KEY)) {
 			// agent should be loaded from a class path
@@ -226,13 +264,73 @@ public class CompositeAgentLoader implements Loader<Agent> {
 			for(EntityProxy<?> contextItem : context)
 				agent.addGeneralContext(contextItem);
 			
+		List<AgentShard> loaded = new ArrayList<>();
+		boolean complete = true;
 		if(agentConfiguration.isSet(SHARD_NODE_NAME))
 			for(String shardName : agentConfiguration.getSingleTree(SHARD_NODE_NAME).getTreeKeys())
 				for(MultiTreeMap shardConfig : agentConfiguration.getSingleTree(SHARD_NODE_NAME).getTrees(shardName)) {
 					AgentShard shard = loadShard(shardName, shardConfig, logPre, agentName);
-					if(shard != null)
+					if(shard != null) {
 						agent.addShard(shard);
+						loaded.add(shard);
+					}
+					else
+						complete = false;
+				}
+		// only agents with all their shards can be reused for other agents of the same type
+		if(pool != null && complete && agent instanceof CompositeAgent && isPooled(agentConfiguration))
+			pool.add(AgentPool.typeOf(agentConfiguration), (CompositeAgent) agent, loaded);
+		return agent;
+	}
+	
+	/**
+	 * @return the pool of stopped agents, or <code>null</code> if the loader does not use a pool.
+	 */
+	public AgentPool getPool() {
+		return pool;
+	}
+	
+	/**
+	 * @param agentConfiguration
+	 *            - the configuration of an agent.
+	 * @return <code>true</code> if the agent can be taken from / added to the pool: there is a pool, and the agent is
+	 *         not loaded from a given class path.
+	 */
+	protected boolean isPooled(MultiTreeMap agentConfiguration) {
+		return pool != null && !agentConfiguration.isSet(SimpleLoader.CLASSPATH_KEY);
+	}
+	
+	/**
+	 * Reuses a stopped agent from the pool for a new agent: the agent takes the new name, its shards are configured
+	 * with the new configurations (in the same order as when they were loaded) and the context is added.
+	 * 
+	 * @param pooled
+	 *            - the pooled agent.
+	 * @param agentConfiguration
+	 *            - the configuration of the new agent.
+	 * @param context
+	 *            - the context of the new agent.
+	 * @param logPre
+	 *            - prefix to add to log entries.
+	 * @return the agent.
+	 */
+	protected Agent reuseAgent(AgentPool.PooledAgent pooled, MultiTreeMap agentConfiguration,
+			List<EntityProxy<? extends Entity<?>>> context, String logPre) {
+		CompositeAgent agent = pooled.getAgent();
+		agent.reuse(agentConfiguration);
+		Iterator<AgentShard> shards = pooled.getShards().iterator();
+		if(agentConfiguration.isSet(SHARD_NODE_NAME))
+			for(String shardName : agentConfiguration.getSingleTree(SHARD_NODE_NAME).getTreeKeys())
+				for(MultiTreeMap shardConfig : agentConfiguration.getSingleTree(SHARD_NODE_NAME).getTrees(shardName)) {
+					MultiTreeMap config = shardConfig == null ? new MultiTreeMap() : shardConfig;
+					config.addAll(CategoryName.PACKAGE.s(), packages);
+					if(!shards.next().configure(config))
+						log.le(logPre + "Shard [] for agent [] configuration failed.", shardName, agent.getName());
 				}
+		if(context != null)
+			for(EntityProxy<?> contextItem : context)
+				agent.addGeneralContext(contextItem);
+		log.lf(logPre + "Agent reused from the pool.");
 		return agent;
 	}
 	
@@ -265,6 +363,23 @@ public class CompositeAgentLoader implements Loader<Agent> {
 		MultiTreeMap shardConfig = shardConfig_arg == null ? new MultiTreeMap() : shardConfig_arg;
 		String shardClass = shardConfig.getSingleValue(SHARD_CLASS_PARAMETER);
 		shardConfig.addAll(CategoryName.PACKAGE.s(), packages);
+		if(shardClass != null && LazyShard.isLazy(shardConfig))
+			try {
+				AgentShardDesignation designation = shardDesignations.get(shardClass);
+				if(designation == null) {
+					// the designation is only known to instances of the shard
+					designation = ((AgentShard) classLoader.loadClassInstance(shardClass, null, true))
+							.getShardDesignation();
+					shardDesignations.put(shardClass, designation);
+				}
+				log.lf(logPre + "Shard [] of agent [] will be created from classpath [] when needed.", shardName,
+						agentName, shardClass);
+				return new LazyShard(designation, shardClass, shardConfig, classLoader, log);
+			} catch(Exception e) {
+				log.le(logPre + "Shard [] failed to load (from []); it will not be available for agent []:", shardName,
+						shardClass, agentName, PlatformUtils.printException(e));
+				return null;
+			}
 		if(shardClass != null)
 			try {
 				AgentShard shard = (AgentShard) classLoader.loadClassInstance(shardClass, null, true);
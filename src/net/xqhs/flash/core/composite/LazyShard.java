@@ -0,0 +1,307 @@
+/*******************************************************************************
+ * Copyright (C) 2021 Andrei Olaru.
+ *
+ * This file is part of Flash-MAS. The CONTRIBUTORS.md file lists people who have been previously involved with this project.
+ *
+ * Flash-MAS is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * Flash-MAS is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Flash-MAS.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.xqhs.flash.core.composite;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import net.xqhs.flash.core.Entity;
+import net.xqhs.flash.core.agent.Agent;
+import net.xqhs.flash.core.agent.AgentEvent;
+import net.xqhs.flash.core.agent.AgentEvent.AgentEventType;
+import net.xqhs.flash.core.shard.AgentShard;
+import net.xqhs.flash.core.shard.AgentShardDesignation;
+import net.xqhs.flash.core.shard.ShardContainer;
+import net.xqhs.flash.core.util.ClassFactory;
+import net.xqhs.flash.core.util.MultiTreeMap;
+import net.xqhs.flash.core.util.PlatformUtils;
+import net.xqhs.util.config.Config;
+import net.xqhs.util.logging.Logger;
+import net.xqhs.util.logging.UnitComponent;
+
+/**
+ * A placeholder for a shard which is only needed in rare situations (e.g. GUI, monitoring, testing), added to a
+ * {@link CompositeAgent} instead of the shard. The shard is created (and configured, and placed in the contexts of the
+ * placeholder) the first time an event of one of the types it subscribes to is signaled, or the first time it is
+ * requested by another shard, through {@link ShardContainer#getAgentShard(AgentShardDesignation)}. After that, the
+ * placeholder relays everything to the shard.
+ * <p>
+ * A shard is loaded lazily (by the {@link CompositeAgentLoader}) if its configuration contains the
+ * {@link #LAZY_SHARD_PARAMETER} parameter, with the names of the event types the shard subscribes to as values; any
+ * other value (e.g. <code>true</code>) means that the shard is only created when requested.
+ * <p>
+ * The placeholder keeps track of whether the agent has started, so that a shard created while the agent is running
+ * first receives an {@link AgentEventType#AGENT_START} event, as the other shards have.
+ *
+ * @author Andrei Olaru
+ */
+public class LazyShard extends Config implements AgentShard, Serializable {
+	/**
+	 * The serial UID.
+	 */
+	private static final long	serialVersionUID	= -2906253488410934671L;
+	/**
+	 * The name of the shard parameter which makes the shard load lazily. Its values are the event types which cause
+	 * the shard to be created.
+	 */
+	public static final String	LAZY_SHARD_PARAMETER	= "lazy";
+
+	/**
+	 * The designation of the shard.
+	 */
+	protected final AgentShardDesignation							designation;
+	/**
+	 * The class of the shard.
+	 */
+	protected final String											shardClass;
+	/**
+	 * The event types which cause the shard to be created.
+	 */
+	protected final Set<AgentEventType>								triggers;
+	/**
+	 * The configuration of the shard.
+	 */
+	protected MultiTreeMap											configuration;
+	/**
+	 * The {@link ClassFactory} to create the shard with. After de-serialization, the factory of the platform is used.
+	 */
+	protected transient ClassFactory								classFactory;
+	/**
+	 * The log to report the failure to create the shard to. After de-serialization, a log is created if needed.
+	 */
+	protected transient Logger										log;
+	/**
+	 * <code>true</code> if the failure to create the shard has been reported, so that it is only reported once.
+	 */
+	protected transient boolean										failureLogged	= false;
+	/**
+	 * The agent containing the shard.
+	 */
+	protected transient EntityProxy<Agent>							parent			= null;
+	/**
+	 * The other contexts of the shard, in the order in which they were added.
+	 */
+	protected transient List<EntityProxy<? extends Entity<?>>>	generalContext	= new ArrayList<>();
+	/**
+	 * <code>true</code> if the agent has started (and has not stopped since).
+	 */
+	protected transient boolean										agentStarted	= false;
+	/**
+	 * The shard, once created.
+	 */
+	protected volatile AgentShard									shard			= null;
+
+	/**
+	 * Creates a placeholder for a shard.
+	 *
+	 * @param shardDesignation
+	 *            - the designation of the shard.
+	 * @param shardClassPath
+	 *            - the class of the shard.
+	 * @param shardConfiguration
+	 *            - the configuration of the shard, which also gives the event types the shard subscribes to (see
+	 *            {@link #LAZY_SHARD_PARAMETER}).
+	 * @param factory
+	 *            - the {@link ClassFactory} to create the shard with.
+	 * @param logger
+	 *            - the log to report the failure to create the shard to.
+	 */
+	public LazyShard(AgentShardDesignation shardDesignation, String shardClassPath, MultiTreeMap shardConfiguration,
+			ClassFactory factory, Logger logger) {
+		designation = shardDesignation;
+		shardClass = shardClassPath;
+		configuration = shardConfiguration;
+		classFactory = factory;
+		log = logger;
+		triggers = EnumSet.noneOf(AgentEventType.class);
+		List<String> subscribed = shardConfiguration.isSingleton(LAZY_SHARD_PARAMETER)
+				? Arrays.asList(shardConfiguration.getSingleValue(LAZY_SHARD_PARAMETER))
+				: shardConfiguration.getValuesView(LAZY_SHARD_PARAMETER);
+		for(AgentEventType type : AgentEventType.values())
+			if(subscribed.contains(type.name()))
+				triggers.add(type);
+	}
+
+	/**
+	 * @param shardConfiguration
+	 *            - the configuration of a shard.
+	 * @return <code>true</code> if the shard should be loaded lazily.
+	 */
+	public static boolean isLazy(MultiTreeMap shardConfiguration) {
+		return shardConfiguration != null && shardConfiguration.isSimple(LAZY_SHARD_PARAMETER);
+	}
+
+	/**
+	 * @return <code>true</code> if the shard has been created.
+	 */
+	public boolean isCreated() {
+		return shard != null;
+	}
+
+	/**
+	 * Retrieves the shard, creating it if it has not been created yet. If the shard cannot be created,
+	 * <code>null</code> is returned, and the creation is attempted again at the next call. The first failure is
+	 * reported in the log.
+	 *
+	 * @return the shard.
+	 */
+	public synchronized AgentShard getShard() {
+		if(shard != null)
+			return shard;
+		AgentShard created;
+		try {
+			created = (AgentShard) (classFactory != null ? classFactory : PlatformUtils.getClassFactory())
+					.loadClassInstance(shardClass, null, true);
+		} catch(Exception e) {
+			if(!failureLogged) {
+				failureLogged = true;
+				if(log == null)
+					log = new UnitComponent(designation + "~").setLoggerType(PlatformUtils.platformLogType());
+				log.le("Shard [] could not be created from classpath []: []", designation, shardClass,
+						PlatformUtils.printException(e));
+			}
+			return null;
+		}
+		created.configure(configuration);
+		if(parent != null)
+			created.addContext(parent);
+		for(EntityProxy<? extends Entity<?>> context : generalContext)
+			created.addGeneralContext(context);
+		if(agentStarted)
+			created.signalAgentEvent(new AgentEvent(AgentEventType.AGENT_START));
+		generalContext.clear();
+		shard = created;
+		return shard;
+	}
+
+	@Override
+	public void signalAgentEvent(AgentEvent event) {
+		AgentShard target = shard;
+		if(target == null)
+			synchronized(this) {
+				if(shard == null && !triggers.contains(event.getType())) {
+					if(event.getType() == AgentEventType.AGENT_START)
+						agentStarted = true;
+					else if(event.getType() == AgentEventType.AGENT_STOP)
+						agentStarted = false;
+					return;
+				}
+				target = getShard();
+			}
+		if(target != null)
+			target.signalAgentEvent(event);
+	}
+
+	@Override
+	public AgentShardDesignation getShardDesignation() {
+		return designation;
+	}
+
+	@Override
+	public synchronized boolean configure(MultiTreeMap shardConfiguration) {
+		if(shard != null)
+			return shard.configure(shardConfiguration);
+		configuration = shardConfiguration;
+		return true;
+	}
+
+	@Override
+	public synchronized boolean reset() {
+		if(shard != null)
+			return shard.reset();
+		agentStarted = false;
+		return true;
+	}
+
+	@Override
+	public boolean start() {
+		AgentShard target = shard;
+		return target == null || target.start();
+	}
+
+	@Override
+	public boolean stop() {
+		AgentShard target = shard;
+		return target == null || target.stop();
+	}
+
+	@Override
+	public boolean isRunning() {
+		AgentShard target = shard;
+		return target != null && target.isRunning();
+	}
+
+	@Override
+	public String getName() {
+		AgentShard target = shard;
+		return target != null ? target.getName() : designation.toString();
+	}
+
+	@Override
+	public synchronized boolean addContext(EntityProxy<Agent> context) {
+		if(shard != null)
+			return shard.addContext(context);
+		parent = context;
+		return true;
+	}
+
+	@Override
+	public synchronized boolean removeContext(EntityProxy<Agent> context) {
+		if(shard != null)
+			return shard.removeContext(context);
+		if(parent != context)
+			return false;
+		parent = null;
+		return true;
+	}
+
+	@Override
+	public synchronized boolean addGeneralContext(EntityProxy<? extends Entity<?>> context) {
+		if(shard != null)
+			return shard.addGeneralContext(context);
+		generalContext.add(context);
+		return true;
+	}
+
+	@Override
+	public synchronized boolean removeGeneralContext(EntityProxy<? extends Entity<?>> context) {
+		if(shard != null)
+			return shard.removeGeneralContext(context);
+		return generalContext.remove(context);
+	}
+
+	@Override
+	public <C extends Entity<Agent>> EntityProxy<C> asContext() {
+		AgentShard target = getShard();
+		return target != null ? target.asContext() : null;
+	}
+
+	/**
+	 * Restores the transient state after de-serialization.
+	 *
+	 * @return the instance itself.
+	 */
+	protected Object readResolve() {
+		generalContext = new ArrayList<>();
+		return this;
+	}
+
+	@Override
+	public String toString() {
+		AgentShard target = shard;
+		return target != null ? target.toString() : "lazy:" + designation;
+	}
+}
@@ -0,0 +1,531 @@
+package net.xqhs.flash.core.mobileComposite;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import net.xqhs.flash.core.shard.AgentShardDesignation;
+
+/**
+ * The binary form of a {@link MobileCompositeAgent} in transit. The snapshot contains a section with the agent itself
+ * (without its shards) and a section for each serializable shard, each section holding the Java serialization of the
+ * respective object. The sections are encoded only once, as raw bytes, optionally compressed.
+ * <p>
+ * The binary format is:
+ * <ul>
+ * <li>the header: the {@link #MAGIC} number (int), the {@link #VERSION} (byte), and the number of sections (int);
+ * <li>the section table, with an entry for each section: the kind (byte, {@link #AGENT_SECTION} or
+ * {@link #SHARD_SECTION}), the name (UTF; the shard designation, or empty for the agent), the flags (byte,
+ * {@link #COMPRESSED} if the data is compressed with {@link Deflater}, {@link #REFERENCE} if the data is the hash of
+ * the serialization of the shard), the length of the stored data (int) and the length of the uncompressed data (int);
+ * <li>the data of the sections, in the order of the table.
+ * </ul>
+ * Since the section table comes before the data, the content of a snapshot can be inspected without reading all the
+ * data.
+ * <p>
+ * Shard sections sent by reference (for incremental migration) are resolved when reading the snapshot, by means of a
+ * {@link ShardCache}; those which cannot be resolved are reported by {@link #getMissing()} and must be supplied by
+ * means of {@link #resolve(AgentShardDesignation, byte[])} before the snapshot is complete.
+ *
+ * @author Andrei Olaru
+ */
+public class AgentSnapshot {
+	/**
+	 * The first 4 bytes of a snapshot ("FASN").
+	 */
+	public static final int		MAGIC					= 0x4641534E;
+	/**
+	 * The version of the format.
+	 */
+	public static final byte	VERSION					= 1;
+	/**
+	 * The kind of the section containing the agent.
+	 */
+	public static final byte	AGENT_SECTION			= 0;
+	/**
+	 * The kind of a section containing a shard.
+	 */
+	public static final byte	SHARD_SECTION			= 1;
+	/**
+	 * Section flag indicating that the data is compressed.
+	 */
+	public static final byte	COMPRESSED				= 1;
+	/**
+	 * Section flag indicating that the data is the hash (as given by {@link ShardCache#hash(byte[])}) of the
+	 * serialization of the shard, which is not included.
+	 */
+	public static final byte	REFERENCE				= 2;
+	/**
+	 * Sections smaller than this are never compressed, since the gain would be negligible.
+	 */
+	public static final int		COMPRESSION_THRESHOLD	= 512;
+	/**
+	 * The minimum size of the header of a section: kind, empty name, flags, length and uncompressed length.
+	 */
+	static final int			MIN_SECTION_HEADER		= 1 + 2 + 1 + 4 + 4;
+	/**
+	 * The maximum compression ratio of the deflate format, used to check the uncompressed length of sections.
+	 */
+	static final int			MAX_DEFLATE_RATIO		= 1032;
+
+	/**
+	 * The serialization of the agent, without its shards.
+	 */
+	protected byte[]									agent	= null;
+	/**
+	 * The serializations of the shards, in order.
+	 */
+	protected Map<AgentShardDesignation, byte[]>	shards	= new LinkedHashMap<>();
+	/**
+	 * The hashes of the serializations of the shards, computed on demand or read from references.
+	 */
+	protected Map<AgentShardDesignation, String>	hashes	= new HashMap<>();
+	/**
+	 * The shards sent by reference which could not be resolved, and their hashes.
+	 */
+	protected Map<AgentShardDesignation, String>	missing	= new LinkedHashMap<>();
+	/**
+	 * The time taken to produce the snapshot, in ns. It is not part of the binary form.
+	 */
+	protected long									serializationTime	= 0;
+
+	/**
+	 * Sets the serialization of the agent.
+	 *
+	 * @param data
+	 *            - the serialization of the agent, without its shards.
+	 * @return the snapshot itself.
+	 */
+	public AgentSnapshot setAgent(byte[] data) {
+		agent = data;
+		return this;
+	}
+
+	/**
+	 * Adds the serialization of a shard.
+	 *
+	 * @param designation
+	 *            - the designation of the shard.
+	 * @param data
+	 *            - the serialization of the shard.
+	 * @return the snapshot itself.
+	 */
+	public AgentSnapshot addShard(AgentShardDesignation designation, byte[] data) {
+		shards.put(designation, data);
+		hashes.remove(designation);
+		return this;
+	}
+
+	/**
+	 * Adds the serialization of a shard, whose hash is already known.
+	 *
+	 * @param designation
+	 *            - the designation of the shard.
+	 * @param data
+	 *            - the serialization of the shard.
+	 * @param hash
+	 *            - the hash of the serialization, as given by {@link ShardCache#hash(byte[])}.
+	 * @return the snapshot itself.
+	 */
+	public AgentSnapshot addShard(AgentShardDesignation designation, byte[] data, String hash) {
+		shards.put(designation, data);
+		hashes.put(designation, hash);
+		return this;
+	}
+
+	/**
+	 * Supplies the serialization of a shard which was sent by reference and was missing.
+	 *
+	 * @param designation
+	 *            - the designation of the shard.
+	 * @param data
+	 *            - the serialization of the shard.
+	 * @return <code>true</code> if the shard was missing and the data matches its hash.
+	 */
+	public boolean resolve(AgentShardDesignation designation, byte[] data) {
+		String hash = missing.get(designation);
+		if(hash == null || data == null || !hash.equals(ShardCache.hash(data)))
+			return false;
+		missing.remove(designation);
+		shards.put(designation, data);
+		hashes.put(designation, hash);
+		return true;
+	}
+
+	/**
+	 * @return the serialization of the agent, without its shards.
+	 */
+	public byte[] getAgent() {
+		return agent;
+	}
+
+	/**
+	 * @return the serializations of the shards, in the order in which they were added. Missing shards are not
+	 *         included.
+	 */
+	public Map<AgentShardDesignation, byte[]> getShards() {
+		return Collections.unmodifiableMap(shards);
+	}
+
+	/**
+	 * @param designation
+	 *            - the designation of a shard in the snapshot.
+	 * @return the hash of the serialization of the shard, or <code>null</code> if the shard is not in the snapshot.
+	 */
+	public String getShardHash(AgentShardDesignation designation) {
+		String hash = hashes.get(designation);
+		if(hash == null && shards.containsKey(designation)) {
+			hash = ShardCache.hash(shards.get(designation));
+			hashes.put(designation, hash);
+		}
+		return hash != null ? hash : missing.get(designation);
+	}
+
+	/**
+	 * @return the shards sent by reference which could not be resolved, and their hashes.
+	 */
+	public Map<AgentShardDesignation, String> getMissing() {
+		return Collections.unmodifiableMap(missing);
+	}
+
+	/**
+	 * @return <code>true</code> if the serializations of all shards are available.
+	 */
+	public boolean isComplete() {
+		return missing.isEmpty();
+	}
+
+	/**
+	 * Sets the time taken to produce the snapshot.
+	 *
+	 * @param time
+	 *            - the time, in ns.
+	 * @return the snapshot itself.
+	 */
+	public AgentSnapshot setSerializationTime(long time) {
+		serializationTime = time;
+		return this;
+	}
+
+	/**
+	 * @return the time taken to produce the snapshot, in ns, or 0 if it is not known (e.g. for snapshots read from
+	 *         their binary form).
+	 */
+	public long getSerializationTime() {
+		return serializationTime;
+	}
+
+	/**
+	 * @return the total size of the serialized agent and shards, before compression.
+	 */
+	public int getStateSize() {
+		int size = agent != null ? agent.length : 0;
+		for(byte[] data : shards.values())
+			size += data.length;
+		return size;
+	}
+
+	/**
+	 * Produces the binary form of the snapshot.
+	 *
+	 * @param compress
+	 *            - if <code>true</code>, sections larger than {@link #COMPRESSION_THRESHOLD} are compressed, if the
+	 *            compression makes them smaller.
+	 * @return the binary form.
+	 */
+	public byte[] toBytes(boolean compress) {
+		return toBytes(compress, Collections.emptySet());
+	}
+
+	/**
+	 * Produces the binary form of the snapshot, in which some shards are only referenced by their hash.
+	 *
+	 * @param compress
+	 *            - if <code>true</code>, sections larger than {@link #COMPRESSION_THRESHOLD} are compressed, if the
+	 *            compression makes them smaller.
+	 * @param references
+	 *            - the shards which should be sent by reference.
+	 * @return the binary form.
+	 */
+	public byte[] toBytes(boolean compress, Set<AgentShardDesignation> references) {
+		if(agent == null)
+			throw new IllegalStateException("The snapshot does not contain the agent.");
+		if(!isComplete())
+			throw new IllegalStateException("The snapshot is missing shards " + missing.keySet());
+		int n = shards.size() + 1;
+		byte[][] stored = new byte[n][];
+		byte[] kinds = new byte[n], flags = new byte[n];
+		String[] names = new String[n];
+		int[] rawLengths = new int[n];
+		int i = 0;
+		kinds[i] = AGENT_SECTION;
+		names[i] = "";
+		stored[i++] = agent;
+		for(Map.Entry<AgentShardDesignation, byte[]> shard : shards.entrySet()) {
+			kinds[i] = SHARD_SECTION;
+			names[i] = shard.getKey().toString();
+			if(references.contains(shard.getKey())) {
+				flags[i] = REFERENCE;
+				rawLengths[i] = shard.getValue().length;
+				stored[i] = getShardHash(shard.getKey()).getBytes(StandardCharsets.US_ASCII);
+			}
+			else
+				stored[i] = shard.getValue();
+			i++;
+		}
+		Deflater deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+		int total = 0;
+		for(i = 0; i < n; i++) {
+			if(flags[i] != REFERENCE) {
+				rawLengths[i] = stored[i].length;
+				if(deflater != null && stored[i].length >= COMPRESSION_THRESHOLD)
+					stored[i] = deflate(deflater, stored[i]);
+				if(stored[i].length != rawLengths[i])
+					flags[i] = COMPRESSED;
+			}
+			total += stored[i].length;
+		}
+		if(deflater != null)
+			deflater.end();
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(total + 16 + n * 32);
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeInt(n);
+			for(i = 0; i < n; i++) {
+				out.writeByte(kinds[i]);
+				out.writeUTF(names[i]);
+				out.writeByte(flags[i]);
+				out.writeInt(stored[i].length);
+				out.writeInt(rawLengths[i]);
+			}
+			for(i = 0; i < n; i++)
+				out.write(stored[i]);
+		} catch(IOException e) {
+			// cannot happen with a byte array
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Reads a snapshot from its binary form.
+	 *
+	 * @param data
+	 *            - the binary form, as produced by {@link #toBytes(boolean)}.
+	 * @return the snapshot.
+	 * @throws IOException
+	 *             if the data is not a valid snapshot.
+	 */
+	public static AgentSnapshot fromBytes(byte[] data) throws IOException {
+		return fromBytes(data, null);
+	}
+
+	/**
+	 * Reads a snapshot from its binary form, resolving the shards sent by reference.
+	 *
+	 * @param data
+	 *            - the binary form, as produced by {@link #toBytes(boolean, Set)}.
+	 * @param cache
+	 *            - function returning the serialization with a given hash, or <code>null</code> if it is not
+	 *            available. If the function is <code>null</code>, all references remain missing.
+	 * @return the snapshot, which may not be complete.
+	 * @throws IOException
+	 *             if the data is not a valid snapshot.
+	 */
+	public static AgentSnapshot fromBytes(byte[] data, Function<String, byte[]> cache) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+		if(in.readInt() != MAGIC)
+			throw new IOException("Not an agent snapshot");
+		byte version = in.readByte();
+		if(version != VERSION)
+			throw new IOException("Unsupported snapshot version " + version);
+		int n = in.readInt();
+		if(n < 1 || n > in.available() / MIN_SECTION_HEADER)
+			throw new IOException("Invalid number of sections " + n);
+		byte[] kinds = new byte[n], flags = new byte[n];
+		String[] names = new String[n];
+		int[] lengths = new int[n], rawLengths = new int[n];
+		for(int i = 0; i < n; i++) {
+			kinds[i] = in.readByte();
+			names[i] = in.readUTF();
+			flags[i] = in.readByte();
+			lengths[i] = in.readInt();
+			rawLengths[i] = in.readInt();
+		}
+		// lengths are checked before allocating, so that corrupt data cannot cause huge allocations
+		long total = 0;
+		for(int i = 0; i < n; i++) {
+			if(lengths[i] < 0 || rawLengths[i] < 0
+					|| (flags[i] & COMPRESSED) != 0 && rawLengths[i] > (long) lengths[i] * MAX_DEFLATE_RATIO)
+				throw new IOException("Invalid length of section " + names[i]);
+			total += lengths[i];
+		}
+		if(total > in.available())
+			throw new IOException("Snapshot truncated: " + total + " bytes expected, " + in.available() + " left");
+		AgentSnapshot snapshot = new AgentSnapshot();
+		Inflater inflater = null;
+		try {
+			for(int i = 0; i < n; i++) {
+				byte[] section = new byte[lengths[i]];
+				in.readFully(section);
+				if((flags[i] & REFERENCE) != 0) {
+					if(kinds[i] != SHARD_SECTION)
+						throw new IOException("Only shards can be sent by reference");
+					AgentShardDesignation designation = AgentShardDesignation.autoDesignation(names[i]);
+					String hash = new String(section, StandardCharsets.US_ASCII);
+					byte[] shard = cache != null ? cache.apply(hash) : null;
+					if(shard != null)
+						snapshot.shards.put(designation, shard);
+					else
+						snapshot.missing.put(designation, hash);
+					snapshot.hashes.put(designation, hash);
+					continue;
+				}
+				if((flags[i] & COMPRESSED) != 0) {
+					if(inflater == null)
+						inflater = new Inflater();
+					section = inflate(inflater, section, rawLengths[i]);
+				}
+				switch(kinds[i]) {
+				case AGENT_SECTION:
+					snapshot.setAgent(section);
+					break;
+				case SHARD_SECTION:
+					snapshot.addShard(AgentShardDesignation.autoDesignation(names[i]), section);
+					break;
+				default:
+					throw new IOException("Unknown section kind " + kinds[i]);
+				}
+			}
+		} finally {
+			if(inflater != null)
+				inflater.end();
+		}
+		if(snapshot.agent == null)
+			throw new IOException("The snapshot does not contain the agent");
+		return snapshot;
+	}
+
+	/**
+	 * Reads the length of a block of bytes which follows in the input, and checks that there are enough bytes left, so
+	 * that corrupt or malicious data cannot cause huge allocations.
+	 *
+	 * @param in
+	 *            - the input, which must know the number of bytes left (as streams over byte arrays and files do).
+	 * @return the length.
+	 * @throws IOException
+	 *             if the length is negative or larger than the input left.
+	 */
+	public static int readLength(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if(length < 0 || length > in.available())
+			throw new IOException("Invalid length " + length + "; " + in.available() + " bytes left");
+		return length;
+	}
+
+	/**
+	 * Serializes an object, using Java serialization.
+	 *
+	 * @param object
+	 *            - the object.
+	 * @return the serialization.
+	 * @throws IOException
+	 *             if the object cannot be serialized (including {@link java.io.NotSerializableException}).
+	 */
+	public static byte[] serializeObject(Object object) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(object);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * De-serializes an object serialized with {@link #serializeObject(Object)}.
+	 *
+	 * @param data
+	 *            - the serialization.
+	 * @return the object.
+	 * @throws IOException
+	 *             if the data is not valid.
+	 * @throws ClassNotFoundException
+	 *             if the class of the object is not available.
+	 */
+	public static Object deserializeObject(byte[] data) throws IOException, ClassNotFoundException {
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+			return in.readObject();
+		}
+	}
+
+	/**
+	 * Compresses data, returning the original data if compression does not make it smaller.
+	 *
+	 * @param deflater
+	 *            - the {@link Deflater} to use, which is reset.
+	 * @param data
+	 *            - the data.
+	 * @return the compressed data, or the original data.
+	 */
+	protected static byte[] deflate(Deflater deflater, byte[] data) {
+		deflater.reset();
+		deflater.setInput(data);
+		deflater.finish();
+		byte[] buffer = new byte[data.length];
+		int length = 0;
+		while(!deflater.finished() && length < buffer.length)
+			length += deflater.deflate(buffer, length, buffer.length - length);
+		if(!deflater.finished() || length >= data.length)
+			return data;
+		return Arrays.copyOf(buffer, length);
+	}
+
+	/**
+	 * Decompresses data.
+	 *
+	 * @param inflater
+	 *            - the {@link Inflater} to use, which is reset.
+	 * @param data
+	 *            - the compressed data.
+	 * @param rawLength
+	 *            - the length of the uncompressed data.
+	 * @return the uncompressed data.
+	 * @throws IOException
+	 *             if the data is not valid.
+	 */
+	protected static byte[] inflate(Inflater inflater, byte[] data, int rawLength) throws IOException {
+		inflater.reset();
+		inflater.setInput(data);
+		byte[] result = new byte[rawLength];
+		int length = 0;
+		try {
+			while(length < rawLength && !inflater.finished()) {
+				int n = inflater.inflate(result, length, rawLength - length);
+				if(n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					break;
+				length += n;
+			}
+		} catch(DataFormatException e) {
+			throw new IOException("Invalid compressed section", e);
+		}
+		if(length != rawLength)
+			throw new IOException("Compressed section has " + length + " bytes instead of " + rawLength);
+		return result;
+	}
+}
@@ -1,18 +1,22 @@
 package net.xqhs.flash.core.mobileComposite;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.NotSerializableException;
-import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 import net.xqhs.flash.core.Entity;
+import net.xqhs.flash.core.SimpleLoader;
 import net.xqhs.flash.core.agent.AgentEvent;
 import net.xqhs.flash.core.agent.AgentEvent.AgentEventType;
 import net.xqhs.flash.core.composite.CompositeAgent;
@@ -55,9 +59,27 @@ public class MobileCompositeAgent extends CompositeAgent {
 	public static final String TARGET = "TARGET";
 	
 	/**
-	 * Map with {@link AgentShardDesignation}/Serialization of shards, for reloading them after moving
+	 * The name of the parameter which, if <code>true</code>, enables the compression of the shard state in the
+	 * {@link AgentSnapshot} of the agent, when moving.
 	 */
-	public Map<AgentShardDesignation, String> serializedShards = new HashMap<>();
+	public static final String COMPRESS_SNAPSHOT_PARAMETER = "compressSnapshot";
+	
+	/**
+	 * The name of the parameter which, if <code>true</code>, enables the pre-copy of the state of the shards to the
+	 * destination, while the agent is still running (see {@link #preCopy(NodeProxy, String)}).
+	 */
+	public static final String PRE_COPY_PARAMETER = "preCopy";
+	
+	/**
+	 * The maximum number of pre-copy rounds.
+	 */
+	public static final int MAX_PRE_COPY_ROUNDS = 3;
+	
+	/**
+	 * Map with {@link AgentShardDesignation}/Serialization of shards, for reloading them after moving. The serializations
+	 * travel in the sections of the {@link AgentSnapshot}, not as part of the agent.
+	 */
+	protected transient Map<AgentShardDesignation, byte[]> serializedShards = new HashMap<>();
 	
 	/**
 	 * Map with {@link AgentShardDesignation}/{@link MultiTreeMap} - representing shard configurations, for reloading
@@ -68,7 +90,34 @@ public class MobileCompositeAgent extends CompositeAgent {
 	/**
 	 * Loader for loading non-serializable shards.
 	 */
-	private transient CompositeAgentLoader loader = new CompositeAgentLoader();
+	private transient CompositeAgentLoader loader = null;
+	
+	/**
+	 * If <code>true</code>, the shard state is compressed in the {@link AgentSnapshot} of the agent.
+	 */
+	protected boolean compressSnapshot = false;
+	
+	/**
+	 * If <code>true</code>, the state of the shards which track their changes is copied to the destination before the
+	 * agent stops to move.
+	 */
+	protected boolean preCopy = false;
+	
+	/**
+	 * The serializations of the shards that were pre-copied to the destination, if any.
+	 */
+	protected transient AgentSnapshot preCopied = null;
+	
+	/**
+	 * <code>true</code> while the shards are being pre-copied to the destination, before the agent stops to move.
+	 */
+	protected transient volatile boolean preCopying = false;
+	
+	/**
+	 * The reason for which the shards of the agent could not all be loaded after moving, if any (see
+	 * {@link #loadShards()}).
+	 */
+	protected transient String loadFailure = null;
 	
 	/**
 	 * The implementation of {@link ShardContainer} as a proxy for {@link MobileCompositeAgent}.
@@ -124,6 +173,10 @@ public class MobileCompositeAgent extends CompositeAgent {
 	public MobileCompositeAgent(MultiTreeMap configuration) {
 		super(configuration);
 		asContext = new MobileCompositeAgentShardContainer(this);
+		if(configuration != null && configuration.isSimple(COMPRESS_SNAPSHOT_PARAMETER))
+			compressSnapshot = Boolean.parseBoolean(configuration.getAValue(COMPRESS_SNAPSHOT_PARAMETER));
+		if(configuration != null && configuration.isSimple(PRE_COPY_PARAMETER))
+			preCopy = Boolean.parseBoolean(configuration.getAValue(PRE_COPY_PARAMETER));
 	}
 	
 	/**
@@ -131,22 +184,33 @@ public class MobileCompositeAgent extends CompositeAgent {
 	 * operations are done when the agent is started, after context has been added.
 	 * 
 	 * @param agentData
-	 *            - serialized agent in String form.
+	 *            - serialized agent in String form, as produced by {@link #serialize()}.
 	 * @return the de-serialized {@link MobileCompositeAgent} instance.
 	 */
 	public static MobileCompositeAgent deserializeAgent(String agentData) {
-		MobileCompositeAgent agent = null;
-		ByteArrayInputStream fis;
-		ObjectInputStream in;
 		try {
-			fis = new ByteArrayInputStream(Base64.getDecoder().decode(agentData));
-			in = new ObjectInputStream(fis);
-			agent = (MobileCompositeAgent) in.readObject();
-			in.close();
+			return restoreAgent(AgentSnapshot.fromBytes(Base64.getDecoder().decode(agentData)));
 		} catch(Exception ex) {
 			ex.printStackTrace();
+			return null;
 		}
-		
+	}
+	
+	/**
+	 * De-serializes an agent instance from an {@link AgentSnapshot}. The serializations of the shards are kept, to be
+	 * loaded when the agent is started.
+	 * 
+	 * @param snapshot
+	 *            - the snapshot.
+	 * @return the de-serialized {@link MobileCompositeAgent} instance.
+	 * @throws IOException
+	 *             if the agent cannot be de-serialized.
+	 * @throws ClassNotFoundException
+	 *             if the class of the agent is not available.
+	 */
+	public static MobileCompositeAgent restoreAgent(AgentSnapshot snapshot) throws IOException, ClassNotFoundException {
+		MobileCompositeAgent agent = (MobileCompositeAgent) AgentSnapshot.deserializeObject(snapshot.getAgent());
+		agent.serializedShards = new HashMap<>(snapshot.getShards());
 		return agent;
 	}
 	
@@ -157,6 +221,10 @@ public class MobileCompositeAgent extends CompositeAgent {
 		
 		// this is the point where the agent has arrived after mobility.
 		loadShards();
+		if(loadFailure != null) {
+			log("agent cannot start after moving: []", loadFailure);
+			return false;
+		}
 		
 		AgentShard msgShard = getShard(StandardAgentShard.MESSAGING.toAgentShardDesignation());
 		boolean shardManagedMigration = msgShard != null && msgShard instanceof MobilityAwareMessagingShard;
@@ -170,48 +238,76 @@ public class MobileCompositeAgent extends CompositeAgent {
 	}
 	
 	/**
-	 * Loads shards after moving.
+	 * Loads shards after moving. Non-serializable shards are reconstructed from their configuration, using the
+	 * {@link ShardFactoryCache} of the node, if available, or else the {@link CompositeAgentLoader}.
+	 * <p>
+	 * Shards which cannot be loaded are skipped, and the reason is available from {@link #getLoadFailure()}.
 	 */
 	public void loadShards() {
 		localLog = new UnitComponent(getName() + "~").setLoggerType(PlatformUtils.platformLogType())
 				.setLogLevel(Level.ALL);
-		loader = new CompositeAgentLoader();
-		loader.configure(new MultiTreeMap(), localLog, PlatformUtils.getClassFactory());
+		loadFailure = null;
 		
-		serializedShards.forEach((designation, serializedShard) -> addShard(deserializeShard(serializedShard)));
+		serializedShards.forEach((designation, serializedShard) -> {
+			AgentShard shard = deserializeShard(serializedShard);
+			if(shard != null)
+				addShard(shard);
+			else if(loadFailure == null)
+				loadFailure = "shard " + designation + " could not be de-serialized";
+		});
+		serializedShards.clear();
 		
+		NodeProxy nodeProxy = getNodeProxyContext();
+		ShardFactoryCache factories = nodeProxy != null ? nodeProxy.getShardFactories() : null;
 		nonSerializedShardDesignations.forEach((designation, configuration) -> {
-			loader.preloadShard(designation.toString(), configuration, null, "PRE_LOADING_NON-SERIALIZED_SHARDS: ");
-			AgentShard shard = loader.loadShard(designation.toString(), configuration,
-					"LOADING_NON-SERIALIZED_SHARDS: ", agentName);
-			addShard(shard);
+			String key = factories != null ? ShardFactoryCache.key(designation, configuration) : null;
+			AgentShard shard = factories != null ? factories.create(key, configuration) : null;
+			if(shard == null) {
+				if(loader == null) {
+					loader = new CompositeAgentLoader();
+					loader.configure(new MultiTreeMap(), localLog, PlatformUtils.getClassFactory());
+				}
+				loader.preloadShard(designation.toString(), configuration, null,
+						"PRE_LOADING_NON-SERIALIZED_SHARDS: ");
+				shard = loader.loadShard(designation.toString(), configuration, "LOADING_NON-SERIALIZED_SHARDS: ",
+						agentName);
+				if(factories != null && shard != null && configuration != null)
+					factories.put(key, shard, configuration.getSingleValue(SimpleLoader.CLASSPATH_KEY));
+			}
+			if(shard != null)
+				addShard(shard);
+			else if(loadFailure == null)
+				loadFailure = "shard " + designation + " could not be loaded";
 		});
 		
 		log("agent [] has shards [] after deserialization in order: []", agentName, shards, shardOrder);
 	}
 	
 	/**
-	 * De-serializes a shard.
+	 * @return the reason for which the shards of the agent could not all be loaded after moving, or <code>null</code>
+	 *         if all shards were loaded.
+	 */
+	public String getLoadFailure() {
+		return loadFailure;
+	}
+	
+	/**
+	 * De-serializes a shard. If the shard cannot be de-serialized, the reason is recorded as the load failure of the
+	 * agent.
 	 * 
 	 * @param serializedShard
-	 *            - serialized shard in {@link String} form.
-	 * @return the de-serialized {@link AgentShard}.
-	 */
-	@SuppressWarnings("static-method")
-	protected AgentShard deserializeShard(String serializedShard) {
-		AgentShard agentShard = null;
-		ByteArrayInputStream fis;
-		ObjectInputStream in;
+	 *            - serialized shard.
+	 * @return the de-serialized {@link AgentShard}, or <code>null</code> if it could not be de-serialized.
+	 */
+	protected AgentShard deserializeShard(byte[] serializedShard) {
 		try {
-			fis = new ByteArrayInputStream(Base64.getDecoder().decode(serializedShard));
-			in = new ObjectInputStream(fis);
-			agentShard = (AgentShard) in.readObject();
-			in.close();
+			return (AgentShard) AgentSnapshot.deserializeObject(serializedShard);
 		} catch(Exception ex) {
-			ex.printStackTrace();
+			log("shard could not be de-serialized: []", ex);
+			if(loadFailure == null)
+				loadFailure = ex.toString();
+			return null;
 		}
-		
-		return agentShard;
 	}
 	
 	/**
@@ -228,16 +324,18 @@ public class MobileCompositeAgent extends CompositeAgent {
 			if(nodeProxy != null) {
 				List<EntityProxy<? extends Entity<?>>> contexts = new ArrayList<>(agentContext);
 				contexts.forEach(this::removeGeneralContext);
-				nodeProxy.moveAgent(exitEvent.getValue(TARGET), agentName, serialize());
+				nodeProxy.moveAgent(exitEvent.getValue(TARGET), agentName, takeSnapshot(), compressSnapshot);
 			}
 		}
 		return exitEvent;
 	}
 	
 	/**
-	 * Starts the mobility process. It posts an {@link AgentEventType#AGENT_STOP} event and then either expects the
-	 * {@link MobilityAwareMessagingShard} to issue the stopping event or posts an {@link AgentEventType#AGENT_STOP}
-	 * with the indication that the agent should become transient.
+	 * Starts the mobility process. If pre-copy is enabled, the state of the shards is first copied to the destination
+	 * (see {@link #preCopy(NodeProxy, String)}), on a thread of the node, while the agent continues to process events;
+	 * the agent stops to move when the pre-copy completes. To stop, it posts a {@link AgentEventType#BEFORE_MOVE} event
+	 * and then either expects the {@link MobilityAwareMessagingShard} to issue the stopping event or posts an
+	 * {@link AgentEventType#AGENT_STOP} with the indication that the agent should become transient.
 	 * 
 	 * @param destination
 	 *            - the destination of the movement.
@@ -248,6 +346,46 @@ public class MobileCompositeAgent extends CompositeAgent {
 		AgentShard msgShard = getShard(StandardAgentShard.MESSAGING.toAgentShardDesignation());
 		boolean shardManagedMigration = msgShard != null && msgShard instanceof MobilityAwareMessagingShard;
 		log("preparing to move to []; managed by []", destination, shardManagedMigration ? "shard" : "agent");
+		Node.NodeProxy nodeProxy = preCopy ? getNodeProxyContext() : null;
+		if(nodeProxy == null || !isRunning())
+			return stopToMove(destination, shardManagedMigration);
+		synchronized(this) {
+			if(preCopying)
+				return false;
+			preCopying = true;
+		}
+		try {
+			nodeProxy.executeMigrationTask(() -> {
+				try {
+					AgentSnapshot copies = preCopy(nodeProxy, destination);
+					// the agent stops on its own thread
+					if(postAgentTask(() -> {
+						preCopied = copies;
+						return Boolean.valueOf(stopToMove(destination, shardManagedMigration));
+					}).isCancelled())
+						log("agent stopped during pre-copy; not moving to []", destination);
+				} finally {
+					preCopying = false;
+				}
+			});
+		} catch(RejectedExecutionException e) {
+			log("node is stopping; not moving to []", destination);
+			preCopying = false;
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Stops the agent in order to move.
+	 * 
+	 * @param destination
+	 *            - the destination of the movement.
+	 * @param shardManagedMigration
+	 *            - <code>true</code> if the {@link MobilityAwareMessagingShard} issues the stopping event.
+	 * @return <code>true</code> if the events were posted.
+	 */
+	protected boolean stopToMove(String destination, boolean shardManagedMigration) {
 		if(!postAgentEvent((AgentEvent) new AgentEvent(AgentEventType.BEFORE_MOVE).add(TARGET, destination)))
 			return false;
 		if(!shardManagedMigration)
@@ -257,41 +395,114 @@ public class MobileCompositeAgent extends CompositeAgent {
 	}
 	
 	/**
-	 * Serializes the current agent after:
+	 * Copies the state of the shards which track their changes (see {@link AgentShardCore#isDirty()}) to the
+	 * destination node, while the agent is running. The copy is done in at most {@link #MAX_PRE_COPY_ROUNDS} rounds: in
+	 * the first round all such shards are copied, and in each following round, only those which changed during the
+	 * previous round. In each round, the shards are serialized on the thread of the agent, between events (see
+	 * {@link #postAgentTask}), and are then sent, and their receipt is awaited, on the current thread, which should not
+	 * be the thread of the agent. The last copies are kept, so that, when the agent stops, the shards which did not
+	 * change since are not serialized again and are sent by reference.
+	 * <p>
+	 * Pre-copy requires that the nodes use incremental migration (see {@link Node#DELTA_MIGRATION_PARAMETER}).
+	 * 
+	 * @param nodeProxy
+	 *            - the proxy of the node.
+	 * @param destination
+	 *            - the destination of the movement.
+	 * @return the copies of the shards, or <code>null</code> if the pre-copy could not be completed.
+	 */
+	protected AgentSnapshot preCopy(Node.NodeProxy nodeProxy, String destination) {
+		AgentSnapshot copies = new AgentSnapshot();
+		List<AgentShardDesignation> candidates = null;
+		int round = 0;
+		try {
+			for(; round < MAX_PRE_COPY_ROUNDS && (candidates == null || !candidates.isEmpty()); round++) {
+				List<AgentShardDesignation> current = candidates;
+				AgentSnapshot copy = postAgentTask(() -> copyShards(current)).get();
+				if(copy.getShards().isEmpty())
+					break;
+				if(!nodeProxy.preCopyShards(destination, agentName, copy)) {
+					log("pre-copy is not supported by the node");
+					return null;
+				}
+				for(AgentShardDesignation designation : copy.getShards().keySet())
+					copies.addShard(designation, copy.getShards().get(designation), copy.getShardHash(designation));
+				candidates = new ArrayList<>(copy.getShards().keySet());
+			}
+		} catch(ExecutionException | CancellationException e) {
+			log("pre-copy interrupted, as the agent stopped");
+			return null;
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		log("pre-copied shards [] in [] rounds", copies.getShards().keySet(), Integer.valueOf(round));
+		return copies;
+	}
+	
+	/**
+	 * Serializes the shards which changed since they were last copied. It should be called on the thread of the agent.
+	 * 
+	 * @param designations
+	 *            - the shards to consider; <code>null</code> for all shards.
+	 * @return a snapshot containing the serializations of the shards.
+	 */
+	protected AgentSnapshot copyShards(List<AgentShardDesignation> designations) {
+		AgentSnapshot copy = new AgentSnapshot();
+		for(AgentShardDesignation designation : designations != null ? designations
+				: new ArrayList<>(shards.keySet())) {
+			AgentShard shard = shards.get(designation);
+			if(!(shard instanceof AgentShardCore) || !((AgentShardCore) shard).clearDirty())
+				continue;
+			try {
+				copy.addShard(designation, AgentSnapshot.serializeObject(shard));
+			} catch(Exception e) {
+				// not serializable; it will be serialized when the agent stops
+			}
+		}
+		return copy;
+	}
+	
+	/**
+	 * Serializes the current agent, as the Base64 encoding of its {@link AgentSnapshot}, which is needed because agents
+	 * travel in text messages.
+	 * 
+	 * @return The serialized form for the agent.
+	 */
+	public String serialize() {
+		return Base64.getEncoder().encodeToString(takeSnapshot().toBytes(compressSnapshot));
+	}
+	
+	/**
+	 * Produces the snapshot of the current agent after:
 	 * <ul>
-	 * <li>sorting the shards between serializable and non-serializable
+	 * <li>sorting the shards between serializable, which are placed in separate sections of the snapshot, and
+	 * non-serializable, for which the configuration is kept; shards which were pre-copied and did not change since are
+	 * not serialized again;
 	 * <li>emptying shards map.
 	 * </ul>
 	 * 
 	 * <code>shardOrder</code> is kept in order to keep the same order.
 	 * 
-	 * @return The serialized form for the agent.
+	 * @return the {@link AgentSnapshot}.
 	 */
-	public String serialize() {
+	public AgentSnapshot takeSnapshot() {
+		long start = System.nanoTime();
 		log("Serializing shards [] with the order [].", shards, shardOrder);
+		AgentSnapshot snapshot = new AgentSnapshot();
 		for(AgentShardDesignation designation : shards.keySet()) {
 			AgentShard shard = shards.get(designation);
-			ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-			try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(byteArrayOutputStream)) {
-				objectOutputStream.writeObject(shard);
-				
+			if(preCopied != null && preCopied.getShards().containsKey(designation)
+					&& !((AgentShardCore) shard).isDirty()) {
+				snapshot.addShard(designation, preCopied.getShards().get(designation),
+						preCopied.getShardHash(designation));
+				continue;
+			}
+			try {
+				snapshot.addShard(designation, AgentSnapshot.serializeObject(shard));
 				log("[] is serializable", shard);
-				serializedShards.put(designation,
-						Base64.getEncoder().encodeToString(byteArrayOutputStream.toByteArray()));
 			} catch(NotSerializableException e) {
-				MultiTreeMap configuration = null;
-				if(shard instanceof NonSerializableShard) {
-					log("[] is instance of NonSerializableShard", shard);
-					configuration = ((NonSerializableShard) shard).getShardConfiguration();
-				}
-				else if(shard instanceof AgentShardCore) {
-					log("[] is instance of AgentShardCore", shard);
-					configuration = ((AgentShardCore) shard).getShardConfiguration();
-				}
-				else
-					log("[] only designation available for shard", shard);
-				nonSerializedShardDesignations.put(designation, configuration);
-				
+				nonSerializedShardDesignations.put(designation, getShardConfiguration(shard));
 			} catch(IOException e) {
 				log("Unable to do anything with shard [].", designation);
 			}
@@ -299,18 +510,103 @@ public class MobileCompositeAgent extends CompositeAgent {
 		
 		// the shards map will be recreated at de-serialization.
 		shards.clear();
+		preCopied = null;
 		
-		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-		ObjectOutputStream objectOutputStream;
 		try {
-			objectOutputStream = new ObjectOutputStream(byteArrayOutputStream);
-			objectOutputStream.writeObject(this);
-			objectOutputStream.close();
+			snapshot.setAgent(AgentSnapshot.serializeObject(this));
 		} catch(Exception ex) {
 			ex.printStackTrace();
 		}
-		
-		return Base64.getEncoder().encodeToString(byteArrayOutputStream.toByteArray());
+		return snapshot.setSerializationTime(System.nanoTime() - start);
+	}
+	
+	/**
+	 * Produces a snapshot of the agent while it is running, for checkpointing, without affecting the agent. Unlike
+	 * {@link #takeSnapshot()}, the shards are not removed from the agent. In the serialization of the agent, the shards,
+	 * the contexts and the event queue are left out, and the state is {@link AgentState#TRANSIENT}, so that the agent
+	 * restored from the snapshot (see {@link #restoreAgent(AgentSnapshot)}) is started in the same way as an agent which
+	 * has arrived after moving.
+	 * <p>
+	 * The method must be called on the thread of the agent, or while the agent is not running, so that the state of the
+	 * shards does not change during the checkpoint (see {@link #requestCheckpoint()}).
+	 * 
+	 * @return the {@link AgentSnapshot}, or <code>null</code> if the agent could not be serialized.
+	 */
+	public AgentSnapshot checkpoint() {
+		AgentSnapshot snapshot = new AgentSnapshot();
+		Map<AgentShardDesignation, MultiTreeMap> nonSerialized = new HashMap<>(nonSerializedShardDesignations);
+		try {
+			for(AgentShard shard : new ArrayList<>(shards.values()))
+				try {
+					snapshot.addShard(shard.getShardDesignation(), AgentSnapshot.serializeObject(shard));
+				} catch(NotSerializableException e) {
+					nonSerialized.put(shard.getShardDesignation(), getShardConfiguration(shard));
+				}
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (ObjectOutputStream out = new ObjectOutputStream(bytes) {
+				{
+					enableReplaceObject(true);
+				}
+				
+				@Override
+				protected Object replaceObject(Object obj) {
+					if(obj == shards)
+						return new HashMap<>();
+					if(obj == agentContext)
+						return new ArrayList<>();
+					if(obj == eventQueue)
+						return null;
+					if(obj == nonSerializedShardDesignations)
+						return nonSerialized;
+					if(obj instanceof AgentState)
+						return AgentState.TRANSIENT;
+					return obj;
+				}
+			}) {
+				out.writeObject(this);
+			}
+			snapshot.setAgent(bytes.toByteArray());
+		} catch(IOException | RuntimeException e) {
+			log("Unable to checkpoint the agent: []", PlatformUtils.printException(e));
+			return null;
+		}
+		return snapshot;
+	}
+	
+	/**
+	 * Requests a checkpoint of the agent (see {@link #checkpoint()}). If the agent is running, the checkpoint is taken on
+	 * the thread of the agent, between the processing of events; otherwise, it is taken immediately.
+	 * 
+	 * @return the {@link AgentSnapshot}, when available; the result is <code>null</code> if the agent could not be
+	 *         serialized, and the future is cancelled if the agent stopped before the checkpoint was taken.
+	 */
+	public Future<AgentSnapshot> requestCheckpoint() {
+		if(Thread.currentThread() == agentThread)
+			return CompletableFuture.completedFuture(checkpoint());
+		Future<AgentSnapshot> snapshot = postAgentTask(this::checkpoint);
+		if(snapshot.isCancelled() && !isRunning())
+			// the agent is not running, so the state of the shards does not change
+			return CompletableFuture.completedFuture(checkpoint());
+		return snapshot;
+	}
+	
+	/**
+	 * @param shard
+	 *            - a shard which cannot be serialized.
+	 * @return the configuration from which the shard can be loaded again, or <code>null</code> if only its designation
+	 *         is available.
+	 */
+	protected MultiTreeMap getShardConfiguration(AgentShard shard) {
+		if(shard instanceof NonSerializableShard) {
+			log("[] is instance of NonSerializableShard", shard);
+			return ((NonSerializableShard) shard).getShardConfiguration();
+		}
+		if(shard instanceof AgentShardCore) {
+			log("[] is instance of AgentShardCore", shard);
+			return ((AgentShardCore) shard).getShardConfiguration();
+		}
+		log("[] only designation available for shard", shard);
+		return null;
 	}
 	
 	/**
@@ -0,0 +1,174 @@
+package net.xqhs.flash.core.mobileComposite;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.xqhs.flash.core.node.Node;
+
+/**
+ * Content-addressed cache of shard serializations, used by a {@link Node} for the incremental migration of agents. The
+ * serializations of shards recently sent or received are kept, indexed by their hash, together with an indication of
+ * which hashes are known to each other node (because they were sent to, or received from, that node). A shard whose
+ * hash is known to the destination is sent only as a reference (see {@link AgentSnapshot#REFERENCE}).
+ * <p>
+ * Both the cache and the records of known hashes are bounded and evict the least recently used entries. Because of
+ * this, a reference may not be found at the destination, in which case the destination must request the data from the
+ * source.
+ * <p>
+ * All methods are thread-safe.
+ *
+ * @author Andrei Olaru
+ */
+public class ShardCache {
+	/**
+	 * The default capacity, in bytes, of the cache.
+	 */
+	public static final long	DEFAULT_CAPACITY	= 64 * 1024 * 1024;
+	/**
+	 * The maximum number of hashes recorded as known, for each other node.
+	 */
+	public static final int		MAX_KNOWN			= 4096;
+	/**
+	 * The hash algorithm.
+	 */
+	public static final String	HASH_ALGORITHM		= "SHA-256";
+
+	/**
+	 * The capacity, in bytes.
+	 */
+	protected final long									capacity;
+	/**
+	 * The total size of the cached data.
+	 */
+	protected long											size		= 0;
+	/**
+	 * The cached serializations, indexed by hash, in access order.
+	 */
+	protected final LinkedHashMap<String, byte[]>			sections	= new LinkedHashMap<>(16, 0.75f, true);
+	/**
+	 * For each other node, the hashes known to it, in access order.
+	 */
+	protected final Map<String, LinkedHashMap<String, Boolean>>	known		= new HashMap<>();
+
+	/**
+	 * Creates a cache with the {@link #DEFAULT_CAPACITY}.
+	 */
+	public ShardCache() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity
+	 *            - the capacity, in bytes.
+	 */
+	public ShardCache(long capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Retrieves a serialization from the cache.
+	 *
+	 * @param hash
+	 *            - the hash of the serialization.
+	 * @return the serialization, or <code>null</code> if it is not in the cache.
+	 */
+	public synchronized byte[] get(String hash) {
+		return sections.get(hash);
+	}
+
+	/**
+	 * Adds a serialization to the cache, evicting the least recently used ones if needed. Serializations larger than
+	 * the capacity are not cached.
+	 *
+	 * @param hash
+	 *            - the hash of the serialization.
+	 * @param data
+	 *            - the serialization.
+	 */
+	public synchronized void put(String hash, byte[] data) {
+		if(data.length > capacity || sections.get(hash) != null)
+			return;
+		sections.put(hash, data);
+		size += data.length;
+		for(Iterator<byte[]> it = sections.values().iterator(); size > capacity && it.hasNext();) {
+			size -= it.next().length;
+			it.remove();
+		}
+	}
+
+	/**
+	 * @param node
+	 *            - the name of another node.
+	 * @param hash
+	 *            - the hash of a serialization.
+	 * @return <code>true</code> if the serialization is expected to be in the cache of the other node.
+	 */
+	public synchronized boolean isKnownBy(String node, String hash) {
+		LinkedHashMap<String, Boolean> hashes = known.get(node);
+		return hashes != null && hashes.get(hash) != null;
+	}
+
+	/**
+	 * Records that a serialization is in the cache of another node.
+	 *
+	 * @param node
+	 *            - the name of the other node.
+	 * @param hash
+	 *            - the hash of the serialization.
+	 */
+	public synchronized void setKnownBy(String node, String hash) {
+		known.computeIfAbsent(node, n -> new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+				return size() > MAX_KNOWN;
+			}
+		}).put(hash, Boolean.TRUE);
+	}
+
+	/**
+	 * Records that a serialization is not in the cache of another node (e.g. because that node requested it).
+	 *
+	 * @param node
+	 *            - the name of the other node.
+	 * @param hash
+	 *            - the hash of the serialization.
+	 */
+	public synchronized void setUnknownBy(String node, String hash) {
+		LinkedHashMap<String, Boolean> hashes = known.get(node);
+		if(hashes != null)
+			hashes.remove(hash);
+	}
+
+	/**
+	 * @return the total size of the cached data, in bytes.
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * Computes the hash of a serialization.
+	 *
+	 * @param data
+	 *            - the serialization.
+	 * @return the hash, as a hexadecimal string.
+	 */
+	public static String hash(byte[] data) {
+		try {
+			byte[] digest = MessageDigest.getInstance(HASH_ALGORITHM).digest(data);
+			StringBuilder result = new StringBuilder(digest.length * 2);
+			for(byte b : digest)
+				result.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			return result.toString();
+		} catch(NoSuchAlgorithmException e) {
+			// all Java platforms support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+}
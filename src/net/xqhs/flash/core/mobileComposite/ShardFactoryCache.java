@@ -0,0 +1,195 @@
+package net.xqhs.flash.core.mobileComposite;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.xqhs.flash.core.DeploymentConfiguration;
+import net.xqhs.flash.core.SimpleLoader;
+import net.xqhs.flash.core.composite.CompositeAgentLoader;
+import net.xqhs.flash.core.node.Node;
+import net.xqhs.flash.core.shard.AgentShard;
+import net.xqhs.flash.core.shard.AgentShardDesignation;
+import net.xqhs.flash.core.util.MultiTreeMap;
+
+/**
+ * Cache of shard factories, used by a {@link Node} to reconstruct the non-serializable shards of arriving
+ * {@link MobileCompositeAgent} instances. Without it, each shard is loaded by a {@link CompositeAgentLoader}, which
+ * searches for the shard class and creates the instance by reflection, for every arrival.
+ * <p>
+ * Factories are kept in a hash map, indexed by the designation of the shard and a compact description of its
+ * configuration, and hold the constructor of the shard class and the class name, as resolved by the loader. The
+ * attribute {@value DeploymentConfiguration#LOCAL_ID_ATTRIBUTE}, which is different for each shard instance, is not
+ * part of the key, so that agents of the same type share factories. Reconstructing a shard is then only an instantiation and a
+ * call to {@link AgentShard#configure(MultiTreeMap)}.
+ * <p>
+ * The cache is bounded and evicts the least recently used factories. All methods are thread-safe.
+ *
+ * @author Andrei Olaru
+ */
+public class ShardFactoryCache {
+	/**
+	 * The maximum number of factories.
+	 */
+	public static final int MAX_FACTORIES = 1024;
+
+	/**
+	 * The means of reconstructing a shard.
+	 */
+	protected static class ShardFactory {
+		/**
+		 * The constructor of the shard class.
+		 */
+		final Constructor<? extends AgentShard>	constructor;
+		/**
+		 * The shard class, as it should appear in the configuration.
+		 */
+		final String							shardClass;
+
+		/**
+		 * @param constructor
+		 *            - the constructor of the shard class.
+		 * @param shardClass
+		 *            - the shard class, as it should appear in the configuration.
+		 */
+		ShardFactory(Constructor<? extends AgentShard> constructor, String shardClass) {
+			this.constructor = constructor;
+			this.shardClass = shardClass;
+		}
+	}
+
+	/**
+	 * The factories, indexed by key (see {@link #key(AgentShardDesignation, MultiTreeMap)}), in access order.
+	 */
+	protected final LinkedHashMap<String, ShardFactory> factories = new LinkedHashMap<String, ShardFactory>(16, 0.75f,
+			true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, ShardFactory> eldest) {
+			return size() > MAX_FACTORIES;
+		}
+	};
+	/**
+	 * The number of shards created by factories.
+	 */
+	protected long hits = 0;
+	/**
+	 * The number of shards for which no factory was found.
+	 */
+	protected long misses = 0;
+
+	/**
+	 * Computes the key of a shard factory.
+	 *
+	 * @param designation
+	 *            - the designation of the shard.
+	 * @param configuration
+	 *            - the configuration of the shard, before being loaded.
+	 * @return the key.
+	 */
+	public static String key(AgentShardDesignation designation, MultiTreeMap configuration) {
+		StringBuilder key = new StringBuilder().append(designation).append('#');
+		if(configuration != null)
+			describe(configuration, key);
+		return key.toString();
+	}
+	
+	/**
+	 * Produces a compact description of a configuration, leaving out the
+	 * {@value DeploymentConfiguration#LOCAL_ID_ATTRIBUTE} attributes.
+	 * 
+	 * @param configuration
+	 *            - the configuration.
+	 * @param description
+	 *            - the builder to which to append the description.
+	 */
+	protected static void describe(MultiTreeMap configuration, StringBuilder description) {
+		for(String name : configuration.getSimpleNames())
+			if(!DeploymentConfiguration.LOCAL_ID_ATTRIBUTE.equals(name))
+				description.append(name).append('=').append(configuration.isSingleton(name)
+						? configuration.getSingleValue(name) : configuration.getValues(name)).append(';');
+		for(String name : configuration.getHierarchicalNames())
+			for(MultiTreeMap tree : configuration.isSingleton(name)
+					? Collections.singletonList(configuration.getSingleTree(name)) : configuration.getTrees(name)) {
+				describe(tree, description.append(name).append('{'));
+				description.append('}');
+			}
+	}
+
+	/**
+	 * Reconstructs a shard, if a factory for its designation and configuration exists.
+	 *
+	 * @param key
+	 *            - the key, as computed by {@link #key(AgentShardDesignation, MultiTreeMap)} before the configuration
+	 *            was changed by loading.
+	 * @param configuration
+	 *            - the configuration of the shard. The shard class is set in the configuration, as done by
+	 *            {@link CompositeAgentLoader#preloadShard}.
+	 * @return the configured shard, or <code>null</code> if there is no factory for it, or the shard could not be
+	 *         created.
+	 */
+	public AgentShard create(String key, MultiTreeMap configuration) {
+		ShardFactory factory;
+		synchronized(this) {
+			factory = factories.get(key);
+			if(factory == null) {
+				misses++;
+				return null;
+			}
+			hits++;
+		}
+		AgentShard shard;
+		try {
+			shard = factory.constructor.newInstance();
+		} catch(InstantiationException | IllegalAccessException | InvocationTargetException e) {
+			return null;
+		}
+		MultiTreeMap config = configuration == null ? new MultiTreeMap() : configuration;
+		if(config.containsKey(SimpleLoader.CLASSPATH_KEY))
+			config.removeKey(SimpleLoader.CLASSPATH_KEY);
+		config.setValue(SimpleLoader.CLASSPATH_KEY, factory.shardClass);
+		shard.configure(config);
+		return shard;
+	}
+
+	/**
+	 * Adds a factory for shards with the same designation and configuration as a shard which has been loaded. Nothing
+	 * is added if the shard class has no public no-argument constructor.
+	 *
+	 * @param key
+	 *            - the key, as computed by {@link #key(AgentShardDesignation, MultiTreeMap)} before the configuration
+	 *            was changed by loading.
+	 * @param shard
+	 *            - the loaded shard.
+	 * @param shardClass
+	 *            - the shard class, as resolved by the loader.
+	 */
+	public void put(String key, AgentShard shard, String shardClass) {
+		Constructor<? extends AgentShard> constructor;
+		try {
+			constructor = shard.getClass().getConstructor();
+		} catch(NoSuchMethodException | SecurityException e) {
+			return;
+		}
+		synchronized(this) {
+			factories.put(key, new ShardFactory(constructor, shardClass));
+		}
+	}
+
+	/**
+	 * @return the number of shards created by factories.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of shards for which no factory was found.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+}
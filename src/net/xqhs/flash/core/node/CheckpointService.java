@@ -0,0 +1,241 @@
+/*******************************************************************************
+ * Copyright (C) 2021 Andrei Olaru.
+ *
+ * This file is part of Flash-MAS. The CONTRIBUTORS.md file lists people who have been previously involved with this project.
+ *
+ * Flash-MAS is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * Flash-MAS is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Flash-MAS.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.xqhs.flash.core.node;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import net.xqhs.flash.core.mobileComposite.AgentSnapshot;
+import net.xqhs.flash.core.mobileComposite.MobileCompositeAgent;
+
+/**
+ * Writes and reads the checkpoints of the {@link MobileCompositeAgent} instances in a {@link Node}.
+ * <p>
+ * A checkpoint is a file in the checkpoint directory, named after the node. The snapshots of the agents are taken on
+ * the threads of the agents (see {@link MobileCompositeAgent#requestCheckpoint()}) and are appended one by one to a
+ * temporary file, which is synchronized to the
+ * disk and then atomically renamed over the previous checkpoint. Because of this, the checkpoint file is always
+ * complete, even if the node fails while writing a new one.
+ * <p>
+ * The format of the file is:
+ * <ul>
+ * <li>header: the {@link #MAGIC} number (int), the {@link #VERSION} (byte), the time of the checkpoint (long) and the
+ * name of the node (UTF);
+ * <li>for each agent: {@link #AGENT_RECORD} (byte), the name of the agent (UTF), the length of the snapshot (int) and
+ * the snapshot, as produced by {@link AgentSnapshot#toBytes(boolean)};
+ * <li>{@link #END_RECORD} (byte) and the number of agents (int).
+ * </ul>
+ *
+ * @author Andrei Olaru
+ */
+public class CheckpointService {
+	/**
+	 * Identifies the checkpoint format ("FNCK").
+	 */
+	public static final int		MAGIC				= 0x464E434B;
+	/**
+	 * The version of the format.
+	 */
+	public static final byte	VERSION				= 1;
+	/**
+	 * Marks the record of an agent.
+	 */
+	public static final byte	AGENT_RECORD		= 1;
+	/**
+	 * Marks the end of the checkpoint.
+	 */
+	public static final byte	END_RECORD			= 0;
+	/**
+	 * The extension of checkpoint files.
+	 */
+	public static final String	EXTENSION			= ".checkpoint";
+	/**
+	 * The extension of the file being written.
+	 */
+	public static final String	TEMP_EXTENSION		= ".tmp";
+	/**
+	 * The time to wait for the agents to take their snapshots, in ms.
+	 */
+	public static final long	SNAPSHOT_TIMEOUT	= 10000;
+
+	/**
+	 * The checkpoint file.
+	 */
+	protected final File				file;
+	/**
+	 * The name of the node.
+	 */
+	protected final String				nodeName;
+	/**
+	 * The timer for periodic checkpoints, if any.
+	 */
+	protected ScheduledExecutorService	timer	= null;
+
+	/**
+	 * @param directory
+	 *            - the directory in which checkpoints are kept. It is created if it does not exist.
+	 * @param nodeName
+	 *            - the name of the node.
+	 */
+	public CheckpointService(File directory, String nodeName) {
+		this.nodeName = nodeName;
+		directory.mkdirs();
+		file = new File(directory, String.valueOf(nodeName).replaceAll("[^\\w.-]", "_") + EXTENSION);
+	}
+
+	/**
+	 * @return the checkpoint file (which may not exist).
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Writes a new checkpoint, replacing the previous one. The snapshots of all agents are requested at once, and each
+	 * is taken by the agent between the processing of its events. Agents which cannot be checkpointed, which stop, or
+	 * which do not take their snapshot within {@link #SNAPSHOT_TIMEOUT} are skipped.
+	 *
+	 * @param agents
+	 *            - the agents.
+	 * @return the number of agents in the checkpoint.
+	 * @throws IOException
+	 *             if the file cannot be written; the previous checkpoint is kept.
+	 */
+	public synchronized int write(Collection<MobileCompositeAgent> agents) throws IOException {
+		List<MobileCompositeAgent> checkpointed = new ArrayList<>(agents);
+		List<Future<AgentSnapshot>> snapshots = new ArrayList<>();
+		for(MobileCompositeAgent agent : checkpointed)
+			snapshots.add(agent.requestCheckpoint());
+		long deadline = System.currentTimeMillis() + SNAPSHOT_TIMEOUT;
+		File temp = new File(file.getPath() + TEMP_EXTENSION);
+		int count = 0;
+		try (FileOutputStream fileOut = new FileOutputStream(temp)) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16));
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeLong(System.currentTimeMillis());
+			out.writeUTF(String.valueOf(nodeName));
+			for(int i = 0; i < checkpointed.size(); i++) {
+				AgentSnapshot snapshot;
+				try {
+					snapshot = snapshots.get(i).get(Math.max(0, deadline - System.currentTimeMillis()),
+							TimeUnit.MILLISECONDS);
+				} catch(ExecutionException | CancellationException e) {
+					continue;
+				} catch(TimeoutException e) {
+					snapshots.get(i).cancel(false);
+					continue;
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for the snapshots of the agents");
+				}
+				if(snapshot == null)
+					continue;
+				byte[] data = snapshot.toBytes(false);
+				out.writeByte(AGENT_RECORD);
+				out.writeUTF(checkpointed.get(i).getName());
+				out.writeInt(data.length);
+				out.write(data);
+				count++;
+			}
+			out.writeByte(END_RECORD);
+			out.writeInt(count);
+			out.flush();
+			fileOut.getFD().sync();
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+		return count;
+	}
+
+	/**
+	 * Reads the latest checkpoint.
+	 *
+	 * @return the snapshots of the agents, indexed by agent name, in the order in which they were written; the map is
+	 *         empty if there is no checkpoint.
+	 * @throws IOException
+	 *             if the checkpoint cannot be read or is not complete.
+	 */
+	public synchronized Map<String, AgentSnapshot> read() throws IOException {
+		Map<String, AgentSnapshot> agents = new LinkedHashMap<>();
+		if(!file.exists())
+			return agents;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+			if(in.readInt() != MAGIC)
+				throw new IOException("Not a checkpoint: " + file);
+			if(in.readByte() != VERSION)
+				throw new IOException("Unsupported checkpoint version in " + file);
+			in.readLong();
+			in.readUTF();
+			while(in.readByte() == AGENT_RECORD) {
+				String name = in.readUTF();
+				byte[] data = new byte[AgentSnapshot.readLength(in)];
+				in.readFully(data);
+				agents.put(name, AgentSnapshot.fromBytes(data));
+			}
+			if(in.readInt() != agents.size())
+				throw new IOException("Inconsistent checkpoint " + file);
+		} catch(EOFException e) {
+			throw new IOException("Truncated checkpoint " + file, e);
+		}
+		return agents;
+	}
+
+	/**
+	 * Starts taking periodic checkpoints.
+	 *
+	 * @param checkpoint
+	 *            - the task which takes the checkpoint.
+	 * @param period
+	 *            - the period, in ms.
+	 */
+	public synchronized void schedule(Runnable checkpoint, long period) {
+		stop();
+		timer = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "checkpoint-" + nodeName);
+			thread.setDaemon(true);
+			return thread;
+		});
+		timer.scheduleWithFixedDelay(checkpoint, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops taking periodic checkpoints.
+	 */
+	public synchronized void stop() {
+		if(timer != null)
+			timer.shutdown();
+		timer = null;
+	}
+}
@@ -0,0 +1,382 @@
+/*******************************************************************************
+ * Copyright (C) 2021 Andrei Olaru.
+ *
+ * This file is part of Flash-MAS. The CONTRIBUTORS.md file lists people who have been previously involved with this project.
+ *
+ * Flash-MAS is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * Flash-MAS is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Flash-MAS.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.xqhs.flash.core.node;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import net.xqhs.flash.core.DeploymentConfiguration;
+import net.xqhs.flash.core.Entity;
+import net.xqhs.flash.core.mobileComposite.MobileCompositeAgent;
+import net.xqhs.flash.core.util.MultiTreeMap;
+import net.xqhs.flash.core.util.PlatformUtils;
+import net.xqhs.util.logging.Unit;
+
+/**
+ * Moves {@link MobileCompositeAgent} instances from overloaded to underloaded nodes. Periodically (or on demand, see
+ * {@link #rebalance()}):
+ * <ul>
+ * <li>the load of each managed node is collected (see {@link Node#getLoad()}) and the load of each agent is measured
+ * according to the {@link Policy} (see {@link #POLICY_PARAMETER});
+ * <li>while the difference between the most and the least loaded nodes is larger than a fraction
+ * ({@link #TOLERANCE_PARAMETER}) of the mean load, an agent is planned to move from the most to the least loaded node:
+ * the agent whose load is closest to half of the difference, so that the difference decreases;
+ * <li>the agents are moved with {@link Node#moveAgents}, in one batch for each pair of nodes.
+ * </ul>
+ * To avoid thrashing, at most {@link #MAX_MOVES_PARAMETER} agents are moved in a round, and an agent is not moved again
+ * for a number of rounds ({@link #COOLDOWN_PARAMETER}), during which its load at the destination is measured.
+ * <p>
+ * The balancer works with the nodes in the same JVM. It is created by the {@link NodeLoader} for nodes configured with
+ * the {@link #LOAD_BALANCE_PARAMETER}, and manages all the nodes in the deployment.
+ *
+ * @author Andrei Olaru
+ */
+public class LoadBalancer extends Unit implements Entity<Node> {
+	/**
+	 * The measure of the load of an agent.
+	 */
+	public enum Policy {
+		/**
+		 * The share of a CPU used by the agent.
+		 */
+		CPU,
+		/**
+		 * The number of events waiting in the queue of the agent.
+		 */
+		QUEUE,
+		/**
+		 * The same load for each agent, so that nodes have the same number of agents.
+		 */
+		AGENTS;
+
+		/**
+		 * @param load
+		 *            - the load of the node.
+		 * @param agent
+		 *            - an agent in the node.
+		 * @return the load of the agent, according to this policy.
+		 */
+		public double measure(NodeLoad load, String agent) {
+			switch(this) {
+			case CPU:
+				return load.getAgentCpu().get(agent).doubleValue();
+			case QUEUE:
+				return load.getAgentQueues().get(agent).intValue();
+			default:
+				return 1;
+			}
+		}
+	}
+
+	/**
+	 * The name of the node parameter giving the period (in ms) of the balancing rounds; if 0, rounds are only done on
+	 * demand.
+	 */
+	public static final String	LOAD_BALANCE_PARAMETER	= "loadBalance";
+	/**
+	 * The name of the node parameter giving the {@link Policy} (case-insensitive).
+	 */
+	public static final String	POLICY_PARAMETER		= "loadPolicy";
+	/**
+	 * The name of the node parameter giving the difference between the loads of two nodes, relative to the mean load,
+	 * above which agents are moved.
+	 */
+	public static final String	TOLERANCE_PARAMETER		= "loadTolerance";
+	/**
+	 * The name of the node parameter giving the maximum number of agents moved in a round.
+	 */
+	public static final String	MAX_MOVES_PARAMETER		= "loadMaxMoves";
+	/**
+	 * The name of the node parameter giving the number of rounds after a move during which an agent is not moved
+	 * again.
+	 */
+	public static final String	COOLDOWN_PARAMETER		= "loadCooldown";
+	/**
+	 * The default value for {@link #TOLERANCE_PARAMETER}.
+	 */
+	public static final double	DEFAULT_TOLERANCE		= 0.2;
+	/**
+	 * The default value for {@link #MAX_MOVES_PARAMETER}.
+	 */
+	public static final int		DEFAULT_MAX_MOVES		= 4;
+	/**
+	 * The default value for {@link #COOLDOWN_PARAMETER}.
+	 */
+	public static final int		DEFAULT_COOLDOWN		= 2;
+
+	/**
+	 * The name of the balancer.
+	 */
+	protected final String					name;
+	/**
+	 * The period of the rounds, in ms.
+	 */
+	protected long							period		= 0;
+	/**
+	 * The measure of the load of agents.
+	 */
+	protected Policy						policy		= Policy.CPU;
+	/**
+	 * The relative difference between loads above which agents are moved.
+	 */
+	protected double						tolerance	= DEFAULT_TOLERANCE;
+	/**
+	 * The maximum number of agents moved in a round.
+	 */
+	protected int							maxMoves	= DEFAULT_MAX_MOVES;
+	/**
+	 * The number of rounds after a move during which an agent is not moved again.
+	 */
+	protected int							cooldown	= DEFAULT_COOLDOWN;
+	/**
+	 * The managed nodes, indexed by name.
+	 */
+	protected final Map<String, Node>		nodes		= new LinkedHashMap<>();
+	/**
+	 * The load of each node, as of the latest collection.
+	 */
+	protected final Map<String, NodeLoad>	loads		= new LinkedHashMap<>();
+	/**
+	 * The round in which each agent was last moved.
+	 */
+	protected final Map<String, Integer>	moved		= new HashMap<>();
+	/**
+	 * The number of rounds done.
+	 */
+	protected int							round		= 0;
+	/**
+	 * The timer for the rounds, while the balancer is running.
+	 */
+	protected ScheduledExecutorService		timer		= null;
+	/**
+	 * An indication if the balancer is running.
+	 */
+	protected boolean						running		= false;
+
+	/**
+	 * Creates a balancer.
+	 *
+	 * @param configuration
+	 *            - the configuration, containing the parameters of the balancer (the configuration of the node, if the
+	 *            balancer is created by the {@link NodeLoader}).
+	 */
+	public LoadBalancer(MultiTreeMap configuration) {
+		name = configuration.getAValue(DeploymentConfiguration.NAME_ATTRIBUTE_NAME) + "-balancer";
+		if(configuration.isSimple(LOAD_BALANCE_PARAMETER))
+			period = Long.parseLong(configuration.getAValue(LOAD_BALANCE_PARAMETER));
+		if(configuration.isSimple(POLICY_PARAMETER))
+			policy = Policy.valueOf(configuration.getAValue(POLICY_PARAMETER).toUpperCase());
+		if(configuration.isSimple(TOLERANCE_PARAMETER))
+			tolerance = Double.parseDouble(configuration.getAValue(TOLERANCE_PARAMETER));
+		if(configuration.isSimple(MAX_MOVES_PARAMETER))
+			maxMoves = Integer.parseInt(configuration.getAValue(MAX_MOVES_PARAMETER));
+		if(configuration.isSimple(COOLDOWN_PARAMETER))
+			cooldown = Integer.parseInt(configuration.getAValue(COOLDOWN_PARAMETER));
+		setLoggerType(PlatformUtils.platformLogType());
+		setUnitName(name);
+	}
+
+	/**
+	 * Adds a node to be managed by the balancer.
+	 *
+	 * @param node
+	 *            - the node.
+	 * @return the balancer itself.
+	 */
+	public synchronized LoadBalancer addNode(Node node) {
+		nodes.put(node.getName(), node);
+		return this;
+	}
+
+	/**
+	 * Collects the load of the managed nodes since the previous collection.
+	 *
+	 * @return the load of each node, indexed by node name.
+	 */
+	public synchronized Map<String, NodeLoad> collect() {
+		loads.clear();
+		for(Node node : nodes.values())
+			loads.put(node.getName(), node.getLoad());
+		lf("Collected loads: []", loads.values());
+		return new LinkedHashMap<>(loads);
+	}
+
+	/**
+	 * Does a balancing round: collects the loads (see {@link #collect()}), plans the moves and moves the agents. The
+	 * method waits for the agents to leave their nodes, so it should not be called on the thread of an agent.
+	 *
+	 * @return the number of agents which were moved.
+	 */
+	public synchronized int rebalance() {
+		round++;
+		collect();
+		Map<String, Map<String, List<String>>> moves = plan();
+		int count = 0;
+		for(Map.Entry<String, Map<String, List<String>>> source : moves.entrySet())
+			for(Map.Entry<String, List<String>> destination : source.getValue().entrySet()) {
+				li("Moving agents [] from [] to []", destination.getValue(), source.getKey(), destination.getKey());
+				count += nodes.get(source.getKey()).moveAgents(destination.getKey(), destination.getValue());
+				for(String agent : destination.getValue())
+					moved.put(agent, Integer.valueOf(round));
+			}
+		li("Round [] done: [] agents moved; imbalance was []", Integer.valueOf(round), Integer.valueOf(count),
+				Double.valueOf(getImbalance()));
+		return count;
+	}
+
+	/**
+	 * Plans the moves for the current round, based on the latest loads: repeatedly, an agent is moved from the most to
+	 * the least loaded node, as long as the nodes are not balanced and there is an agent whose move reduces the
+	 * difference between the two nodes.
+	 *
+	 * @return the moves, as names of agents indexed by source node and destination node.
+	 */
+	protected Map<String, Map<String, List<String>>> plan() {
+		// the load of each agent, indexed by node and agent, and the load of each node, as the agents are moved
+		Map<String, Map<String, Double>> agents = new HashMap<>();
+		Map<String, Double> total = new HashMap<>();
+		for(NodeLoad load : loads.values()) {
+			Map<String, Double> nodeAgents = new HashMap<>();
+			for(String agent : load.getAgentCpu().keySet())
+				if(!moved.containsKey(agent) || round - moved.get(agent).intValue() > cooldown)
+					nodeAgents.put(agent, Double.valueOf(policy.measure(load, agent)));
+			agents.put(load.getNode(), nodeAgents);
+			total.put(load.getNode(), Double.valueOf(measure(load)));
+		}
+		Map<String, Map<String, List<String>>> moves = new LinkedHashMap<>();
+		if(total.size() < 2)
+			return moves;
+		for(int move = 0; move < maxMoves; move++) {
+			String source = null, destination = null;
+			double mean = 0;
+			for(Map.Entry<String, Double> node : total.entrySet()) {
+				mean += node.getValue().doubleValue() / total.size();
+				if(source == null || node.getValue().doubleValue() > total.get(source).doubleValue())
+					source = node.getKey();
+				if(destination == null || node.getValue().doubleValue() < total.get(destination).doubleValue())
+					destination = node.getKey();
+			}
+			double difference = total.get(source).doubleValue() - total.get(destination).doubleValue();
+			if(difference <= tolerance * mean)
+				break;
+			// the agent whose load is closest to half of the difference; loads between 0 and the difference reduce it
+			String best = null;
+			for(Map.Entry<String, Double> agent : agents.get(source).entrySet()) {
+				double load = agent.getValue().doubleValue();
+				if(load > 0 && load < difference && (best == null || Math.abs(difference / 2 - load) < Math
+						.abs(difference / 2 - agents.get(source).get(best).doubleValue())))
+					best = agent.getKey();
+			}
+			if(best == null)
+				break;
+			Double load = agents.get(source).remove(best);
+			total.merge(source, Double.valueOf(-load.doubleValue()), Double::sum);
+			total.merge(destination, load, Double::sum);
+			moves.computeIfAbsent(source, k -> new LinkedHashMap<>())
+					.computeIfAbsent(destination, k -> new ArrayList<>()).add(best);
+		}
+		return moves;
+	}
+
+	/**
+	 * @param load
+	 *            - the load of a node.
+	 * @return the load of the node, according to the policy.
+	 */
+	protected double measure(NodeLoad load) {
+		double total = 0;
+		for(String agent : load.getAgentCpu().keySet())
+			total += policy.measure(load, agent);
+		return total;
+	}
+
+	/**
+	 * @return the difference between the loads of the most and the least loaded nodes, relative to the mean load, as
+	 *         of the latest collection; 0 if there is no load.
+	 */
+	public synchronized double getImbalance() {
+		double max = 0, min = Double.MAX_VALUE, sum = 0;
+		for(NodeLoad load : loads.values()) {
+			double value = measure(load);
+			max = Math.max(max, value);
+			min = Math.min(min, value);
+			sum += value;
+		}
+		return sum > 0 ? (max - min) * loads.size() / sum : 0;
+	}
+
+	@Override
+	public synchronized boolean start() {
+		if(period > 0 && timer == null) {
+			timer = Executors.newSingleThreadScheduledExecutor(task -> {
+				Thread thread = new Thread(task, name);
+				thread.setDaemon(true);
+				return thread;
+			});
+			timer.scheduleWithFixedDelay(this::rebalance, period, period, TimeUnit.MILLISECONDS);
+		}
+		running = true;
+		li("Load balancer started for nodes [] with policy [].", nodes.keySet(), policy);
+		return true;
+	}
+
+	@Override
+	public synchronized boolean stop() {
+		if(timer != null)
+			timer.shutdownNow();
+		timer = null;
+		running = false;
+		return true;
+	}
+
+	@Override
+	public synchronized boolean isRunning() {
+		return running;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public boolean addContext(EntityProxy<Node> context) {
+		// the managed nodes are added with addNode
+		return true;
+	}
+
+	@Override
+	public boolean removeContext(EntityProxy<Node> context) {
+		return true;
+	}
+
+	@Override
+	public boolean addGeneralContext(EntityProxy<? extends Entity<?>> context) {
+		return true;
+	}
+
+	@Override
+	public boolean removeGeneralContext(EntityProxy<? extends Entity<?>> context) {
+		return true;
+	}
+
+	@Override
+	public <C extends Entity<Node>> EntityProxy<C> asContext() {
+		return null;
+	}
+}
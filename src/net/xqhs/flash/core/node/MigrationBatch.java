@@ -0,0 +1,209 @@
+/*******************************************************************************
+ * Copyright (C) 2021 Andrei Olaru.
+ *
+ * This file is part of Flash-MAS. The CONTRIBUTORS.md file lists people who have been previously involved with this project.
+ *
+ * Flash-MAS is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * Flash-MAS is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Flash-MAS.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.xqhs.flash.core.node;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.xqhs.flash.core.mobileComposite.AgentSnapshot;
+import net.xqhs.flash.core.mobileComposite.MobileCompositeAgent;
+
+/**
+ * A group of {@link MobileCompositeAgent} instances which move together to the same destination node (see
+ * {@link Node#moveAgents}). As each agent stops, its snapshot is added to the batch instead of being sent; when all
+ * agents have stopped (or after a timeout), the snapshots are packed in a single transfer.
+ * <p>
+ * The packed form is: the number of agents (int), then, for each agent, its name (UTF), the length of its encoded
+ * snapshot (int) and the encoded snapshot, as produced by {@link AgentSnapshot#toBytes(boolean, java.util.Set)}.
+ *
+ * @author Andrei Olaru
+ */
+public class MigrationBatch {
+	/**
+	 * The snapshot of an agent in the batch.
+	 */
+	protected static class Entry {
+		/**
+		 * The snapshot.
+		 */
+		final AgentSnapshot	snapshot;
+		/**
+		 * Whether the shard state should be compressed.
+		 */
+		final boolean		compress;
+
+		/**
+		 * @param snapshot
+		 *            - the snapshot.
+		 * @param compress
+		 *            - whether the shard state should be compressed.
+		 */
+		Entry(AgentSnapshot snapshot, boolean compress) {
+			this.snapshot = snapshot;
+			this.compress = compress;
+		}
+	}
+
+	/**
+	 * The destination node.
+	 */
+	protected final String				destination;
+	/**
+	 * The snapshots of the agents which have stopped, indexed by agent name, in the order of their stopping.
+	 */
+	protected final Map<String, Entry>	agents	= new LinkedHashMap<>();
+	/**
+	 * Counts the agents which have not yet stopped.
+	 */
+	protected final CountDownLatch		remaining;
+	/**
+	 * <code>true</code> after the batch has been sent; agents stopping later are sent individually.
+	 */
+	protected boolean					closed	= false;
+
+	/**
+	 * @param destination
+	 *            - the destination node.
+	 * @param size
+	 *            - the number of agents in the batch.
+	 */
+	public MigrationBatch(String destination, int size) {
+		this.destination = destination;
+		remaining = new CountDownLatch(size);
+	}
+
+	/**
+	 * @return the destination node.
+	 */
+	public String getDestination() {
+		return destination;
+	}
+
+	/**
+	 * Adds the snapshot of an agent which has stopped.
+	 *
+	 * @param agentName
+	 *            - the name of the agent.
+	 * @param snapshot
+	 *            - the snapshot.
+	 * @param compress
+	 *            - whether the shard state should be compressed.
+	 * @return <code>true</code> if the snapshot was added; <code>false</code> if the batch has already been sent.
+	 */
+	public synchronized boolean add(String agentName, AgentSnapshot snapshot, boolean compress) {
+		if(closed)
+			return false;
+		agents.put(agentName, new Entry(snapshot, compress));
+		remaining.countDown();
+		return true;
+	}
+
+	/**
+	 * Records that an agent will not be part of the batch (e.g. because it could not be stopped).
+	 */
+	public void cancel() {
+		remaining.countDown();
+	}
+
+	/**
+	 * Waits for all agents to stop, then closes the batch.
+	 *
+	 * @param timeout
+	 *            - the maximum time to wait, in ms.
+	 * @return the names of the agents in the batch.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting.
+	 */
+	public List<String> close(long timeout) throws InterruptedException {
+		remaining.await(timeout, TimeUnit.MILLISECONDS);
+		synchronized(this) {
+			closed = true;
+			return new ArrayList<>(agents.keySet());
+		}
+	}
+
+	/**
+	 * @param agentName
+	 *            - the name of an agent in the batch.
+	 * @return the snapshot of the agent.
+	 */
+	public synchronized AgentSnapshot getSnapshot(String agentName) {
+		return agents.get(agentName).snapshot;
+	}
+
+	/**
+	 * @param agentName
+	 *            - the name of an agent in the batch.
+	 * @return whether the shard state of the agent should be compressed.
+	 */
+	public synchronized boolean isCompressed(String agentName) {
+		return agents.get(agentName).compress;
+	}
+
+	/**
+	 * Packs encoded snapshots in a single transfer.
+	 *
+	 * @param encoded
+	 *            - the encoded snapshots, indexed by agent name.
+	 * @return the packed form.
+	 */
+	public static byte[] pack(Map<String, byte[]> encoded) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(encoded.size());
+			for(Map.Entry<String, byte[]> agent : encoded.entrySet()) {
+				out.writeUTF(agent.getKey());
+				out.writeInt(agent.getValue().length);
+				out.write(agent.getValue());
+			}
+		} catch(IOException e) {
+			// does not happen with a byte array stream
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Unpacks a transfer produced by {@link #pack(Map)}.
+	 *
+	 * @param data
+	 *            - the packed form.
+	 * @return the encoded snapshots, indexed by agent name, in the order in which they were packed.
+	 * @throws IOException
+	 *             if the data is not correct.
+	 */
+	public static Map<String, byte[]> unpack(byte[] data) throws IOException {
+		Map<String, byte[]> encoded = new LinkedHashMap<>();
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+			int n = in.readInt();
+			if(n < 0)
+				throw new IOException("Incorrect number of agents: " + n);
+			for(int i = 0; i < n; i++) {
+				String name = in.readUTF();
+				byte[] snapshot = new byte[AgentSnapshot.readLength(in)];
+				in.readFully(snapshot);
+				encoded.put(name, snapshot);
+			}
+		}
+		return Collections.unmodifiableMap(encoded);
+	}
+}
@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright (C) 2021 Andrei Olaru.
+ *
+ * This file is part of Flash-MAS. The CONTRIBUTORS.md file lists people who have been previously involved with this project.
+ *
+ * Flash-MAS is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * Flash-MAS is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Flash-MAS.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.xqhs.flash.core.node;
+
+/**
+ * Timing of the phases of agent migrations, and counts of their outcomes, as seen by a {@link Node}. The source node
+ * records {@link Phase#SERIALIZE} and {@link Phase#TRANSFER}; the destination node records the other phases.
+ * <p>
+ * All methods are thread-safe.
+ *
+ * @author Andrei Olaru
+ */
+public class MigrationMetrics {
+	/**
+	 * The phases of a migration.
+	 */
+	public enum Phase {
+		/**
+		 * Taking the snapshot of the agent and encoding it, at the source.
+		 */
+		SERIALIZE,
+		/**
+		 * The round trip between sending the agent and receiving the acknowledgement, without the time spent by the
+		 * destination in the other phases.
+		 */
+		TRANSFER,
+		/**
+		 * Restoring the agent from its snapshot, at the destination.
+		 */
+		DESERIALIZE,
+		/**
+		 * Registering the agent with the destination node.
+		 */
+		REGISTER,
+		/**
+		 * Loading the shards of the agent and starting it, at the destination.
+		 */
+		START,
+	}
+
+	/**
+	 * The outcomes of migrations, as seen by the source.
+	 */
+	public enum Outcome {
+		/**
+		 * The destination acknowledged the arrival of the agent.
+		 */
+		ACKNOWLEDGED,
+		/**
+		 * The destination reported that the agent could not be restored.
+		 */
+		REJECTED,
+		/**
+		 * The agent was sent again, because the destination did not respond in time.
+		 */
+		RETRIED,
+		/**
+		 * The agent was restored at the source, after being rejected or after all retries.
+		 */
+		RETURNED,
+	}
+
+	/**
+	 * The number of samples, for each phase.
+	 */
+	protected final long[]	count		= new long[Phase.values().length];
+	/**
+	 * The total duration, for each phase, in ns.
+	 */
+	protected final long[]	total		= new long[Phase.values().length];
+	/**
+	 * The maximum duration, for each phase, in ns.
+	 */
+	protected final long[]	max			= new long[Phase.values().length];
+	/**
+	 * The number of occurrences, for each outcome.
+	 */
+	protected final long[]	outcomes	= new long[Outcome.values().length];
+
+	/**
+	 * Records the duration of a phase of a migration.
+	 *
+	 * @param phase
+	 *            - the phase.
+	 * @param duration
+	 *            - the duration, in ns.
+	 */
+	public synchronized void record(Phase phase, long duration) {
+		count[phase.ordinal()]++;
+		total[phase.ordinal()] += duration;
+		max[phase.ordinal()] = Math.max(max[phase.ordinal()], duration);
+	}
+
+	/**
+	 * Records the outcome of a migration.
+	 *
+	 * @param outcome
+	 *            - the outcome.
+	 */
+	public synchronized void record(Outcome outcome) {
+		outcomes[outcome.ordinal()]++;
+	}
+
+	/**
+	 * @param phase
+	 *            - the phase.
+	 * @return the number of recorded durations for the phase.
+	 */
+	public synchronized long getCount(Phase phase) {
+		return count[phase.ordinal()];
+	}
+
+	/**
+	 * @param phase
+	 *            - the phase.
+	 * @return the mean duration of the phase, in ns, or 0 if none was recorded.
+	 */
+	public synchronized long getMean(Phase phase) {
+		return count[phase.ordinal()] > 0 ? total[phase.ordinal()] / count[phase.ordinal()] : 0;
+	}
+
+	/**
+	 * @param phase
+	 *            - the phase.
+	 * @return the maximum duration of the phase, in ns.
+	 */
+	public synchronized long getMax(Phase phase) {
+		return max[phase.ordinal()];
+	}
+
+	/**
+	 * @param outcome
+	 *            - the outcome.
+	 * @return the number of migrations with the outcome.
+	 */
+	public synchronized long getCount(Outcome outcome) {
+		return outcomes[outcome.ordinal()];
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder result = new StringBuilder();
+		for(Phase phase : Phase.values())
+			if(count[phase.ordinal()] > 0)
+				result.append(phase.name().toLowerCase()).append(": ").append(count[phase.ordinal()]).append(" x ")
+						.append(getMean(phase) / 1000).append(" us (max ").append(max[phase.ordinal()] / 1000)
+						.append(" us); ");
+		for(Outcome outcome : Outcome.values())
+			if(outcomes[outcome.ordinal()] > 0)
+				result.append(outcome.name().toLowerCase()).append(": ").append(outcomes[outcome.ordinal()])
+						.append("; ");
+		return result.toString().trim();
+	}
+}
@@ -0,0 +1,926 @@
+/*******************************************************************************
+ * Copyright (C) 2021 Andrei Olaru.
+ *
+ * This file is part of Flash-MAS. The CONTRIBUTORS.md file lists people who have been previously involved with this project.
+ *
+ * Flash-MAS is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * Flash-MAS is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Flash-MAS.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.xqhs.flash.core.node;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import net.xqhs.flash.core.CategoryName;
+import net.xqhs.flash.core.Entity.EntityProxy;
+import net.xqhs.flash.core.mobileComposite.AgentSnapshot;
+import net.xqhs.flash.core.mobileComposite.MobileCompositeAgent;
+import net.xqhs.flash.core.mobileComposite.MobileCompositeAgent.MobileCompositeAgentShardContainer;
+import net.xqhs.flash.core.mobileComposite.ShardCache;
+import net.xqhs.flash.core.node.MigrationMetrics.Outcome;
+import net.xqhs.flash.core.node.MigrationMetrics.Phase;
+import net.xqhs.flash.core.shard.AgentShardDesignation;
+import net.xqhs.flash.core.util.OperationUtils;
+import net.xqhs.flash.core.util.PlatformUtils;
+import net.xqhs.util.logging.Unit;
+
+/**
+ * Moves the {@link MobileCompositeAgent} instances of a {@link Node} to other nodes and receives the agents arriving
+ * from other nodes.
+ * <p>
+ * The nodes exchange messages (see {@link Node#sendMessage}) for the operations of the migration protocol:
+ * <ul>
+ * <li>an agent is sent with {@link Node#RECEIVE_AGENT_OPERATION}, or together with other agents, in a
+ * {@link MigrationBatch}, with {@link #RECEIVE_AGENTS_OPERATION};
+ * <li>the destination confirms that an agent has arrived and has been started with {@link #MIGRATION_ACK_OPERATION},
+ * or reports that it could not with {@link #MIGRATION_NACK_OPERATION}; until then, the source keeps the snapshot of
+ * the agent, in order to send it again or to restore it locally (see {@link Node#MIGRATION_TIMEOUT_PARAMETER} and
+ * {@link Node#MIGRATION_RETRIES_PARAMETER});
+ * <li>with incremental migration (see {@link Node#DELTA_MIGRATION_PARAMETER}), shards known to the destination are
+ * sent by reference, and the destination requests those which are not in its {@link ShardCache} with
+ * {@link #REQUEST_SHARDS_OPERATION}, receiving them with {@link #RECEIVE_SHARDS_OPERATION}; shards can also be
+ * pre-copied, while the agent is running, with {@link #PRE_COPY_SHARDS_OPERATION}, confirmed with
+ * {@link #PRE_COPY_ACK_OPERATION}.
+ * </ul>
+ * The service also keeps the timing of the phases of the migrations (see {@link MigrationMetrics}) and the number of
+ * characters sent for them.
+ *
+ * @author Andrei Olaru
+ */
+public class MigrationService extends Unit {
+	/**
+	 * An agent which has been sent to a different node and for which the acknowledgement of its arrival is expected.
+	 */
+	protected static class PendingMigration {
+		/**
+		 * The destination node.
+		 */
+		final String		destination;
+		/**
+		 * The snapshot of the agent, kept in order to send the agent again or to restore it here.
+		 */
+		final AgentSnapshot	snapshot;
+		/**
+		 * Whether the shard state should be compressed.
+		 */
+		final boolean		compress;
+		/**
+		 * The number of times the agent has been sent again.
+		 */
+		int					retries	= 0;
+		/**
+		 * The time at which the agent was last sent (as given by {@link System#nanoTime()}).
+		 */
+		long				sent;
+		/**
+		 * The task which handles the lack of an acknowledgement.
+		 */
+		ScheduledFuture<?>	timeout;
+
+		/**
+		 * @param destination
+		 *            - the destination node.
+		 * @param snapshot
+		 *            - the snapshot of the agent.
+		 * @param compress
+		 *            - whether the shard state should be compressed.
+		 */
+		PendingMigration(String destination, AgentSnapshot snapshot, boolean compress) {
+			this.destination = destination;
+			this.snapshot = snapshot;
+			this.compress = compress;
+		}
+	}
+
+	/**
+	 * The name of the operation in which a node receives a batch of mobile agents (see {@link MigrationBatch}).
+	 */
+	public static final String	RECEIVE_AGENTS_OPERATION	= "receive_agents";
+	/**
+	 * The name of the operation in which a node confirms that an agent has arrived and has been started. The parameters
+	 * give the duration (in ns) of the phases of the arrival (see {@link MigrationMetrics}).
+	 */
+	public static final String	MIGRATION_ACK_OPERATION		= "migration_ack";
+	/**
+	 * The name of the operation in which a node reports that an arriving agent could not be restored or started. The
+	 * parameter gives the reason.
+	 */
+	public static final String	MIGRATION_NACK_OPERATION	= "migration_nack";
+	/**
+	 * The maximum time to wait for the agents in a batch to stop (ms).
+	 */
+	public static final long	BATCH_TIMEOUT				= 30000;
+	/**
+	 * The name of the operation in which a node requests the shards of an arriving agent which were sent by reference
+	 * but are not in its {@link ShardCache}.
+	 */
+	public static final String	REQUEST_SHARDS_OPERATION	= "request_shards";
+	/**
+	 * The name of the operation in which a node receives the shards that it requested.
+	 */
+	public static final String	RECEIVE_SHARDS_OPERATION	= "receive_shards";
+	/**
+	 * The name of the operation in which a node receives, for its {@link ShardCache}, the shards of an agent which is
+	 * about to arrive.
+	 */
+	public static final String	PRE_COPY_SHARDS_OPERATION	= "precopy_shards";
+	/**
+	 * The name of the operation in which a node confirms the receipt of pre-copied shards.
+	 */
+	public static final String	PRE_COPY_ACK_OPERATION		= "precopy_ack";
+	/**
+	 * The time to wait for the confirmation of the receipt of pre-copied shards (ms).
+	 */
+	public static final long	PRE_COPY_TIMEOUT			= 10000;
+
+	/**
+	 * The node.
+	 */
+	protected final Node					node;
+	/**
+	 * The cache of shard serializations, if the node uses incremental migration; <code>null</code> otherwise.
+	 */
+	protected final ShardCache				shardCache;
+	/**
+	 * The time to wait for the acknowledgement of the arrival of an agent (ms).
+	 */
+	protected final long					timeout;
+	/**
+	 * The number of times an agent is sent again if its arrival is not acknowledged.
+	 */
+	protected final int						retries;
+	/**
+	 * Agents which have arrived but for which some shards sent by reference had to be requested from the source node,
+	 * indexed by agent name.
+	 */
+	protected Map<String, AgentSnapshot>	pendingAgents		= new ConcurrentHashMap<>();
+	/**
+	 * Pre-copies waiting for confirmation, indexed by agent name.
+	 */
+	protected Map<String, CountDownLatch>	pendingPreCopies	= new ConcurrentHashMap<>();
+	/**
+	 * Batches of agents which are stopping in order to move together, indexed by agent name.
+	 */
+	protected Map<String, MigrationBatch>	batches				= new ConcurrentHashMap<>();
+	/**
+	 * Agents sent to other nodes for which the acknowledgement of their arrival is expected, indexed by agent name.
+	 * Also used as lock for {@link #timer} and {@link #executor}.
+	 */
+	protected Map<String, PendingMigration>	pendingMigrations	= new ConcurrentHashMap<>();
+	/**
+	 * The number of characters sent by the node for the migration of agents.
+	 */
+	protected AtomicLong					traffic				= new AtomicLong();
+	/**
+	 * The timing of the phases of the migrations to and from the node.
+	 */
+	protected MigrationMetrics				metrics				= new MigrationMetrics();
+	/**
+	 * The timer for the acknowledgements of migrations; created when first needed.
+	 */
+	protected ScheduledExecutorService		timer				= null;
+	/**
+	 * The threads for the tasks related to the migration of agents (see {@link #execute}); created when first needed.
+	 */
+	protected ExecutorService				executor			= null;
+
+	/**
+	 * @param node
+	 *            - the node.
+	 * @param deltaMigration
+	 *            - <code>true</code> if the node uses incremental migration.
+	 * @param timeout
+	 *            - the time to wait for the acknowledgement of the arrival of an agent (ms).
+	 * @param retries
+	 *            - the number of times an agent is sent again if its arrival is not acknowledged.
+	 */
+	public MigrationService(Node node, boolean deltaMigration, long timeout, int retries) {
+		this.node = node;
+		shardCache = deltaMigration ? new ShardCache() : null;
+		this.timeout = timeout;
+		this.retries = retries;
+		setLoggerType(PlatformUtils.platformLogType());
+		setUnitName(node.getName() + "-migration");
+	}
+
+	/**
+	 * Stops the timer and the threads of the service. They are created again if needed.
+	 */
+	public void stop() {
+		synchronized(pendingMigrations) {
+			if(timer != null)
+				timer.shutdownNow();
+			timer = null;
+			if(executor != null)
+				executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	/**
+	 * Handles a message received by the node, if it is part of the migration protocol.
+	 *
+	 * @param operation
+	 *            - the operation.
+	 * @param message
+	 *            - the message.
+	 * @return <code>true</code> if the operation is part of the migration protocol.
+	 */
+	public boolean handleMessage(String operation, JsonObject message) {
+		switch(operation) {
+		case Node.RECEIVE_AGENT_OPERATION:
+			onReceiveAgent(message);
+			return true;
+		case RECEIVE_AGENTS_OPERATION:
+			onReceiveAgents(message);
+			return true;
+		case REQUEST_SHARDS_OPERATION:
+			onRequestShards(message);
+			return true;
+		case PRE_COPY_SHARDS_OPERATION:
+			onPreCopyShards(message);
+			return true;
+		case PRE_COPY_ACK_OPERATION:
+			CountDownLatch ack = pendingPreCopies.get(message.get(OperationUtils.VALUE).getAsString());
+			if(ack != null)
+				ack.countDown();
+			return true;
+		case RECEIVE_SHARDS_OPERATION:
+			onReceiveShards(message);
+			return true;
+		case MIGRATION_ACK_OPERATION:
+		case MIGRATION_NACK_OPERATION:
+			onAcknowledgement(operation, message);
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Handles an agent which has arrived, requesting its missing shards, if any, from the source node.
+	 *
+	 * @param message
+	 *            - the message containing the agent.
+	 */
+	protected void onReceiveAgent(JsonObject message) {
+		String agentData = message.get(OperationUtils.PARAMETERS).getAsString();
+		String source = message.has(OperationUtils.NODE) ? message.get(OperationUtils.NODE).getAsString() : null;
+		String agentName = message.has(OperationUtils.VALUE) ? message.get(OperationUtils.VALUE).getAsString() : null;
+		AgentSnapshot snapshot;
+		try {
+			snapshot = AgentSnapshot.fromBytes(Base64.getDecoder().decode(agentData),
+					shardCache != null ? shardCache::get : null);
+		} catch(IOException | IllegalArgumentException e) {
+			le("Unable to read agent snapshot: []", PlatformUtils.printException(e));
+			acknowledgeArrival(source, agentName, "unreadable snapshot: " + e, null);
+			return;
+		}
+		if(!snapshot.isComplete()) {
+			if(source == null || agentName == null) {
+				le("Unable to request missing shards [] of an agent.", snapshot.getMissing().keySet());
+				return;
+			}
+			lf("Requesting missing shards [] of agent [] from []", snapshot.getMissing().keySet(), agentName, source);
+			requestShards(source, agentName, snapshot);
+			return;
+		}
+		receiveAgent(agentName, snapshot, source);
+	}
+
+	/**
+	 * Handles a batch of agents which have arrived, requesting the missing shards of some agents, if any, from the
+	 * source node.
+	 *
+	 * @param message
+	 *            - the message containing the batch.
+	 */
+	protected void onReceiveAgents(JsonObject message) {
+		String source = message.get(OperationUtils.NODE).getAsString();
+		Map<String, AgentSnapshot> complete = new LinkedHashMap<>();
+		try {
+			for(Map.Entry<String, byte[]> agent : MigrationBatch
+					.unpack(Base64.getDecoder().decode(message.get(OperationUtils.PARAMETERS).getAsString()))
+					.entrySet()) {
+				AgentSnapshot snapshot = AgentSnapshot.fromBytes(agent.getValue(),
+						shardCache != null ? shardCache::get : null);
+				if(snapshot.isComplete())
+					complete.put(agent.getKey(), snapshot);
+				else
+					requestShards(source, agent.getKey(), snapshot);
+			}
+		} catch(IOException | IllegalArgumentException e) {
+			le("Unable to read batch of agents: []", PlatformUtils.printException(e));
+			return;
+		}
+		receiveAgents(complete, source);
+	}
+
+	/**
+	 * Keeps an arriving agent until its missing shards are received, and requests them from the source node.
+	 *
+	 * @param source
+	 *            - the name of the node from which the agent arrived.
+	 * @param agentName
+	 *            - the name of the agent.
+	 * @param snapshot
+	 *            - the incomplete snapshot of the agent.
+	 */
+	protected void requestShards(String source, String agentName, AgentSnapshot snapshot) {
+		pendingAgents.put(agentName, snapshot);
+		JsonArray hashes = new JsonArray();
+		snapshot.getMissing().values().forEach(hashes::add);
+		sendMessage(source, REQUEST_SHARDS_OPERATION, agentName, hashes);
+	}
+
+	/**
+	 * Sends to another node the shards that it requested.
+	 *
+	 * @param message
+	 *            - the request.
+	 */
+	protected void onRequestShards(JsonObject message) {
+		String requester = message.get(OperationUtils.NODE).getAsString();
+		JsonObject sections = new JsonObject();
+		for(JsonElement element : message.get(OperationUtils.PARAMETERS).getAsJsonArray()) {
+			String hash = element.getAsString();
+			byte[] data = shardCache != null ? shardCache.get(hash) : null;
+			if(data != null) {
+				sections.addProperty(hash, Base64.getEncoder().encodeToString(data));
+				shardCache.setUnknownBy(requester, hash);
+			}
+			else
+				lw("Shard [] requested by [] is no longer available.", hash, requester);
+		}
+		sendMessage(requester, RECEIVE_SHARDS_OPERATION, message.get(OperationUtils.VALUE).getAsString(), sections);
+	}
+
+	/**
+	 * Caches the shards pre-copied by another node and confirms their receipt.
+	 *
+	 * @param message
+	 *            - the message containing the shards.
+	 */
+	protected void onPreCopyShards(JsonObject message) {
+		if(shardCache == null) {
+			lw("Ignoring pre-copied shards, as incremental migration is not active.");
+			return;
+		}
+		String source = message.get(OperationUtils.NODE).getAsString();
+		for(Map.Entry<String, JsonElement> section : message.get(OperationUtils.PARAMETERS).getAsJsonObject()
+				.entrySet()) {
+			byte[] data = Base64.getDecoder().decode(section.getValue().getAsString());
+			if(!section.getKey().equals(ShardCache.hash(data))) {
+				lw("Pre-copied shard [] is corrupted.", section.getKey());
+				continue;
+			}
+			shardCache.put(section.getKey(), data);
+			shardCache.setKnownBy(source, section.getKey());
+		}
+		sendMessage(source, PRE_COPY_ACK_OPERATION, message.get(OperationUtils.VALUE).getAsString(),
+				JsonNull.INSTANCE);
+	}
+
+	/**
+	 * Completes the snapshot of an arriving agent with the shards received from the source node, and restores the
+	 * agent.
+	 *
+	 * @param message
+	 *            - the message containing the shards.
+	 */
+	protected void onReceiveShards(JsonObject message) {
+		String agentName = message.get(OperationUtils.VALUE).getAsString();
+		AgentSnapshot snapshot = pendingAgents.remove(agentName);
+		if(snapshot == null) {
+			lw("Received shards for agent [] which is not expected.", agentName);
+			return;
+		}
+		JsonObject sections = message.get(OperationUtils.PARAMETERS).getAsJsonObject();
+		for(Map.Entry<AgentShardDesignation, String> shard : new ArrayList<>(snapshot.getMissing().entrySet()))
+			if(sections.has(shard.getValue()))
+				snapshot.resolve(shard.getKey(),
+						Base64.getDecoder().decode(sections.get(shard.getValue()).getAsString()));
+		if(!snapshot.isComplete()) {
+			le("Unable to restore agent []; shards [] are missing.", agentName, snapshot.getMissing().keySet());
+			acknowledgeArrival(message.get(OperationUtils.NODE).getAsString(), agentName,
+					"missing shards " + snapshot.getMissing().keySet(), null);
+			return;
+		}
+		receiveAgent(agentName, snapshot, message.get(OperationUtils.NODE).getAsString());
+	}
+
+	/**
+	 * Handles the acknowledgement (or the negative acknowledgement) of the arrival of an agent sent by the node.
+	 *
+	 * @param operation
+	 *            - {@link #MIGRATION_ACK_OPERATION} or {@link #MIGRATION_NACK_OPERATION}.
+	 * @param message
+	 *            - the message.
+	 */
+	protected void onAcknowledgement(String operation, JsonObject message) {
+		String agentName = message.get(OperationUtils.VALUE).getAsString();
+		PendingMigration pending = pendingMigrations.remove(agentName);
+		if(pending == null) {
+			lf("Acknowledgement for agent [] was not expected.", agentName);
+			return;
+		}
+		pending.timeout.cancel(false);
+		if(MIGRATION_ACK_OPERATION.equals(operation)) {
+			long remote = 0;
+			for(Map.Entry<String, JsonElement> phase : message.get(OperationUtils.PARAMETERS).getAsJsonObject()
+					.entrySet())
+				remote += phase.getValue().getAsLong();
+			metrics.record(Phase.TRANSFER, Math.max(0, System.nanoTime() - pending.sent - remote));
+			metrics.record(Outcome.ACKNOWLEDGED);
+			lf("Arrival of agent [] at [] acknowledged.", agentName, pending.destination);
+		}
+		else {
+			metrics.record(Outcome.REJECTED);
+			lw("Agent [] could not arrive at []: []", agentName, pending.destination,
+					message.get(OperationUtils.PARAMETERS).getAsString());
+			returnAgent(agentName, pending);
+		}
+	}
+
+	/**
+	 * Restores and starts an agent which has arrived, and acknowledges its arrival to the source node. If the node uses
+	 * incremental migration, the shards of the agent are cached and recorded as known to the source node. An agent
+	 * which is already in the node (because it was sent again) is only acknowledged again.
+	 *
+	 * @param agentName
+	 *            - the name of the agent, if known.
+	 * @param snapshot
+	 *            - the complete snapshot of the agent.
+	 * @param source
+	 *            - the name of the node from which the agent arrived, if known.
+	 */
+	protected void receiveAgent(String agentName, AgentSnapshot snapshot, String source) {
+		long[] durations = new long[Phase.values().length];
+		if(agentName != null && node.entityIndex.lookup(agentName) instanceof MobileCompositeAgent) {
+			lw("Agent [] has already arrived.", agentName);
+			acknowledgeArrival(source, agentName, null, durations);
+			return;
+		}
+		long start = System.nanoTime();
+		MobileCompositeAgent agent = restoreArrivedAgent(snapshot, source);
+		durations[Phase.DESERIALIZE.ordinal()] = System.nanoTime() - start;
+		if(agent == null) {
+			acknowledgeArrival(source, agentName, "the agent could not be de-serialized", null);
+			return;
+		}
+		start = System.nanoTime();
+		node.registerEntity(CategoryName.AGENT.toString(), agent, agent.getName());
+		durations[Phase.REGISTER.ordinal()] = System.nanoTime() - start;
+		lf("Starting agent [] after moving...", agent.getName());
+		acknowledgeArrival(source, agent.getName(), startArrivedAgent(agent, node.asContext(), durations), durations);
+	}
+
+	/**
+	 * Restores and starts a batch of agents which have arrived together, and acknowledges the arrival of each agent to
+	 * the source node. The agents are restored in parallel, then registered with the node all at once, then started in
+	 * parallel.
+	 *
+	 * @param snapshots
+	 *            - the complete snapshots of the agents, indexed by agent name.
+	 * @param source
+	 *            - the name of the node from which the agents arrived.
+	 */
+	protected void receiveAgents(Map<String, AgentSnapshot> snapshots, String source) {
+		List<String> names = new ArrayList<>();
+		for(String name : snapshots.keySet())
+			if(node.entityIndex.lookup(name) instanceof MobileCompositeAgent)
+				acknowledgeArrival(source, name, null, new long[Phase.values().length]);
+			else
+				names.add(name);
+		MobileCompositeAgent[] agents = new MobileCompositeAgent[names.size()];
+		long[][] durations = new long[names.size()][Phase.values().length];
+		IntStream.range(0, agents.length).parallel().forEach(i -> {
+			long start = System.nanoTime();
+			agents[i] = restoreArrivedAgent(snapshots.get(names.get(i)), source);
+			durations[i][Phase.DESERIALIZE.ordinal()] = System.nanoTime() - start;
+		});
+		long start = System.nanoTime();
+		int registered = 0;
+		for(MobileCompositeAgent agent : agents)
+			if(agent != null) {
+				node.registerEntity(CategoryName.AGENT.toString(), agent, agent.getName());
+				registered++;
+			}
+		long register = (System.nanoTime() - start) / Math.max(1, registered);
+		lf("Starting [] agents after moving from []...", Integer.valueOf(registered), source);
+		EntityProxy<Node> context = node.asContext();
+		IntStream.range(0, agents.length).parallel().forEach(i -> {
+			if(agents[i] == null) {
+				acknowledgeArrival(source, names.get(i), "the agent could not be de-serialized", null);
+				return;
+			}
+			durations[i][Phase.REGISTER.ordinal()] = register;
+			acknowledgeArrival(source, names.get(i), startArrivedAgent(agents[i], context, durations[i]),
+					durations[i]);
+		});
+	}
+
+	/**
+	 * Places an agent which has arrived (and has been registered) in the context of the node and starts it. If the
+	 * agent cannot be started, it is removed from the node.
+	 *
+	 * @param agent
+	 *            - the agent.
+	 * @param context
+	 *            - the context of the node.
+	 * @param durations
+	 *            - the durations of the phases of the arrival, where the duration of {@link Phase#START} is placed.
+	 * @return <code>null</code> if the agent was started, or the reason for which it could not be started.
+	 */
+	protected String startArrivedAgent(MobileCompositeAgent agent, EntityProxy<Node> context, long[] durations) {
+		long start = System.nanoTime();
+		agent.addGeneralContext(context);
+		agent.addContext(node.getPylonProxy());
+		boolean started = agent.start();
+		durations[Phase.START.ordinal()] = System.nanoTime() - start;
+		if(started)
+			return null;
+		node.removeAgent(agent.getName());
+		return agent.getLoadFailure() != null ? agent.getLoadFailure() : "the agent could not be started";
+	}
+
+	/**
+	 * Records the outcome of the arrival of an agent and sends the acknowledgement (or the negative acknowledgement)
+	 * to the source node.
+	 *
+	 * @param source
+	 *            - the name of the node from which the agent arrived; if <code>null</code>, no acknowledgement is sent.
+	 * @param agentName
+	 *            - the name of the agent; if <code>null</code>, no acknowledgement is sent.
+	 * @param failure
+	 *            - <code>null</code> if the agent has arrived and has been started, or the reason for which it could
+	 *            not.
+	 * @param durations
+	 *            - the durations (in ns) of the phases of the arrival, indexed by {@link Phase#ordinal()}, if the
+	 *            agent has arrived.
+	 */
+	protected void acknowledgeArrival(String source, String agentName, String failure, long[] durations) {
+		if(failure != null) {
+			le("Agent [] could not be restored: []", agentName, failure);
+			if(source != null && agentName != null)
+				sendMessage(source, MIGRATION_NACK_OPERATION, agentName, new JsonPrimitive(failure));
+			return;
+		}
+		JsonObject phases = new JsonObject();
+		for(Phase phase : new Phase[] { Phase.DESERIALIZE, Phase.REGISTER, Phase.START }) {
+			metrics.record(phase, durations[phase.ordinal()]);
+			phases.addProperty(phase.name().toLowerCase(), Long.valueOf(durations[phase.ordinal()]));
+		}
+		if(source != null && agentName != null)
+			sendMessage(source, MIGRATION_ACK_OPERATION, agentName, phases);
+	}
+
+	/**
+	 * Restores an agent which has arrived. If the node uses incremental migration, the shards of the agent are cached
+	 * and recorded as known to the source node.
+	 *
+	 * @param snapshot
+	 *            - the complete snapshot of the agent.
+	 * @param source
+	 *            - the name of the node from which the agent arrived, if known.
+	 * @return the agent, or <code>null</code> if it could not be restored.
+	 */
+	protected MobileCompositeAgent restoreArrivedAgent(AgentSnapshot snapshot, String source) {
+		if(shardCache != null)
+			for(Map.Entry<AgentShardDesignation, byte[]> shard : snapshot.getShards().entrySet()) {
+				String hash = snapshot.getShardHash(shard.getKey());
+				shardCache.put(hash, shard.getValue());
+				if(source != null)
+					shardCache.setKnownBy(source, hash);
+			}
+		try {
+			return MobileCompositeAgent.restoreAgent(snapshot);
+		} catch(IOException | ClassNotFoundException e) {
+			le("Unable to restore agent: []", PlatformUtils.printException(e));
+			return null;
+		}
+	}
+
+	/**
+	 * Sends the shards of an agent to the {@link ShardCache} of a different node, before the agent moves there, and
+	 * waits for the confirmation of their receipt, for at most {@link #PRE_COPY_TIMEOUT}. Shards known to the
+	 * destination are not sent again.
+	 *
+	 * @param destination
+	 *            - name of the destination node
+	 * @param agentName
+	 *            - name of the agent that will move
+	 * @param shards
+	 *            - a snapshot containing the serializations of the shards
+	 * @return <code>true</code> if the shards were sent; <code>false</code> if the node does not use incremental
+	 *         migration.
+	 */
+	public boolean preCopyShards(String destination, String agentName, AgentSnapshot shards) {
+		if(shardCache == null)
+			return false;
+		JsonObject sections = new JsonObject();
+		for(Map.Entry<AgentShardDesignation, byte[]> shard : shards.getShards().entrySet()) {
+			String hash = shards.getShardHash(shard.getKey());
+			shardCache.put(hash, shard.getValue());
+			if(!shardCache.isKnownBy(destination, hash)) {
+				sections.addProperty(hash, Base64.getEncoder().encodeToString(shard.getValue()));
+				shardCache.setKnownBy(destination, hash);
+			}
+		}
+		if(sections.size() > 0) {
+			lf("Pre-copying shards [] of agent [] to []", shards.getShards().keySet(), agentName, destination);
+			CountDownLatch ack = new CountDownLatch(1);
+			pendingPreCopies.put(agentName, ack);
+			sendMessage(destination, PRE_COPY_SHARDS_OPERATION, agentName, sections);
+			try {
+				if(!ack.await(PRE_COPY_TIMEOUT, TimeUnit.MILLISECONDS))
+					lw("Pre-copy of agent [] to [] was not confirmed.", agentName, destination);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				pendingPreCopies.remove(agentName, ack);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Sends an agent which has stopped in order to move to a different node, either in the {@link MigrationBatch} it
+	 * is part of, if any, or individually. If the node uses incremental migration, the shards already known to the
+	 * destination are only sent by reference.
+	 *
+	 * @param destination
+	 *            - name of the destination node
+	 * @param agentName
+	 *            - name of the agent that wants to move
+	 * @param snapshot
+	 *            - the snapshot of the agent
+	 * @param compress
+	 *            - whether the shard state should be compressed
+	 */
+	public void moveAgent(String destination, String agentName, AgentSnapshot snapshot, boolean compress) {
+		MigrationBatch batch = batches.remove(agentName);
+		if(batch != null && batch.getDestination().equals(destination) && batch.add(agentName, snapshot, compress)) {
+			node.removeAgent(agentName);
+			return;
+		}
+		long start = System.nanoTime();
+		String agentData = Base64.getEncoder().encodeToString(encodeAgent(destination, agentName, snapshot, compress));
+		metrics.record(Phase.SERIALIZE, snapshot.getSerializationTime() + System.nanoTime() - start);
+		expectAcknowledgement(agentName, new PendingMigration(destination, snapshot, compress));
+		moveAgent(destination, agentName, agentData);
+	}
+
+	/**
+	 * Removes the agent from the node and sends it to a different node.
+	 *
+	 * @param destination
+	 *            - name of the destination node
+	 * @param agentName
+	 *            - name of the agent that wants to move
+	 * @param agentData
+	 *            - serialization of the agent
+	 */
+	public void moveAgent(String destination, String agentName, String agentData) {
+		node.removeAgent(agentName);
+		lf("Send message with agent [] to []", agentName, destination);
+		sendMessage(destination, Node.RECEIVE_AGENT_OPERATION, agentName, new JsonPrimitive(agentData));
+	}
+
+	/**
+	 * Moves a group of agents to a different node, in a single transfer. Each agent is instructed to move and, as it
+	 * stops, its snapshot is added to a {@link MigrationBatch}. When all agents have stopped (or after
+	 * {@link #BATCH_TIMEOUT}), the batch is sent. Agents which stop after the batch has been sent move individually.
+	 * <p>
+	 * The method waits for the agents to stop, so it should not be called on the thread of an agent.
+	 *
+	 * @param destination
+	 *            - name of the destination node
+	 * @param agents
+	 *            - the agents, which must be in the node.
+	 * @return the number of agents sent in the batch.
+	 */
+	public int moveAgents(String destination, Collection<MobileCompositeAgent> agents) {
+		MigrationBatch batch = new MigrationBatch(destination, agents.size());
+		for(MobileCompositeAgent agent : agents)
+			batches.put(agent.getName(), batch);
+		for(MobileCompositeAgent agent : agents)
+			if(!((MobileCompositeAgentShardContainer) agent.asContext()).moveTo(destination)
+					&& batches.remove(agent.getName(), batch))
+				batch.cancel();
+		List<String> names;
+		try {
+			names = batch.close(BATCH_TIMEOUT);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			names = Collections.emptyList();
+		}
+		for(MobileCompositeAgent agent : agents)
+			batches.remove(agent.getName(), batch);
+		if(names.isEmpty())
+			return 0;
+		Map<String, byte[]> encoded = new LinkedHashMap<>();
+		for(String name : names) {
+			long start = System.nanoTime();
+			AgentSnapshot snapshot = batch.getSnapshot(name);
+			encoded.put(name, encodeAgent(destination, name, snapshot, batch.isCompressed(name)));
+			metrics.record(Phase.SERIALIZE, snapshot.getSerializationTime() + System.nanoTime() - start);
+			expectAcknowledgement(name, new PendingMigration(destination, snapshot, batch.isCompressed(name)));
+		}
+		li("Sending [] agents to [] in a batch", Integer.valueOf(names.size()), destination);
+		sendMessage(destination, RECEIVE_AGENTS_OPERATION, String.valueOf(names.size()),
+				new JsonPrimitive(Base64.getEncoder().encodeToString(MigrationBatch.pack(encoded))));
+		return names.size();
+	}
+
+	/**
+	 * Runs a task related to the migration of an agent (e.g. the pre-copy of its shards) on a thread of the service.
+	 *
+	 * @param task
+	 *            - the task.
+	 */
+	public void execute(Runnable task) {
+		synchronized(pendingMigrations) {
+			if(executor == null)
+				executor = Executors.newCachedThreadPool(runnable -> {
+					Thread thread = new Thread(runnable, "migration-task-" + node.getName());
+					thread.setDaemon(true);
+					return thread;
+				});
+			executor.execute(task);
+		}
+	}
+
+	/**
+	 * Keeps the snapshot of an agent which has been sent to a different node, until its arrival is acknowledged. If no
+	 * acknowledgement arrives in time, the agent is sent again or, after all retries, restored here (see
+	 * {@link Node#MIGRATION_TIMEOUT_PARAMETER} and {@link Node#MIGRATION_RETRIES_PARAMETER}).
+	 *
+	 * @param agentName
+	 *            - the name of the agent.
+	 * @param pending
+	 *            - the details of the migration.
+	 */
+	protected void expectAcknowledgement(String agentName, PendingMigration pending) {
+		pendingMigrations.put(agentName, pending);
+		scheduleTimeout(agentName, pending);
+	}
+
+	/**
+	 * Schedules the handling of the lack of an acknowledgement for the arrival of an agent, after the configured
+	 * timeout.
+	 *
+	 * @param agentName
+	 *            - the name of the agent.
+	 * @param pending
+	 *            - the details of the migration.
+	 */
+	protected void scheduleTimeout(String agentName, PendingMigration pending) {
+		synchronized(pendingMigrations) {
+			if(timer == null)
+				timer = Executors.newSingleThreadScheduledExecutor(task -> {
+					Thread thread = new Thread(task, "migration-" + node.getName());
+					thread.setDaemon(true);
+					return thread;
+				});
+			pending.sent = System.nanoTime();
+			pending.timeout = timer.schedule(() -> migrationTimedOut(agentName, pending), timeout,
+					TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Handles the lack of an acknowledgement for the arrival of an agent, by sending the agent again or, after all
+	 * retries, by restoring it here.
+	 *
+	 * @param agentName
+	 *            - the name of the agent.
+	 * @param pending
+	 *            - the details of the migration.
+	 */
+	protected void migrationTimedOut(String agentName, PendingMigration pending) {
+		if(pendingMigrations.get(agentName) != pending)
+			return;
+		if(pending.retries < retries) {
+			pending.retries++;
+			metrics.record(Outcome.RETRIED);
+			lw("Arrival of agent [] at [] not acknowledged; sending again.", agentName, pending.destination);
+			String agentData = Base64.getEncoder()
+					.encodeToString(encodeAgent(pending.destination, agentName, pending.snapshot, pending.compress));
+			scheduleTimeout(agentName, pending);
+			sendMessage(pending.destination, Node.RECEIVE_AGENT_OPERATION, agentName, new JsonPrimitive(agentData));
+		}
+		else if(pendingMigrations.remove(agentName, pending)) {
+			lw("Arrival of agent [] at [] not acknowledged.", agentName, pending.destination);
+			returnAgent(agentName, pending);
+		}
+	}
+
+	/**
+	 * Restores in the node an agent which could not arrive at its destination, from the snapshot which was kept.
+	 *
+	 * @param agentName
+	 *            - the name of the agent.
+	 * @param pending
+	 *            - the details of the migration.
+	 */
+	protected void returnAgent(String agentName, PendingMigration pending) {
+		metrics.record(Outcome.RETURNED);
+		li("Restoring agent [] in this node.", agentName);
+		receiveAgent(agentName, pending.snapshot, null);
+	}
+
+	/**
+	 * Encodes the snapshot of an agent which moves to a different node, with the shards which are known to the
+	 * destination (if the node uses incremental migration) only as references.
+	 *
+	 * @param destination
+	 *            - name of the destination node
+	 * @param agentName
+	 *            - name of the agent that wants to move
+	 * @param snapshot
+	 *            - the snapshot of the agent
+	 * @param compress
+	 *            - whether the shard state should be compressed
+	 * @return the encoded snapshot.
+	 */
+	protected byte[] encodeAgent(String destination, String agentName, AgentSnapshot snapshot, boolean compress) {
+		Set<AgentShardDesignation> references = new HashSet<>();
+		if(shardCache != null)
+			for(Map.Entry<AgentShardDesignation, byte[]> shard : snapshot.getShards().entrySet()) {
+				String hash = snapshot.getShardHash(shard.getKey());
+				shardCache.put(hash, shard.getValue());
+				if(shardCache.isKnownBy(destination, hash))
+					references.add(shard.getKey());
+				else
+					shardCache.setKnownBy(destination, hash);
+			}
+		if(!references.isEmpty())
+			lf("Sending shards [] of agent [] by reference", references, agentName);
+		return snapshot.toBytes(compress, references);
+	}
+
+	/**
+	 * Sends a message related to the migration of an agent to another node, and accounts for its size.
+	 *
+	 * @param destination
+	 *            - name of the destination node
+	 * @param operation
+	 *            - the operation
+	 * @param agentName
+	 *            - the name of the agent
+	 * @param parameters
+	 *            - the parameters of the operation
+	 */
+	protected void sendMessage(String destination, String operation, String agentName, JsonElement parameters) {
+		JsonObject root = new JsonObject();
+		root.addProperty(OperationUtils.NAME, operation);
+		root.add(OperationUtils.PARAMETERS, parameters);
+		root.addProperty(OperationUtils.NODE, node.getName());
+		root.addProperty(OperationUtils.VALUE, agentName);
+		String message = root.toString();
+		traffic.addAndGet(message.length());
+		node.sendMessage(destination, message);
+	}
+
+	/**
+	 * @return the number of characters sent by the node for the migration of agents (including shards requested by
+	 *         other nodes).
+	 */
+	public long getTraffic() {
+		return traffic.get();
+	}
+
+	/**
+	 * @return the timing of the phases of the migrations to and from the node.
+	 */
+	public MigrationMetrics getMetrics() {
+		return metrics;
+	}
+}
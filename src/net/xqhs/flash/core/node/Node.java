@@ -11,12 +11,25 @@
  ******************************************************************************/
 package net.xqhs.flash.core.node;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -27,14 +40,19 @@ import com.google.gson.JsonObject;
 import net.xqhs.flash.core.CategoryName;
 import net.xqhs.flash.core.DeploymentConfiguration;
 import net.xqhs.flash.core.Entity;
+import net.xqhs.flash.core.agent.Agent;
 import net.xqhs.flash.core.agent.AgentEvent;
 import net.xqhs.flash.core.agent.AgentEvent.AgentEventType;
 import net.xqhs.flash.core.agent.AgentWave;
+import net.xqhs.flash.core.mobileComposite.AgentSnapshot;
 import net.xqhs.flash.core.mobileComposite.MobileCompositeAgent;
+import net.xqhs.flash.core.mobileComposite.ShardCache;
+import net.xqhs.flash.core.mobileComposite.ShardFactoryCache;
 import net.xqhs.flash.core.monitoring.CentralMonitoringAndControlEntity;
 import net.xqhs.flash.core.shard.AgentShard;
 import net.xqhs.flash.core.shard.AgentShardDesignation;
 import net.xqhs.flash.core.shard.ShardContainer;
+import net.xqhs.flash.core.support.DefaultPylonImplementation;
 import net.xqhs.flash.core.support.MessagingPylonProxy;
 import net.xqhs.flash.core.support.MessagingShard;
 import net.xqhs.flash.core.support.PylonProxy;
@@ -73,7 +91,61 @@ public class Node extends Unit implements Entity<Node> {
 		 *            - serialization of the agent
 		 */
 		public void moveAgent(String destination, String agentName, String agentData) {
-			sendAgent(destination, agentName, agentData);
+			migration.moveAgent(destination, agentName, agentData);
+		}
+		
+		/**
+		 * Instructs the node to move the given agent to a different node. If the node uses incremental migration, the
+		 * shards already known to the destination are only sent by reference.
+		 * 
+		 * @param destination
+		 *            - name of the destination node
+		 * @param agentName
+		 *            - name of the agent that wants to move
+		 * @param snapshot
+		 *            - the snapshot of the agent
+		 * @param compress
+		 *            - whether the shard state should be compressed
+		 */
+		public void moveAgent(String destination, String agentName, AgentSnapshot snapshot, boolean compress) {
+			migration.moveAgent(destination, agentName, snapshot, compress);
+		}
+		
+		/**
+		 * Instructs the node to copy the given shards of an agent to the cache of a different node, before the agent
+		 * moves there. The method returns after the destination has confirmed the receipt of the shards (or after
+		 * {@link MigrationService#PRE_COPY_TIMEOUT}), so it should not be called on the thread of the agent.
+		 * 
+		 * @param destination
+		 *            - name of the destination node
+		 * @param agentName
+		 *            - name of the agent that will move
+		 * @param shards
+		 *            - a snapshot containing the serializations of the shards
+		 * @return <code>true</code> if the shards were sent; <code>false</code> if the node does not use incremental
+		 *         migration.
+		 */
+		public boolean preCopyShards(String destination, String agentName, AgentSnapshot shards) {
+			return migration.preCopyShards(destination, agentName, shards);
+		}
+		
+		/**
+		 * Runs a task related to the migration of an agent (e.g. the pre-copy of its shards, see
+		 * {@link #preCopyShards}) on a thread of the node, so that the agent can continue to process events.
+		 * 
+		 * @param task
+		 *            - the task.
+		 */
+		public void executeMigrationTask(Runnable task) {
+			migration.execute(task);
+		}
+		
+		/**
+		 * @return the cache of factories for the non-serializable shards of arriving agents, or <code>null</code> if
+		 *         the node does not use one.
+		 */
+		public ShardFactoryCache getShardFactories() {
+			return shardFactories;
 		}
 	}
 	
@@ -84,7 +156,62 @@ public class Node extends Unit implements Entity<Node> {
 	/**
 	 * The name of the operation in which a node receives a mobile agent.
 	 */
-	public static final String	RECEIVE_AGENT_OPERATION	= "receive_agent";
+	public static final String	RECEIVE_AGENT_OPERATION		= "receive_agent";
+	/**
+	 * The name of the node parameter giving the time (in ms) to wait for the acknowledgement of the arrival of an agent
+	 * at a different node, before sending it again or restoring it here.
+	 */
+	public static final String	MIGRATION_TIMEOUT_PARAMETER	= "migrationTimeout";
+	/**
+	 * The default value for {@link #MIGRATION_TIMEOUT_PARAMETER} (ms).
+	 */
+	public static final long	DEFAULT_MIGRATION_TIMEOUT	= 10000;
+	/**
+	 * The name of the node parameter giving the number of times an agent is sent again, if its arrival is not
+	 * acknowledged, before it is restored here.
+	 */
+	public static final String	MIGRATION_RETRIES_PARAMETER	= "migrationRetries";
+	/**
+	 * The default value for {@link #MIGRATION_RETRIES_PARAMETER}.
+	 */
+	public static final int		DEFAULT_MIGRATION_RETRIES	= 1;
+	/**
+	 * The name of the node parameter which, if <code>true</code>, activates incremental migration: the node keeps a
+	 * {@link ShardCache} and sends to other nodes only the shards which they have not seen.
+	 */
+	public static final String	DELTA_MIGRATION_PARAMETER	= "deltaMigration";
+	/**
+	 * The name of the node parameter which, if <code>false</code>, disables the {@link ShardFactoryCache} used to
+	 * reconstruct the non-serializable shards of arriving agents.
+	 */
+	public static final String	SHARD_FACTORIES_PARAMETER	= "shardFactories";
+	/**
+	 * The name of the node parameter giving the directory where the checkpoints of the node are kept (see
+	 * {@link CheckpointService}). Without it, the node cannot take checkpoints.
+	 */
+	public static final String	CHECKPOINT_PARAMETER		= "checkpoint";
+	/**
+	 * The name of the node parameter giving the period (in ms) at which checkpoints are taken, while the node is
+	 * running. Without it, checkpoints are only taken on demand (see {@link #checkpoint()}).
+	 */
+	public static final String	CHECKPOINT_PERIOD_PARAMETER	= "checkpointPeriod";
+	/**
+	 * The name of the node parameter which, if <code>true</code>, causes the agents in the latest checkpoint of the node
+	 * to be restored, instead of being created from the deployment configuration.
+	 */
+	public static final String	RESTORE_PARAMETER			= "restore";
+	/**
+	 * The name of the node parameter giving the number of agents which are started concurrently. If given, the node
+	 * starts in stages: first the other entities (e.g. the support infrastructures), sequentially, in the order in
+	 * which they were added, then the agents, in batches of the given size; each batch is started only after all the
+	 * agents in the previous batch have started. If not given, all entities are started sequentially.
+	 */
+	public static final String	START_BATCH_PARAMETER		= "startBatch";
+	/**
+	 * The name of the node parameter giving the number of threads on which agents are started, when
+	 * {@link #START_BATCH_PARAMETER} is given. By default, the number of available processors.
+	 */
+	public static final String	START_THREADS_PARAMETER		= "startThreads";
 	
 	/**
 	 * The name of the node.
@@ -93,11 +220,15 @@ public class Node extends Unit implements Entity<Node> {
 	/**
 	 * A collection of all entities added in the context of this node, indexed by their names.
 	 */
-	protected Map<String, List<Entity<?>>>	registeredEntities			= new HashMap<>();
+	protected Map<String, Set<Entity<?>>>	registeredEntities			= new HashMap<>();
+	/**
+	 * A {@link Set} containing the entities added in the context of this node, in the order in which they were added.
+	 */
+	protected Set<Entity<?>>				entityOrder					= new LinkedHashSet<>();
 	/**
-	 * A {@link List} containing the entities added in the context of this node, in the order in which they were added.
+	 * The index of the entities in the context of this node, used to find them by name.
 	 */
-	protected List<Entity<?>>				entityOrder					= new LinkedList<>();
+	protected EntityIndex					entityIndex					= new EntityIndex();
 	/**
 	 * A {@link MessagingShard} of this node for message communication.
 	 */
@@ -116,6 +247,52 @@ public class Node extends Unit implements Entity<Node> {
 	 */
 	private PylonProxy						nodePylonProxy;
 	protected String						serverURI					= null;					// FIXME: Remove this
+	/**
+	 * The factories for the non-serializable shards of arriving agents; <code>null</code> if disabled.
+	 */
+	protected ShardFactoryCache				shardFactories				= new ShardFactoryCache();
+	/**
+	 * The service which moves the mobile agents of this node to other nodes and receives the agents arriving here.
+	 */
+	protected MigrationService				migration;
+	/**
+	 * The checkpoint service, if a checkpoint directory was configured; <code>null</code> otherwise.
+	 */
+	protected CheckpointService				checkpointService			= null;
+	/**
+	 * The period of checkpoints, in ms; 0 if checkpoints are only taken on demand.
+	 */
+	protected long							checkpointPeriod			= 0;
+	/**
+	 * <code>true</code> if agents should be restored from the latest checkpoint.
+	 */
+	protected boolean						restore						= false;
+	/**
+	 * The CPU time of each mobile agent, as of the latest load report, indexed by agent name. Also used as lock for
+	 * load reports.
+	 */
+	protected Map<String, Long>				cpuSamples					= new HashMap<>();
+	/**
+	 * The time of the latest load report, in ns.
+	 */
+	protected long							loadSampleTime				= System.nanoTime();
+	/**
+	 * The number of messages sent through the pylons of the node, as of the latest load report.
+	 */
+	protected long							messageSample				= 0;
+	/**
+	 * The number of agents started concurrently; 0 if all entities are started sequentially.
+	 */
+	protected int							startBatch					= 0;
+	/**
+	 * The number of threads on which agents are started, if they are started concurrently.
+	 */
+	protected int							startThreads				= Runtime.getRuntime().availableProcessors();
+	/**
+	 * The time taken by the {@link Entity#start()} method of each entity, at the latest start of the node, in ns,
+	 * indexed by entity (names may not be unique).
+	 */
+	protected Map<Entity<?>, Long>			startTimes					= new ConcurrentHashMap<>();
 	
 	/**
 	 * Creates a new {@link Node} instance.
@@ -124,12 +301,36 @@ public class Node extends Unit implements Entity<Node> {
 	 *            the configuration of the node. Can be <code>null</code>.
 	 */
 	public Node(MultiTreeMap nodeConfiguration) {
+		boolean deltaMigration = false;
+		long migrationTimeout = DEFAULT_MIGRATION_TIMEOUT;
+		int migrationRetries = DEFAULT_MIGRATION_RETRIES;
 		if(nodeConfiguration != null) {
 			name = nodeConfiguration.get(DeploymentConfiguration.NAME_ATTRIBUTE_NAME);
 			this.serverURI = nodeConfiguration.get("region-server");
+			deltaMigration = nodeConfiguration.isSimple(DELTA_MIGRATION_PARAMETER)
+					&& Boolean.parseBoolean(nodeConfiguration.getAValue(DELTA_MIGRATION_PARAMETER));
+			if(nodeConfiguration.isSimple(SHARD_FACTORIES_PARAMETER)
+					&& !Boolean.parseBoolean(nodeConfiguration.getAValue(SHARD_FACTORIES_PARAMETER)))
+				shardFactories = null;
+			if(nodeConfiguration.isSimple(CHECKPOINT_PARAMETER))
+				checkpointService = new CheckpointService(
+						new File(nodeConfiguration.getAValue(CHECKPOINT_PARAMETER)), name);
+			if(nodeConfiguration.isSimple(CHECKPOINT_PERIOD_PARAMETER))
+				checkpointPeriod = Long.parseLong(nodeConfiguration.getAValue(CHECKPOINT_PERIOD_PARAMETER));
+			restore = nodeConfiguration.isSimple(RESTORE_PARAMETER)
+					&& Boolean.parseBoolean(nodeConfiguration.getAValue(RESTORE_PARAMETER));
+			if(nodeConfiguration.isSimple(MIGRATION_TIMEOUT_PARAMETER))
+				migrationTimeout = Long.parseLong(nodeConfiguration.getAValue(MIGRATION_TIMEOUT_PARAMETER));
+			if(nodeConfiguration.isSimple(MIGRATION_RETRIES_PARAMETER))
+				migrationRetries = Integer.parseInt(nodeConfiguration.getAValue(MIGRATION_RETRIES_PARAMETER));
+			if(nodeConfiguration.isSimple(START_BATCH_PARAMETER))
+				startBatch = Integer.parseInt(nodeConfiguration.getAValue(START_BATCH_PARAMETER));
+			if(nodeConfiguration.isSimple(START_THREADS_PARAMETER))
+				startThreads = Integer.parseInt(nodeConfiguration.getAValue(START_THREADS_PARAMETER));
 		}
 		setLoggerType(PlatformUtils.platformLogType());
 		setUnitName(EntityIndex.register(CategoryName.NODE.s(), this)).lock();
+		migration = new MigrationService(this, deltaMigration, migrationTimeout, migrationRetries);
 	}
 	
 	/**
@@ -143,13 +344,36 @@ public class Node extends Unit implements Entity<Node> {
 	 *            - the name of the entity.
 	 */
 	protected void registerEntity(String entityType, Entity<?> entity, String entityName) {
-		entityOrder.add(entity);
-		if(!registeredEntities.containsKey(entityType))
-			registeredEntities.put(entityType, new LinkedList<>());
-		registeredEntities.get(entityType).add(entity);
+		synchronized(entityOrder) {
+			entityOrder.add(entity);
+			if(!registeredEntities.containsKey(entityType))
+				registeredEntities.put(entityType, new LinkedHashSet<>());
+			registeredEntities.get(entityType).add(entity);
+		}
+		entityIndex.add(entityType, entity);
 		lf("registered an entity of type []. Provided name was [].", entityType, entityName);
 	}
 	
+	/**
+	 * Method used to remove entities from the context of this node, e.g. when they are stopped for good or leave the
+	 * node.
+	 * 
+	 * @param entity
+	 *            - a reference to the entity.
+	 * @return <code>true</code> if the entity was registered.
+	 */
+	protected boolean unregisterEntity(Entity<?> entity) {
+		synchronized(entityOrder) {
+			if(!entityOrder.remove(entity))
+				return false;
+			for(Set<Entity<?>> entities : registeredEntities.values())
+				entities.remove(entity);
+		}
+		entityIndex.remove(entity);
+		lf("unregistered entity [].", entity.getName());
+		return true;
+	}
+	
 	/**
 	 * It takes all available {@link ControlOperation} and build up for each of them a {@link JSONObject} containing
 	 * relevant information.
@@ -186,11 +410,16 @@ public class Node extends Unit implements Entity<Node> {
 	@Override
 	public boolean start() {
 		li("Starting node [] with entities [].", name, entityOrder);
-		for(Entity<?> entity : entityOrder) {
-			String entityName = entity.getName();
-			lf("starting entity []...", entityName);
-			if(entity.start()) {
-				lf("entity [] started successfully.", entityName);
+		long start = System.nanoTime();
+		startTimes.clear();
+		// in staged start, agents are started after all other entities
+		List<Entity<?>> agents = new ArrayList<>();
+		for(Entity<?> entity : getEntities()) {
+			if(startBatch > 0 && entity instanceof Agent) {
+				agents.add(entity);
+				continue;
+			}
+			if(startEntity(entity)) {
 				EntityProxy<?> ctx = entity.asContext();
 				if(!messagingShardRegistered && getName() != null && messagingShard != null
 						&& (ctx instanceof MessagingPylonProxy)) {
@@ -198,13 +427,16 @@ public class Node extends Unit implements Entity<Node> {
 					messagingShardRegistered = true;
 				}
 			}
-			else
-				le("failed to start entity [].", entityName);
 		}
+		if(!agents.isEmpty())
+			startAgents(agents);
+		reportStartTimes(System.nanoTime() - start, agents.size());
 		isRunning = true;
 		if(messagingShard != null)
 			messagingShard.signalAgentEvent(new AgentEvent(AgentEventType.AGENT_START));
 		sendStatusUpdate();
+		if(checkpointService != null && checkpointPeriod > 0)
+			checkpointService.schedule(this::checkpoint, checkpointPeriod);
 		li("Node [] started.", name);
 		
 		if(getName() != null && registerEntitiesToCentralEntity())
@@ -212,10 +444,103 @@ public class Node extends Unit implements Entity<Node> {
 		return true;
 	}
 	
+	/**
+	 * Starts an entity and records the time taken by its {@link Entity#start()} method.
+	 * 
+	 * @param entity
+	 *            - the entity.
+	 * @return <code>true</code> if the entity started.
+	 */
+	protected boolean startEntity(Entity<?> entity) {
+		String entityName = entity.getName();
+		lf("starting entity []...", entityName);
+		long start = System.nanoTime();
+		boolean started;
+		try {
+			started = entity.start();
+		} finally {
+			// entities which fail by throwing an exception are also counted
+			startTimes.put(entity, Long.valueOf(System.nanoTime() - start));
+		}
+		if(started)
+			lf("entity [] started successfully.", entityName);
+		else
+			le("failed to start entity [].", entityName);
+		return started;
+	}
+	
+	/**
+	 * Starts agents concurrently, on {@link #startThreads} threads, in batches of {@link #startBatch} agents, and
+	 * returns when all agents have been started.
+	 * 
+	 * @param agents
+	 *            - the agents.
+	 */
+	protected void startAgents(List<Entity<?>> agents) {
+		lf("starting [] agents in batches of [], on [] threads", Integer.valueOf(agents.size()),
+				Integer.valueOf(startBatch), Integer.valueOf(startThreads));
+		ExecutorService starter = Executors.newFixedThreadPool(Math.max(1, Math.min(startThreads, startBatch)));
+		try {
+			for(int first = 0; first < agents.size(); first += startBatch) {
+				List<Callable<Boolean>> batch = new ArrayList<>();
+				for(Entity<?> agent : agents.subList(first, Math.min(first + startBatch, agents.size())))
+					batch.add(() -> Boolean.valueOf(startEntity(agent)));
+				// returns when all agents in the batch have been started
+				List<Future<Boolean>> results = starter.invokeAll(batch);
+				for(int i = 0; i < results.size(); i++)
+					try {
+						results.get(i).get();
+					} catch(ExecutionException e) {
+						le("Agent [] failed to start: []", agents.get(first + i).getName(), e.getCause());
+					}
+			}
+		} catch(InterruptedException e) {
+			le("Interrupted while starting agents.");
+			Thread.currentThread().interrupt();
+		} finally {
+			starter.shutdown();
+		}
+	}
+	
+	/**
+	 * Reports the times taken to start the entities of the node, as recorded in {@link #startTimes}.
+	 * 
+	 * @param total
+	 *            - the time taken to start all entities, in ns.
+	 * @param agents
+	 *            - the number of agents started concurrently.
+	 */
+	protected void reportStartTimes(long total, int agents) {
+		long sum = 0;
+		Map.Entry<Entity<?>, Long> slowest = null;
+		for(Map.Entry<Entity<?>, Long> time : startTimes.entrySet()) {
+			sum += time.getValue().longValue();
+			if(slowest == null || time.getValue().longValue() > slowest.getValue().longValue())
+				slowest = time;
+		}
+		if(slowest == null)
+			return;
+		li("Started [] entities ([] concurrently) in [] ms; average start time [] us; slowest entity [] ([] us).",
+				Integer.valueOf(startTimes.size()), Integer.valueOf(agents), Long.valueOf(total / 1000000),
+				Long.valueOf(sum / startTimes.size() / 1000), slowest.getKey().getName(),
+				Long.valueOf(slowest.getValue().longValue() / 1000));
+	}
+	
+	/**
+	 * @return the time taken by the {@link Entity#start()} method of each entity, at the latest start of the node, in
+	 *         ns, indexed by entity.
+	 */
+	public Map<Entity<?>, Long> getStartTimes() {
+		return new HashMap<>(startTimes);
+	}
+	
 	@Override
 	public boolean stop() {
 		li("Stopping node [] with entities [].", name, entityOrder);
-		LinkedList<Entity<?>> reversed = new LinkedList<>(entityOrder);
+		if(checkpointService != null)
+			checkpointService.stop();
+		migration.stop();
+		LinkedList<Entity<?>> reversed = new LinkedList<>(getEntities());
 		Collections.reverse(reversed);
 		for(Entity<?> entity : reversed) {
 			if(entity.isRunning()) {
@@ -228,6 +553,7 @@ public class Node extends Unit implements Entity<Node> {
 		}
 		isRunning = false;
 		sendStatusUpdate();
+		EntityIndex.unregister(this);
 		li("Node [] stopped.", name);
 		return true;
 	}
@@ -320,6 +646,13 @@ public class Node extends Unit implements Entity<Node> {
 		return new NodeProxy();
 	}
 	
+	/**
+	 * @return the pylon proxy of the node, used as context for any mobile agents which arrive here.
+	 */
+	protected PylonProxy getPylonProxy() {
+		return nodePylonProxy;
+	}
+	
 	/**
 	 * Send a message via {@link MessagingShard}.
 	 * 
@@ -360,7 +693,7 @@ public class Node extends Unit implements Entity<Node> {
 			String param = jo.get(OperationUtils.PARAMETERS).getAsString();
 			if(param == null)
 				return;
-			Entity<?> entity = entityOrder.stream().filter(en -> en.getName().equals(param)).findFirst().orElse(null);
+			Entity<?> entity = entityIndex.lookup(param);
 			if(entity == null) {
 				le("[] entity not found in the context of [].", param, name);
 				return;
@@ -370,37 +703,198 @@ public class Node extends Unit implements Entity<Node> {
 				return;
 			}
 		}
-		else if(RECEIVE_AGENT_OPERATION.equals(op)) {
-			String agentData = jo.get(OperationUtils.PARAMETERS).getAsString();
-			
-			MobileCompositeAgent agent = MobileCompositeAgent.deserializeAgent(agentData);
-			registerEntity(CategoryName.AGENT.toString(), agent, agent.getName());
-			lf("Starting agent [] after moving...", agent.getName());
-			agent.addGeneralContext(asContext());
-			agent.addContext(nodePylonProxy);
-			agent.start();
+		else
+			migration.handleMessage(op, jo);
+	}
+	
+	/**
+	 * Writes a checkpoint of all the running {@link MobileCompositeAgent} instances in this node, replacing the
+	 * previous checkpoint. The agents continue to run.
+	 * 
+	 * @return the number of agents in the checkpoint, or -1 if the node cannot take checkpoints or the checkpoint
+	 *         could not be written.
+	 */
+	public int checkpoint() {
+		if(checkpointService == null) {
+			lw("No checkpoint directory configured.");
+			return -1;
+		}
+		List<MobileCompositeAgent> agents = new ArrayList<>();
+		for(Entity<?> entity : getEntities())
+			if(entity instanceof MobileCompositeAgent && entity.isRunning())
+				agents.add((MobileCompositeAgent) entity);
+		try {
+			int count = checkpointService.write(agents);
+			lf("Checkpoint of [] agents written to []", Integer.valueOf(count), checkpointService.getFile());
+			return count;
+		} catch(IOException e) {
+			le("Unable to write checkpoint: []", PlatformUtils.printException(e));
+			return -1;
+		}
+	}
+	
+	/**
+	 * @return the snapshots of the agents in the latest checkpoint, indexed by agent name, if the node is configured to
+	 *         restore agents from checkpoints; an empty map otherwise, or if the checkpoint could not be read.
+	 */
+	protected Map<String, AgentSnapshot> getAgentsToRestore() {
+		if(!restore || checkpointService == null)
+			return new HashMap<>();
+		try {
+			Map<String, AgentSnapshot> agents = checkpointService.read();
+			li("Restoring [] agents from checkpoint []", Integer.valueOf(agents.size()), checkpointService.getFile());
+			return agents;
+		} catch(IOException e) {
+			le("Unable to read checkpoint: []", PlatformUtils.printException(e));
+			return new HashMap<>();
+		}
+	}
+	
+	/**
+	 * Restores an agent from a checkpoint and places it in the given context. The agent is started (and its shards are
+	 * loaded) when it is started by the node, as if it had arrived after moving. The agent is not registered with the
+	 * node.
+	 * 
+	 * @param snapshot
+	 *            - the snapshot of the agent.
+	 * @param context
+	 *            - the context of the agent.
+	 * @return the agent, or <code>null</code> if it could not be restored.
+	 */
+	protected MobileCompositeAgent restoreAgent(AgentSnapshot snapshot, List<EntityProxy<?>> context) {
+		MobileCompositeAgent agent;
+		try {
+			agent = MobileCompositeAgent.restoreAgent(snapshot);
+		} catch(IOException | ClassNotFoundException e) {
+			le("Unable to restore agent: []", PlatformUtils.printException(e));
+			return null;
 		}
+		for(EntityProxy<?> contextItem : context)
+			agent.addGeneralContext(contextItem);
+		return agent;
+	}
+	
+	/**
+	 * Moves a group of agents to a different node, in a single transfer (see
+	 * {@link MigrationService#moveAgents(String, Collection)}).
+	 * <p>
+	 * The method waits for the agents to stop, so it should not be called on the thread of an agent.
+	 * 
+	 * @param destination
+	 *            - name of the destination node
+	 * @param agentNames
+	 *            - the names of the agents; names of entities which are not {@link MobileCompositeAgent} instances in
+	 *            this node are ignored.
+	 * @return the number of agents sent in the batch.
+	 */
+	public int moveAgents(String destination, Collection<String> agentNames) {
+		List<MobileCompositeAgent> agents = new ArrayList<>();
+		for(Entity<?> entity : getEntities())
+			if(entity instanceof MobileCompositeAgent && agentNames.contains(entity.getName()))
+				agents.add((MobileCompositeAgent) entity);
+		return migration.moveAgents(destination, agents);
 	}
 	
 	/**
-	 * Removes the agent from the list of entities and sends it to a different node.
+	 * Moves all the {@link MobileCompositeAgent} instances in this node to a different node, in a single transfer (see
+	 * {@link #moveAgents(String, Collection)}).
 	 * 
 	 * @param destination
 	 *            - name of the destination node
+	 * @return the number of agents sent.
+	 */
+	public int evacuate(String destination) {
+		Set<String> names = new HashSet<>();
+		for(Entity<?> entity : getEntities())
+			if(entity instanceof MobileCompositeAgent && entity.isRunning())
+				names.add(entity.getName());
+		return moveAgents(destination, names);
+	}
+	
+	/**
+	 * Removes a mobile agent from the list of entities, as it leaves the node.
+	 * 
 	 * @param agentName
-	 *            - name of the agent that wants to move
-	 * @param agentData
-	 *            - serialization of the agent
-	 */
-	protected void sendAgent(String destination, String agentName, String agentData) {
-		entityOrder.stream()
-				.filter(entity -> entity instanceof MobileCompositeAgent && entity.getName().equals(agentName))
-				.findAny().ifPresent(entity -> entityOrder.remove(entity));
-		JsonObject root = new JsonObject();
-		root.addProperty(OperationUtils.NAME, Node.RECEIVE_AGENT_OPERATION);
-		root.addProperty(OperationUtils.PARAMETERS, agentData);
-		
-		lf("Send message with agent [] to []", agentName, destination);
-		sendMessage(destination, root.toString());
+	 *            - the name of the agent.
+	 */
+	protected void removeAgent(String agentName) {
+		Entity<?> entity = entityIndex.lookup(agentName);
+		if(entity instanceof MobileCompositeAgent)
+			unregisterEntity(entity);
+	}
+	
+	/**
+	 * @return the names of the {@link MobileCompositeAgent} instances in the context of this node.
+	 */
+	protected Set<String> getAgentNames() {
+		Set<String> names = new HashSet<>();
+		for(Entity<?> entity : getEntities())
+			if(entity instanceof MobileCompositeAgent)
+				names.add(entity.getName());
+		return names;
+	}
+	
+	/**
+	 * @return a copy of the list of entities in the context of this node, in the order in which they were added.
+	 */
+	protected List<Entity<?>> getEntities() {
+		synchronized(entityOrder) {
+			return new ArrayList<>(entityOrder);
+		}
+	}
+	
+	/**
+	 * @return the number of characters sent by this node for the migration of agents (including shards requested by
+	 *         other nodes).
+	 */
+	public long getMigrationTraffic() {
+		return migration.getTraffic();
+	}
+	
+	/**
+	 * @return the timing of the phases of the migrations to and from this node.
+	 */
+	public MigrationMetrics getMigrationMetrics() {
+		return migration.getMetrics();
+	}
+	
+	/**
+	 * Reports the load of the node since the previous report (or since the node was created): the share of a CPU used
+	 * by each mobile agent (see {@link MobileCompositeAgent#getCpuTime()}), the number of events waiting in the queue
+	 * of each mobile agent, and the rate of the messages sent through the pylons of the node.
+	 * <p>
+	 * Each call starts a new interval, so the load of a node should be followed by a single entity (e.g. a
+	 * {@link LoadBalancer}).
+	 * 
+	 * @return the load of the node.
+	 */
+	public NodeLoad getLoad() {
+		Map<String, Double> cpu = new HashMap<>();
+		Map<String, Integer> queues = new HashMap<>();
+		long messages = 0;
+		synchronized(cpuSamples) {
+			long now = System.nanoTime();
+			long interval = Math.max(now - loadSampleTime, 1);
+			Map<String, Long> samples = new HashMap<>();
+			for(Entity<?> entity : getEntities())
+				if(entity instanceof MobileCompositeAgent) {
+					MobileCompositeAgent agent = (MobileCompositeAgent) entity;
+					long time = Math.max(agent.getCpuTime(), 0);
+					Long previous = cpuSamples.get(agent.getName());
+					// a lower value means that the agent has a new thread
+					long used = previous != null && previous.longValue() <= time ? time - previous.longValue() : time;
+					samples.put(agent.getName(), Long.valueOf(time));
+					cpu.put(agent.getName(), Double.valueOf(Math.min((double) used / interval, 1)));
+					queues.put(agent.getName(), Integer.valueOf(agent.getQueueLength()));
+				}
+				else if(entity instanceof DefaultPylonImplementation)
+					messages += ((DefaultPylonImplementation) entity).getMessageCount();
+			double rate = (messages - messageSample) * 1e9 / interval;
+			cpuSamples.clear();
+			cpuSamples.putAll(samples);
+			loadSampleTime = now;
+			messageSample = messages;
+			return new NodeLoad(getName(), interval / 1000000, cpu, queues, rate);
+		}
 	}
 }
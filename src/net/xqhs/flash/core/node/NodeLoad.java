@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright (C) 2021 Andrei Olaru.
+ *
+ * This file is part of Flash-MAS. The CONTRIBUTORS.md file lists people who have been previously involved with this project.
+ *
+ * Flash-MAS is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * Flash-MAS is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Flash-MAS.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.xqhs.flash.core.node;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The load of a {@link Node} over an interval, as reported by {@link Node#getLoad()}: for each mobile agent, the share
+ * of a CPU used by the thread of the agent and the number of events waiting in its queue (at the end of the interval);
+ * and the rate of the messages sent through the pylons of the node.
+ * <p>
+ * Instances are immutable.
+ *
+ * @author Andrei Olaru
+ */
+public class NodeLoad {
+	/**
+	 * The name of the node.
+	 */
+	protected final String					node;
+	/**
+	 * The duration of the interval, in ms.
+	 */
+	protected final long					interval;
+	/**
+	 * The share of a CPU used by each agent, indexed by agent name.
+	 */
+	protected final Map<String, Double>		agentCpu;
+	/**
+	 * The number of events waiting in the queue of each agent, indexed by agent name.
+	 */
+	protected final Map<String, Integer>	agentQueues;
+	/**
+	 * The number of messages sent per second.
+	 */
+	protected final double					messageRate;
+
+	/**
+	 * Creates a load report.
+	 *
+	 * @param node
+	 *            - the name of the node.
+	 * @param interval
+	 *            - the duration of the interval, in ms.
+	 * @param agentCpu
+	 *            - the share of a CPU used by each agent.
+	 * @param agentQueues
+	 *            - the number of events waiting in the queue of each agent.
+	 * @param messageRate
+	 *            - the number of messages sent per second.
+	 */
+	public NodeLoad(String node, long interval, Map<String, Double> agentCpu, Map<String, Integer> agentQueues,
+			double messageRate) {
+		this.node = node;
+		this.interval = interval;
+		this.agentCpu = Collections.unmodifiableMap(agentCpu);
+		this.agentQueues = Collections.unmodifiableMap(agentQueues);
+		this.messageRate = messageRate;
+	}
+
+	/**
+	 * @return the name of the node.
+	 */
+	public String getNode() {
+		return node;
+	}
+
+	/**
+	 * @return the duration of the interval, in ms.
+	 */
+	public long getInterval() {
+		return interval;
+	}
+
+	/**
+	 * @return the share of a CPU used by each agent, indexed by agent name.
+	 */
+	public Map<String, Double> getAgentCpu() {
+		return agentCpu;
+	}
+
+	/**
+	 * @return the number of events waiting in the queue of each agent, indexed by agent name.
+	 */
+	public Map<String, Integer> getAgentQueues() {
+		return agentQueues;
+	}
+
+	/**
+	 * @return the number of mobile agents in the node.
+	 */
+	public int getAgentCount() {
+		return agentCpu.size();
+	}
+
+	/**
+	 * @return the share of a CPU used by all the agents in the node.
+	 */
+	public double getCpu() {
+		double cpu = 0;
+		for(Double share : agentCpu.values())
+			cpu += share.doubleValue();
+		return cpu;
+	}
+
+	/**
+	 * @return the number of events waiting in the queues of all the agents in the node.
+	 */
+	public int getQueueLength() {
+		int length = 0;
+		for(Integer queue : agentQueues.values())
+			length += queue.intValue();
+		return length;
+	}
+
+	/**
+	 * @return the number of messages sent through the pylons of the node, per second.
+	 */
+	public double getMessageRate() {
+		return messageRate;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: %d agents, cpu %.3f, queued %d, %.1f msg/s", node, Integer.valueOf(getAgentCount()),
+				Double.valueOf(getCpu()), Integer.valueOf(getQueueLength()), Double.valueOf(messageRate));
+	}
+}
@@ -11,11 +11,22 @@
  ******************************************************************************/
 package net.xqhs.flash.core.node;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import net.xqhs.flash.core.AutoFindCache;
 import net.xqhs.flash.core.CategoryName;
 import net.xqhs.flash.core.DeploymentConfiguration;
 import net.xqhs.flash.core.Entity;
@@ -23,6 +34,7 @@ import net.xqhs.flash.core.Entity.EntityIndex;
 import net.xqhs.flash.core.Entity.EntityProxy;
 import net.xqhs.flash.core.Loader;
 import net.xqhs.flash.core.SimpleLoader;
+import net.xqhs.flash.core.mobileComposite.AgentSnapshot;
 import net.xqhs.flash.core.monitoring.CentralMonitoringAndControlEntity;
 import net.xqhs.flash.core.support.MessagingPylonProxy;
 import net.xqhs.flash.core.util.ClassFactory;
@@ -42,6 +54,55 @@ import net.xqhs.util.logging.Unit;
  * @author Andrei Olaru
  */
 public class NodeLoader extends Unit implements Loader<Node> {
+	/**
+	 * The name of the node parameter giving the number of threads on which the entities in the node are loaded. By
+	 * default, entities are loaded sequentially, on the calling thread.
+	 * <p>
+	 * When loading in parallel, an entity is loaded only after the entities which are in its context, the entities in
+	 * categories which are ancestors of its category (e.g. the pylons in the node, for agents), and -- if it is in a
+	 * category which is not a {@link CategoryName} -- after all entities before it, in the load order. Entities are
+	 * registered with the node in the load order, after they have all been loaded.
+	 */
+	public static final String PARALLEL_LOAD_PARAMETER = "parallelLoad";
+	
+	/**
+	 * The loading of an entity in a node, as planned from its configuration.
+	 */
+	protected static class EntityLoad {
+		/**
+		 * The configuration of the entity.
+		 */
+		protected MultiTreeMap					entityConfig;
+		/**
+		 * The name of the category of the entity.
+		 */
+		protected String						catName;
+		/**
+		 * The name, kind, id, local id and class path of the entity, as parsed from the configuration.
+		 */
+		protected String						name, kind, id, local_id, cp;
+		/**
+		 * The local ids of the entities in the context of the entity.
+		 */
+		protected List<String>					contextItems	= new LinkedList<>();
+		/**
+		 * The loaders to try for the entity, if any.
+		 */
+		protected List<Loader<?>>				loaderList;
+		/**
+		 * Information on the choice of loaders, for logging.
+		 */
+		protected String						log_catLoad, log_kindLoad;
+		/**
+		 * The snapshot from which the entity should be restored, if any.
+		 */
+		protected AgentSnapshot					snapshot;
+		/**
+		 * The loaded entity (<code>null</code> if it could not be loaded), when available.
+		 */
+		protected CompletableFuture<Entity<?>>	result;
+	}
+	
 	{
 		// sets logging parameters: the name of the log and the type (which is given by the current platform)
 		setUnitName("boot");
@@ -70,6 +131,8 @@ public class NodeLoader extends Unit implements Loader<Node> {
 		}
 		
 		List<Node> nodes = new LinkedList<>();
+		Map<PlacementController, Node> controllers = new LinkedHashMap<>();
+		Map<LoadBalancer, Node> balancers = new LinkedHashMap<>();
 		List<MultiTreeMap> allEntities = deploymentConfiguration.getEntityList();
 		List<MultiTreeMap> nodesTrees = DeploymentConfiguration.filterCategoryInContext(allEntities,
 				CategoryName.NODE.s(), null);
@@ -86,11 +149,33 @@ public class NodeLoader extends Unit implements Loader<Node> {
 			if(node != null) {
 				nodes.add(node);
 				lf("node loaded: []", node.getName());
+				if(nodeConfig.isSimple(PlacementController.PLACEMENT_PARAMETER))
+					controllers.put(new PlacementController(nodeConfig), node);
+				if(nodeConfig.isSimple(LoadBalancer.LOAD_BALANCE_PARAMETER))
+					balancers.put(new LoadBalancer(nodeConfig), node);
 			}
 			else
 				le("node not loaded.");
 		}
 		lf("[] nodes loaded.", Integer.valueOf(nodes.size()));
+		// placement controllers manage all the named nodes in the deployment
+		for(Map.Entry<PlacementController, Node> controller : controllers.entrySet()) {
+			for(Node node : nodes)
+				if(node.getName() != null)
+					controller.getKey().addNode(node);
+			controller.getValue().registerEntity(PlacementController.PLACEMENT_PARAMETER, controller.getKey(),
+					controller.getKey().getName());
+		}
+		// and so do load balancers
+		for(Map.Entry<LoadBalancer, Node> balancer : balancers.entrySet()) {
+			for(Node node : nodes)
+				if(node.getName() != null)
+					balancer.getKey().addNode(node);
+			balancer.getValue().registerEntity(LoadBalancer.LOAD_BALANCE_PARAMETER, balancer.getKey(),
+					balancer.getKey().getName());
+		}
+		// keep the classes resolved during this deployment for the next one
+		AutoFindCache.save();
 		doExit();
 		return nodes;
 	}
@@ -211,9 +296,11 @@ public class NodeLoader extends Unit implements Loader<Node> {
 			return null;
 		}
 		
-		Map<String, Entity<?>> loaded = new LinkedHashMap<>();
+		Map<String, Entity<?>> loaded = new ConcurrentHashMap<>();
 		String node_local_id = nodeConfiguration.getSingleValue(DeploymentConfiguration.LOCAL_ID_ATTRIBUTE);
 		loaded.put(node_local_id, node);
+		// agents in the latest checkpoint, if the node should restore them
+		Map<String, AgentSnapshot> toRestore = node.getAgentsToRestore();
 		
 		String toLoad = nodeConfiguration.getSingleValue(CategoryName.LOAD_ORDER.s());
 		if(toLoad == null || toLoad.trim().length() == 0)
@@ -221,134 +308,121 @@ public class NodeLoader extends Unit implements Loader<Node> {
 		else {
 			lf("Loading order: ", toLoad);
 			List<MessagingPylonProxy> messagingProxies = new LinkedList<>();
-			for(String catName : toLoad.split(DeploymentConfiguration.LOAD_ORDER_SEPARATOR)) {
-				CategoryName cat = CategoryName.byName(catName);
-				List<MultiTreeMap> entities = DeploymentConfiguration.filterCategoryInContext(subordinateEntities,
-						catName, null);
-				if(entities.isEmpty()) {
-					li("No [] entities defined.", catName);
-					continue;
-				}
-				lf("Loading category: ", catName);
-				
-				for(MultiTreeMap entityConfig : entities) {
-					// TODO add comments & notes about what names, kinds and ids really are.
-					// try to parse the name / obtain a kind (in order to find an appropriate loader)
-					String name = entityConfig.getFirstValue(DeploymentConfiguration.NAME_ATTRIBUTE_NAME);
-					String kind = null, id = null, cp = entityConfig.get(SimpleLoader.CLASSPATH_KEY);
-					String local_id = entityConfig.getSingleValue(DeploymentConfiguration.LOCAL_ID_ATTRIBUTE);
-					if(name != null && name.contains(NAMESEP)) { // if name is can be split, split it into kind and id
-						kind = name.split(NAMESEP)[0];
-						id = name.split(NAMESEP, 2)[1];
-					}
-					if(kind == null || kind.length() == 0) {
-						if(entityConfig.isSimple(DeploymentConfiguration.KIND_ATTRIBUTE_NAME))
-							kind = entityConfig.get(DeploymentConfiguration.KIND_ATTRIBUTE_NAME);
-						else if(cat != null && cat.hasNameWithParts())
-							kind = entityConfig.get(cat.nameParts()[0]);
-					}
-					if(id == null || id.length() == 0) {
-						if(entityConfig.isSimple(DeploymentConfiguration.NAME_ATTRIBUTE_NAME))
-							id = entityConfig.get(DeploymentConfiguration.NAME_ATTRIBUTE_NAME);
-						else if(cat != null && cat.hasNameWithParts())
-							id = entityConfig.get(cat.nameParts()[1]);
-						if(id == null)
-							id = name;
-					}
-					
-					// in case the kind:id format was used, we only want the name to be the id
-					if(name != null && name.contains(NAMESEP) && id != null)
-						entityConfig.addFirst(DeploymentConfiguration.NAME_ATTRIBUTE_NAME, id);
-					
-					// find a loader for the entity
-					List<Loader<?>> loaderList = null;
-					String log_catLoad = null, log_kindLoad = null;
-					int log_nLoader = 0;
-					if(loaders.containsKey(catName) && !loaders.get(catName).isEmpty()) { 
-						// if the category in loader list
-						log_catLoad = catName;
-						if(loaders.get(catName).containsKey(kind)) { // get loaders for this kind
-							loaderList = loaders.get(catName).get(kind);
-							log_catLoad = kind;
-						}
-						else { // if no loaders for this kind
-							if(loaders.get(catName).containsKey(null)) {// get the null kind
-								loaderList = loaders.get(catName).get(null);
-								log_kindLoad = "null";
-							}
-							else { // get loaders for the first kind
-								loaderList = loaders.get(catName).values().iterator().next();
-								log_kindLoad = "first (" + loaders.get(catName).keySet().iterator().next() + ")";
-							}
-						}
+			// the subordinate entities of each entity, indexed by the local ids in their context
+			Map<String, List<MultiTreeMap>> subordinates = new HashMap<>();
+			for(MultiTreeMap entityConfig : subordinateEntities)
+				for(String contextItem : entityConfig.getValuesView(DeploymentConfiguration.CONTEXT_ELEMENT_NAME))
+					subordinates.computeIfAbsent(contextItem, k -> new LinkedList<>()).add(entityConfig);
+			int threads = nodeConfiguration.isSimple(PARALLEL_LOAD_PARAMETER)
+					? Integer.parseInt(nodeConfiguration.getAValue(PARALLEL_LOAD_PARAMETER))
+					: 1;
+			ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+			if(executor != null)
+				lf("Loading entities on [] threads.", Integer.valueOf(threads));
+			// planned loads, in deployment order
+			List<EntityLoad> loads = new ArrayList<>();
+			Map<String, EntityLoad> loadsById = new HashMap<>();
+			Map<String, List<EntityLoad>> loadsByCategory = new HashMap<>();
+			// the last entity of a category which is not in the hierarchy, which all later entities wait for
+			EntityLoad barrier = null;
+			Loader<?> fallbackLoader = defaultLoader;
+			try {
+				for(String catName : toLoad.split(DeploymentConfiguration.LOAD_ORDER_SEPARATOR)) {
+					CategoryName cat = CategoryName.byName(catName);
+					List<MultiTreeMap> entities = DeploymentConfiguration.filterCategoryInContext(subordinateEntities,
+							catName, null);
+					if(entities.isEmpty()) {
+						li("No [] entities defined.", catName);
+						continue;
 					}
+					lf("Loading category: ", catName);
 					
-					// build context
-					List<EntityProxy<?>> context = new LinkedList<>();
-					if(entityConfig.isSimple(DeploymentConfiguration.CONTEXT_ELEMENT_NAME))
-						for(String contextItem : entityConfig.getValues(DeploymentConfiguration.CONTEXT_ELEMENT_NAME))
-							if(loaded.containsKey(contextItem)) {
-								if(loaded.get(contextItem).asContext() != null)
-									context.add(loaded.get(contextItem).asContext());
-							}
-							else
-								lw("Context item [] for [] []/[]/[] not found as a loaded entity.", contextItem,
-										catName, name, kind, local_id);
-							
-					// build subordinate entities list
-					List<MultiTreeMap> subEntities = DeploymentConfiguration.filterContext(subordinateEntities,
-							local_id);
-					
-					// TODO: provide load() with context and an appropriate list of subordinate entities
-					// try to load the entity with a loader
-					Entity<?> entity = null;
-					if(loaderList != null && !loaderList.isEmpty())
-						for(Loader<?> loader : loaderList) { // try loading
-							lf("Trying to load []/[] [][] using []th loader for [][]", name, local_id, catName, kind,
-									Integer.valueOf(log_nLoader), log_catLoad, log_kindLoad);
-							if(loader.preload(entityConfig, context))
-								entity = loader.load(entityConfig, context, subEntities);
-							if(entity != null)
-								break;
-							log_nLoader += 1;
-						}
-					// if not, try to load the entity with the default loader
-					if(entity == null) {
-						// attempt to obtain classpath information
-						cp = Loader.autoFind(classFactory, packages, cp, kind, id, catName, checkedPaths);
-						if(cp == null)
-							le("Class for [] []/[]/[] can not be found; tried paths ", catName, name, kind, local_id,
-									checkedPaths);
+					for(MultiTreeMap entityConfig : replicate(entities, catName)) {
+						EntityLoad entityLoad = planEntity(entityConfig, catName, cat, loaders);
+						if(CategoryName.AGENT.s().equals(catName) && entityLoad.id != null
+								&& toRestore.containsKey(entityLoad.id))
+							entityLoad.snapshot = toRestore.remove(entityLoad.id);
+						
+						// entities which must be loaded before this one: those in its context, those in ancestor
+						// categories, and those after the last barrier
+						Set<EntityLoad> dependencies = new LinkedHashSet<>();
+						for(String contextItem : entityLoad.contextItems)
+							if(loadsById.containsKey(contextItem))
+								dependencies.add(loadsById.get(contextItem));
+						if(cat != null)
+							for(String ancestor : cat.getAncestorsList())
+								if(loadsByCategory.containsKey(ancestor))
+									dependencies.addAll(loadsByCategory.get(ancestor));
+						if(cat == null) // not in the hierarchy: load after everything before it
+							dependencies.addAll(loads);
+						else if(barrier != null)
+							dependencies.add(barrier);
+						
+						if(executor == null)
+							entityLoad.result = CompletableFuture.completedFuture(loadEntity(entityLoad, loaded,
+									fallbackLoader, classFactory, packages, node, subordinates));
 						else {
-							lf("Trying to load []/[] [][] using default loader [], from classpath []", name, local_id,
-									catName, kind, defaultLoader.getClass().getName(), cp);
-							// add the CP -- will be first
-							entityConfig.addFirstValue(SimpleLoader.CLASSPATH_KEY, cp);
+							CompletableFuture<?>[] waitFor = new CompletableFuture<?>[dependencies.size()];
+							int i = 0;
+							for(EntityLoad dependency : dependencies)
+								waitFor[i++] = dependency.result;
+							// failures are reported, in order, when the entities are registered
+							entityLoad.result = CompletableFuture.allOf(waitFor).exceptionally(e -> null)
+									.thenApplyAsync(v -> loadEntity(entityLoad, loaded, fallbackLoader, classFactory,
+											packages, node, subordinates), executor);
 						}
-						if(defaultLoader.preload(entityConfig, context))
-							entity = defaultLoader.load(entityConfig, context, subEntities);
+						loads.add(entityLoad);
+						if(entityLoad.local_id != null)
+							loadsById.put(entityLoad.local_id, entityLoad);
+						loadsByCategory.computeIfAbsent(catName, k -> new ArrayList<>()).add(entityLoad);
+						if(cat == null)
+							barrier = entityLoad;
+					}
+				}
+				
+				// entities are registered with the node in deployment order, regardless of the order of loading
+				for(EntityLoad entityLoad : loads) {
+					Entity<?> entity;
+					try {
+						entity = entityLoad.result.join();
+					} catch(CompletionException e) {
+						if(e.getCause() instanceof RuntimeException)
+							throw (RuntimeException) e.getCause();
+						throw e;
 					}
 					if(entity != null) {
-						li("Entity []/[] of type [] successfully loaded.", name, local_id, catName);
-						entityConfig.addSingleValue(DeploymentConfiguration.LOADED_ATTRIBUTE_NAME,
-								DeploymentConfiguration.LOADED_ATTRIBUTE_NAME);
-						
+						li("Entity []/[] of type [] successfully loaded.", entityLoad.name, entityLoad.local_id,
+								entityLoad.catName);
 						// find messaging pylons that can be used by the Node
 						EntityProxy<?> ctx = entity.asContext();
 						if(ctx != null && ctx instanceof MessagingPylonProxy)
 							messagingProxies.add((MessagingPylonProxy) ctx);
 						
-						loaded.put(local_id, entity);
-						node.registerEntity(catName, entity, id);
+						node.registerEntity(entityLoad.catName, entity, entityLoad.id);
 					}
 					else
-						le("Could not load entity []/[] of type [].", name, local_id, catName);
-					lf("Loaded items:", loaded.keySet());
+						le("Could not load entity []/[] of type [].", entityLoad.name, entityLoad.local_id,
+								entityLoad.catName);
 				}
+				lf("Loaded items:", loaded.keySet());
+			} finally {
+				if(executor != null)
+					executor.shutdown();
 			}
 			
 			lf("Other configuration:");
 			
+			// agents in the checkpoint which are not in the deployment (e.g. which have arrived from other nodes)
+			for(Map.Entry<String, AgentSnapshot> agent : toRestore.entrySet()) {
+				List<EntityProxy<?>> context = new LinkedList<>();
+				context.add(node.asContext());
+				if(!messagingProxies.isEmpty())
+					context.add(messagingProxies.get(0));
+				Entity<?> entity = node.restoreAgent(agent.getValue(), context);
+				if(entity != null)
+					node.registerEntity(CategoryName.AGENT.s(), entity, agent.getKey());
+			}
+			
 			if(messagingProxies.isEmpty())
 				return node;
 			MessagingPylonProxy pylon = messagingProxies.stream().findFirst().get();
@@ -377,6 +451,207 @@ public class NodeLoader extends Unit implements Loader<Node> {
 		return node;
 	}
 	
+	/**
+	 * Replaces, in a list of entities of a category, the agent templates (agents with a
+	 * {@link DeploymentConfiguration#COUNT_ATTRIBUTE_NAME} parameter) by their replicas. The configurations of the
+	 * replicas are only created as the returned list is iterated.
+	 * 
+	 * @param entities
+	 *            - the configurations of the entities.
+	 * @param catName
+	 *            - the name of the category of the entities.
+	 * @return the configurations of the entities to load, in order.
+	 */
+	protected Iterable<MultiTreeMap> replicate(List<MultiTreeMap> entities, String catName) {
+		if(!CategoryName.AGENT.s().equals(catName))
+			return entities;
+		return () -> new Iterator<MultiTreeMap>() {
+			Iterator<MultiTreeMap>	templates	= entities.iterator();
+			MultiTreeMap			template	= null;
+			int						index		= 0, count = 0;
+			
+			@Override
+			public boolean hasNext() {
+				return index < count || templates.hasNext();
+			}
+			
+			@Override
+			public MultiTreeMap next() {
+				if(index < count)
+					return DeploymentConfiguration.replicate(template, index++);
+				MultiTreeMap entity = templates.next();
+				count = DeploymentConfiguration.getReplicaCount(entity);
+				index = 0;
+				if(count == 0)
+					return entity;
+				lf("Agent [] replicated [] times.", entity.getFirstValue(DeploymentConfiguration.NAME_ATTRIBUTE_NAME),
+						Integer.valueOf(count));
+				template = entity;
+				return DeploymentConfiguration.replicate(template, index++);
+			}
+		};
+	}
+	
+	/**
+	 * Parses the configuration of an entity and finds the loaders which can load it.
+	 * 
+	 * @param entityConfig
+	 *            - the configuration of the entity.
+	 * @param catName
+	 *            - the name of the category of the entity.
+	 * @param cat
+	 *            - the category of the entity, if it is a {@link CategoryName}.
+	 * @param loaders
+	 *            - the loaders in the node, as entity -> kind -> loaders.
+	 * @return the planned loading of the entity.
+	 */
+	protected EntityLoad planEntity(MultiTreeMap entityConfig, String catName, CategoryName cat,
+			Map<String, Map<String, List<Loader<?>>>> loaders) {
+		String NAMESEP = DeploymentConfiguration.NAME_SEPARATOR;
+		EntityLoad load = new EntityLoad();
+		load.entityConfig = entityConfig;
+		load.catName = catName;
+		// TODO add comments & notes about what names, kinds and ids really are.
+		// try to parse the name / obtain a kind (in order to find an appropriate loader)
+		String name = entityConfig.getFirstValue(DeploymentConfiguration.NAME_ATTRIBUTE_NAME);
+		String kind = null, id = null;
+		load.cp = entityConfig.get(SimpleLoader.CLASSPATH_KEY);
+		load.local_id = entityConfig.getSingleValue(DeploymentConfiguration.LOCAL_ID_ATTRIBUTE);
+		if(name != null && name.contains(NAMESEP)) { // if name is can be split, split it into kind and id
+			kind = name.split(NAMESEP)[0];
+			id = name.split(NAMESEP, 2)[1];
+		}
+		if(kind == null || kind.length() == 0) {
+			if(entityConfig.isSimple(DeploymentConfiguration.KIND_ATTRIBUTE_NAME))
+				kind = entityConfig.get(DeploymentConfiguration.KIND_ATTRIBUTE_NAME);
+			else if(cat != null && cat.hasNameWithParts())
+				kind = entityConfig.get(cat.nameParts()[0]);
+		}
+		if(id == null || id.length() == 0) {
+			if(entityConfig.isSimple(DeploymentConfiguration.NAME_ATTRIBUTE_NAME))
+				id = entityConfig.get(DeploymentConfiguration.NAME_ATTRIBUTE_NAME);
+			else if(cat != null && cat.hasNameWithParts())
+				id = entityConfig.get(cat.nameParts()[1]);
+			if(id == null)
+				id = name;
+		}
+		
+		// in case the kind:id format was used, we only want the name to be the id
+		if(name != null && name.contains(NAMESEP) && id != null)
+			entityConfig.addFirst(DeploymentConfiguration.NAME_ATTRIBUTE_NAME, id);
+		load.name = name;
+		load.kind = kind;
+		load.id = id;
+		
+		// find a loader for the entity
+		if(loaders.containsKey(catName) && !loaders.get(catName).isEmpty()) { 
+			// if the category in loader list
+			load.log_catLoad = catName;
+			if(loaders.get(catName).containsKey(kind)) { // get loaders for this kind
+				load.loaderList = loaders.get(catName).get(kind);
+				load.log_catLoad = kind;
+			}
+			else { // if no loaders for this kind
+				if(loaders.get(catName).containsKey(null)) {// get the null kind
+					load.loaderList = loaders.get(catName).get(null);
+					load.log_kindLoad = "null";
+				}
+				else { // get loaders for the first kind
+					load.loaderList = loaders.get(catName).values().iterator().next();
+					load.log_kindLoad = "first (" + loaders.get(catName).keySet().iterator().next() + ")";
+				}
+			}
+		}
+		
+		if(entityConfig.isSimple(DeploymentConfiguration.CONTEXT_ELEMENT_NAME))
+			load.contextItems.addAll(entityConfig.getValuesView(DeploymentConfiguration.CONTEXT_ELEMENT_NAME));
+		return load;
+	}
+	
+	/**
+	 * Loads an entity, as planned by {@link #planEntity}. The entities in its context must have already been loaded.
+	 * 
+	 * @param load
+	 *            - the planned loading.
+	 * @param loaded
+	 *            - the entities loaded so far, indexed by local id; the entity is added if it is loaded.
+	 * @param defaultLoader
+	 *            - the loader to use if no other loader can load the entity.
+	 * @param classFactory
+	 *            - the class factory.
+	 * @param packages
+	 *            - the packages in the deployment.
+	 * @param node
+	 *            - the node.
+	 * @param subordinates
+	 *            - the entities in the node, indexed by the local ids in their context.
+	 * @return the entity, or <code>null</code> if it could not be loaded.
+	 */
+	protected Entity<?> loadEntity(EntityLoad load, Map<String, Entity<?>> loaded, Loader<?> defaultLoader,
+			ClassFactory classFactory, List<String> packages, Node node, Map<String, List<MultiTreeMap>> subordinates) {
+		String name = load.name, kind = load.kind, id = load.id, local_id = load.local_id, catName = load.catName;
+		MultiTreeMap entityConfig = load.entityConfig;
+		List<String> checkedPaths = new LinkedList<>(); // used to monitor class paths checked by autoFind().
+		
+		// build context
+		List<EntityProxy<?>> context = new LinkedList<>();
+		for(String contextItem : load.contextItems)
+			if(loaded.containsKey(contextItem)) {
+				if(loaded.get(contextItem).asContext() != null)
+					context.add(loaded.get(contextItem).asContext());
+			}
+			else
+				lw("Context item [] for [] []/[]/[] not found as a loaded entity.", contextItem, catName, name, kind,
+						local_id);
+			
+		// build subordinate entities list
+		List<MultiTreeMap> subEntities = new LinkedList<>();
+		if(local_id != null && subordinates.containsKey(local_id))
+			subEntities.addAll(subordinates.get(local_id));
+		
+		// TODO: provide load() with context and an appropriate list of subordinate entities
+		// try to load the entity with a loader
+		Entity<?> entity = null;
+		if(load.snapshot != null) {
+			lf("Restoring []/[] [] from checkpoint", name, local_id, catName);
+			entity = node.restoreAgent(load.snapshot, context);
+		}
+		int log_nLoader = 0;
+		if(entity == null && load.loaderList != null && !load.loaderList.isEmpty())
+			for(Loader<?> loader : load.loaderList) { // try loading
+				lf("Trying to load []/[] [][] using []th loader for [][]", name, local_id, catName, kind,
+						Integer.valueOf(log_nLoader), load.log_catLoad, load.log_kindLoad);
+				if(loader.preload(entityConfig, context))
+					entity = loader.load(entityConfig, context, subEntities);
+				if(entity != null)
+					break;
+				log_nLoader += 1;
+			}
+		// if not, try to load the entity with the default loader
+		if(entity == null) {
+			// attempt to obtain classpath information
+			String cp = Loader.autoFind(classFactory, packages, load.cp, kind, id, catName, checkedPaths);
+			if(cp == null)
+				le("Class for [] []/[]/[] can not be found; tried paths ", catName, name, kind, local_id,
+						checkedPaths);
+			else {
+				lf("Trying to load []/[] [][] using default loader [], from classpath []", name, local_id, catName,
+						kind, defaultLoader.getClass().getName(), cp);
+				// add the CP -- will be first
+				entityConfig.addFirstValue(SimpleLoader.CLASSPATH_KEY, cp);
+			}
+			if(defaultLoader.preload(entityConfig, context))
+				entity = defaultLoader.load(entityConfig, context, subEntities);
+		}
+		if(entity != null) {
+			entityConfig.addSingleValue(DeploymentConfiguration.LOADED_ATTRIBUTE_NAME,
+					DeploymentConfiguration.LOADED_ATTRIBUTE_NAME);
+			if(local_id != null)
+				loaded.put(local_id, entity);
+		}
+		return entity;
+	}
+	
 	/**
 	 * Functionality not used.
 	 */
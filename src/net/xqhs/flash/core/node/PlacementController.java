@@ -0,0 +1,575 @@
+/*******************************************************************************
+ * Copyright (C) 2021 Andrei Olaru.
+ *
+ * This file is part of Flash-MAS. The CONTRIBUTORS.md file lists people who have been previously involved with this project.
+ *
+ * Flash-MAS is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * Flash-MAS is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Flash-MAS.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.xqhs.flash.core.node;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import net.xqhs.flash.core.DeploymentConfiguration;
+import net.xqhs.flash.core.Entity;
+import net.xqhs.flash.core.mobileComposite.MobileCompositeAgent;
+import net.xqhs.flash.core.support.DefaultPylonImplementation;
+import net.xqhs.flash.core.support.TrafficMatrix;
+import net.xqhs.flash.core.util.MultiTreeMap;
+import net.xqhs.flash.core.util.PlatformUtils;
+import net.xqhs.util.logging.Unit;
+
+/**
+ * Places the {@link MobileCompositeAgent} instances of a set of nodes so that agents which communicate often are in the
+ * same node. Periodically (or on demand, see {@link #rebalance()}):
+ * <ul>
+ * <li>the messages sent between each pair of agents are collected from the pylons of the nodes (which must count them,
+ * see {@link DefaultPylonImplementation#TRAFFIC_STATS_PARAMETER}) and added to the communication graph, in which older
+ * traffic decays by {@link #DECAY} at each round;
+ * <li>a new placement is computed by greedy improvement: each agent, from the most communicative, is moved to the node
+ * where it has the most traffic, or, if that node is full, swapped with an agent of that node; from time to time, a new
+ * partition of the communication graph is also considered (see {@link #plan}); the number of agents in a node is
+ * limited to {@link #CAPACITY_PARAMETER};
+ * <li>the agents are moved with {@link Node#moveAgents}, in one batch for each pair of nodes.
+ * </ul>
+ * To avoid thrashing, an agent is only moved if the reduction of its cross-node traffic is larger than a fraction
+ * ({@link #HYSTERESIS_PARAMETER}) of its total traffic, and is not moved again for a number of rounds
+ * ({@link #COOLDOWN_PARAMETER}).
+ * <p>
+ * The controller works with the nodes in the same JVM. It is created by the {@link NodeLoader} for nodes configured
+ * with the {@link #PLACEMENT_PARAMETER}, and manages all the nodes in the deployment.
+ *
+ * @author Andrei Olaru
+ */
+public class PlacementController extends Unit implements Entity<Node> {
+	/**
+	 * The name of the node parameter giving the period (in ms) of the placement rounds; if 0, rounds are only done on
+	 * demand.
+	 */
+	public static final String	PLACEMENT_PARAMETER		= "placement";
+	/**
+	 * The name of the node parameter giving the maximum number of mobile agents in a node.
+	 */
+	public static final String	CAPACITY_PARAMETER		= "placementCapacity";
+	/**
+	 * The name of the node parameter giving the minimum reduction of the cross-node traffic of an agent, relative to
+	 * its total traffic, for the agent to be moved.
+	 */
+	public static final String	HYSTERESIS_PARAMETER	= "placementHysteresis";
+	/**
+	 * The name of the node parameter giving the number of rounds after a move during which an agent is not moved
+	 * again.
+	 */
+	public static final String	COOLDOWN_PARAMETER		= "placementCooldown";
+	/**
+	 * The default value for {@link #HYSTERESIS_PARAMETER}.
+	 */
+	public static final double	DEFAULT_HYSTERESIS		= 0.2;
+	/**
+	 * The default value for {@link #COOLDOWN_PARAMETER}.
+	 */
+	public static final int		DEFAULT_COOLDOWN		= 2;
+	/**
+	 * The factor by which the traffic in the communication graph decays at each round.
+	 */
+	public static final double	DECAY					= 0.5;
+	/**
+	 * The maximum number of improvement passes over all agents in a round.
+	 */
+	public static final int		MAX_PASSES				= 5;
+
+	/**
+	 * The name of the controller.
+	 */
+	protected final String								name;
+	/**
+	 * The period of the rounds, in ms.
+	 */
+	protected long										period		= 0;
+	/**
+	 * The maximum number of mobile agents in a node.
+	 */
+	protected int										capacity	= Integer.MAX_VALUE;
+	/**
+	 * The minimum relative gain for moving an agent.
+	 */
+	protected double									hysteresis	= DEFAULT_HYSTERESIS;
+	/**
+	 * The number of rounds after a move during which an agent is not moved again.
+	 */
+	protected int										cooldown	= DEFAULT_COOLDOWN;
+	/**
+	 * The managed nodes, indexed by name.
+	 */
+	protected final Map<String, Node>					nodes		= new LinkedHashMap<>();
+	/**
+	 * The communication graph: the (decayed) number of messages between each pair of agents, in both directions,
+	 * indexed by each agent of the pair.
+	 */
+	protected final Map<String, Map<String, Double>>	graph		= new HashMap<>();
+	/**
+	 * The round in which each agent was last moved.
+	 */
+	protected final Map<String, Integer>				moved		= new HashMap<>();
+	/**
+	 * The number of rounds done.
+	 */
+	protected int										round		= 0;
+	/**
+	 * The ratio of messages sent between agents in different nodes, as of the latest collection of traffic.
+	 */
+	protected double									crossNodeRatio	= 0;
+	/**
+	 * The round in which the agents were last placed according to a new partition.
+	 */
+	protected int										repartitioned	= Integer.MIN_VALUE / 2;
+	/**
+	 * The timer for the rounds, while the controller is running.
+	 */
+	protected ScheduledExecutorService					timer		= null;
+	/**
+	 * An indication if the controller is running.
+	 */
+	protected boolean									running		= false;
+
+	/**
+	 * Creates a controller.
+	 *
+	 * @param configuration
+	 *            - the configuration, containing the parameters of the controller (the configuration of the node, if
+	 *            the controller is created by the {@link NodeLoader}).
+	 */
+	public PlacementController(MultiTreeMap configuration) {
+		name = configuration.getAValue(DeploymentConfiguration.NAME_ATTRIBUTE_NAME) + "-placement";
+		if(configuration.isSimple(PLACEMENT_PARAMETER))
+			period = Long.parseLong(configuration.getAValue(PLACEMENT_PARAMETER));
+		if(configuration.isSimple(CAPACITY_PARAMETER))
+			capacity = Integer.parseInt(configuration.getAValue(CAPACITY_PARAMETER));
+		if(configuration.isSimple(HYSTERESIS_PARAMETER))
+			hysteresis = Double.parseDouble(configuration.getAValue(HYSTERESIS_PARAMETER));
+		if(configuration.isSimple(COOLDOWN_PARAMETER))
+			cooldown = Integer.parseInt(configuration.getAValue(COOLDOWN_PARAMETER));
+		setLoggerType(PlatformUtils.platformLogType());
+		setUnitName(name);
+	}
+
+	/**
+	 * Adds a node to be managed by the controller.
+	 *
+	 * @param node
+	 *            - the node.
+	 * @return the controller itself.
+	 */
+	public synchronized PlacementController addNode(Node node) {
+		nodes.put(node.getName(), node);
+		return this;
+	}
+
+	/**
+	 * Collects the traffic counted by the pylons of the managed nodes since the previous collection, adds it to the
+	 * communication graph, and computes the ratio of the collected messages which were sent between agents in
+	 * different nodes.
+	 *
+	 * @return the ratio of messages sent between agents in different nodes, or 0 if no messages between agents in the
+	 *         managed nodes were collected.
+	 */
+	public synchronized double collect() {
+		Map<String, String> placement = getPlacement();
+		Map<String, Map<String, Long>> traffic = new HashMap<>();
+		for(Node node : nodes.values())
+			for(Entity<?> entity : node.getEntities())
+				if(entity instanceof DefaultPylonImplementation) {
+					TrafficMatrix matrix = ((DefaultPylonImplementation) entity).getTraffic();
+					if(matrix != null)
+						matrix.drainTo(traffic);
+				}
+		for(Map<String, Double> edges : graph.values())
+			edges.replaceAll((agent, weight) -> Double.valueOf(weight.doubleValue() * DECAY));
+		long total = 0, cross = 0;
+		for(Map.Entry<String, Map<String, Long>> source : traffic.entrySet())
+			for(Map.Entry<String, Long> destination : source.getValue().entrySet()) {
+				String from = source.getKey(), to = destination.getKey();
+				if(!placement.containsKey(from) || !placement.containsKey(to))
+					continue;
+				long count = destination.getValue().longValue();
+				total += count;
+				if(!placement.get(from).equals(placement.get(to)))
+					cross += count;
+				graph.computeIfAbsent(from, k -> new HashMap<>()).merge(to, Double.valueOf(count), Double::sum);
+				graph.computeIfAbsent(to, k -> new HashMap<>()).merge(from, Double.valueOf(count), Double::sum);
+			}
+		crossNodeRatio = total > 0 ? (double) cross / total : 0;
+		lf("Collected [] messages, [] between nodes", Long.valueOf(total), Long.valueOf(cross));
+		return crossNodeRatio;
+	}
+
+	/**
+	 * Does a placement round: collects the traffic (see {@link #collect()}), computes a new placement and moves the
+	 * agents which should change nodes. The method waits for the agents to leave their nodes, so it should not be
+	 * called on the thread of an agent.
+	 *
+	 * @return the number of agents which were moved.
+	 */
+	public synchronized int rebalance() {
+		round++;
+		collect();
+		Map<String, String> placement = getPlacement();
+		Map<String, String> target = plan(placement);
+		// moves, indexed by source node and destination node
+		Map<String, Map<String, List<String>>> moves = new LinkedHashMap<>();
+		for(Map.Entry<String, String> agent : target.entrySet())
+			if(!agent.getValue().equals(placement.get(agent.getKey())))
+				moves.computeIfAbsent(placement.get(agent.getKey()), k -> new LinkedHashMap<>())
+						.computeIfAbsent(agent.getValue(), k -> new ArrayList<>()).add(agent.getKey());
+		int count = 0;
+		for(Map.Entry<String, Map<String, List<String>>> source : moves.entrySet())
+			for(Map.Entry<String, List<String>> destination : source.getValue().entrySet()) {
+				li("Moving agents [] from [] to []", destination.getValue(), source.getKey(), destination.getKey());
+				count += nodes.get(source.getKey()).moveAgents(destination.getKey(), destination.getValue());
+				for(String agent : destination.getValue())
+					moved.put(agent, Integer.valueOf(round));
+			}
+		li("Round [] done: [] agents moved; cross-node traffic was []", Integer.valueOf(round), Integer.valueOf(count),
+				Double.valueOf(crossNodeRatio));
+		return count;
+	}
+
+	/**
+	 * Computes a new placement. Two candidates are computed:
+	 * <ul>
+	 * <li>the current placement, improved by moving single agents (see {@link #improve}), without moving agents which
+	 * have been moved recently;
+	 * <li>a new partition of the communication graph (see {@link #partition}), improved in the same way, which can
+	 * bring together groups of agents which cannot be brought together by moving agents one at a time. This candidate
+	 * is only considered once every {@link #cooldown} rounds, and is only chosen if its cross-node traffic is lower than
+	 * that of the other candidate by more than the {@link #hysteresis} fraction.
+	 * </ul>
+	 *
+	 * @param placement
+	 *            - the current placement: the node of each agent, indexed by agent name.
+	 * @return the new placement.
+	 */
+	protected Map<String, String> plan(Map<String, String> placement) {
+		List<String> agents = new ArrayList<>(placement.keySet());
+		agents.removeIf(agent -> !graph.containsKey(agent));
+		agents.sort((a1, a2) -> Double.compare(total(a2), total(a1)));
+		List<String> movable = new ArrayList<>(agents);
+		movable.removeIf(agent -> moved.containsKey(agent) && round - moved.get(agent).intValue() <= cooldown);
+		Map<String, String> local = improve(new HashMap<>(placement), movable, hysteresis);
+		if(round - repartitioned <= cooldown)
+			return local;
+		Map<String, String> global = improve(partition(placement, agents), agents, 0);
+		double localCost = cost(local), globalCost = cost(global);
+		lf("Cross-node traffic after local improvement: []; after repartitioning: []", Double.valueOf(localCost),
+				Double.valueOf(globalCost));
+		if(globalCost >= localCost * (1 - hysteresis))
+			return local;
+		repartitioned = round;
+		return global;
+	}
+
+	/**
+	 * Improves a placement by greedy moves of single agents: each agent is moved to the node where it has the most
+	 * traffic, or, if that node is full, swapped with an agent of that node.
+	 *
+	 * @param target
+	 *            - the placement to improve, which is modified.
+	 * @param agents
+	 *            - the agents which can be moved, in the order in which they are considered.
+	 * @param threshold
+	 *            - the minimum reduction of the cross-node traffic of an agent, relative to its total traffic, for the
+	 *            agent to be moved.
+	 * @return the improved placement.
+	 */
+	protected Map<String, String> improve(Map<String, String> target, List<String> agents, double threshold) {
+		Map<String, Integer> load = new HashMap<>();
+		for(String node : nodes.keySet())
+			load.put(node, Integer.valueOf(0));
+		for(String node : target.values())
+			load.merge(node, Integer.valueOf(1), Integer::sum);
+		for(int pass = 0; pass < MAX_PASSES; pass++) {
+			boolean improved = false;
+			for(String agent : agents) {
+				Map<String, Double> affinity = affinity(agent, target);
+				String current = target.get(agent);
+				String best = null;
+				double bestGain = Math.max(threshold * total(agent), 0);
+				String swap = null;
+				for(String node : nodes.keySet()) {
+					if(node.equals(current))
+						continue;
+					double gain = get(affinity, node) - get(affinity, current);
+					if(gain <= bestGain)
+						continue;
+					if(load.get(node).intValue() < capacity) {
+						best = node;
+						bestGain = gain;
+						swap = null;
+						continue;
+					}
+					// the node is full; look for an agent to swap with
+					for(String other : agents) {
+						if(!node.equals(target.get(other)))
+							continue;
+						Map<String, Double> otherAffinity = affinity(other, target);
+						double otherGain = get(otherAffinity, current) - get(otherAffinity, node)
+								- get(graph.get(agent), other);
+						double swapGain = gain + otherGain - get(graph.get(agent), other);
+						if(swapGain > bestGain && otherGain > -threshold * total(other)) {
+							best = node;
+							bestGain = swapGain;
+							swap = other;
+						}
+					}
+				}
+				if(best == null)
+					continue;
+				target.put(agent, best);
+				if(swap != null)
+					target.put(swap, current);
+				else {
+					load.merge(current, Integer.valueOf(-1), Integer::sum);
+					load.merge(best, Integer.valueOf(1), Integer::sum);
+				}
+				improved = true;
+			}
+			if(!improved)
+				break;
+		}
+		return target;
+	}
+
+	/**
+	 * Computes a new partition of the communication graph, by greedy graph growing: each part starts from the most
+	 * communicative agent not yet placed and grows, up to an equal share of the agents (and at most {@link #capacity}),
+	 * by adding the agent with the most traffic with the part relative to its traffic with the agents not yet placed.
+	 * The parts are then assigned to the nodes with which they have the most agents in common, so that few agents are
+	 * moved. Agents left out (e.g. without traffic) are kept in their node, if possible.
+	 *
+	 * @param placement
+	 *            - the current placement.
+	 * @param agents
+	 *            - the agents with traffic, from the most communicative.
+	 * @return the new placement.
+	 */
+	protected Map<String, String> partition(Map<String, String> placement, List<String> agents) {
+		int size = Math.min(capacity, (placement.size() + nodes.size() - 1) / nodes.size());
+		Set<String> unplaced = new LinkedHashSet<>(agents);
+		List<Set<String>> parts = new ArrayList<>();
+		while(parts.size() < nodes.size() && !unplaced.isEmpty()) {
+			Set<String> part = new HashSet<>();
+			String next = unplaced.iterator().next();
+			while(next != null) {
+				part.add(next);
+				unplaced.remove(next);
+				if(part.size() >= size)
+					break;
+				next = null;
+				double best = 0;
+				for(String member : part)
+					for(String candidate : graph.get(member).keySet()) {
+						if(!unplaced.contains(candidate))
+							continue;
+						double gain = 0;
+						for(Map.Entry<String, Double> edge : graph.get(candidate).entrySet())
+							gain += (part.contains(edge.getKey()) ? 1 : unplaced.contains(edge.getKey()) ? -1 : 0)
+									* edge.getValue().doubleValue();
+						if(next == null || gain > best) {
+							next = candidate;
+							best = gain;
+						}
+					}
+			}
+			parts.add(part);
+		}
+		// assign parts to nodes, by the number of agents in common
+		Map<String, String> target = new HashMap<>();
+		Map<String, Integer> load = new HashMap<>();
+		List<String> free = new ArrayList<>(nodes.keySet());
+		List<Set<String>> unassigned = new ArrayList<>(parts);
+		while(!unassigned.isEmpty()) {
+			Set<String> bestPart = null;
+			String bestNode = null;
+			int bestCommon = -1;
+			for(Set<String> part : unassigned)
+				for(String node : free) {
+					int common = 0;
+					for(String agent : part)
+						if(node.equals(placement.get(agent)))
+							common++;
+					if(common > bestCommon) {
+						bestPart = part;
+						bestNode = node;
+						bestCommon = common;
+					}
+				}
+			for(String agent : bestPart)
+				target.put(agent, bestNode);
+			load.put(bestNode, Integer.valueOf(bestPart.size()));
+			unassigned.remove(bestPart);
+			free.remove(bestNode);
+		}
+		for(String node : nodes.keySet())
+			load.putIfAbsent(node, Integer.valueOf(0));
+		// the other agents
+		for(Map.Entry<String, String> agent : placement.entrySet()) {
+			if(target.containsKey(agent.getKey()))
+				continue;
+			String node = agent.getValue();
+			if(load.get(node).intValue() >= capacity)
+				node = load.entrySet().stream().min((e1, e2) -> e1.getValue().compareTo(e2.getValue())).get().getKey();
+			target.put(agent.getKey(), node);
+			load.merge(node, Integer.valueOf(1), Integer::sum);
+		}
+		return target;
+	}
+
+	/**
+	 * @param placement
+	 *            - a placement of the agents.
+	 * @return the traffic between agents in different nodes, in the communication graph.
+	 */
+	protected double cost(Map<String, String> placement) {
+		double cost = 0;
+		for(Map.Entry<String, Map<String, Double>> agent : graph.entrySet())
+			for(Map.Entry<String, Double> edge : agent.getValue().entrySet())
+				if(placement.containsKey(agent.getKey()) && placement.containsKey(edge.getKey())
+						&& !placement.get(agent.getKey()).equals(placement.get(edge.getKey())))
+					cost += edge.getValue().doubleValue();
+		return cost / 2;
+	}
+
+	/**
+	 * @param agent
+	 *            - an agent.
+	 * @param placement
+	 *            - a placement of the agents.
+	 * @return the traffic of the agent with the agents in each node, indexed by node name.
+	 */
+	protected Map<String, Double> affinity(String agent, Map<String, String> placement) {
+		Map<String, Double> affinity = new HashMap<>();
+		Map<String, Double> edges = graph.get(agent);
+		if(edges != null)
+			for(Map.Entry<String, Double> edge : edges.entrySet())
+				if(placement.containsKey(edge.getKey()))
+					affinity.merge(placement.get(edge.getKey()), edge.getValue(), Double::sum);
+		return affinity;
+	}
+
+	/**
+	 * @param agent
+	 *            - an agent.
+	 * @return the total traffic of the agent, in the communication graph.
+	 */
+	protected double total(String agent) {
+		double total = 0;
+		Map<String, Double> edges = graph.get(agent);
+		if(edges != null)
+			for(Double weight : edges.values())
+				total += weight.doubleValue();
+		return total;
+	}
+
+	/**
+	 * @param map
+	 *            - a map, which may be <code>null</code>.
+	 * @param key
+	 *            - a key.
+	 * @return the value for the key, or 0 if there is none.
+	 */
+	protected static double get(Map<String, Double> map, String key) {
+		Double value = map != null ? map.get(key) : null;
+		return value != null ? value.doubleValue() : 0;
+	}
+
+	/**
+	 * @return the node of each mobile agent in the managed nodes, indexed by agent name.
+	 */
+	public synchronized Map<String, String> getPlacement() {
+		Map<String, String> placement = new HashMap<>();
+		for(Node node : nodes.values())
+			for(String agent : node.getAgentNames())
+				placement.put(agent, node.getName());
+		return placement;
+	}
+
+	/**
+	 * @return the ratio of messages sent between agents in different nodes, as of the latest collection of traffic.
+	 */
+	public synchronized double getCrossNodeRatio() {
+		return crossNodeRatio;
+	}
+
+	@Override
+	public synchronized boolean start() {
+		if(period > 0 && timer == null) {
+			timer = Executors.newSingleThreadScheduledExecutor(task -> {
+				Thread thread = new Thread(task, name);
+				thread.setDaemon(true);
+				return thread;
+			});
+			timer.scheduleWithFixedDelay(this::rebalance, period, period, TimeUnit.MILLISECONDS);
+		}
+		running = true;
+		li("Placement controller started for nodes [].", nodes.keySet());
+		return true;
+	}
+
+	@Override
+	public synchronized boolean stop() {
+		if(timer != null)
+			timer.shutdownNow();
+		timer = null;
+		running = false;
+		return true;
+	}
+
+	@Override
+	public synchronized boolean isRunning() {
+		return running;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public boolean addContext(EntityProxy<Node> context) {
+		// the managed nodes are added with addNode
+		return true;
+	}
+
+	@Override
+	public boolean removeContext(EntityProxy<Node> context) {
+		return true;
+	}
+
+	@Override
+	public boolean addGeneralContext(EntityProxy<? extends Entity<?>> context) {
+		return true;
+	}
+
+	@Override
+	public boolean removeGeneralContext(EntityProxy<? extends Entity<?>> context) {
+		return true;
+	}
+
+	@Override
+	public <C extends Entity<Node>> EntityProxy<C> asContext() {
+		return null;
+	}
+}
@@ -45,4 +45,19 @@ public interface AgentShard extends ConfigurableEntity<Agent>
 	 *                  - the {@link AgentEvent} that needs to be signaled to the shard.
 	 */
 	void signalAgentEvent(AgentEvent event);
+	
+	/**
+	 * This method is called by the agent containing the shard, after the agent has stopped, in order to prepare the
+	 * shard for the reuse of the agent as a different agent (see {@link net.xqhs.flash.core.composite.AgentPool}). The shard should discard any state
+	 * related to the previous agent; it will be configured again (with {@link #configure}) before the agent is started.
+	 * 
+	 * <p>
+	 * By default, shards cannot be reused.
+	 * 
+	 * @return <code>true</code> if the shard can be reused; <code>false</code> otherwise.
+	 */
+	default boolean reset()
+	{
+		return false;
+	}
 }
@@ -68,6 +68,15 @@ public class AgentShardCore extends Unit implements AgentShard, Serializable
 	 * Indicates the state of the shard.
 	 */
 	private boolean					isRunning;
+	/**
+	 * Indicates that the shard signals changes of its state by calling {@link #markDirty()} (see
+	 * {@link #enableChangeTracking()}).
+	 */
+	private boolean					tracksChanges		= false;
+	/**
+	 * Indicates that the state of the shard has changed since the last call to {@link #clearDirty()}.
+	 */
+	private transient volatile boolean	dirty;
 	
 	/**
 	 * The constructor assigns the designation to the shard.
@@ -179,12 +188,70 @@ public class AgentShardCore extends Unit implements AgentShard, Serializable
 		return true;
 	}
 	
+	/**
+	 * Discards the configuration of the shard. Overriding methods should reset any other state related to the previous
+	 * agent and should always call <code>super.reset()</code> first.
+	 */
+	@Override
+	public boolean reset()
+	{
+		if(isRunning)
+			return ler(false, "Shard is running");
+		shardConfiguration = new MultiTreeMap();
+		shardConfiguration.ensureLocked();
+		dirty = false;
+		return true;
+	}
+	
 	@Override
 	public boolean isRunning()
 	{
 		return isRunning;
 	}
 	
+	/**
+	 * Extending classes should call this method (e.g. in their constructor) if they call {@link #markDirty()} every
+	 * time their serializable state changes. This allows the state of the shard to be copied while the agent is
+	 * running, e.g. before moving the agent (see {@link #isDirty()}).
+	 */
+	protected void enableChangeTracking()
+	{
+		tracksChanges = true;
+	}
+	
+	/**
+	 * Extending classes which have called {@link #enableChangeTracking()} must call this method after any change of
+	 * their serializable state.
+	 */
+	protected void markDirty()
+	{
+		dirty = true;
+	}
+	
+	/**
+	 * Indicates whether the state of the shard may have changed since the last call to {@link #clearDirty()}. Shards
+	 * which do not track their changes are always considered changed.
+	 * 
+	 * @return <code>true</code> if the state of the shard may have changed.
+	 */
+	public boolean isDirty()
+	{
+		return !tracksChanges || dirty;
+	}
+	
+	/**
+	 * Marks the current state of the shard as not changed. The method should be called immediately <i>before</i> a
+	 * copy of the state is made, so that changes made during the copy are not missed.
+	 * 
+	 * @return <code>true</code> if the shard tracks its changes; otherwise, the call has no effect and the shard will
+	 *         always be considered changed.
+	 */
+	public boolean clearDirty()
+	{
+		dirty = false;
+		return tracksChanges;
+	}
+	
 	/**
 	 * Extending classes can override this method to perform actions when the parent of the shard changes, or when the
 	 * shard is effectively integrated (added) in the agent.
@@ -201,7 +268,7 @@ public class AgentShardCore extends Unit implements AgentShard, Serializable
 	 */
 	protected void parentChangeNotifier(ShardContainer oldParent)
 	{
-		if(parentAgent.getEntityName() != null)
+		if(parentAgent != null && parentAgent.getEntityName() != null)
 			setUnitName(parentAgent.getEntityName() + "." + shardDesignation.toString());
 		// li("parent shift");
 	}
@@ -110,11 +110,14 @@ public class AgentShardDesignation implements Serializable {
 		 * @return the corresponding {@link StandardAgentShard} instance.
 		 */
 		public static StandardAgentShard toStandardAgentShard(String shardName) {
-			try {
-				return StandardAgentShard.valueOf(shardName.toUpperCase());
-			} catch(Exception e) {
+			// no exception for custom names, as it would be thrown by valueOf for each custom shard that is created
+			if(shardName == null)
 				return null;
-			}
+			String name = shardName.toUpperCase();
+			for(StandardAgentShard shard : values())
+				if(shard.name().equals(name))
+					return shard;
+			return null;
 		}
 		
 		/**
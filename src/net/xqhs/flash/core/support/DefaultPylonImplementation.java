@@ -13,6 +13,7 @@ package net.xqhs.flash.core.support;
 
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
 
 import net.xqhs.flash.core.CategoryName;
 import net.xqhs.flash.core.DeploymentConfiguration;
@@ -36,6 +37,11 @@ public class DefaultPylonImplementation extends Unit implements Pylon {
 	 * The default name for instances of this implementation.
 	 */
 	protected static final String DEFAULT_NAME = "Default";
+	/**
+	 * The name of the parameter which, if <code>true</code>, activates the counting of the messages sent through the
+	 * pylon, for each pair of entities (see {@link TrafficMatrix}).
+	 */
+	public static final String TRAFFIC_STATS_PARAMETER = "trafficStats";
 	
 	/**
 	 * Indicates whether the implementation is currently running.
@@ -52,13 +58,55 @@ public class DefaultPylonImplementation extends Unit implements Pylon {
 	 */
 	protected String nodeName;
 	
+	/**
+	 * The counts of the messages sent through the pylon, if activated; <code>null</code> otherwise.
+	 */
+	protected TrafficMatrix traffic = null;
+	
+	/**
+	 * The number of messages sent through the pylon.
+	 */
+	protected LongAdder messageCount = new LongAdder();
+	
 	@Override
 	public boolean configure(MultiTreeMap configuration) {
 		name = configuration.getAValue(DeploymentConfiguration.NAME_ATTRIBUTE_NAME);
+		if(configuration.isSimple(TRAFFIC_STATS_PARAMETER)
+				&& Boolean.parseBoolean(configuration.getAValue(TRAFFIC_STATS_PARAMETER)))
+			traffic = new TrafficMatrix();
 		this.setUnitName(getName());
 		return true;
 	}
 	
+	/**
+	 * Counts a message sent through the pylon, in total and, if counting is active, for its source and destination
+	 * entities. Implementations should call this for every message sent.
+	 * 
+	 * @param source
+	 *            - the source endpoint of the message.
+	 * @param destination
+	 *            - the destination endpoint of the message.
+	 */
+	protected void recordTraffic(String source, String destination) {
+		messageCount.increment();
+		if(traffic != null)
+			traffic.record(source, destination);
+	}
+	
+	/**
+	 * @return the counts of the messages sent through the pylon, or <code>null</code> if counting is not active.
+	 */
+	public TrafficMatrix getTraffic() {
+		return traffic;
+	}
+	
+	/**
+	 * @return the number of messages sent through the pylon since it was created.
+	 */
+	public long getMessageCount() {
+		return messageCount.sum();
+	}
+	
 	@Override
 	public String getName() {
 		return (name == null ? DEFAULT_NAME : name) + " " + CategoryName.PYLON.s();
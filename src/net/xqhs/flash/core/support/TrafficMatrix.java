@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright (C) 2021 Andrei Olaru.
+ *
+ * This file is part of Flash-MAS. The CONTRIBUTORS.md file lists people who have been previously involved with this project.
+ *
+ * Flash-MAS is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * Flash-MAS is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Flash-MAS.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.xqhs.flash.core.support;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.xqhs.flash.core.agent.AgentWave;
+
+/**
+ * Counts the messages sent through a pylon, for each pair of source and destination entities (the first elements of
+ * the source and destination endpoints). Counting is lock-free, as it is done on the path of every message; the counts
+ * are read and reset together by {@link #drainTo(Map)}.
+ *
+ * @author Andrei Olaru
+ */
+public class TrafficMatrix {
+	/**
+	 * The counts, indexed by source entity and by destination entity.
+	 */
+	protected final Map<String, Map<String, LongAdder>> counts = new ConcurrentHashMap<>();
+
+	/**
+	 * Counts a message.
+	 *
+	 * @param source
+	 *            - the source endpoint of the message.
+	 * @param destination
+	 *            - the destination endpoint of the message.
+	 */
+	public void record(String source, String destination) {
+		if(source == null || destination == null)
+			return;
+		String from = entity(source), to = entity(destination);
+		if(from.equals(to))
+			return;
+		counts.computeIfAbsent(from, k -> new ConcurrentHashMap<>()).computeIfAbsent(to, k -> new LongAdder())
+				.increment();
+	}
+
+	/**
+	 * @param endpoint
+	 *            - an endpoint.
+	 * @return the first element of the endpoint.
+	 */
+	protected static String entity(String endpoint) {
+		int separator = endpoint.indexOf(AgentWave.ADDRESS_SEPARATOR);
+		return separator < 0 ? endpoint : endpoint.substring(0, separator);
+	}
+
+	/**
+	 * Adds the counts to the given map, and resets them. Messages counted concurrently with this call are either added
+	 * or kept for the next call.
+	 *
+	 * @param traffic
+	 *            - the map to add the counts to, indexed by source entity and by destination entity.
+	 */
+	public void drainTo(Map<String, Map<String, Long>> traffic) {
+		for(Map.Entry<String, Map<String, LongAdder>> source : counts.entrySet())
+			for(Map.Entry<String, LongAdder> destination : source.getValue().entrySet()) {
+				long count = destination.getValue().sumThenReset();
+				if(count > 0)
+					traffic.computeIfAbsent(source.getKey(), k -> new HashMap<>()).merge(destination.getKey(),
+							Long.valueOf(count), Long::sum);
+			}
+	}
+}
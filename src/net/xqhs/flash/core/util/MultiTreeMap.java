@@ -11,10 +11,21 @@
  ******************************************************************************/
 package net.xqhs.flash.core.util;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -38,6 +49,10 @@ import java.util.Set;
  * For clearer implementation and easier debugging, there are separate methods for the names which are supposed to only
  * hold one value (call them <i>singleton</i> names), both for simple and for tree names. It is possible to change the
  * singleton status of names by calling {@link #makeSingleton}.
+ * <p>
+ * A tree can be {@link #freeze}-d, making it (and all its subtrees) immutable, so that it can be shared. Copies of a
+ * frozen tree, created by {@link #copyOnWrite()}, share its structure until they are modified; only the modified levels
+ * of the hierarchy are then copied.
  * 
  * @author andreiolaru
  */
@@ -67,6 +82,17 @@ public class MultiTreeMap extends MultiValueMap
 	 */
 	protected int				padLen				= 0;
 	
+	/**
+	 * <code>true</code> if the tree has been {@link #freeze}-d and cannot be modified anymore.
+	 */
+	protected boolean			frozen				= false;
+	/**
+	 * The frozen tree this tree was created from by {@link #copyOnWrite()}, if any. The backing map, the lists of
+	 * values and the sets of keys which are (identical to) those of this tree are shared with it and must be copied
+	 * before being modified. Such a tree is serialized in an unshared form (see {@link #writeReplace()}).
+	 */
+	protected MultiTreeMap		sharedWith			= null;
+	
 	/**
 	 * Internal method for adding a name (either simple or hierarchical).
 	 * 
@@ -79,6 +105,7 @@ public class MultiTreeMap extends MultiValueMap
 	 */
 	protected void addKey(String name, boolean isSimple, boolean isSingleton)
 	{
+		unshareKeys();
 		if(name != null && name.length() > padLen)
 			padLen = name.length();
 		if(isSimple)
@@ -121,6 +148,7 @@ public class MultiTreeMap extends MultiValueMap
 	 */
 	protected MultiTreeMap addItem(String name, Object value, boolean isSimple, boolean isSingleton, boolean isFirst)
 	{
+		beforeChange();
 		if(isSimple && treeKeys.contains(name))
 			throw new IllegalArgumentException("Name [" + name
 					+ "] is already present, as a hierarchical name. It cannot be assigned to simple (String) values.");
@@ -142,7 +170,7 @@ public class MultiTreeMap extends MultiValueMap
 			addKey(name, isSimple, isSingleton);
 		if(isSingleton && keyExists)
 			// replace value
-			backingMap.get(name).set(0, value);
+			getValuesForChange(name).set(0, value);
 		else if(isFirst)
 			super.addFirstObject(name, value);
 		else
@@ -382,8 +410,9 @@ public class MultiTreeMap extends MultiValueMap
 	{
 		if(singletonKeys.contains(name))
 			throw new IllegalArgumentException("Singleton name [" + name + "] cannot be cleared.");
+		beforeChange();
 		if(backingMap.containsKey(name))
-			backingMap.get(name).clear();
+			getValuesForChange(name).clear();
 		return this;
 	}
 	
@@ -408,6 +437,8 @@ public class MultiTreeMap extends MultiValueMap
 			throw new IllegalArgumentException("The name [" + name + "] does not exist.");
 		if(!singletonKeys.contains(name) && makeSingleton && backingMap.get(name).size() > 1)
 			throw new IllegalStateException("The name [" + name + "] contains more than 1 value.");
+		beforeChange();
+		unshareKeys();
 		if(singletonKeys.contains(name) && !makeSingleton)
 			singletonKeys.remove(name);
 		if(!singletonKeys.contains(name) && makeSingleton)
@@ -489,6 +520,14 @@ public class MultiTreeMap extends MultiValueMap
 		return new LinkedList<>(treeKeys);
 	}
 	
+	/**
+	 * @return the number of hierarchical names, without building their list.
+	 */
+	public int getHierarchicalNamesCount()
+	{
+		return treeKeys.size();
+	}
+	
 	/**
 	 * Alias for {@link #getHierarchicalNames()}.
 	 * 
@@ -686,12 +725,50 @@ public class MultiTreeMap extends MultiValueMap
 	public List<MultiTreeMap> getTrees(String name)
 	{
 		checkKeyAccess(name, false, false);
+		unshare();
 		List<MultiTreeMap> ret = new LinkedList<>();
 		for(Object t : backingMap.get(name))
 			ret.add((MultiTreeMap) t);
 		return ret;
 	}
 	
+	/**
+	 * Retrieves all simple (String) values associated with the given name (key), without copying them, as an
+	 * unmodifiable list backed by this tree.
+	 * 
+	 * @param name
+	 *            - the name.
+	 * @return the values associated with the name. The list is empty if the name does not exist.
+	 * @throws IllegalArgumentException
+	 *             if the name is used for a singleton name or for a hierarchical name.
+	 */
+	@SuppressWarnings("unchecked")
+	public List<String> getValuesView(String name)
+	{
+		if(!checkKeyAccess(name, true, false))
+			return Collections.emptyList();
+		return Collections.unmodifiableList((List<String>) (List<?>) backingMap.get(name));
+	}
+	
+	/**
+	 * Retrieves all tree values associated with the given non-singleton name (key), without copying them, as an
+	 * unmodifiable list backed by this tree.
+	 * 
+	 * @param name
+	 *            - the name.
+	 * @return the trees associated with the name. The list is empty if the name does not exist.
+	 * @throws IllegalArgumentException
+	 *             if the given name is a simple name (its values are not trees).
+	 */
+	@SuppressWarnings("unchecked")
+	public List<MultiTreeMap> getTreesView(String name)
+	{
+		if(!checkKeyAccess(name, false, false))
+			return Collections.emptyList();
+		unshare();
+		return Collections.unmodifiableList((List<MultiTreeMap>) (List<?>) backingMap.get(name));
+	}
+	
 	/**
 	 * Retrieves one tree associated with the name (key).
 	 * <ul>
@@ -737,6 +814,7 @@ public class MultiTreeMap extends MultiValueMap
 			return newTree;
 		}
 		checkKeyAccess(name, false, isSingletonName);
+		unshare();
 		return (MultiTreeMap) super.getObject(name);
 	}
 	
@@ -840,6 +918,7 @@ public class MultiTreeMap extends MultiValueMap
 	 */
 	public MultiTreeMap copyShallow()
 	{
+		unshare();
 		MultiTreeMap ret = new MultiTreeMap();
 		for(String key : backingMap.keySet())
 			ret.backingMap.put(key, new LinkedList<>(backingMap.get(key)));
@@ -877,6 +956,376 @@ public class MultiTreeMap extends MultiValueMap
 		return ret;
 	}
 	
+	/**
+	 * Makes this tree, and all its subtrees, immutable. Any later attempt to modify them results in an
+	 * {@link IllegalStateException}. Frozen trees can be shared, e.g. between threads, and their
+	 * {@link #copyOnWrite()} copies are created in constant time.
+	 * 
+	 * @return the instance itself.
+	 */
+	public MultiTreeMap freeze()
+	{
+		if(frozen)
+			return this;
+		frozen = true;
+		for(String key : treeKeys)
+			for(Object tree : backingMap.get(key))
+				if(tree != null)
+					((MultiTreeMap) tree).freeze();
+		return this;
+	}
+	
+	/**
+	 * @return <code>true</code> if the tree has been {@link #freeze}-d.
+	 */
+	public boolean isFrozen()
+	{
+		return frozen;
+	}
+	
+	/**
+	 * Creates a copy of this tree which shares the structure of this tree until it is modified. This tree is
+	 * {@link #freeze}-d, so that the copy is not affected by later changes.
+	 * <p>
+	 * When the copy is modified, or when one of its subtrees is retrieved, the backing map of the copy is copied and its
+	 * subtrees are replaced by copy-on-write copies of the subtrees of this tree; the lists of values of a name, as well
+	 * as the sets of keys, are only copied when they are modified. This way, the parts of the hierarchy which are only
+	 * read remain shared, and the subtrees retrieved from the copy can be modified without affecting this tree.
+	 * 
+	 * @return the copy.
+	 */
+	public MultiTreeMap copyOnWrite()
+	{
+		freeze();
+		MultiTreeMap ret = new MultiTreeMap();
+		ret.backingMap = backingMap;
+		ret.simpleKeys = simpleKeys;
+		ret.treeKeys = treeKeys;
+		ret.singletonKeys = singletonKeys;
+		ret.padLen = padLen;
+		ret.sharedWith = this;
+		return ret;
+	}
+	
+	/**
+	 * Serializes a copy-on-write tree as a {@link #copyDeep()} copy, so that neither the frozen tree it was copied from
+	 * is serialized with it, nor the de-serialized tree shares its lists of values with other de-serialized trees
+	 * (e.g. copies of the same tree written to the same stream).
+	 * 
+	 * @return the object to serialize instead of this tree.
+	 * @throws ObjectStreamException
+	 *             never.
+	 */
+	protected Object writeReplace() throws ObjectStreamException
+	{
+		return sharedWith != null ? copyDeep() : this;
+	}
+	
+	/**
+	 * Copies the backing map of a copy-on-write tree, if it is still shared with the frozen tree it was copied from.
+	 * The lists of simple values remain shared; subtrees are replaced by copy-on-write copies of the shared subtrees.
+	 */
+	protected void unshare()
+	{
+		if(sharedWith == null || frozen || backingMap != sharedWith.backingMap)
+			return;
+		Map<String, List<Object>> map = new LinkedHashMap<>(backingMap);
+		for(String key : treeKeys)
+		{
+			List<Object> trees = new ArrayList<>(map.get(key));
+			for(int i = 0; i < trees.size(); i++)
+				if(trees.get(i) != null)
+					trees.set(i, ((MultiTreeMap) trees.get(i)).copyOnWrite());
+			map.put(key, trees);
+		}
+		backingMap = map;
+	}
+	
+	/**
+	 * Copies the sets of keys of a copy-on-write tree, if they are still shared with the frozen tree it was copied
+	 * from. Must be called before modifying the sets of keys.
+	 */
+	protected void unshareKeys()
+	{
+		if(sharedWith == null || simpleKeys != sharedWith.simpleKeys)
+			return;
+		simpleKeys = new LinkedHashSet<>(simpleKeys);
+		treeKeys = new LinkedHashSet<>(treeKeys);
+		singletonKeys = new LinkedHashSet<>(singletonKeys);
+	}
+	
+	/**
+	 * Copies the list of values associated with the name, if it is still shared with the frozen tree this tree was
+	 * copied from. Must be called after {@link #beforeChange()}.
+	 */
+	@Override
+	protected List<Object> getValuesForChange(String name)
+	{
+		List<Object> values = backingMap.get(name);
+		if(sharedWith != null && values != null && values == sharedWith.backingMap.get(name))
+		{
+			values = new ArrayList<>(values);
+			backingMap.put(name, values);
+		}
+		return values;
+	}
+	
+	/**
+	 * Method to be called before any modification of the tree.
+	 * 
+	 * @throws IllegalStateException
+	 *             if the tree is frozen.
+	 */
+	protected void beforeChange()
+	{
+		if(frozen)
+			throw new IllegalStateException("The tree is frozen and cannot be modified; use a copyOnWrite() copy.");
+		unshare();
+	}
+	
+	/**
+	 * Writes this tree in a compact binary form, which can be read back with {@link #readCompact(DataInput)}.
+	 * <p>
+	 * Each distinct string (name or value) is written only once and later referred by its index. Trees which appear
+	 * several times in the hierarchy are also written only once, so that the identity of shared subtrees (as between a
+	 * hierarchy and an index of its trees) is preserved when the tree is read.
+	 * 
+	 * @param out
+	 *            - the output to write to.
+	 * @throws IOException
+	 *             if writing fails or if the tree contains values which are neither {@link String} nor
+	 *             {@link MultiTreeMap} instances.
+	 */
+	public void writeCompact(DataOutput out) throws IOException
+	{
+		Map<MultiTreeMap, Integer> trees = new IdentityHashMap<>();
+		trees.put(this, Integer.valueOf(0));
+		writeCompact(out, new HashMap<String, Integer>(), trees);
+	}
+	
+	/**
+	 * Internal method for writing the contents of a tree in compact form. See {@link #writeCompact(DataOutput)}.
+	 * 
+	 * @param out
+	 *            - the output to write to.
+	 * @param strings
+	 *            - the strings already written, with their indexes.
+	 * @param trees
+	 *            - the trees already written, with their indexes.
+	 * @throws IOException
+	 *             if writing fails or if the tree contains unsupported values.
+	 */
+	protected void writeCompact(DataOutput out, Map<String, Integer> strings, Map<MultiTreeMap, Integer> trees)
+			throws IOException
+	{
+		writeCount(out, backingMap.size());
+		for(Map.Entry<String, List<Object>> entry : backingMap.entrySet())
+		{
+			String key = entry.getKey();
+			boolean simple = !treeKeys.contains(key);
+			writeString(out, key, strings);
+			out.writeByte((simple ? 1 : 0) | (singletonKeys.contains(key) ? 2 : 0));
+			writeCount(out, entry.getValue().size());
+			for(Object value : entry.getValue())
+				if(simple && (value == null || value instanceof String))
+					writeString(out, (String) value, strings);
+				else if(!simple && value instanceof MultiTreeMap)
+				{
+					MultiTreeMap tree = (MultiTreeMap) value;
+					Integer index = trees.get(tree);
+					if(index != null)
+						writeCount(out, index.intValue() + 1);
+					else
+					{
+						trees.put(tree, Integer.valueOf(trees.size()));
+						writeCount(out, 0);
+						tree.writeCompact(out, strings, trees);
+					}
+				}
+				else
+					throw new IOException("Value of name [" + key + "] cannot be written: " + value);
+		}
+	}
+	
+	/**
+	 * Replaces the contents of this tree with a tree read from the given input, as written by
+	 * {@link #writeCompact(DataOutput)}. The contents are only replaced if the whole tree is read successfully.
+	 * 
+	 * @param in
+	 *            - the input to read from.
+	 * @return the instance itself.
+	 * @throws IOException
+	 *             if reading fails or the input is not a correctly written tree.
+	 */
+	public MultiTreeMap readCompact(DataInput in) throws IOException
+	{
+		locked();
+		List<MultiTreeMap> trees = new ArrayList<>();
+		MultiTreeMap read = new MultiTreeMap();
+		trees.add(read);
+		read.readCompact(in, new ArrayList<String>(), trees);
+		beforeChange();
+		sharedWith = null;
+		backingMap = read.backingMap;
+		simpleKeys = read.simpleKeys;
+		treeKeys = read.treeKeys;
+		singletonKeys = read.singletonKeys;
+		padLen = read.padLen;
+		return this;
+	}
+	
+	/**
+	 * Internal method for reading the contents of a tree in compact form. See {@link #readCompact(DataInput)}.
+	 * 
+	 * @param in
+	 *            - the input to read from.
+	 * @param strings
+	 *            - the strings already read, in the order of their indexes.
+	 * @param trees
+	 *            - the trees already read, in the order of their indexes.
+	 * @throws IOException
+	 *             if reading fails or the input is not correct.
+	 */
+	protected void readCompact(DataInput in, List<String> strings, List<MultiTreeMap> trees) throws IOException
+	{
+		for(int nKeys = readCount(in); nKeys > 0; nKeys--)
+		{
+			String key = readString(in, strings);
+			int flags = in.readByte();
+			boolean simple = (flags & 1) != 0;
+			if(backingMap.containsKey(key))
+				throw new IOException("Duplicate name [" + key + "]");
+			addKey(key, simple, (flags & 2) != 0);
+			int nValues = readCount(in);
+			List<Object> values = new ArrayList<>(nValues);
+			backingMap.put(key, values);
+			for(; nValues > 0; nValues--)
+				if(simple)
+					values.add(readString(in, strings));
+				else
+				{
+					int index = readCount(in);
+					if(index > trees.size())
+						throw new IOException("Incorrect tree reference " + index);
+					if(index > 0)
+						values.add(trees.get(index - 1));
+					else
+					{
+						MultiTreeMap tree = new MultiTreeMap();
+						trees.add(tree);
+						tree.readCompact(in, strings, trees);
+						values.add(tree);
+					}
+				}
+		}
+	}
+	
+	/**
+	 * Writes a non-negative number on as few bytes as possible (7 bits per byte).
+	 * 
+	 * @param out
+	 *            - the output.
+	 * @param count
+	 *            - the number.
+	 * @throws IOException
+	 *             if writing fails.
+	 */
+	protected static void writeCount(DataOutput out, int count) throws IOException
+	{
+		int value = count;
+		while((value & ~0x7F) != 0)
+		{
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+	
+	/**
+	 * Reads a number written by {@link #writeCount}.
+	 * 
+	 * @param in
+	 *            - the input.
+	 * @return the number.
+	 * @throws IOException
+	 *             if reading fails or the number is incorrect.
+	 */
+	protected static int readCount(DataInput in) throws IOException
+	{
+		int value = 0;
+		for(int shift = 0; shift < 32; shift += 7)
+		{
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if((b & 0x80) == 0)
+			{
+				if(value < 0)
+					throw new IOException("Incorrect count");
+				return value;
+			}
+		}
+		throw new IOException("Incorrect count");
+	}
+	
+	/**
+	 * Writes a string (possibly <code>null</code>), as a reference to a previously written string, if possible.
+	 * 
+	 * @param out
+	 *            - the output.
+	 * @param value
+	 *            - the string.
+	 * @param strings
+	 *            - the strings already written, with their indexes (starting from 1; 0 stands for <code>null</code>).
+	 * @throws IOException
+	 *             if writing fails.
+	 */
+	protected static void writeString(DataOutput out, String value, Map<String, Integer> strings) throws IOException
+	{
+		if(value == null)
+		{
+			writeCount(out, 0);
+			return;
+		}
+		Integer index = strings.get(value);
+		if(index != null)
+		{
+			writeCount(out, index.intValue());
+			return;
+		}
+		strings.put(value, Integer.valueOf(strings.size() + 1));
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeCount(out, strings.size());
+		writeCount(out, bytes.length);
+		out.write(bytes);
+	}
+	
+	/**
+	 * Reads a string written by {@link #writeString}.
+	 * 
+	 * @param in
+	 *            - the input.
+	 * @param strings
+	 *            - the strings already read, in the order of their indexes.
+	 * @return the string.
+	 * @throws IOException
+	 *             if reading fails or the reference is incorrect.
+	 */
+	protected static String readString(DataInput in, List<String> strings) throws IOException
+	{
+		int index = readCount(in);
+		if(index == 0)
+			return null;
+		if(index <= strings.size())
+			return strings.get(index - 1);
+		if(index > strings.size() + 1)
+			throw new IOException("Incorrect string reference " + index);
+		byte[] bytes = new byte[readCount(in)];
+		in.readFully(bytes);
+		String value = new String(bytes, StandardCharsets.UTF_8);
+		strings.add(value);
+		return value;
+	}
+	
 	/**
 	 * Get the value at the end of a path in a tree. The last name must be a simple name. All other names must be
 	 * hierarchical names. For multiple values, only the first value is checked.
@@ -909,20 +1358,22 @@ public class MultiTreeMap extends MultiValueMap
 	@Override
 	public MultiValueMap removeFirst(String name)
 	{
-		// nothing to do
+		beforeChange();
 		return super.removeFirst(name);
 	}
 	
 	@Override
 	public MultiValueMap remove(String name, Object value)
 	{
-		// nothing to do
+		beforeChange();
 		return super.remove(name, value);
 	}
 	
 	@Override
 	public MultiValueMap removeKey(String name)
 	{
+		beforeChange();
+		unshareKeys();
 		simpleKeys.remove(name);
 		treeKeys.remove(name);
 		singletonKeys.remove(name);
@@ -969,24 +1420,51 @@ public class MultiTreeMap extends MultiValueMap
 	 */
 	protected String toString(String indent, String baseIndent, int depth, boolean shorter)
 	{
+		StringBuilder ret = new StringBuilder();
+		appendTo(ret, indent, baseIndent, depth, shorter);
+		return ret.toString();
+	}
+	
+	/**
+	 * Appends the rendition of this tree to the given builder, so that the rendition of large trees takes linear time.
+	 * See {@link #toString(String, String, int, boolean)}.
+	 * 
+	 * @param ret
+	 *            - the builder to append to.
+	 * @param indent
+	 *            - the current indent.
+	 * @param baseIndent
+	 *            - the indent increment.
+	 * @param depth
+	 *            - maximum depth to explore.
+	 * @param shorter
+	 *            - if <code>true</code>, a shorter output format will be used.
+	 */
+	protected void appendTo(StringBuilder ret, String indent, String baseIndent, int depth, boolean shorter)
+	{
+		int start = ret.length();
 		if(depth == 0)
-			return shorter ? "," : "";
-		String ret = shorter && indent.length() < baseIndent.length() ? ">" : "";
+		{
+			ret.append(shorter ? "," : "");
+			return;
+		}
+		ret.append(shorter && indent.length() < baseIndent.length() ? ">" : "");
 		boolean justtree = false;
 		for(String name : backingMap.keySet())
 			if(simpleKeys.contains(name))
 			{
 				if(shorter)
 					continue;
-				ret += (justtree || shorter ? "" : "\n") + indent
-						+ String.format("%-" + (padLen + 4) + "s", "[" + name + ("]" + (isSingleton(name) ? ":" : ">")))
-						+ backingMap.get(name);
+				ret.append(justtree || shorter ? "" : "\n").append(indent)
+						.append(String.format("%-" + (padLen + 4) + "s",
+								"[" + name + ("]" + (isSingleton(name) ? ":" : ">"))))
+						.append(backingMap.get(name));
 				justtree = false;
 			}
 			else
 			{
-				ret += (justtree || shorter ? "" : "\n") + indent + (shorter ? "" : "[") + name
-						+ (shorter ? "" : ("]" + (isSingleton(name) ? "" : ">")));
+				ret.append(justtree || shorter ? "" : "\n").append(indent).append(shorter ? "" : "[").append(name)
+						.append(shorter ? "" : ("]" + (isSingleton(name) ? "" : ">")));
 				justtree = true;
 				boolean first = true;
 				for(Object o : backingMap.get(name))
@@ -996,16 +1474,15 @@ public class MultiTreeMap extends MultiValueMap
 					 */
 					if (o instanceof MultiTreeMap) {
 						MultiTreeMap mtm = (MultiTreeMap) o;
-						ret += (first ? "" : (indent + baseIndent + (shorter ? "" : "]>")))
-								+ mtm.toString(indent + baseIndent, baseIndent, depth - 1, shorter);
+						ret.append(first ? "" : (indent + baseIndent + (shorter ? "" : "]>")));
+						mtm.appendTo(ret, indent + baseIndent, baseIndent, depth - 1, shorter);
 						first = false;
 					}
 				}
 			}
 		// if(ret.length() > 0)
-		String sep = shorter ? "," : "\n";
-		if(!ret.endsWith(sep))
-			ret += sep;
-		return ret;
+		char sep = shorter ? ',' : '\n';
+		if(ret.length() == start || ret.charAt(ret.length() - 1) != sep)
+			ret.append(sep);
 	}
 }
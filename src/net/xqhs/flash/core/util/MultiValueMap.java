@@ -63,8 +63,11 @@ public class MultiValueMap extends Config implements Serializable {
 	
 	/**
 	 * A map simulating a set of entries String &rarr; Object.
+	 * <p>
+	 * The map and its lists are only replaced by subclasses which share them between instances (see
+	 * {@link MultiTreeMap#copyOnWrite()}).
 	 */
-	protected final Map<String, List<Object>> backingMap = new LinkedHashMap<>();
+	protected Map<String, List<Object>> backingMap = new LinkedHashMap<>();
 	
 	/**
 	 * Internal method that actually performs insertion.
@@ -82,7 +85,7 @@ public class MultiValueMap extends Config implements Serializable {
 		locked();
 		if(!backingMap.containsKey(name))
 			backingMap.put(name, new ArrayList<>());
-		List<Object> list = backingMap.get(name);
+		List<Object> list = getValuesForChange(name);
 		if(insertFirst)
 			list.add(0, value);
 		else
@@ -90,6 +93,18 @@ public class MultiValueMap extends Config implements Serializable {
 		return this;
 	}
 	
+	/**
+	 * Retrieves the list of values associated with a name, in order to modify it. Subclasses which share lists of
+	 * values between instances override this in order to copy a shared list before it is modified.
+	 * 
+	 * @param name
+	 *            - the name (key).
+	 * @return the list of values associated with the name, or <code>null</code> if the name does not exist.
+	 */
+	protected List<Object> getValuesForChange(String name) {
+		return backingMap.get(name);
+	}
+	
 	/**
 	 * Adds a new parameter entry.
 	 * <p>
@@ -313,7 +328,7 @@ public class MultiValueMap extends Config implements Serializable {
 	public MultiValueMap removeFirst(String name) {
 		if(!backingMap.containsKey(name))
 			throw new IllegalArgumentException("Key [" + name + "] does not exist in the map.");
-		backingMap.get(name).remove(0);
+		getValuesForChange(name).remove(0);
 		if(backingMap.get(name).isEmpty())
 			removeKey(name);
 		return this;
@@ -342,7 +357,7 @@ public class MultiValueMap extends Config implements Serializable {
 		if(backingMap.get(name).size() == 1)
 			removeKey(name);
 		else
-			backingMap.get(name).remove(value);
+			getValuesForChange(name).remove(value);
 		return this;
 	}
 	
@@ -49,6 +49,11 @@ public class PlatformUtils
 	ANDROID,
 	}
 	
+	/**
+	 * The {@link ClassFactory} of the current platform, created when first needed.
+	 */
+	protected static ClassFactory classFactory = null;
+	
 	/**
 	 * @return the current platform, as an instance of {@link Platform}.
 	 */
@@ -80,18 +85,22 @@ public class PlatformUtils
 	}
 	
 	/**
-	 * @return a {@link ClassFactory} instance to create new instances.
+	 * @return the {@link ClassFactory} instance of the platform, to create new instances. The instance is created at the
+	 *         first call and shared afterwards, so that the classes and constructors it caches are reused.
 	 */
-	public static ClassFactory getClassFactory()
+	public static synchronized ClassFactory getClassFactory()
 	{
+		if(classFactory != null)
+			return classFactory;
 		switch(getPlatform())
 		{
 		case PC:
-			return new PCClassFactory();
+			classFactory = new PCClassFactory();
+			break;
 		default:
 			break;
 		}
-		return null;
+		return classFactory;
 	}
 	
 	/**
@@ -243,6 +243,7 @@ public class LocalPylon extends DefaultPylonImplementation implements RunnableEn
 	 * @return <code>true</code> if the message was sent successfully or if a thread is used.
 	 */
 	protected boolean send(String source, String destination, String content) {
+		recordTraffic(source, destination);
 		if(useThread) {
 			Vector<String> message = new Vector<>(3);
 			message.add(source);
@@ -11,29 +11,91 @@
  ******************************************************************************/
 package net.xqhs.flash.pc;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import net.xqhs.flash.core.util.ClassFactory;
 import net.xqhs.flash.core.util.MultiTreeMap;
+import net.xqhs.flash.core.util.PlatformUtils;
 
 /**
  * Class instantiation for the PC platform.
+ * <p>
+ * Unless created as not caching, the factory memoises the classes it has loaded and, for each class and constructor
+ * signature, a {@link MethodHandle} of the constructor, so that repeated instantiations of the same class cost a direct
+ * call, with no class or constructor lookup. The instance returned by {@link PlatformUtils#getClassFactory()} is shared
+ * by the whole platform.
+ * <p>
+ * All methods are thread-safe.
  * 
  * @author andreiolaru
  */
 public class PCClassFactory implements ClassFactory
 {
+	/**
+	 * Separates the class name and the signature in the keys of {@link #constructors}.
+	 */
+	protected static final String				SIGNATURE_SEPARATOR	= "#";
+	/**
+	 * The signature of constructors taking a {@link MultiTreeMap}, in the keys of {@link #constructors}.
+	 */
+	protected static final String				TREE_SIGNATURE		= "tree";
+	
+	/**
+	 * <code>true</code> if classes and constructors are memoised.
+	 */
+	protected final boolean						cached;
+	/**
+	 * The classes which have been loaded, indexed by name.
+	 */
+	protected final Map<String, Class<?>>		classes				= new ConcurrentHashMap<>();
+	/**
+	 * The constructors which have been used, indexed by class name and signature (the number of {@link String}
+	 * arguments, or {@link #TREE_SIGNATURE}), each adapted to take its arguments as an array and return an
+	 * {@link Object}.
+	 */
+	protected final Map<String, MethodHandle>	constructors		= new ConcurrentHashMap<>();
+	
+	/**
+	 * Creates a caching factory.
+	 */
+	public PCClassFactory()
+	{
+		this(true);
+	}
+	
+	/**
+	 * Creates a factory.
+	 * 
+	 * @param cache
+	 *            - if <code>false</code>, classes and constructors are looked up anew for each instantiation.
+	 */
+	public PCClassFactory(boolean cache)
+	{
+		cached = cache;
+	}
+	
 	@Override
 	public boolean canLoadClass(String className)
 	{
 		if(className == null)
 			return false;
+		if(cached && classes.containsKey(className))
+			return true;
 		try
 		{
-			Class.forName(className);
+			Class<?> loaded = Class.forName(className);
+			if(cached)
+				classes.put(className, loaded);
 			return true;
 		} catch(ClassNotFoundException e)
 		{
@@ -46,30 +108,70 @@ public class PCClassFactory implements ClassFactory
 			throws ClassNotFoundException, InstantiationException, NoSuchMethodException, IllegalAccessException,
 			InvocationTargetException
 	{
-		ClassLoader cl = null;
-		cl = new ClassLoader(PCClassFactory.class.getClassLoader()) {
-			// nothing to extend
-		};
-		Object ret;
+		Object[] arguments;
+		Class<?>[] argumentTypes;
 		if(splitArguments)
 		{
 			List<String> constructorArguments = new LinkedList<>();
 			if(creationData != null)
 				for(String key : creationData.getSimpleNames())
 					constructorArguments.add(creationData.getValue(key));
-			Class<?>[] argumentTypes = new Class<?>[constructorArguments.size()];
-			int i = 0;
-			for(Object obj : constructorArguments)
-				argumentTypes[i++] = obj.getClass();
-			Constructor<?> constructor = cl.loadClass(className).getConstructor(argumentTypes);
-			ret = constructor.newInstance(constructorArguments.toArray());
+			arguments = constructorArguments.toArray();
+			argumentTypes = new Class<?>[arguments.length];
+			Arrays.fill(argumentTypes, String.class);
 		}
 		else
 		{
-			ret = cl.loadClass(className).getConstructor(new Class[] { MultiTreeMap.class })
-					.newInstance(creationData);
+			arguments = new Object[] { creationData };
+			argumentTypes = new Class[] { MultiTreeMap.class };
+		}
+		if(!cached)
+			return loadClass(className).getConstructor(argumentTypes).newInstance(arguments);
+		
+		String key = className + SIGNATURE_SEPARATOR
+				+ (splitArguments ? String.valueOf(arguments.length) : TREE_SIGNATURE);
+		MethodHandle constructor = constructors.get(key);
+		if(constructor == null)
+		{
+			Class<?> loaded = loadClass(className);
+			if(Modifier.isAbstract(loaded.getModifiers()))
+				throw new InstantiationException(className);
+			Constructor<?> reflected = loaded.getConstructor(argumentTypes);
+			constructor = MethodHandles.publicLookup().unreflectConstructor(reflected)
+					.asSpreader(Object[].class, arguments.length)
+					.asType(MethodType.methodType(Object.class, Object[].class));
+			constructors.put(key, constructor);
+		}
+		try
+		{
+			return constructor.invokeExact(arguments);
+		} catch(Throwable e)
+		{
+			throw new InvocationTargetException(e);
 		}
-		return ret;
 	}
 	
+	/**
+	 * Loads a class, or retrieves it from {@link #classes}.
+	 * 
+	 * @param className
+	 *            - the fully qualified name of the class.
+	 * @return the class.
+	 * @throws ClassNotFoundException
+	 *             if the class was not found.
+	 */
+	protected Class<?> loadClass(String className) throws ClassNotFoundException
+	{
+		if(!cached)
+			return new ClassLoader(PCClassFactory.class.getClassLoader()) {
+				// nothing to extend
+			}.loadClass(className);
+		Class<?> loaded = classes.get(className);
+		if(loaded == null)
+		{
+			loaded = PCClassFactory.class.getClassLoader().loadClass(className);
+			classes.put(className, loaded);
+		}
+		return loaded;
+	}
 }
@@ -220,6 +220,7 @@ public class WebSocketPylon extends DefaultPylonImplementation {
 			@Override
 			@SuppressWarnings("unchecked")
 			public boolean send(String source, String destination, String content) {
+				recordTraffic(source, destination);
 				if(messageReceivers.containsKey(destination)) {
 					messageReceivers.get(destination).receive(source, destination, content);
 					return true;
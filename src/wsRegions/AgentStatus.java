@@ -1,30 +1,29 @@
 package wsRegions;
 
-import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.java_websocket.WebSocket;
 
+/**
+ * The state of an agent, as known by its birth Region-Server. The status, the connection and the last location of the
+ * agent form a {@link Location} which is replaced atomically, so that status transitions can be made with
+ * compare-and-set and do not need locking.
+ */
 public class AgentStatus {
     /**
      * The agent name.
      */
     private String name;
     /**
-     * The Websocket object, used for sending messages to the agent.
+     * The current status, connection and location of the agent.
      */
-    private WebSocket clientConnection;
-    /**
-     * Agent status.
-     */
-    private Status status;
-    /**
-     * Agent last location known by the birth Region-Server.
-     */
-    private String lastLocation;
+    private final AtomicReference<Location> location;
     /**
      * Saved messages for the agents that are OFFLINE.
      */
-    private final LinkedList<String> messages;
+    private final Queue<String> messages;
 
     public enum Status {
         /**
@@ -41,57 +40,122 @@ public class AgentStatus {
         REMOTE,
     }
 
+    /**
+     * An immutable snapshot of the status of the agent, together with the information needed to reach it in that
+     * status.
+     */
+    public static class Location {
+        /**
+         * Agent status.
+         */
+        final Status status;
+        /**
+         * The Websocket object, used for sending messages to the agent.
+         */
+        final WebSocket clientConnection;
+        /**
+         * Agent last location known by the birth Region-Server.
+         */
+        final String lastLocation;
+
+        Location(Status status, WebSocket clientConnection, String lastLocation) {
+            this.status = status;
+            this.clientConnection = clientConnection;
+            this.lastLocation = lastLocation;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public WebSocket getClientConnection() {
+            return clientConnection;
+        }
+
+        public String getLastLocation() {
+            return lastLocation;
+        }
+    }
+
     public AgentStatus(String name, WebSocket webSocket, Status status, String lastLocation) {
-        this.clientConnection = webSocket;
         this.name = name;
-        this.lastLocation = lastLocation;
-        this.status = status;
-        this.messages = new LinkedList<>();
+        this.location = new AtomicReference<>(new Location(status, webSocket, lastLocation));
+        this.messages = new ConcurrentLinkedQueue<>();
     }
 
     public String getName() {
         return name;
     }
 
+    /**
+     * @return a consistent snapshot of the status, connection and last location of the agent.
+     */
+    public Location getLocation() {
+        return location.get();
+    }
+
     public WebSocket getClientConnection() {
-        return clientConnection;
+        return location.get().clientConnection;
     }
 
     public Status getStatus() {
-        return status;
+        return location.get().status;
     }
 
     public String getLastLocation() {
-        return lastLocation;
+        return location.get().lastLocation;
     }
 
     public void setName(String name) {
         this.name = name;
     }
 
-    public void setClientConnection(WebSocket clientConnection) {
-        this.clientConnection = clientConnection;
-    }
-
-    public void setStatus(Status status) {
-        this.status = status;
-    }
-
-    public void setLastLocation(String lastLocation) {
-        this.lastLocation = lastLocation;
+    /**
+     * Atomically changes the status of the agent, if the current status is the expected one.
+     *
+     * @param expected
+     *            - the expected current status.
+     * @param status
+     *            - the new status.
+     * @param clientConnection
+     *            - the new connection with the agent, or <code>null</code> to keep the current one.
+     * @param lastLocation
+     *            - the new location of the agent, or <code>null</code> to keep the current one.
+     * @return <code>true</code> if the transition was made, <code>false</code> if the status was not the expected
+     *         one.
+     */
+    public boolean transition(Status expected, Status status, WebSocket clientConnection, String lastLocation) {
+        while (true) {
+            Location current = location.get();
+            if (current.status != expected)
+                return false;
+            Location next = new Location(status,
+                    clientConnection != null ? clientConnection : current.clientConnection,
+                    lastLocation != null ? lastLocation : current.lastLocation);
+            if (location.compareAndSet(current, next))
+                return true;
+        }
     }
 
     public void addMessage(String mes) {
         this.messages.add(mes);
     }
 
-    public LinkedList<String> getMessages() {
+    /**
+     * @return the oldest saved message, which is removed, or <code>null</code> if there are no saved messages.
+     */
+    public String pollMessage() {
+        return messages.poll();
+    }
+
+    public Queue<String> getMessages() {
         return messages;
     }
 
     public String toString() {
-		return "<" + this.name + "|" + this.status
-				+ (this.name.startsWith(lastLocation) ? "" : "|" + lastLocation + "| [" + messages.size() + "] msgs")
+		Location l = location.get();
+		return "<" + this.name + "|" + l.status
+				+ (this.name.startsWith(l.lastLocation) ? "" : "|" + l.lastLocation + "| [" + messages.size() + "] msgs")
 				+ ">";
     }
 }
@@ -0,0 +1,394 @@
+package wsRegions;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+
+import org.yaml.snakeyaml.Yaml;
+
+import wsRegions.MessageFactory.ActionType;
+
+/**
+ * Asynchronous log of monitoring events, in binary form.
+ * <p>
+ * Events are appended as records to a ring buffer which is allocated once, at construction. A background thread drains
+ * the buffer to the file in batches, so that the threads recording events only copy a few bytes while holding the lock.
+ * If the buffer is full, recording threads wait for the writer (no events are lost).
+ * <p>
+ * The file starts with {@link #MAGIC} and {@link #VERSION} (one int each), followed by records with the fixed layout:
+ * <ul>
+ * <li>int - length of the record, in bytes, including this field;
+ * <li>long - the time of the event, in milliseconds;
+ * <li>byte - the ordinal of the {@link ActionType};
+ * <li>short - length of the source, -1 if <code>null</code>;
+ * <li>short - length of the destination, -1 if <code>null</code>;
+ * <li>int - length of the content, -1 if <code>null</code>;
+ * <li>the UTF-8 bytes of the source, the destination, and the content.
+ * </ul>
+ * The file can be converted to the YAML format written by {@link MonitoringEntity} with {@link #convertToYaml}, or by
+ * running this class with the binary file(s) as arguments.
+ *
+ * @author Andrei Olaru
+ */
+public class BinaryMonitoringLog {
+    /**
+     * Marks the beginning of the file.
+     */
+    public static final int MAGIC = 0x464D4C47;
+    /**
+     * The version of the record layout.
+     */
+    public static final int VERSION = 1;
+    /**
+     * The size of the fixed part of each record.
+     */
+    static final int HEADER_SIZE = 4 + 8 + 1 + 2 + 2 + 4;
+    /**
+     * Default capacity of the ring buffer.
+     */
+    public static final int DEFAULT_CAPACITY = 1 << 22;
+    /**
+     * The writer is woken up as soon as this many bytes are pending; otherwise it writes every
+     * {@link #FLUSH_INTERVAL} ms.
+     */
+    static final int BATCH_SIZE = 1 << 16;
+    /**
+     * Maximum interval between writes, in ms.
+     */
+    static final long FLUSH_INTERVAL = 200;
+
+    /**
+     * The ring buffer.
+     */
+    private final byte[] ring;
+    /**
+     * Total number of bytes appended.
+     */
+    private long head = 0;
+    /**
+     * Total number of bytes written to the file.
+     */
+    private long tail = 0;
+    /**
+     * Lock for {@link #head} and {@link #tail}.
+     */
+    private final Object lock = new Object();
+    /**
+     * The output.
+     */
+    private final OutputStream out;
+    /**
+     * The writer thread.
+     */
+    private final Thread writer;
+    /**
+     * <code>false</code> after {@link #close()} has been called.
+     */
+    private boolean running = true;
+
+    /**
+     * Creates the log, writes the file header and starts the writer thread.
+     *
+     * @param file
+     *            - the file to write to. It is overwritten.
+     * @param capacity
+     *            - the capacity of the ring buffer, in bytes.
+     * @throws IOException
+     *             if the file cannot be opened.
+     */
+    public BinaryMonitoringLog(File file, int capacity) throws IOException {
+        ring = new byte[capacity];
+        out = new FileOutputStream(file, false);
+        put(MAGIC);
+        put(VERSION);
+        writer = new Thread(this::drain, "monitoring-log-" + file.getName());
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Appends an event to the log. Records larger than the buffer have their content truncated. If the buffer is full,
+     * waits for it to be written; if interrupted meanwhile, the record is dropped and the thread remains interrupted.
+     *
+     * @param time
+     *            - the time of the event.
+     * @param action
+     *            - the action type.
+     * @param source
+     *            - the source.
+     * @param destination
+     *            - the destination.
+     * @param content
+     *            - the content.
+     */
+    public void append(long time, ActionType action, String source, String destination, String content) {
+        byte[] src = source == null ? null : source.getBytes(StandardCharsets.UTF_8);
+        byte[] dst = destination == null ? null : destination.getBytes(StandardCharsets.UTF_8);
+        byte[] cnt = content == null ? null : content.getBytes(StandardCharsets.UTF_8);
+        int fixed = HEADER_SIZE + (src == null ? 0 : Math.min(src.length, Short.MAX_VALUE))
+                + (dst == null ? 0 : Math.min(dst.length, Short.MAX_VALUE));
+        int cntLen = cnt == null ? -1 : Math.min(cnt.length, ring.length - fixed);
+        int srcLen = src == null ? -1 : Math.min(src.length, Short.MAX_VALUE);
+        int dstLen = dst == null ? -1 : Math.min(dst.length, Short.MAX_VALUE);
+        int length = fixed + Math.max(cntLen, 0);
+        synchronized(lock) {
+            while(running && ring.length - (head - tail) < length)
+                try {
+                    lock.wait();
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            if(!running)
+                return;
+            put(length);
+            put((int) (time >>> 32));
+            put((int) time);
+            putByte((byte) action.ordinal());
+            putByte((byte) (srcLen >> 8));
+            putByte((byte) srcLen);
+            putByte((byte) (dstLen >> 8));
+            putByte((byte) dstLen);
+            put(cntLen);
+            putBytes(src, srcLen);
+            putBytes(dst, dstLen);
+            putBytes(cnt, cntLen);
+            if(head - tail >= BATCH_SIZE)
+                lock.notifyAll();
+        }
+    }
+
+    /**
+     * Writes an int at {@link #head}. Must be called while holding the lock, with enough space available.
+     *
+     * @param v
+     *            - the value.
+     */
+    private void put(int v) {
+        putByte((byte) (v >>> 24));
+        putByte((byte) (v >>> 16));
+        putByte((byte) (v >>> 8));
+        putByte((byte) v);
+    }
+
+    /**
+     * Writes a byte at {@link #head}.
+     *
+     * @param b
+     *            - the value.
+     */
+    private void putByte(byte b) {
+        ring[(int) (head++ % ring.length)] = b;
+    }
+
+    /**
+     * Writes the first <code>len</code> bytes of the array at {@link #head}.
+     *
+     * @param bytes
+     *            - the bytes.
+     * @param len
+     *            - how many bytes to write; nothing is written if negative.
+     */
+    private void putBytes(byte[] bytes, int len) {
+        if(len <= 0)
+            return;
+        int pos = (int) (head % ring.length);
+        int first = Math.min(len, ring.length - pos);
+        System.arraycopy(bytes, 0, ring, pos, first);
+        System.arraycopy(bytes, first, ring, 0, len - first);
+        head += len;
+    }
+
+    /**
+     * The activity of the writer thread: waits for a batch of records, or for {@link #FLUSH_INTERVAL}, and writes all
+     * pending bytes to the file, outside the lock.
+     */
+    private void drain() {
+        while(true) {
+            long from, to;
+            boolean exit;
+            synchronized(lock) {
+                if(running && head - tail < BATCH_SIZE)
+                    try {
+                        lock.wait(FLUSH_INTERVAL);
+                    } catch(InterruptedException e) {
+                        // write what is available
+                    }
+                from = tail;
+                to = head;
+                exit = !running;
+            }
+            if(to > from)
+                try {
+                    int pos = (int) (from % ring.length);
+                    int len = (int) (to - from);
+                    int first = Math.min(len, ring.length - pos);
+                    out.write(ring, pos, first);
+                    if(len > first)
+                        out.write(ring, 0, len - first);
+                } catch(IOException e) {
+                    e.printStackTrace();
+                }
+            synchronized(lock) {
+                tail = to;
+                lock.notifyAll();
+            }
+            if(exit && to == head)
+                break;
+        }
+        try {
+            out.close();
+        } catch(IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Stops accepting records, writes all pending records and closes the file. If interrupted, returns without waiting
+     * for the writing to complete, and the thread remains interrupted.
+     */
+    public void close() {
+        synchronized(lock) {
+            running = false;
+            lock.notifyAll();
+        }
+        try {
+            writer.join();
+        } catch(InterruptedException e) {
+            // the writer thread will complete anyway
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Receives the records read from a binary log.
+     */
+    public interface RecordVisitor {
+        /**
+         * @param time
+         *            - the time of the event.
+         * @param action
+         *            - the action type.
+         * @param source
+         *            - the source.
+         * @param destination
+         *            - the destination.
+         * @param content
+         *            - the content.
+         */
+        void visit(long time, ActionType action, String source, String destination, String content);
+    }
+
+    /**
+     * Reads a binary log. The log may be read while it is being written; a record which is incomplete at the end of
+     * the file is ignored.
+     *
+     * @param binary
+     *            - the binary log.
+     * @param visitor
+     *            - receives each record, in order.
+     * @return the number of records read.
+     * @throws IOException
+     *             if the file cannot be read or has the wrong format.
+     */
+    public static int read(File binary, RecordVisitor visitor) throws IOException {
+        ActionType[] actions = ActionType.values();
+        int n = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(binary)))) {
+            if(in.readInt() != MAGIC)
+                throw new IOException("Not a binary monitoring log: " + binary);
+            int version = in.readInt();
+            if(version != VERSION)
+                throw new IOException("Unsupported binary monitoring log version " + version);
+            while(true) {
+                long time;
+                ActionType action;
+                String source, destination, content;
+                try {
+                    in.readInt(); // record length, not needed for sequential reading
+                    time = in.readLong();
+                    action = actions[in.readByte()];
+                    int srcLen = in.readShort();
+                    int dstLen = in.readShort();
+                    int cntLen = in.readInt();
+                    source = readString(in, srcLen);
+                    destination = readString(in, dstLen);
+                    content = readString(in, cntLen);
+                } catch(EOFException e) {
+                    break;
+                }
+                visitor.visit(time, action, source, destination, content);
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Converts a binary log to the YAML format written by {@link MonitoringEntity}.
+     *
+     * @param binary
+     *            - the binary log.
+     * @param output
+     *            - the output for the YAML log.
+     * @return the number of converted records.
+     * @throws IOException
+     *             if the file cannot be read or has the wrong format.
+     */
+    public static int convertToYaml(File binary, Writer output) throws IOException {
+        Yaml yaml = MonitoringEntity.createYaml();
+        int n = read(binary, (time, action, source, destination, content) -> yaml.dump(
+                MonitoringEntity.logEntry(source, destination, action, content, String.valueOf(new Timestamp(time))),
+                output));
+        output.flush();
+        return n;
+    }
+
+    /**
+     * @param in
+     *            - the input.
+     * @param len
+     *            - the length of the string, -1 for <code>null</code>.
+     * @return the string.
+     * @throws IOException
+     *             if reading fails.
+     */
+    private static String readString(DataInputStream in, int len) throws IOException {
+        if(len < 0)
+            return null;
+        byte[] b = new byte[len];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Offline converter: converts each given <code>.bin</code> log to a <code>.yaml</code> log with the same name,
+     * which can be used by tools reading the YAML logs.
+     *
+     * @param args
+     *            - the binary log files.
+     * @throws IOException
+     *             if conversion fails.
+     */
+    public static void main(String[] args) throws IOException {
+        for(String name : args) {
+            File bin = new File(name);
+            String yamlName = name.endsWith(MonitoringEntity.BINARY_EXTENSION)
+                    ? name.substring(0, name.length() - MonitoringEntity.BINARY_EXTENSION.length())
+                            + MonitoringEntity.YAML_EXTENSION
+                    : name + MonitoringEntity.YAML_EXTENSION;
+            try (Writer w = new FileWriter(yamlName, false)) {
+                System.out.println(name + " -> " + yamlName + ": " + convertToYaml(bin, w) + " records");
+            }
+        }
+    }
+}
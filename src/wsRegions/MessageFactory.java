@@ -1,11 +1,14 @@
 package wsRegions;
 
+import java.io.IOException;
+
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-
-import java.sql.Timestamp;
-import java.util.HashMap;
-import java.util.Map;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
 public class MessageFactory {
 
@@ -27,14 +30,22 @@ public class MessageFactory {
         CONTENT,
         /**
          * Message sent from agent to the Region-Server, when it wants to leave to another node.
-         * Contains the next fields: type, node (pylon name), source (sender agent name)
+         * Contains the next fields: type, node (pylon name), source (sender agent name), and optionally destination (the
+         * Region-Server of the destination node, which will buffer messages for the agent while it moves)
          */
         REQ_LEAVE,
         /**
          * Message sent from Region-Server to the Region-Server from the birthplace of the agent, when that agent wants to leave to another node.
-         * Contains the next fields: type, node (pylon name), source (sender server name), agentName (the agent name that wants to leave)
+         * Contains the next fields: type, node (pylon name), source (sender server name), agentName (the agent name that wants to leave),
+         * and optionally destination (the Region-Server of the destination node)
          */
         REQ_BUFFER,
+        /**
+         * Message sent from the Region-Server from the birthplace of the agent to the Region-Server of the destination, before the agent
+         * leaves, so that messages for the agent are buffered at the destination until it connects.
+         * Contains the next fields: type, node (pylon name), source (sender server name), agentName (the agent name that will arrive)
+         */
+        REQ_ARRIVAL,
         /**
          * Message sent from Region-Server to the Region-Server from the birthplace of the agent, when the agent arrives in the new region.
          * Contains the next fields: type, node (pylon name), source (agent name), lastLocation (agent last location)
@@ -71,6 +82,252 @@ public class MessageFactory {
         ARRIVED_ON_NODE,
     }
 
+    /**
+     * A message exchanged between agents and Region-Servers. Which fields are set depends on the {@link MessageType}
+     * (see the documentation of each type); fields which are not set are <code>null</code> and are not encoded.
+     */
+    public static class Message {
+        /**
+         * The message type.
+         */
+        MessageType type;
+        /**
+         * The pylon name.
+         */
+        String      node;
+        /**
+         * The sender name.
+         */
+        String      source;
+        /**
+         * The receiver name.
+         */
+        String      destination;
+        /**
+         * The message content.
+         */
+        String      content;
+        /**
+         * The name of the agent that the message refers to.
+         */
+        String      agentName;
+        /**
+         * The last location of the agent that the message refers to.
+         */
+        String      lastLocation;
+
+        /**
+         * Creates a message with the fields common to all message types.
+         *
+         * @param type
+         *            - message type
+         * @param node
+         *            - the pylon name
+         * @param source
+         *            - the sender name
+         */
+        public Message(MessageType type, String node, String source) {
+            this.type = type;
+            this.node = node;
+            this.source = source;
+        }
+
+        public MessageType getType() {
+            return type;
+        }
+
+        public String getNode() {
+            return node;
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        public String getDestination() {
+            return destination;
+        }
+
+        public String getContent() {
+            return content;
+        }
+
+        public String getAgentName() {
+            return agentName;
+        }
+
+        public String getLastLocation() {
+            return lastLocation;
+        }
+
+        public Message setDestination(String destination) {
+            this.destination = destination;
+            return this;
+        }
+
+        public Message setContent(String content) {
+            this.content = content;
+            return this;
+        }
+
+        public Message setAgentName(String agentName) {
+            this.agentName = agentName;
+            return this;
+        }
+
+        public Message setLastLocation(String lastLocation) {
+            this.lastLocation = lastLocation;
+            return this;
+        }
+
+        /**
+         * @return the encoded form of the message, ready to be sent.
+         */
+        public String encode() {
+            return GSON.toJson(this, Message.class);
+        }
+    }
+
+    /**
+     * A notification delivered to the messaging shard and to the monitor entity.
+     */
+    public static class MonitorNotification {
+        /**
+         * The action type.
+         */
+        ActionType action;
+        /**
+         * Information extra.
+         */
+        String     content;
+        /**
+         * The time of the action.
+         */
+        String     time;
+        /**
+         * The address of the Region-Server, if the notification informs the shard where to connect.
+         */
+        String     server;
+
+        /**
+         * @param action
+         *            - action type
+         * @param content
+         *            - information extra
+         * @param time
+         *            - the time of the action
+         */
+        public MonitorNotification(ActionType action, String content, String time) {
+            this.action = action;
+            this.content = content;
+            this.time = time;
+        }
+
+        public ActionType getAction() {
+            return action;
+        }
+
+        public String getContent() {
+            return content;
+        }
+
+        public String getTime() {
+            return time;
+        }
+
+        public String getServer() {
+            return server;
+        }
+
+        public MonitorNotification setServer(String server) {
+            this.server = server;
+            return this;
+        }
+
+        /**
+         * @return the encoded form of the notification.
+         */
+        public String encode() {
+            return GSON.toJson(this, MonitorNotification.class);
+        }
+    }
+
+    /**
+     * Streaming adapter for {@link Message}, avoiding reflection and intermediate maps.
+     */
+    static class MessageAdapter extends TypeAdapter<Message> {
+        @Override
+        public void write(JsonWriter out, Message m) throws IOException {
+            if(m == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("type").value(m.type == null ? null : m.type.name());
+            out.name("node").value(m.node);
+            out.name("source").value(m.source);
+            if(m.destination != null)
+                out.name("destination").value(m.destination);
+            if(m.content != null)
+                out.name("content").value(m.content);
+            if(m.agentName != null)
+                out.name("agentName").value(m.agentName);
+            if(m.lastLocation != null)
+                out.name("lastLocation").value(m.lastLocation);
+            out.endObject();
+        }
+
+        @Override
+        public Message read(JsonReader in) throws IOException {
+            if(in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            Message m = new Message(null, null, null);
+            in.beginObject();
+            while(in.hasNext()) {
+                String name = in.nextName();
+                if(in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    continue;
+                }
+                switch(name) {
+                case "type":
+                    m.type = MessageType.valueOf(in.nextString());
+                    break;
+                case "node":
+                    m.node = in.nextString();
+                    break;
+                case "source":
+                    m.source = in.nextString();
+                    break;
+                case "destination":
+                    m.destination = in.nextString();
+                    break;
+                case "content":
+                    m.content = in.nextString();
+                    break;
+                case "agentName":
+                    m.agentName = in.nextString();
+                    break;
+                case "lastLocation":
+                    m.lastLocation = in.nextString();
+                    break;
+                default:
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return m;
+        }
+    }
+
+    /**
+     * The codec shared by all senders and receivers. {@link Gson} instances are thread-safe.
+     */
+    static final Gson GSON = new GsonBuilder().registerTypeAdapter(Message.class, new MessageAdapter().nullSafe())
+            .create();
+
     /**
      * Creates the message with the given information.
      * @param node
@@ -79,54 +336,57 @@ public class MessageFactory {
      *            - the sender name
      * @param type
      *            - message type
-     * @param content
-     *            - information extra
      * @return
-     *            - returns an object with type String with the complete message
+     *            - returns a {@link Message} which can be completed with type-specific fields and then encoded
      */
-    public static String createMessage(String node, String agent, MessageType type, Map<String, String> content) {
-        GsonBuilder builder = new GsonBuilder();
-        Gson gson = builder.create();
-        Map<String, String> data = new HashMap<>();
-
-        builder.setPrettyPrinting();
-        switch (type) {
-            case CONTENT:
-            case REQ_BUFFER:
-            case REQ_LEAVE:
-            case REQ_ACCEPT:
-            case AGENT_UPDATE:
-            case AGENT_CONTENT:
-                if (content != null) data.putAll(content);
-                break;
-            default:
-                break;
-        }
-        data.put("type", type.toString());
-        data.put("node", node);
-        data.put("source", agent);
-        return gson.toJson(data);
+    public static Message createMessage(String node, String agent, MessageType type) {
+        return new Message(type, node, agent);
     }
 
     /**
      * Creates the logs that will be sent to the monitor entity.
-     * @param actionType
+     * @param action
      *            - action type
      * @param content
      *            - information extra
+     * @param time
+     *            - the time of the action
      * @return
-     *            - returns an object with type String
+     *            - returns a {@link MonitorNotification}
      */
-    public static String createMonitorNotification(ActionType action, String content, String time) {
-        GsonBuilder builder = new GsonBuilder();
-        Gson gson = builder.create();
-        Map<String, String> data = new HashMap<>();
-
-        builder.setPrettyPrinting();
-        data.put("action", action.toString());
-        data.put("content", content);
-        //data.put("time", (new Timestamp(System.currentTimeMillis())).toString());
-        data.put("time", time);
-        return gson.toJson(data);
+    public static MonitorNotification createMonitorNotification(ActionType action, String content, String time) {
+        return new MonitorNotification(action, content, time);
+    }
+
+    /**
+     * Decodes a message received from the network.
+     * @param message
+     *            - the encoded message
+     * @return
+     *            - the decoded {@link Message}, or <code>null</code> if the message could not be parsed
+     */
+    public static Message decodeMessage(String message) {
+        try {
+            Message m = GSON.fromJson(message, Message.class);
+            return m != null && m.type != null ? m : null;
+        } catch(JsonParseException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Decodes a notification.
+     * @param notification
+     *            - the encoded notification
+     * @return
+     *            - the decoded {@link MonitorNotification}, or <code>null</code> if it could not be parsed
+     */
+    public static MonitorNotification decodeNotification(String notification) {
+        try {
+            MonitorNotification n = GSON.fromJson(notification, MonitorNotification.class);
+            return n != null && n.action != null ? n : null;
+        } catch(JsonParseException e) {
+            return null;
+        }
     }
 }
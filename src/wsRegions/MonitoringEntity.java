@@ -1,30 +1,71 @@
 package wsRegions;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import net.xqhs.flash.core.Entity;
 import net.xqhs.flash.core.support.MessageReceiver;
 import net.xqhs.flash.core.support.MessagingPylonProxy;
 import net.xqhs.flash.core.util.PlatformUtils;
 import net.xqhs.util.logging.Unit;
-import org.json.simple.JSONObject;
-import org.json.simple.JSONValue;
+import wsRegions.MessageFactory.ActionType;
+import wsRegions.MessageFactory.MonitorNotification;
 import org.yaml.snakeyaml.DumperOptions;
 import org.yaml.snakeyaml.Yaml;
 
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.sql.Timestamp;
 import java.util.*;
 
 
 public class MonitoringEntity extends Unit implements Entity {
 
+    /**
+     * The format of the monitoring log.
+     */
+    public enum LogFormat {
+        /**
+         * Events are not recorded.
+         */
+        NONE,
+        /**
+         * Events are written to <code>log-&lt;name&gt;.yaml</code> as they are recorded.
+         */
+        YAML,
+        /**
+         * Events are written asynchronously to <code>log-&lt;name&gt;.bin</code>, by a {@link BinaryMonitoringLog}. The
+         * file can be converted to YAML afterwards.
+         */
+        BINARY,
+    }
+
+    /**
+     * Extension of YAML logs.
+     */
+    public static final String YAML_EXTENSION = ".yaml";
+    /**
+     * Extension of binary logs.
+     */
+    public static final String BINARY_EXTENSION = ".bin";
+
     public MessageReceiver inbox;
+    private final LogFormat format;
     private FileWriter myWriter;
+    private BinaryMonitoringLog binaryLog;
     private Yaml yaml;
     private final Object lock = new Object();
 
     public MonitoringEntity(String name) {
+        this(name, LogFormat.YAML);
+    }
+
+    /**
+     * @param name
+     *            - the name of the entity, also used for the name of the log file.
+     * @param format
+     *            - the format of the log.
+     */
+    public MonitoringEntity(String name, LogFormat format) {
+        this.format = format;
         {
             setUnitName(name);
             setLoggerType(PlatformUtils.platformLogType());
@@ -32,35 +73,125 @@ public class MonitoringEntity extends Unit implements Entity {
         inbox = new MessageReceiver() {
             @Override
             public void receive(String source, String destination, String content) {
-                Object obj = JSONValue.parse(content);
-                if(obj == null) return;
-                JSONObject mesg = (JSONObject) obj;
-                String type = (String) mesg.get("action");
-
-                Map<String, String> newLog = new HashMap<>();
-                newLog.put("time", String.valueOf(mesg.get("time")));
-                newLog.put("source", source);
-                newLog.put("action", type);
-                newLog.put("destination", destination);
-                newLog.put("content", String.valueOf(mesg.get("content")));
-                synchronized (lock) {
-                    yaml.dump(newLog, myWriter);
-                }
+                MonitorNotification mesg = MessageFactory.decodeNotification(content);
+                if(mesg == null) return;
+                record(source, destination, mesg);
             }
         };
 
     }
 
-    @Override
-    public boolean start() {
+    /**
+     * Records an event, using the already decoded notification (no re-encoding is performed).
+     *
+     * @param source
+     *            - the source of the event
+     * @param destination
+     *            - the destination of the event
+     * @param mesg
+     *            - the notification
+     */
+    public void record(String source, String destination, MonitorNotification mesg) {
+        long time;
+        try {
+            time = Timestamp.valueOf(mesg.getTime()).getTime();
+        } catch (IllegalArgumentException | NullPointerException e) {
+            time = System.currentTimeMillis();
+        }
+        record(source, destination, mesg.getAction(), mesg.getContent(), time);
+    }
+
+    /**
+     * Records an event.
+     *
+     * @param source
+     *            - the source of the event
+     * @param destination
+     *            - the destination of the event
+     * @param action
+     *            - the action
+     * @param content
+     *            - extra information
+     * @param time
+     *            - the time of the event, in milliseconds
+     */
+    public void record(String source, String destination, ActionType action, String content, long time) {
+        switch (format) {
+        case BINARY:
+            binaryLog.append(time, action, source, destination, content);
+            break;
+        case YAML:
+            Map<String, String> newLog = logEntry(source, destination, action, content,
+                    String.valueOf(new Timestamp(time)));
+            synchronized (lock) {
+                yaml.dump(newLog, myWriter);
+            }
+            break;
+        case NONE:
+        default:
+            break;
+        }
+    }
+
+    /**
+     * @return the format of the log.
+     */
+    public LogFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Builds a log entry, as written in the YAML log.
+     *
+     * @param source
+     *            - the source of the event
+     * @param destination
+     *            - the destination of the event
+     * @param action
+     *            - the action
+     * @param content
+     *            - extra information
+     * @param time
+     *            - the time of the event
+     * @return the entry.
+     */
+    static Map<String, String> logEntry(String source, String destination, ActionType action, String content,
+            String time) {
+        Map<String, String> newLog = new HashMap<>();
+        newLog.put("time", time);
+        newLog.put("source", source);
+        newLog.put("action", action.toString());
+        newLog.put("destination", destination);
+        newLog.put("content", String.valueOf(content));
+        return newLog;
+    }
+
+    /**
+     * @return a {@link Yaml} instance configured for writing the YAML log.
+     */
+    static Yaml createYaml() {
         DumperOptions options = new DumperOptions();
         options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
         options.setPrettyFlow(true);
-        yaml = new Yaml(options);
+        return new Yaml(options);
+    }
 
+    @Override
+    public boolean start() {
         try {
-            String filename = "log-" + getName() + ".yaml";
-            myWriter = new FileWriter(filename, false);
+            switch (format) {
+            case YAML:
+                yaml = createYaml();
+                myWriter = new FileWriter("log-" + getName() + YAML_EXTENSION, false);
+                break;
+            case BINARY:
+                binaryLog = new BinaryMonitoringLog(new File("log-" + getName() + BINARY_EXTENSION),
+                        BinaryMonitoringLog.DEFAULT_CAPACITY);
+                break;
+            case NONE:
+            default:
+                break;
+            }
         } catch (IOException e) {
             le("An error occurred.");
             e.printStackTrace();
@@ -71,7 +202,10 @@ public class MonitoringEntity extends Unit implements Entity {
     @Override
     public boolean stop() {
         try {
-            myWriter.close();
+            if (myWriter != null)
+                myWriter.close();
+            if (binaryLog != null)
+                binaryLog.close();
         } catch (IOException e) {
             le("An error occurred.");
             e.printStackTrace();
@@ -7,23 +7,31 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.java_websocket.WebSocket;
 import org.java_websocket.handshake.ClientHandshake;
 import org.java_websocket.handshake.ServerHandshake;
 import org.java_websocket.server.WebSocketServer;
-import org.json.simple.JSONObject;
-import org.json.simple.JSONValue;
 
 import net.xqhs.flash.core.Entity;
 import net.xqhs.flash.core.node.Node;
 import net.xqhs.flash.core.util.PlatformUtils;
 import net.xqhs.util.logging.Unit;
+import wsRegions.AgentStatus.Location;
 import wsRegions.AgentStatus.Status;
+import wsRegions.MessageFactory.Message;
 
+/**
+ * The Region-Server, which relays messages between agents and keeps track of the agents born in its region and of the
+ * agents visiting it.
+ * <p>
+ * The registries are concurrent maps and the status of each agent is changed with compare-and-set (see
+ * {@link AgentStatus#transition}), so that messages can be routed from any connection without waiting for the
+ * registration or the movement of unrelated agents.
+ */
 public class RegionServer extends Unit implements Entity<Node> {
 	
 	private static final int				SERVER_STOP_TIME	= 10;
@@ -32,15 +40,21 @@ public class RegionServer extends Unit implements Entity<Node> {
 	/**
 	 * List of agents with the birthplace in this region.
 	 */
-	private final Map<String, AgentStatus>	agentsList			= Collections.synchronizedMap(new HashMap<>());
+	private final Map<String, AgentStatus>	agentsList			= new ConcurrentHashMap<>();
 	/**
-	 * List of the agents that arrived in this region.
+	 * List of the agents that arrived in this region. For these agents, {@link Status#REMOTE} means that the agent is
+	 * connected to this server, and {@link Status#OFFLINE} that the agent is about to connect to this server and
+	 * messages are saved for it.
 	 */
-	private final Map<String, AgentStatus>	mobileAgents		= new HashMap<>();
+	private final Map<String, AgentStatus>	mobileAgents		= new ConcurrentHashMap<>();
 	/**
 	 * Connections with others servers
 	 */
-	private final Map<String, WSClient>		clients				= Collections.synchronizedMap(new HashMap<>());
+	private final Map<String, WSClient>		clients				= new ConcurrentHashMap<>();
+	/**
+	 * The handler for incoming messages. It holds no per-message state and is shared by all connections.
+	 */
+	private final MessageHandler			handler				= new MessageHandler();
 	
 	public RegionServer(int serverPort, ArrayList<String> servers, String server_name) {
 		{
@@ -113,11 +127,10 @@ public class RegionServer extends Unit implements Entity<Node> {
 			
 			@Override
 			public void onMessage(String s) {
-				Object obj = JSONValue.parse(s);
-				if(obj == null)
+				Message message = MessageFactory.decodeMessage(s);
+				if(message == null)
 					return;
-				JSONObject message = (JSONObject) obj;
-				li("Message from server []", message.get("source"));
+				li("Message from server []", message.getSource());
 			}
 		};
 	}
@@ -129,13 +142,10 @@ public class RegionServer extends Unit implements Entity<Node> {
 	 * @param webSocket
 	 */
 	private void processMessage(String message, WebSocket webSocket) {
-		Object obj = JSONValue.parse(message);
-		if(obj == null)
+		Message mesg = MessageFactory.decodeMessage(message);
+		if(mesg == null)
 			return;
-		JSONObject mesg = (JSONObject) obj;
-		String str = (String) mesg.get("type");
-		MessageHandler handler = new MessageHandler();
-		switch(MessageFactory.MessageType.valueOf(str)) {
+		switch(mesg.getType()) {
 		case REGISTER:
 			handler.registerMessageHandler(mesg, webSocket);
 			break;
@@ -154,6 +164,9 @@ public class RegionServer extends Unit implements Entity<Node> {
 		case REQ_ACCEPT:
 			handler.reqAcceptMessageHandler(mesg);
 			break;
+		case REQ_ARRIVAL:
+			handler.reqArrivalMessageHandler(mesg);
+			break;
 		case AGENT_UPDATE:
 			handler.agentUpdateMessageHandler(mesg);
 			break;
@@ -270,8 +283,86 @@ public class RegionServer extends Unit implements Entity<Node> {
 				le("Connection closed with entity ", entityName);
 		}
 		
-		public void registerMessageHandler(JSONObject mesg, WebSocket webSocket) {
-			String new_agent = (String) mesg.get("source");
+		/**
+		 * Sends a message to another Region-Server, if it is connected.
+		 * 
+		 * @param server
+		 *            - the server name
+		 * @param message
+		 *            - the message that will be sent
+		 * @return <code>true</code> if the server is connected.
+		 */
+		public boolean sendToServer(String server, String message) {
+			WSClient client = server != null ? clients.get(server) : null;
+			if(client == null)
+				return false;
+			sendMessage(client.client, server, message);
+			return true;
+		}
+		
+		/**
+		 * Sends the saved messages of an agent, as long as the agent is not {@link Status#OFFLINE}. The messages are
+		 * removed from the queue before being sent, so concurrent calls never send the same message twice, and are
+		 * sent in a single batch.
+		 * 
+		 * @param ag
+		 *            - the agent
+		 * @param guest
+		 *            - <code>true</code> if the agent is in {@link #mobileAgents}, and is therefore connected to this
+		 *            server when not {@link Status#OFFLINE}.
+		 */
+		public void sendSavedMessages(AgentStatus ag, boolean guest) {
+			while(!ag.getMessages().isEmpty()) {
+				Location l = ag.getLocation();
+				if(l.getStatus() == Status.OFFLINE)
+					return;
+				List<String> saved = new ArrayList<>();
+				for(String m = ag.pollMessage(); m != null; m = ag.pollMessage())
+					saved.add(m);
+				if(saved.isEmpty())
+					return;
+				if(guest || l.getStatus() == Status.HOME) {
+					lf("Sending to online agent [] [] saved messages", ag.getName(), Integer.valueOf(saved.size()));
+					if(l.getClientConnection().isOpen())
+						WSClient.sendAll(l.getClientConnection(), saved, false);
+					else
+						le("Connection closed with entity ", ag.getName());
+				}
+				else {
+					lf("Sending to remote agent [] [] saved messages", ag.getName(), Integer.valueOf(saved.size()));
+					WSClient client = clients.get(l.getLastLocation());
+					if(client != null)
+						client.send(saved);
+					else
+						le("Region server [] not connected; messages for [] lost", l.getLastLocation(), ag.getName());
+				}
+			}
+		}
+		
+		/**
+		 * Asks the Region-Server of the destination of a moving agent to save the messages for the agent until it
+		 * connects.
+		 * 
+		 * @param destination
+		 *            - the Region-Server of the destination
+		 * @param agent
+		 *            - the agent
+		 * @return <code>true</code> if the announcement was sent; <code>false</code> if the Region-Server of the
+		 *         destination is not connected, in which case messages for the agent should be saved by its home
+		 *         Region-Server.
+		 */
+		public boolean announceArrival(String destination, String agent) {
+			lf("Announcing the arrival of [] to []", agent, destination);
+			if(sendToServer(destination, createMessage("", getName(), MessageFactory.MessageType.REQ_ARRIVAL)
+					.setAgentName(agent).encode()))
+				return true;
+			lw("Region server [] not connected (known servers: []); messages for [] are saved at home", destination,
+					clients.keySet(), agent);
+			return false;
+		}
+		
+		public void registerMessageHandler(Message mesg, WebSocket webSocket) {
+			String new_agent = mesg.getSource();
 			lf("Received REGISTER message from new agent ", new_agent);
 			if(agentsList.put(new_agent,
 					new AgentStatus(new_agent, webSocket, AgentStatus.Status.HOME, getUnitName())) != null)
@@ -279,154 +370,184 @@ public class RegionServer extends Unit implements Entity<Node> {
 			printStatus();
 		}
 		
-		public void connectMessageHandler(JSONObject mesg, WebSocket webSocket) {
-			String arrived_agent = (String) mesg.get("source");
+		public void connectMessageHandler(Message mesg, WebSocket webSocket) {
+			String arrived_agent = mesg.getSource();
 			lf("Received CONNECT message from mobile agent ", arrived_agent);
-			if(!agentsList.containsKey(arrived_agent)) {
-				if(!mobileAgents.containsKey(arrived_agent)) {
-					mobileAgents.put(arrived_agent,
-							new AgentStatus(arrived_agent, webSocket, AgentStatus.Status.REMOTE, getUnitName()));
+			AgentStatus ag = agentsList.get(arrived_agent);
+			if(ag == null) {
+				AgentStatus agm = mobileAgents.putIfAbsent(arrived_agent,
+						new AgentStatus(arrived_agent, webSocket, AgentStatus.Status.REMOTE, getUnitName()));
+				if(agm == null) {
 					String homeServer = (arrived_agent.split("-"))[1];
-					if(clients.containsKey(homeServer)) {
-						Map<String, String> data = new HashMap<>();
-						data.put("lastLocation", getUnitName());
-						sendMessage(clients.get(homeServer).client, homeServer,
-								createMessage("", arrived_agent, MessageFactory.MessageType.AGENT_UPDATE, data));
-					}
+					sendToServer(homeServer, createMessage("", arrived_agent, MessageFactory.MessageType.AGENT_UPDATE)
+							.setLastLocation(getUnitName()).encode());
 				}
+				// the arrival was announced; the home Region-Server already knows the location of the agent
+				else if(agm.transition(Status.OFFLINE, Status.REMOTE, webSocket, null))
+					sendSavedMessages(agm, true);
 			}
 			else {
 				lf("Agent [] did not change regions", arrived_agent);
-				AgentStatus ag = agentsList.get(arrived_agent);
-				if(ag.getStatus() == AgentStatus.Status.OFFLINE) {
-					ag.setStatus(AgentStatus.Status.HOME);
-					ag.setClientConnection(webSocket);
-					ag.setLastLocation(getUnitName());
-					while(ag.getStatus() == Status.HOME && !ag.getMessages().isEmpty()) {
-						String saved = ag.getMessages().pop();
-						li("Sending to online agent [] saved message []", arrived_agent, saved);
-						sendMessage(ag.getClientConnection(), arrived_agent, saved);
-					}
-				}
+				if(ag.transition(Status.OFFLINE, Status.HOME, webSocket, getUnitName()))
+					sendSavedMessages(ag, false);
 			}
 			printStatus();
 		}
 		
-		public void contentMessageHandler(JSONObject mesg, String message) {
-			String target = (String) mesg.get("destination");
-			lf("Message to send from [] to [] with content ", mesg.get("source"), target, mesg.get("content"));
-			printStatus();
+		public void contentMessageHandler(Message mesg, String message) {
+			String target = mesg.getDestination();
+			lf("Message to send from [] to [] with content ", mesg.getSource(), target, mesg.getContent());
 			AgentStatus ag = agentsList.get(target);
-			AgentStatus agm = mobileAgents.get(target);
 			if(ag != null) {
-				switch(ag.getStatus()) {
+				Location l = ag.getLocation();
+				switch(l.getStatus()) {
 				case HOME:
-					lf("Send message [] directly to []", mesg.get("content"), target);
-					sendMessage(ag.getClientConnection(), target, message);
+					lf("Send message [] directly to []", mesg.getContent(), target);
+					sendMessage(l.getClientConnection(), target, message);
 					break;
 				case OFFLINE:
-					lf("Saved message [] for []", mesg.get("content"), target);
+					lf("Saved message [] for []", mesg.getContent(), target);
 					ag.addMessage(message);
+					// the agent may have come online meanwhile, after its saved messages were sent
+					sendSavedMessages(ag, false);
 					break;
 				case REMOTE:
-					String lastServer = ag.getLastLocation();
-					lf("Send message [] to agent [] located on []", mesg.get("content"), target, lastServer);
-					sendMessage(clients.get(lastServer).client, lastServer, message);
+					String lastServer = l.getLastLocation();
+					lf("Send message [] to agent [] located on []", mesg.getContent(), target, lastServer);
+					if(!sendToServer(lastServer, message))
+						le("Region server [] not connected; known servers: ", lastServer, clients.keySet());
 					break;
 				default:
 					// can't reach here
 				}
 			}
 			else {
+				AgentStatus agm = mobileAgents.get(target);
 				if(agm != null) {
-					lf("Send message [] directly to guest agent []", mesg.get("content"), target);
-					sendMessage(agm.getClientConnection(), target, message);
+					Location l = agm.getLocation();
+					if(l.getStatus() == Status.OFFLINE) {
+						lf("Saved message [] for arriving agent []", mesg.getContent(), target);
+						agm.addMessage(message);
+						sendSavedMessages(agm, true);
+					}
+					else {
+						lf("Send message [] directly to guest agent []", mesg.getContent(), target);
+						sendMessage(l.getClientConnection(), target, message);
+					}
 				}
 				else {
 					String regServer = (target.split("-"))[1];
 					lf("Agent [] location isn't known. Sending message [] to home Region Server []", target,
-							mesg.get("content"), regServer);
-					if(clients.containsKey(regServer))
-						sendMessage(clients.get(regServer).client, regServer, message);
-					else
+							mesg.getContent(), regServer);
+					if(!sendToServer(regServer, message))
 						le("Region server [] not connected; known servers: ", regServer, clients.keySet());
 				}
 			}
 		}
 		
-		public void reqLeaveMessageHandler(JSONObject mesg) {
-			String source = (String) mesg.get("source");
-			lf("Request to leave from agent []", source);
+		/**
+		 * Handles a request to leave. If the destination is known, messages for the agent are saved by the
+		 * Region-Server of the destination, which is announced before the agent is allowed to leave; otherwise, or if
+		 * the announcement fails, they are saved by the home Region-Server until the agent arrives.
+		 * 
+		 * @param mesg
+		 *            - the request.
+		 */
+		public void reqLeaveMessageHandler(Message mesg) {
+			String source = mesg.getSource();
+			String destination = mesg.getDestination();
+			lf("Request to leave from agent [] to []", source, destination);
 			AgentStatus ag = agentsList.get(source);
 			if(ag != null) {
-				ag.setStatus(AgentStatus.Status.OFFLINE);
+				// the destination is announced first, so that messages are only forwarded there once it saves them
+				if(destination == null || destination.equals(getUnitName()) || !announceArrival(destination, source)) {
+					if(!ag.transition(Status.HOME, Status.OFFLINE, null, null))
+						lw("Agent [] requested to leave while []", source, ag.getStatus());
+				}
+				else if(!ag.transition(Status.HOME, Status.REMOTE, null, destination))
+					lw("Agent [] requested to leave while []", source, ag.getStatus());
 				sendMessage(ag.getClientConnection(), source,
-						createMessage("", getName(), MessageFactory.MessageType.REQ_ACCEPT, null));
+						createMessage("", getName(), MessageFactory.MessageType.REQ_ACCEPT).encode());
 			}
 			else {
-				if(mobileAgents.containsKey(source)) {
-					String homeServer = (source.split("-"))[1];
-					if(clients.containsKey(homeServer)) {
-						Map<String, String> data = new HashMap<>();
-						data.put("agentName", source);
-						sendMessage(clients.get(homeServer).client, homeServer,
-								createMessage("", getName(), MessageFactory.MessageType.REQ_BUFFER, data));
+				AgentStatus agm = mobileAgents.get(source);
+				if(agm != null) {
+					if(getUnitName().equals(destination)) {
+						// moves inside this region: messages are saved here and the home Region-Server is not involved
+						agm.transition(Status.REMOTE, Status.OFFLINE, null, null);
+						sendMessage(agm.getClientConnection(), source,
+								createMessage("", getName(), MessageFactory.MessageType.REQ_ACCEPT).encode());
+						return;
 					}
+					String homeServer = (source.split("-"))[1];
+					sendToServer(homeServer, createMessage("", getName(), MessageFactory.MessageType.REQ_BUFFER)
+							.setAgentName(source).setDestination(destination).encode());
 				}
 			}
 		}
 		
-		public void reqBufferMessageHandler(JSONObject mesg) {
-			String agentReq = (String) mesg.get("agentName");
-			lf("Request to buffer for agent []", agentReq);
+		public void reqBufferMessageHandler(Message mesg) {
+			String agentReq = mesg.getAgentName();
+			String destination = mesg.getDestination();
+			lf("Request to buffer for agent [] moving to []", agentReq, destination);
 			AgentStatus ag = agentsList.get(agentReq);
 			if(ag != null) {
-				ag.setStatus(AgentStatus.Status.OFFLINE);
-				Map<String, String> data = new HashMap<>();
-				data.put("agentName", agentReq);
 				String lastLocation = ag.getLastLocation();
-				if(clients.containsKey(lastLocation)) {
-					sendMessage(clients.get(lastLocation).client, lastLocation,
-							createMessage("", getName(), MessageFactory.MessageType.REQ_ACCEPT, data));
+				if(destination == null || destination.equals(getUnitName())
+						|| !announceArrival(destination, agentReq)) {
+					if(!ag.transition(Status.REMOTE, Status.OFFLINE, null, null))
+						lw("Request to buffer for agent [] while []", agentReq, ag.getStatus());
 				}
+				else if(!ag.transition(Status.REMOTE, Status.REMOTE, null, destination))
+					lw("Request to buffer for agent [] while []", agentReq, ag.getStatus());
+				sendToServer(lastLocation, createMessage("", getName(), MessageFactory.MessageType.REQ_ACCEPT)
+						.setAgentName(agentReq).encode());
 			}
 		}
 		
-		public void reqAcceptMessageHandler(JSONObject mesg) {
-			String agentResp = (String) mesg.get("agentName");
+		/**
+		 * Handles the announcement that an agent will arrive in this region, by starting to save messages for it.
+		 * 
+		 * @param mesg
+		 *            - the announcement.
+		 */
+		public void reqArrivalMessageHandler(Message mesg) {
+			String agent = mesg.getAgentName();
+			lf("Agent [] will arrive", agent);
+			// if the agent has already connected, nothing to do
+			mobileAgents.putIfAbsent(agent, new AgentStatus(agent, null, Status.OFFLINE, getUnitName()));
+		}
+		
+		public void reqAcceptMessageHandler(Message mesg) {
+			String agentResp = mesg.getAgentName();
 			lf("Accept request received from agent []", agentResp);
-			AgentStatus ag = mobileAgents.get(agentResp);
-			if(ag != null) {
+			// removed first, so that messages arriving from now on are sent to the home Region-Server to be saved
+			AgentStatus ag = mobileAgents.remove(agentResp);
+			if(ag != null)
 				sendMessage(ag.getClientConnection(), agentResp,
-						createMessage("", getName(), MessageFactory.MessageType.REQ_ACCEPT, null));
-				mobileAgents.remove(agentResp);
-			}
+						createMessage("", getName(), MessageFactory.MessageType.REQ_ACCEPT).encode());
 		}
 		
-		public void agentUpdateMessageHandler(JSONObject mesg) {
-			String movedAgent = (String) mesg.get("source");
-			String new_location = (String) mesg.get("lastLocation");
+		public void agentUpdateMessageHandler(Message mesg) {
+			String movedAgent = mesg.getSource();
+			String new_location = mesg.getLastLocation();
 			AgentStatus ag = agentsList.get(movedAgent);
 			if(ag != null) {
 				lf("Agent [] arrived in []. It has [] saved messages.", movedAgent, new_location,
 						ag.getMessages().size());
-				ag.setStatus(AgentStatus.Status.REMOTE);
-				ag.setLastLocation(new_location);
-				if(clients.containsKey(new_location)) {
-					while(ag.getStatus() == Status.REMOTE && !ag.getMessages().isEmpty()) {
-						String saved = ag.getMessages().pop();
-						lf("Sending to remote agent [] saved message []", movedAgent, saved);
-						sendMessage(clients.get(new_location).client, new_location, saved);
-					}
-				}
+				if(ag.transition(Status.OFFLINE, Status.REMOTE, null, new_location))
+					sendSavedMessages(ag, false);
+				// the agent connected before its arrival was announced
+				else if(!ag.transition(Status.REMOTE, Status.REMOTE, null, new_location))
+					lw("Agent [] arrived in [] while []", movedAgent, new_location, ag.getStatus());
 			}
 			else
 				lf("Agent [] arrived in [].", movedAgent, new_location);
 		}
 		
-		public void agentContentMessageHandler(JSONObject mesg, String message) {
-			String target = ((String) mesg.get("destination")).split("/")[0];
-			String source = (String) mesg.get("source");
+		public void agentContentMessageHandler(Message mesg, String message) {
+			String target = (mesg.getDestination()).split("/")[0];
+			String source = mesg.getSource();
 			lf("Agent content to send from [] to []", source, target);
 			AgentStatus ag = agentsList.get(target);
 			if(ag != null)
@@ -435,9 +556,7 @@ public class RegionServer extends Unit implements Entity<Node> {
 				String[] getRegServer = target.split("-");
 				String regServer = getRegServer[getRegServer.length - 1];
 				le("Node [] location isn't known. Sending message to home Region-Server []", target, regServer);
-				if(clients.containsKey(regServer)) {
-					sendMessage(clients.get(regServer).client, regServer, message);
-				}
+				sendToServer(regServer, message);
 			}
 		}
 	}
@@ -1,9 +1,14 @@
 package wsRegions;
 
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 
+import org.java_websocket.WebSocket;
 import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.framing.Framedata;
 import org.java_websocket.handshake.ServerHandshake;
 
 import net.xqhs.util.logging.Logger;
@@ -36,10 +41,14 @@ public abstract class WSClient {
 		while(tries-- > 0 && !client.isOpen()) {
 			log.lf("<WSClient> Connection to [] is []. Tries left []", server, client.getReadyState(),
 					Integer.valueOf(tries));
-			try {
-				Thread.sleep(space);
-			} catch(InterruptedException e) {
-				// just try again
+			// woken up as soon as the connection is open (see createClient)
+			synchronized(this) {
+				if(!client.isOpen())
+					try {
+						wait(space);
+					} catch(InterruptedException e) {
+						// just try again
+					}
 			}
 		}
 		if(!client.isOpen()) {
@@ -54,6 +63,9 @@ public abstract class WSClient {
 			
 			@Override
 			public void onOpen(ServerHandshake arg0) {
+				synchronized(WSClient.this) {
+					WSClient.this.notifyAll();
+				}
 				getInstance().onOpen(arg0);
 			}
 			
@@ -105,6 +117,35 @@ public abstract class WSClient {
 		client.send(text);
 	}
 	
+	/**
+	 * Sends several messages at once, in order.
+	 * 
+	 * @param texts
+	 *            - the messages.
+	 */
+	public void send(Collection<String> texts) {
+		sendAll(client, texts, true);
+	}
+	
+	/**
+	 * Sends several messages on a connection in a single write, in order.
+	 * 
+	 * @param socket
+	 *            - the connection.
+	 * @param texts
+	 *            - the messages.
+	 * @param mask
+	 *            - <code>true</code> if the connection is on the client side (client frames must be masked).
+	 */
+	static void sendAll(WebSocket socket, Collection<String> texts, boolean mask) {
+		if(texts.isEmpty())
+			return;
+		List<Framedata> frames = new ArrayList<>();
+		for(String text : texts)
+			frames.addAll(socket.getDraft().createFrames(text, mask));
+		socket.sendFrame(frames);
+	}
+	
 	public boolean isOpen() {
 		return client.isOpen();
 	}
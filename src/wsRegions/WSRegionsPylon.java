@@ -1,15 +1,12 @@
 package wsRegions;
 
-import static wsRegions.MessageFactory.createMessage;
+import static wsRegions.MessageFactory.createMonitorNotification;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
-import org.json.simple.JSONObject;
-import org.json.simple.JSONValue;
-
 import net.xqhs.flash.core.node.Node;
 import net.xqhs.flash.core.shard.AgentShardDesignation;
 import net.xqhs.flash.core.support.DefaultPylonImplementation;
@@ -19,7 +16,8 @@ import net.xqhs.flash.core.support.Pylon;
 import net.xqhs.flash.core.util.MultiTreeMap;
 import net.xqhs.flash.webSocket.WebSocketPylon;
 import wsRegions.MessageFactory.ActionType;
-import wsRegions.MessageFactory.MessageType;
+import wsRegions.MessageFactory.MonitorNotification;
+import wsRegions.MonitoringEntity.LogFormat;
 
 public class WSRegionsPylon extends DefaultPylonImplementation {
 	
@@ -35,7 +33,18 @@ public class WSRegionsPylon extends DefaultPylonImplementation {
 	 */
 	protected Map<String, MessageReceiver> agentList = new HashMap<>();
 	
-	public MessagingPylonProxy messagingProxy = new MessagingPylonProxy() {
+	/**
+	 * The proxy of the pylon, which also gives the shards direct access to the monitor, avoiding the encoding of
+	 * monitoring events as notifications.
+	 */
+	public class WSRegionsPylonProxy implements MessagingPylonProxy {
+		
+		/**
+		 * @return the {@link MonitoringEntity} of the pylon, or <code>null</code> if events are not monitored.
+		 */
+		public MonitoringEntity getMonitor() {
+			return monitor != null && monitor.getFormat() != LogFormat.NONE ? monitor : null;
+		}
 		
 		@Override
 		public String getRecommendedShardImplementation(AgentShardDesignation shardType) {
@@ -49,11 +58,9 @@ public class WSRegionsPylon extends DefaultPylonImplementation {
 				agentList.put(entityName, receiver);
 			}
 			// FIXME: return false if entity already existed?
-			Map<String, String> data = new HashMap<>();
-			data.put("server", HomeServerAddressName);
-			data.put("action", String.valueOf(ActionType.RECEIVE_MESSAGE));
 			receiver.receive(getEntityName(), entityName,
-					createMessage(getEntityName(), entityName, MessageType.CONTENT, data));
+					createMonitorNotification(ActionType.RECEIVE_MESSAGE, null, null).setServer(HomeServerAddressName)
+							.encode());
 			return true;
 		}
 		
@@ -67,19 +74,17 @@ public class WSRegionsPylon extends DefaultPylonImplementation {
 		
 		@Override
 		public boolean send(String source, String destination, String content) {
-			Object obj = JSONValue.parse(content);
-			if(obj == null)
+			MonitorNotification mesg = MessageFactory.decodeNotification(content);
+			if(mesg == null)
 				return false;
-			JSONObject mesg = (JSONObject) obj;
-			String type = (String) mesg.get("action");
-			switch(MessageFactory.ActionType.valueOf(type)) {
+			switch(mesg.getAction()) {
 			case RECEIVE_MESSAGE:
 			case SEND_MESSAGE:
 			case ARRIVED_ON_NODE:
-				monitor.inbox.receive(source, destination, content);
+				monitor.record(source, destination, mesg);
 				break;
 			case MOVE_TO_ANOTHER_NODE:
-				monitor.inbox.receive(source, destination, content);
+				monitor.record(source, destination, mesg);
 				
 				break;
 			default:
@@ -92,7 +97,9 @@ public class WSRegionsPylon extends DefaultPylonImplementation {
 		public String getEntityName() {
 			return getName();
 		}
-	};
+	}
+	
+	public MessagingPylonProxy messagingProxy = new WSRegionsPylonProxy();
 	
 	/**
 	 * The attribute name of server address of this instance.
@@ -102,6 +109,12 @@ public class WSRegionsPylon extends DefaultPylonImplementation {
 	 * The attribute name for the server port.
 	 */
 	public static final String	HOME_SERVER_PORT_NAME		= "isServer";
+	/**
+	 * The attribute name for the format of the monitoring log: <code>yaml</code> (default), <code>binary</code>, or
+	 * <code>none</code>. Recording events in YAML is slow, as each event is written synchronously; binary logs can be
+	 * converted to YAML with {@link BinaryMonitoringLog#convertToYaml}.
+	 */
+	public static final String	MONITORING_PARAMETER_NAME	= "monitoring";
 	
 	protected boolean			hasServer				= false;
 	protected int				serverPort				= -1;
@@ -112,7 +125,8 @@ public class WSRegionsPylon extends DefaultPylonImplementation {
 	protected boolean	useThread		= true;
 	protected Thread	messageThread	= null;
 	
-	protected MonitoringEntity monitor = null;
+	protected MonitoringEntity	monitor				= null;
+	protected LogFormat			monitoringFormat	= LogFormat.YAML;
 	
 	@Override
 	public boolean configure(MultiTreeMap configuration) {
@@ -142,6 +156,14 @@ public class WSRegionsPylon extends DefaultPylonImplementation {
 		else {
 			serverList = new ArrayList<>(0);
 		}
+		if(configuration.isSimple(MONITORING_PARAMETER_NAME))
+			try {
+				monitoringFormat = LogFormat
+						.valueOf(configuration.getAValue(MONITORING_PARAMETER_NAME).toUpperCase());
+			} catch(IllegalArgumentException e) {
+				le("Unknown monitoring format []", configuration.getAValue(MONITORING_PARAMETER_NAME));
+				return false;
+			}
 		setUnitName(getName());
 		// setLoggerType(PlatformUtils.platformLogType());
 		return true;
@@ -155,7 +177,7 @@ public class WSRegionsPylon extends DefaultPylonImplementation {
 		}
 		
 		if(monitor == null) {
-			monitor = new MonitoringEntity(getName() + "-monitor");
+			monitor = new MonitoringEntity(getName() + "-monitor", monitoringFormat);
 			monitor.start();
 		}
 		
@@ -1,20 +1,16 @@
 package wsRegions;
 
 import static wsRegions.MessageFactory.createMessage;
-import static wsRegions.MessageFactory.createMonitorNotification;
 
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.sql.Timestamp;
 import java.util.AbstractMap;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.LinkedBlockingQueue;
 
-import org.json.simple.JSONObject;
-import org.json.simple.JSONValue;
-
 import net.xqhs.flash.core.agent.AgentEvent;
 import net.xqhs.flash.core.agent.AgentEvent.AgentEventType;
 import net.xqhs.flash.core.agent.AgentWave;
@@ -25,7 +21,10 @@ import net.xqhs.flash.core.support.MessageReceiver;
 import net.xqhs.flash.core.support.NameBasedMessagingShard;
 import net.xqhs.flash.core.util.MultiTreeMap;
 import net.xqhs.flash.core.util.PlatformUtils;
+import wsRegions.MessageFactory.ActionType;
+import wsRegions.MessageFactory.Message;
 import wsRegions.MessageFactory.MessageType;
+import wsRegions.MessageFactory.MonitorNotification;
 
 public class WSRegionsShard extends NameBasedMessagingShard implements MobilityAwareMessagingShard {
 	/**
@@ -66,10 +65,13 @@ public class WSRegionsShard extends NameBasedMessagingShard implements MobilityA
 			super.receiveMessage(src_dest.getKey(), src_dest.getValue(), entry.getValue());
 		}
 		inQueue = null;
-		wsClient.send(createMessage(pylon.getEntityName(), this.getName(), connection_type, null));
-		while(outQueue != null && !outQueue.isEmpty())
-			wsClient.send(outQueue.poll());
+		// the connection message and the messages sent during the move go in one batch
+		List<String> batch = new ArrayList<>();
+		batch.add(createMessage(pylon.getEntityName(), this.getName(), connection_type).encode());
+		if(outQueue != null)
+			outQueue.drainTo(batch);
 		outQueue = null;
+		wsClient.send(batch);
 		lf("completed startup procedure.");
 	}
 	
@@ -100,17 +102,12 @@ public class WSRegionsShard extends NameBasedMessagingShard implements MobilityA
 	
 	@Override
 	public boolean sendMessage(String source, String target, String content) {
-		// String notify_content = createMonitorNotification(ActionType.SEND_MESSAGE, content,
-		// String.valueOf(new Timestamp(System.currentTimeMillis())));
-		// pylon.send(this.getName(), target, notify_content);
+		monitor(ActionType.SEND_MESSAGE, this.getName(), target, content);
 		
-		Map<String, String> data = new HashMap<>();
-		data.put("destination", target);
-		data.put("content", content);
 		String message = createMessage(pylon.getEntityName(), this.getName(),
 				// FIXME: very ugly hack, may fail easily
-				source.contains("node") || target.contains("node") ? MessageType.AGENT_CONTENT : MessageType.CONTENT,
-				data);
+				source.contains("node") || target.contains("node") ? MessageType.AGENT_CONTENT : MessageType.CONTENT)
+						.setDestination(target).setContent(content).encode();
 		li("Send message [] from [] to [] []", content, source, target,
 				outQueue != null ? "will queue" : "will not queue");
 		if(outQueue != null) {
@@ -133,12 +130,9 @@ public class WSRegionsShard extends NameBasedMessagingShard implements MobilityA
 		case AGENT_START:
 			if(event.get(CompositeAgent.TRANSIENT_EVENT_PARAMETER) != null) {
 				li("Agent started after move. Queued messages: [] in / [] out", inQueue.size(), outQueue.size());
-				// String entityName = getAgent().getEntityName();
-				// String notify_content = createMonitorNotification(ActionType.ARRIVED_ON_NODE, null,
-				// String.valueOf(new Timestamp(System.currentTimeMillis())));
-				// pylon.send(this.getName(), pylon.getEntityName(), notify_content);
 				// pylon.register(entityName, inbox); // already done in AbstractMessagingShard
 				startShard(MessageType.CONNECT);
+				monitor(ActionType.ARRIVED_ON_NODE, this.getName(), pylon.getEntityName(), null);
 				// System.out.println();
 			}
 			else {
@@ -154,11 +148,13 @@ public class WSRegionsShard extends NameBasedMessagingShard implements MobilityA
 			
 			nextMoveTarget = event.get("TARGET");
 			lf("Agent " + this.getName() + " wants to move to another node " + nextMoveTarget);
-			// String notify_content = createMonitorNotification(ActionType.MOVE_TO_ANOTHER_NODE, null,
-			// String.valueOf(new Timestamp(System.currentTimeMillis())));
-			// pylon.send(this.getName(), event.get("pylon_destination"), notify_content);
+			monitor(ActionType.MOVE_TO_ANOTHER_NODE, this.getName(), nextMoveTarget, null);
 			// pylon.unregister(getName(), inbox); // already done in AbstractMessagingShard
-			wsClient.send(createMessage(pylon.getEntityName(), this.getName(), MessageType.REQ_LEAVE, null));
+			// the Region-Server of the destination saves messages for the agent while it moves
+			String[] targetName = nextMoveTarget != null ? nextMoveTarget.split("-") : null;
+			wsClient.send(createMessage(pylon.getEntityName(), this.getName(), MessageType.REQ_LEAVE)
+					.setDestination(targetName != null && targetName.length > 1 ? targetName[targetName.length - 1] : null)
+					.encode());
 			break;
 		case AFTER_MOVE:
 			// String entityName = getAgent().getEntityName();
@@ -173,20 +169,15 @@ public class WSRegionsShard extends NameBasedMessagingShard implements MobilityA
 	}
 	
 	protected void messageTriggeredBehavior(String s) {
-		Object obj = JSONValue.parse(s);
-		if(obj == null)
+		Message message = MessageFactory.decodeMessage(s);
+		if(message == null)
 			return;
-		JSONObject message = (JSONObject) obj;
-		String str = (String) message.get("type");
-		String content;
-		switch(MessageFactory.MessageType.valueOf(str)) {
+		switch(message.getType()) {
 		case CONTENT:
-			content = createMonitorNotification(MessageFactory.ActionType.RECEIVE_MESSAGE,
-					(String) message.get("content"), String.valueOf(new Timestamp(System.currentTimeMillis())));
-			li("Message from []: [] []", message.get("source"), message.get("content"),
+			li("Message from []: [] []", message.getSource(), message.getContent(),
 					inQueue != null ? "will queue" : "will not queue");
-			inbox.receive((String) message.get("source"), (String) message.get("destination"), content);
-			// pylon.send((String) message.get("source"), (String) message.get("destination"), content);
+			monitor(ActionType.RECEIVE_MESSAGE, message.getSource(), message.getDestination(), message.getContent());
+			deliverContent(message.getSource(), message.getDestination(), message.getContent());
 			break;
 		case REQ_ACCEPT:
 			wsClient.client.close();
@@ -202,13 +193,13 @@ public class WSRegionsShard extends NameBasedMessagingShard implements MobilityA
 			nextMoveTarget = null;
 			break;
 		case AGENT_CONTENT:
-			li("Received agent from " + message.get("source"));
+			li("Received agent from " + message.getSource());
 			// content = createMonitorNotification(ActionType.RECEIVE_MESSAGE, (String) message.get("content"),
 			// String.valueOf(new Timestamp(System.currentTimeMillis())));
 			// pylon.send((String) message.get("source"), (String) message.get("destination"), content);
 			AgentEvent arrived_agent = new AgentWave();
-			arrived_agent.add("content", (String) message.get("content"));
-			arrived_agent.add("destination-complete", (String) message.get("destination"));
+			arrived_agent.add("content", message.getContent());
+			arrived_agent.add("destination-complete", message.getDestination());
 			getAgent().postAgentEvent(arrived_agent);
 			break;
 		default:
@@ -218,14 +209,12 @@ public class WSRegionsShard extends NameBasedMessagingShard implements MobilityA
 	
 	@Override
 	protected void receiveMessage(String source, String destination, String content) {
-		Object obj = JSONValue.parse(content);
-		if(obj == null)
+		MonitorNotification mesg = MessageFactory.decodeNotification(content);
+		if(mesg == null)
 			return;
-		JSONObject mesg = (JSONObject) obj;
-		String type = (String) mesg.get("action");
-		switch(MessageFactory.ActionType.valueOf(type)) {
+		switch(mesg.getAction()) {
 		case RECEIVE_MESSAGE:
-			String server = (String) mesg.get("server");
+			String server = mesg.getServer();
 			if(server != null) {
 				try {
 					serverURI = new URI(server);
@@ -235,11 +224,7 @@ public class WSRegionsShard extends NameBasedMessagingShard implements MobilityA
 				}
 				break;
 			}
-			if(inQueue != null)
-				inQueue.add(new AbstractMap.SimpleEntry<Map.Entry<String, String>, String>(
-						new AbstractMap.SimpleEntry<>(source, destination), (String) mesg.get("content")));
-			else
-				super.receiveMessage(source, destination, (String) mesg.get("content"));
+			deliverContent(source, destination, mesg.getContent());
 			// pylon.send(source, destination, content);
 			// li("Check: [] in / [] out", inQueue.size(), outQueue.size());
 			
@@ -249,4 +234,43 @@ public class WSRegionsShard extends NameBasedMessagingShard implements MobilityA
 			break;
 		}
 	}
+	
+	/**
+	 * Records a monitoring event with the monitor of the pylon, if the pylon monitors events.
+	 * 
+	 * @param action
+	 *            - the action.
+	 * @param source
+	 *            - the source of the event.
+	 * @param destination
+	 *            - the destination of the event.
+	 * @param content
+	 *            - extra information.
+	 */
+	protected void monitor(ActionType action, String source, String destination, String content) {
+		if(!(pylon instanceof WSRegionsPylon.WSRegionsPylonProxy))
+			return;
+		MonitoringEntity monitor = ((WSRegionsPylon.WSRegionsPylonProxy) pylon).getMonitor();
+		if(monitor != null)
+			monitor.record(source, destination, action, content, System.currentTimeMillis());
+	}
+	
+	/**
+	 * Delivers the content of a message to the agent, exactly as it was received, or queues it if the agent is
+	 * preparing to move.
+	 * 
+	 * @param source
+	 *            - the source of the message.
+	 * @param destination
+	 *            - the destination of the message.
+	 * @param content
+	 *            - the content of the message.
+	 */
+	protected void deliverContent(String source, String destination, String content) {
+		if(inQueue != null)
+			inQueue.add(new AbstractMap.SimpleEntry<Map.Entry<String, String>, String>(
+					new AbstractMap.SimpleEntry<>(source, destination), content));
+		else
+			super.receiveMessage(source, destination, content);
+	}
 }